@@ -0,0 +1,224 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按行分带并行执行逐像素滤波
+ * <p>
+ * 图像被切成若干水平条带，每个条带上下各多读halo行（取滤波核半径），
+ * 条带在各自的线程中处理后只把中间不受边界影响的行拷贝到预先分配好的输出中，
+ * 因此结果与整幅图像单线程处理完全一致。
+ * <p>
+ * Canny的滞后阈值会沿边缘传播到任意远处，不能分带处理。
+ */
+public class BandExecutor {
+
+    /**
+     * 每个条带最少的行数，行数太少时线程调度的开销大于收益
+     */
+    private static final int MIN_BAND_ROWS = 32;
+
+    private static BandExecutor sDefault;
+
+    private final ExecutorService mExecutorService;
+    private final int mThreads;
+
+    /**
+     * 条带上的滤波
+     */
+    public interface BandFilter {
+        /**
+         * @param srcs 输入的条带（含halo行），尺寸相同
+         * @param dst  输出，与输入条带尺寸相同
+         */
+        void apply(Mat[] srcs, Mat dst);
+    }
+
+    /**
+     * 按行范围执行的任务，用于直接处理数组的算法
+     */
+    public interface BandTask {
+        /**
+         * @param from 起始行（含）
+         * @param to   结束行（不含）
+         */
+        void apply(int from, int to);
+    }
+
+    /**
+     * @param threads 线程数
+     */
+    public BandExecutor(int threads) {
+        mThreads = threads;
+        mExecutorService = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "BandExecutor-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return 线程数与CPU核数相同的默认执行器
+     */
+    public static synchronized BandExecutor getDefault() {
+        if (null == sDefault) {
+            sDefault = new BandExecutor(Runtime.getRuntime().availableProcessors());
+        }
+        return sDefault;
+    }
+
+    /**
+     * 分带执行滤波，阻塞直到所有条带处理完成
+     *
+     * @param srcs   输入，尺寸相同
+     * @param dst    预先分配好的输出，与输入尺寸相同
+     * @param halo   条带上下额外读取的行数，不小于滤波核半径，逐像素运算为0
+     * @param pool   条带临时结果使用的Mat池
+     * @param filter 滤波
+     */
+    public void run(final Mat[] srcs, final Mat dst, final int halo, final MatPool pool, final BandFilter filter) {
+        final int rows = dst.rows();
+        final int cols = dst.cols();
+        int bands = Math.min(mThreads, rows / MIN_BAND_ROWS);
+        if (bands <= 1) {
+            filter.apply(srcs, dst);
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>(bands);
+        for (int i = 0; i < bands; i++) {
+            final int y0 = rows * i / bands;
+            final int y1 = rows * (i + 1) / bands;
+            futures.add(mExecutorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    processBand(srcs, dst, y0, y1, rows, cols, halo, pool, filter);
+                }
+            }));
+        }
+        await(futures);
+    }
+
+    /**
+     * 把[0, rows)分成若干条带并行执行，阻塞直到所有条带处理完成
+     * <p>
+     * 任务自己负责读取条带以外的行，各条带写入的范围不能重叠。
+     *
+     * @param rows 总行数
+     * @param task 任务
+     */
+    public void run(int rows, final BandTask task) {
+        int bands = bands(rows);
+        if (bands <= 1) {
+            task.apply(0, rows);
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>(bands);
+        for (int i = 0; i < bands; i++) {
+            final int y0 = rows * i / bands;
+            final int y1 = rows * (i + 1) / bands;
+            futures.add(mExecutorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    task.apply(y0, y1);
+                }
+            }));
+        }
+        await(futures);
+    }
+
+    /**
+     * {@link #run(int, BandTask)}把rows行分成的条带数，第i个条带为[rows * i / bands, rows * (i + 1) / bands)
+     *
+     * @param rows 总行数
+     * @return 条带数，至少为1
+     */
+    public int bands(int rows) {
+        return Math.max(1, Math.min(mThreads, rows / MIN_BAND_ROWS));
+    }
+
+    /**
+     * 关闭线程池，已经提交的条带执行完后线程退出，之后不能再使用
+     * <p>
+     * 默认执行器在整个进程中共用，不要关闭。
+     */
+    public void shutdown() {
+        mExecutorService.shutdown();
+    }
+
+    /**
+     * 等待所有条带结束，抛出第一个失败的条带的异常
+     */
+    private static void await(List<Future<?>> futures) {
+        RuntimeException failure = null;
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // 条带还在使用输入和输出，必须等待它们结束
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (null == failure) {
+                        Throwable cause = e.getCause();
+                        failure = cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (null != failure) {
+            throw failure;
+        }
+    }
+
+    private static void processBand(Mat[] srcs, Mat dst, int y0, int y1, int rows, int cols, int halo,
+                                    MatPool pool, BandFilter filter) {
+        int top = Math.max(0, y0 - halo);
+        int bottom = Math.min(rows, y1 + halo);
+        Mat[] bands = new Mat[srcs.length];
+        for (int i = 0; i < srcs.length; i++) {
+            bands[i] = srcs[i].submat(top, bottom, 0, cols);
+        }
+        Mat dstBand = dst.submat(y0, y1, 0, cols);
+        try {
+            if (top == y0 && bottom == y1) {
+                filter.apply(bands, dstBand);
+            } else {
+                Mat out = pool.acquire(bottom - top, cols, dst.type());
+                try {
+                    filter.apply(bands, out);
+                    // 只保留不受条带边界影响的行
+                    Mat inner = out.submat(y0 - top, y1 - top, 0, cols);
+                    inner.copyTo(dstBand);
+                    inner.close();
+                } finally {
+                    pool.release(out);
+                }
+            }
+        } finally {
+            for (Mat band : bands) {
+                band.close();
+            }
+            dstBand.close();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+/**
+ * 按水平条带流式处理大图
+ * <p>
+ * 原图每次只读入一个条带，置灰后依次执行若干局部运算（高斯模糊、Sobel、Canny等），
+ * 每个条带处理完立即交给输出，不需要整幅图像的Mat。为了与整幅图像处理的结果一致，
+ * 每个条带上下各多保留halo行（所有运算的半径之和），相邻条带重叠的灰度行直接留在缓冲区中，
+ * 原图的每一行只读取、置灰一次。
+ * <p>
+ * 峰值内存约为 宽 × (条带行数 + 2 × halo) 的若干倍，与图像高度无关，因此可以不缩小地处理原始分辨率的图片。
+ * 同一个实例不能被多个线程同时使用。
+ */
+public class BandStreamProcessor {
+
+    /**
+     * 默认每个条带的行数
+     */
+    public static final int DEFAULT_BAND_ROWS = 64;
+
+    /**
+     * 原图的条带读取
+     */
+    public interface BandSource {
+        int rows();
+
+        int cols();
+
+        /**
+         * 读取连续的若干行
+         *
+         * @param top   起始行
+         * @param count 行数
+         * @param rgba  输出，每个像素按R、G、B、A四个字节存放，至少count * cols() * 4个元素
+         */
+        void read(int top, int count, byte[] rgba);
+    }
+
+    /**
+     * 结果的条带输出，按从上到下的顺序调用
+     */
+    public interface BandSink {
+        /**
+         * @param top    起始行
+         * @param count  行数
+         * @param data   单通道结果
+         * @param offset 第top行在data中的起始位置，之后count * cols个元素有效
+         */
+        void write(int top, int count, byte[] data, int offset);
+    }
+
+    /**
+     * 条带上的局部运算
+     * <p>
+     * 输入是图像中连续的若干行，运算按这些行就是整幅图像来处理；处理结果中距离条带上下边缘不超过halo()行的部分会被丢弃。
+     */
+    public interface BandOperation {
+        /**
+         * @return 输出的一个像素依赖的输入在竖直方向上的最大距离
+         */
+        int halo();
+
+        /**
+         * @param src  单通道输入
+         * @param dst  单通道输出，与输入尺寸相同
+         * @param rows 行数
+         * @param cols 列数
+         */
+        void apply(byte[] src, byte[] dst, int rows, int cols);
+    }
+
+    private final int mBandRows;
+    private final PixelKernels mPixelKernels = new PixelKernels();
+    private byte[] mRgba = new byte[0];
+    private byte[] mGray = new byte[0];
+    private byte[] mBuffer1 = new byte[0];
+    private byte[] mBuffer2 = new byte[0];
+
+    public BandStreamProcessor() {
+        this(DEFAULT_BAND_ROWS);
+    }
+
+    /**
+     * @param bandRows 每个条带的行数
+     */
+    public BandStreamProcessor(int bandRows) {
+        if (bandRows <= 0) {
+            throw new IllegalArgumentException("bandRows must be positive");
+        }
+        mBandRows = bandRows;
+    }
+
+    /**
+     * 逐个条带读取、置灰并执行运算，结果按从上到下的顺序写入输出
+     *
+     * @param source     原图
+     * @param sink       输出
+     * @param operations 依次执行的运算，没有时输出灰度图
+     */
+    public void process(BandSource source, BandSink sink, BandOperation... operations) {
+        int rows = source.rows();
+        int cols = source.cols();
+        int halo = 0;
+        for (BandOperation operation : operations) {
+            halo += operation.halo();
+        }
+        int capacity = Math.min(rows, mBandRows + 2 * halo) * cols;
+        if (mGray.length < capacity) {
+            mGray = new byte[capacity];
+        }
+        if (operations.length > 0 && mBuffer1.length < capacity) {
+            mBuffer1 = new byte[capacity];
+        }
+        if (operations.length > 1 && mBuffer2.length < capacity) {
+            mBuffer2 = new byte[capacity];
+        }
+        // 第一个条带一次读入的行数最多
+        int maxRead = Math.min(rows, mBandRows + halo) * cols * 4;
+        if (mRgba.length < maxRead) {
+            mRgba = new byte[maxRead];
+        }
+
+        // 缓冲区中灰度行的范围
+        int loadedTop = 0;
+        int loadedBottom = 0;
+        for (int top = 0; top < rows; top += mBandRows) {
+            int bottom = Math.min(rows, top + mBandRows);
+            int windowTop = Math.max(0, top - halo);
+            int windowBottom = Math.min(rows, bottom + halo);
+
+            // 丢弃不再需要的行，与上一个窗口重叠的行移到缓冲区开头
+            if (windowTop > loadedTop) {
+                System.arraycopy(mGray, (windowTop - loadedTop) * cols, mGray, 0, (loadedBottom - windowTop) * cols);
+                loadedTop = windowTop;
+            }
+
+            // 只读入新增的行
+            int count = windowBottom - loadedBottom;
+            if (count > 0) {
+                source.read(loadedBottom, count, mRgba);
+                // 第i个灰度值只覆盖已经读过的RGBA字节，可以原地转换
+                mPixelKernels.bgrToGray(mRgba, 4, mRgba, count * cols);
+                System.arraycopy(mRgba, 0, mGray, (loadedBottom - loadedTop) * cols, count * cols);
+                loadedBottom = windowBottom;
+            }
+
+            // 在整个窗口上依次执行运算
+            int windowRows = windowBottom - windowTop;
+            byte[] current = mGray;
+            for (int i = 0; i < operations.length; i++) {
+                byte[] out = i % 2 == 0 ? mBuffer1 : mBuffer2;
+                operations[i].apply(current, out, windowRows, cols);
+                current = out;
+            }
+            sink.write(top, bottom - top, current, (top - windowTop) * cols);
+        }
+    }
+
+    /**
+     * 高斯模糊，边界按BORDER_REFLECT_101处理
+     *
+     * @param ksize 核大小，奇数
+     * @param sigma 标准差，小于等于0时由ksize推出
+     */
+    public static BandOperation gaussian(int ksize, double sigma) {
+        final float[] kernel = DogEngine.kernel(ksize, sigma);
+        return new BandOperation() {
+            private float[] mSrc = new float[0];
+            private float[] mDst = new float[0];
+            private float[] mRow = new float[0];
+
+            @Override
+            public int halo() {
+                return kernel.length / 2;
+            }
+
+            @Override
+            public void apply(byte[] src, byte[] dst, int rows, int cols) {
+                int size = rows * cols;
+                if (mSrc.length < size) {
+                    mSrc = new float[size];
+                    mDst = new float[size];
+                }
+                for (int i = 0; i < size; i++) {
+                    mSrc[i] = src[i] & 0xFF;
+                }
+                mRow = DogEngine.blur(mSrc, mDst, rows, cols, kernel, mRow);
+                for (int i = 0; i < size; i++) {
+                    dst[i] = (byte) (int) (mDst[i] + 0.5f);
+                }
+            }
+        };
+    }
+
+    /**
+     * Sobel梯度幅值，参数同{@link SobelEngine#magnitude(byte[], byte[], int, int, boolean, boolean, double, double, double)}
+     */
+    public static BandOperation sobel(final boolean scharr, final boolean l2, final double alpha, final double beta,
+                                      final double gamma) {
+        return new BandOperation() {
+            private final SobelEngine mEngine = new SobelEngine();
+
+            @Override
+            public int halo() {
+                return 1;
+            }
+
+            @Override
+            public void apply(byte[] src, byte[] dst, int rows, int cols) {
+                mEngine.magnitude(src, dst, rows, cols, scharr, l2, alpha, beta, gamma);
+            }
+        };
+    }
+
+    /**
+     * Canny边缘检测
+     * <p>
+     * 滞后阈值沿边缘的传播距离没有上限，条带中只能在上下各reach行的范围内传播：
+     * 弱边缘只有在这个范围内与强边缘相连时才被保留。reach足够大（或只有一个条带）时与整幅图像的结果相同。
+     *
+     * @param threshold1 低阈值
+     * @param threshold2 高阈值
+     * @param reach      滞后阈值在条带外传播的行数
+     */
+    public static BandOperation canny(final double threshold1, final double threshold2, final int reach) {
+        return new BandOperation() {
+            private final CannyEngine mEngine = new CannyEngine();
+
+            @Override
+            public int halo() {
+                // Sobel和非极大值抑制各需要一行
+                return 2 + reach;
+            }
+
+            @Override
+            public void apply(byte[] src, byte[] dst, int rows, int cols) {
+                mEngine.detect(src, dst, rows, cols, threshold1, threshold2, 3, false);
+            }
+        };
+    }
+}
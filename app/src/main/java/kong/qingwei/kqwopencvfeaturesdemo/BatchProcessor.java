@@ -0,0 +1,567 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import org.opencv.core.Mat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * 批量处理大量图片
+ * <p>
+ * 图片路径经过两级有界的流水线：解码最多提前mDecodeAhead张，图算最多同时处理mComputeConcurrency张，
+ * 下游处理不过来时不再解码新的图片，内存中同时存在的原图数量有上限。
+ * 解码和图算在不同的线程中执行，第N张图片计算时第N+1张已经在解码。
+ * <p>
+ * 每张图片对应一个{@link Result}，单张图片解码或处理失败不会中断整个批次。
+ * 结果的顺序与输入的顺序不一定相同，只有提前解码和同时处理的数量都为1时才按输入的顺序。
+ * <p>
+ * 同时处理的每张图片使用自己的{@link EdgeStageCache}和原图Mat，互不等待，也不会把对方的原图Mat挤出去。
+ * 取消订阅时已经解码、还没有开始处理的原图立即回收。
+ */
+public class BatchProcessor {
+
+    /**
+     * 默认提前解码的图片数量
+     */
+    public static final int DEFAULT_DECODE_AHEAD = 2;
+
+    /**
+     * 默认同时处理的图片数量
+     */
+    public static final int DEFAULT_COMPUTE_CONCURRENCY = 2;
+
+    private final int mDecodeAhead;
+    private final int mComputeConcurrency;
+    // 结果图的转换，输出的Bitmap回收后可以复用
+    private final BitmapConverter mBitmapConverter = new BitmapConverter();
+    private final MatPool mMatPool = new MatPool();
+    private final GraphExecutor mGraphExecutor = GraphExecutor.getDefault();
+    private volatile int mSampleSize = 1;
+    private volatile boolean mTileParallel;
+
+    public BatchProcessor() {
+        this(DEFAULT_DECODE_AHEAD, DEFAULT_COMPUTE_CONCURRENCY);
+    }
+
+    /**
+     * @param decodeAhead        最多提前解码的图片数量
+     * @param computeConcurrency 最多同时处理的图片数量
+     */
+    public BatchProcessor(int decodeAhead, int computeConcurrency) {
+        if (decodeAhead < 1 || computeConcurrency < 1) {
+            throw new IllegalArgumentException("decodeAhead=" + decodeAhead + ", computeConcurrency=" + computeConcurrency);
+        }
+        mDecodeAhead = decodeAhead;
+        mComputeConcurrency = computeConcurrency;
+    }
+
+    /**
+     * 设置解码时的缩小倍数
+     *
+     * @param sampleSize BitmapFactory.Options.inSampleSize，1为原始尺寸
+     */
+    public void setSampleSize(int sampleSize) {
+        mSampleSize = Math.max(1, sampleSize);
+    }
+
+    /**
+     * 设置逐像素滤波是否按行分带并行，参见{@link FeaturesUtil#setTileParallel(boolean)}
+     *
+     * @param tileParallel 是否分带并行
+     */
+    public void setTileParallel(boolean tileParallel) {
+        mTileParallel = tileParallel;
+    }
+
+    /**
+     * @return 中间结果使用的Mat池
+     */
+    public MatPool getMatPool() {
+        return mMatPool;
+    }
+
+    /**
+     * 回收已经处理完的结果图，后面的图片尺寸相同时直接写入该Bitmap
+     *
+     * @param bitmap 不再使用的结果图
+     */
+    public void recycle(Bitmap bitmap) {
+        mBitmapConverter.recycle(bitmap);
+    }
+
+    /**
+     * 创建批量处理的Observable，每次订阅重新开始统计
+     * <p>
+     * 例如提取一批图片的边缘和轮廓：
+     * <pre>
+     * FeatureGraph graph = new FeatureGraph();
+     * batchProcessor.process(Observable.from(paths), graph.canny(), graph.findContours())
+     * </pre>
+     *
+     * @param paths   图片路径
+     * @param outputs 每张图片要输出的节点
+     * @return 每张图片的结果
+     */
+    public Observable<Result> process(final Observable<String> paths, final FeatureGraph.Node... outputs) {
+        return Observable.defer(new Func0<Observable<Result>>() {
+            @Override
+            public Observable<Result> call() {
+                final Tracker tracker = new Tracker();
+                final InFlight inFlight = new InFlight();
+                Action0 close = new Action0() {
+                    @Override
+                    public void call() {
+                        // 回收解码后还没有开始处理的原图
+                        inFlight.close();
+                    }
+                };
+                return paths
+                        // 路径占用的内存很小，来不及处理的路径全部缓存起来
+                        .onBackpressureBuffer()
+                        .flatMap(new Func1<String, Observable<Decoded>>() {
+                            @Override
+                            public Observable<Decoded> call(String path) {
+                                return decode(path, inFlight);
+                            }
+                        }, mDecodeAhead)
+                        .flatMap(new Func1<Decoded, Observable<Result>>() {
+                            @Override
+                            public Observable<Result> call(Decoded decoded) {
+                                return compute(decoded, outputs, tracker, inFlight);
+                            }
+                        }, mComputeConcurrency)
+                        .doOnTerminate(close)
+                        .doOnUnsubscribe(close);
+            }
+        });
+    }
+
+    /**
+     * 在io线程中解码图片，解码失败时也发射一个结果
+     */
+    private Observable<Decoded> decode(final String path, final InFlight inFlight) {
+        return Observable
+                .create(new Observable.OnSubscribe<Decoded>() {
+                    @Override
+                    public void call(Subscriber<? super Decoded> subscriber) {
+                        long start = System.nanoTime();
+                        Bitmap bitmap = null;
+                        Throwable error = null;
+                        try {
+                            bitmap = decodeFile(path);
+                        } catch (IOException | RuntimeException | OutOfMemoryError e) {
+                            error = e;
+                        }
+                        Decoded decoded = new Decoded(path, bitmap, error, System.nanoTime() - start);
+                        if (!inFlight.add(decoded)) {
+                            // 已取消，原图已回收
+                            return;
+                        }
+                        subscriber.onNext(decoded);
+                        subscriber.onCompleted();
+                    }
+                })
+                .subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * 在io线程中执行图算，处理完后释放原图
+     */
+    private Observable<Result> compute(final Decoded decoded, final FeatureGraph.Node[] outputs, final Tracker tracker,
+                                       final InFlight inFlight) {
+        return Observable
+                .create(new Observable.OnSubscribe<Result>() {
+                    @Override
+                    public void call(Subscriber<? super Result> subscriber) {
+                        if (!inFlight.claim(decoded)) {
+                            // 取消订阅时已被回收
+                            return;
+                        }
+                        Result result;
+                        if (null != decoded.mError) {
+                            result = tracker.failed(decoded, decoded.mError, 0);
+                        } else {
+                            result = execute(subscriber, decoded, outputs, tracker);
+                            if (null == result) {
+                                // 已取消
+                                return;
+                            }
+                        }
+                        if (!subscriber.isUnsubscribed()) {
+                            subscriber.onNext(result);
+                            subscriber.onCompleted();
+                        }
+                    }
+                })
+                .subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * 执行图算并把结果转为Bitmap，结束后回收原图
+     *
+     * @return 处理结果，取消订阅时返回null
+     */
+    private Result execute(Subscriber<? super Result> subscriber, Decoded decoded, FeatureGraph.Node[] outputs,
+                           Tracker tracker) {
+        long start = System.nanoTime();
+        try {
+            Bitmap[] bitmaps = render(decoded.mBitmap, outputs, subscriber);
+            return tracker.succeeded(decoded, pixels(decoded.mBitmap), bitmaps, System.nanoTime() - start);
+        } catch (CancellationException e) {
+            return null;
+        } catch (RuntimeException | OutOfMemoryError e) {
+            return tracker.failed(decoded, e, System.nanoTime() - start);
+        } finally {
+            recycleSource(decoded.mBitmap);
+        }
+    }
+
+    /**
+     * 解码一张图片
+     *
+     * @param path 图片路径
+     * @return 原图
+     * @throws IOException 无法解码
+     */
+    Bitmap decodeFile(String path) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = mSampleSize;
+        Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+        if (null == bitmap) {
+            throw new IOException("cannot decode " + path);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 在一张图片上执行图算
+     *
+     * @param source     原图
+     * @param outputs    要输出的节点
+     * @param subscriber 取消订阅时中止图算
+     * @return 每个输出节点的结果图
+     * @throws CancellationException 已取消
+     */
+    Bitmap[] render(Bitmap source, FeatureGraph.Node[] outputs, Subscriber<?> subscriber) {
+        // 每张图片使用自己的缓存和原图Mat，所有图片的缓存上限之和为默认上限
+        BitmapConverter sourceConverter = new BitmapConverter();
+        EdgeStageCache edgeStageCache = new EdgeStageCache(EdgeStageCache.DEFAULT_MAX_BYTES / mComputeConcurrency,
+                sourceConverter);
+        final StageContext context = new StageContext(source, edgeStageCache, mMatPool,
+                mTileParallel ? BandExecutor.getDefault() : null);
+        // 取消订阅时中止图算
+        subscriber.add(Subscriptions.create(new Action0() {
+            @Override
+            public void call() {
+                context.cancel();
+            }
+        }));
+
+        Mat[] results = null;
+        try {
+            results = mGraphExecutor.execute(context, outputs);
+            Bitmap[] bitmaps = new Bitmap[results.length];
+            for (int i = 0; i < results.length; i++) {
+                // Mat转Bitmap
+                bitmaps[i] = mBitmapConverter.toBitmap(results[i]);
+            }
+            return bitmaps;
+        } finally {
+            if (null != results) {
+                mMatPool.release(results);
+            }
+            edgeStageCache.clear();
+            sourceConverter.clear();
+        }
+    }
+
+    /**
+     * @return 原图的像素数
+     */
+    long pixels(Bitmap source) {
+        return (long) source.getWidth() * source.getHeight();
+    }
+
+    /**
+     * 回收原图
+     */
+    void recycleSource(Bitmap source) {
+        source.recycle();
+    }
+
+    /**
+     * 解码后的图片
+     */
+    private static final class Decoded {
+        private final String mPath;
+        private final Bitmap mBitmap;
+        private final Throwable mError;
+        private final long mDecodeNanos;
+
+        Decoded(String path, Bitmap bitmap, Throwable error, long decodeNanos) {
+            mPath = path;
+            mBitmap = bitmap;
+            mError = error;
+            mDecodeNanos = decodeNanos;
+        }
+    }
+
+    /**
+     * 已经解码、还没有开始处理的图片
+     * <p>
+     * 图片由{@link #claim(Decoded)}交给图算，之后由图算负责回收；取消订阅时剩下的图片由{@link #close()}回收。
+     * 两者只有一个能拿到同一张图片。
+     */
+    private final class InFlight {
+        private final Set<Decoded> mPending = new HashSet<>();
+        private boolean mClosed;
+
+        /**
+         * @return 是否加入成功，已经关闭时回收图片并返回false
+         */
+        boolean add(Decoded decoded) {
+            synchronized (this) {
+                if (!mClosed) {
+                    mPending.add(decoded);
+                    return true;
+                }
+            }
+            release(decoded);
+            return false;
+        }
+
+        /**
+         * @return 是否拿到了图片，已被回收时返回false
+         */
+        synchronized boolean claim(Decoded decoded) {
+            return mPending.remove(decoded);
+        }
+
+        void close() {
+            List<Decoded> pending;
+            synchronized (this) {
+                mClosed = true;
+                pending = new ArrayList<>(mPending);
+                mPending.clear();
+            }
+            for (Decoded decoded : pending) {
+                release(decoded);
+            }
+        }
+
+        private void release(Decoded decoded) {
+            if (null == decoded.mError) {
+                recycleSource(decoded.mBitmap);
+            }
+        }
+    }
+
+    /**
+     * 一次批量处理的累计统计
+     */
+    private static final class Tracker {
+        private final long mStartNanos = System.nanoTime();
+        private final AtomicInteger mImages = new AtomicInteger();
+        private final AtomicInteger mFailures = new AtomicInteger();
+        private final AtomicLong mPixels = new AtomicLong();
+        private final AtomicLong mDecodeNanos = new AtomicLong();
+        private final AtomicLong mComputeNanos = new AtomicLong();
+
+        Result succeeded(Decoded decoded, long pixels, Bitmap[] outputs, long computeNanos) {
+            mPixels.addAndGet(pixels);
+            return record(decoded, outputs, null, computeNanos);
+        }
+
+        Result failed(Decoded decoded, Throwable error, long computeNanos) {
+            mFailures.incrementAndGet();
+            return record(decoded, null, error, computeNanos);
+        }
+
+        private Result record(Decoded decoded, Bitmap[] outputs, Throwable error, long computeNanos) {
+            mImages.incrementAndGet();
+            mDecodeNanos.addAndGet(decoded.mDecodeNanos);
+            mComputeNanos.addAndGet(computeNanos);
+            Stats stats = new Stats(mImages.get(), mFailures.get(), mPixels.get(),
+                    mDecodeNanos.get(), mComputeNanos.get(), System.nanoTime() - mStartNanos);
+            return new Result(decoded.mPath, outputs, error, decoded.mDecodeNanos, computeNanos, stats);
+        }
+    }
+
+    /**
+     * 一张图片的处理结果
+     */
+    public static final class Result {
+        private final String mPath;
+        private final Bitmap[] mOutputs;
+        private final Throwable mError;
+        private final long mDecodeNanos;
+        private final long mComputeNanos;
+        private final Stats mStats;
+
+        private Result(String path, Bitmap[] outputs, Throwable error, long decodeNanos, long computeNanos,
+                       Stats stats) {
+            mPath = path;
+            mOutputs = outputs;
+            mError = error;
+            mDecodeNanos = decodeNanos;
+            mComputeNanos = computeNanos;
+            mStats = stats;
+        }
+
+        /**
+         * @return 图片路径
+         */
+        public String getPath() {
+            return mPath;
+        }
+
+        /**
+         * @return 是否处理成功
+         */
+        public boolean isSuccessful() {
+            return null == mError;
+        }
+
+        /**
+         * @return 每个输出节点的结果图，顺序与传入的节点相同，失败时为null
+         */
+        public Bitmap[] getOutputs() {
+            return mOutputs;
+        }
+
+        /**
+         * @return 失败的原因，成功时为null
+         */
+        public Throwable getError() {
+            return mError;
+        }
+
+        /**
+         * @return 解码耗时（毫秒）
+         */
+        public long getDecodeMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(mDecodeNanos);
+        }
+
+        /**
+         * @return 图算耗时（毫秒）
+         */
+        public long getComputeMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(mComputeNanos);
+        }
+
+        /**
+         * @return 截至这张图片的累计统计
+         */
+        public Stats getStats() {
+            return mStats;
+        }
+
+        @Override
+        public String toString() {
+            return mPath + (isSuccessful() ? "" : " failed: " + mError)
+                    + " decode=" + getDecodeMillis() + "ms compute=" + getComputeMillis() + "ms";
+        }
+    }
+
+    /**
+     * 批量处理的累计统计
+     */
+    public static final class Stats {
+        private final int mImages;
+        private final int mFailures;
+        private final long mPixels;
+        private final long mDecodeNanos;
+        private final long mComputeNanos;
+        private final long mElapsedNanos;
+
+        private Stats(int images, int failures, long pixels, long decodeNanos, long computeNanos, long elapsedNanos) {
+            mImages = images;
+            mFailures = failures;
+            mPixels = pixels;
+            mDecodeNanos = decodeNanos;
+            mComputeNanos = computeNanos;
+            mElapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return 已处理的图片数量（含失败）
+         */
+        public int getImages() {
+            return mImages;
+        }
+
+        /**
+         * @return 失败的图片数量
+         */
+        public int getFailures() {
+            return mFailures;
+        }
+
+        /**
+         * @return 成功处理的像素总数
+         */
+        public long getPixels() {
+            return mPixels;
+        }
+
+        /**
+         * @return 所有图片解码耗时之和（毫秒），并行执行时可能大于经过的时间
+         */
+        public long getDecodeMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(mDecodeNanos);
+        }
+
+        /**
+         * @return 所有图片图算耗时之和（毫秒），并行执行时可能大于经过的时间
+         */
+        public long getComputeMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(mComputeNanos);
+        }
+
+        /**
+         * @return 从订阅开始经过的时间（毫秒）
+         */
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(mElapsedNanos);
+        }
+
+        /**
+         * @return 每秒处理的图片数量
+         */
+        public double getImagesPerSecond() {
+            return mElapsedNanos > 0 ? mImages * 1e9 / mElapsedNanos : 0;
+        }
+
+        /**
+         * @return 每秒处理的百万像素数量
+         */
+        public double getMegapixelsPerSecond() {
+            return mElapsedNanos > 0 ? mPixels * 1e3 / mElapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("images=%d failures=%d elapsed=%dms %.2f images/s %.2f MP/s",
+                    mImages, mFailures, getElapsedMillis(), getImagesPerSecond(), getMegapixelsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import android.graphics.Bitmap;
+
+import org.opencv.android.Utils;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Range;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Bitmap与Mat之间的转换，尽量复用已有的内存
+ * <p>
+ * 原图转出的RGBA Mat在原图不变时一直保留，重复处理同一张图片不再拷贝原图；
+ * 输出的Bitmap优先使用调用者提供的或回收到池中的Bitmap，不再每次新建。
+ * 单通道和三通道的结果由Utils.matToBitmap直接写入Bitmap，不需要先转成RGBA的Mat。
+ */
+public class BitmapConverter {
+
+    /**
+     * 最多保留的回收Bitmap数量
+     */
+    private static final int MAX_RECYCLED = 2;
+
+    private final ArrayDeque<Bitmap> mRecycled = new ArrayDeque<>();
+
+    // 当前原图以及转换得到的RGBA Mat
+    private WeakReference<Bitmap> mSource = new WeakReference<>(null);
+    private int mSourceGenerationId;
+    private Mat mSourceMat;
+
+    /**
+     * 原图转为RGBA的Mat，原图及其内容不变时直接返回上次的结果
+     *
+     * @param bitmap 原图
+     * @return RGBA Mat（只读，与缓存共享数据，使用完毕后调用close()）
+     */
+    public synchronized Mat toRgba(Bitmap bitmap) {
+        if (null == mSourceMat || mSource.get() != bitmap || mSourceGenerationId != bitmap.getGenerationId()) {
+            if (null != mSourceMat) {
+                mSourceMat.close();
+            }
+            // Bitmap转为Mat
+            mSourceMat = new Mat(bitmap.getHeight(), bitmap.getWidth(), CvType.CV_8UC4);
+            Utils.bitmapToMat(bitmap, mSourceMat);
+            mSource = new WeakReference<>(bitmap);
+            mSourceGenerationId = bitmap.getGenerationId();
+        }
+        return new Mat(mSourceMat, Range.all());
+    }
+
+    /**
+     * Mat转为Bitmap
+     *
+     * @param mat   CV_8UC1、CV_8UC3或CV_8UC4的Mat
+     * @param reuse 优先使用的Bitmap，尺寸不符或不可修改时忽略，可以为null
+     * @return 结果
+     */
+    public Bitmap toBitmap(Mat mat, Bitmap reuse) {
+        Bitmap processedImage = isReusable(reuse, mat.cols(), mat.rows()) ? reuse : obtain(mat.cols(), mat.rows());
+        Utils.matToBitmap(mat, processedImage);
+        return processedImage;
+    }
+
+    /**
+     * Mat转为Bitmap，优先使用回收的Bitmap
+     *
+     * @param mat CV_8UC1、CV_8UC3或CV_8UC4的Mat
+     * @return 结果
+     */
+    public Bitmap toBitmap(Mat mat) {
+        return toBitmap(mat, null);
+    }
+
+    /**
+     * 缓存的结果转为Bitmap，不经过OpenCV，转换规则与Utils.matToBitmap相同
+     *
+     * @param entry CV_8UC1、CV_8UC3或CV_8UC4的结果
+     * @return 结果，优先使用回收的Bitmap
+     */
+    public Bitmap toBitmap(ResultCache.Entry entry) {
+        int rows = entry.getRows();
+        int cols = entry.getCols();
+        int channels = CvType.channels(entry.getType());
+        byte[] data = entry.getData();
+        Bitmap processedImage = obtain(cols, rows);
+        int[] row = new int[cols];
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0, i = (y * cols) * channels; x < cols; x++, i += channels) {
+                int r = data[i] & 0xFF;
+                int g = channels == 1 ? r : data[i + 1] & 0xFF;
+                int b = channels == 1 ? r : data[i + 2] & 0xFF;
+                int a = channels == 4 ? data[i + 3] & 0xFF : 0xFF;
+                row[x] = a << 24 | r << 16 | g << 8 | b;
+            }
+            processedImage.setPixels(row, 0, cols, 0, y, cols, 1);
+        }
+        return processedImage;
+    }
+
+    /**
+     * 回收不再显示的结果图，供下次转换使用
+     *
+     * @param bitmap 不再使用的Bitmap
+     */
+    public synchronized void recycle(Bitmap bitmap) {
+        if (null == bitmap || !bitmap.isMutable() || bitmap.isRecycled()) {
+            return;
+        }
+        if (mRecycled.size() >= MAX_RECYCLED) {
+            mRecycled.pollLast();
+        }
+        mRecycled.push(bitmap);
+    }
+
+    /**
+     * 释放保留的原图Mat和回收的Bitmap
+     */
+    public synchronized void clear() {
+        if (null != mSourceMat) {
+            mSourceMat.close();
+            mSourceMat = null;
+        }
+        mSource = new WeakReference<>(null);
+        mRecycled.clear();
+    }
+
+    private synchronized Bitmap obtain(int width, int height) {
+        Iterator<Bitmap> iterator = mRecycled.iterator();
+        while (iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            if (isReusable(bitmap, width, height)) {
+                iterator.remove();
+                return bitmap;
+            }
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    private static boolean isReusable(Bitmap bitmap, int width, int height) {
+        return null != bitmap
+                && !bitmap.isRecycled()
+                && bitmap.isMutable()
+                && bitmap.getConfig() == Bitmap.Config.ARGB_8888
+                && bitmap.getWidth() == width
+                && bitmap.getHeight() == height;
+    }
+}
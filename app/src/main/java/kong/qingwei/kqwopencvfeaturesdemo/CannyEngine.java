@@ -0,0 +1,397 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.Arrays;
+
+/**
+ * Java实现的Canny边缘检测，结果与OpenCV 2.4的Imgproc.Canny相同
+ * <p>
+ * 与OpenCV的步骤一致：BORDER_REPLICATE的Sobel求导（结果饱和到short）、L1或L2梯度幅值、
+ * 用tan(22.5°)定点比较的非极大值抑制，最后用显式的栈做滞后阈值。
+ * 求导和非极大值抑制按行分带并行，滞后阈值需要沿边缘传播，单线程执行。
+ * <p>
+ * 所有中间结果都放在可复用的一维数组中，图像尺寸不变时不再申请内存。
+ * 同一个实例不能被多个线程同时使用。
+ */
+public class CannyEngine {
+
+    private static final int CANNY_SHIFT = 15;
+    private static final int TG22 = (int) (0.4142135623730950488016887242097 * (1 << CANNY_SHIFT) + 0.5);
+
+    // 非极大值抑制的标记
+    private static final byte MAYBE_EDGE = 0;
+    private static final byte NOT_EDGE = 1;
+    private static final byte EDGE = 2;
+
+    private final BandExecutor mBandExecutor;
+
+    private int mRows;
+    private int mCols;
+    private int mAperture;
+    // 水平方向求导、平滑的中间结果
+    private int[] mRowDeriv = new int[0];
+    private int[] mRowSmooth = new int[0];
+    private short[] mDx = new short[0];
+    private short[] mDy = new short[0];
+    // 幅值和标记，上下左右各多一圈边界
+    private int[] mMag = new int[0];
+    private byte[] mMap = new byte[0];
+    private int[] mStack = new int[1024];
+    // BORDER_REPLICATE的下标
+    private int[] mXIndex = new int[0];
+    private int[] mYIndex = new int[0];
+    private int[] mDeriv;
+    private int[] mSmooth;
+    private byte[] mSrc = new byte[0];
+    private byte[] mDst = new byte[0];
+
+    public CannyEngine() {
+        this(null);
+    }
+
+    /**
+     * @param bandExecutor 不为null时求导和非极大值抑制按行分带并行
+     */
+    public CannyEngine(BandExecutor bandExecutor) {
+        mBandExecutor = bandExecutor;
+    }
+
+    /**
+     * Canny边缘检测，孔径为3，使用L1梯度
+     *
+     * @param src        CV_8UC1的输入，数据连续
+     * @param dst        CV_8UC1的输出，与输入尺寸相同，数据连续
+     * @param threshold1 第一个阈值
+     * @param threshold2 第二个阈值
+     */
+    public void detect(Mat src, Mat dst, double threshold1, double threshold2) {
+        detect(src, dst, threshold1, threshold2, 3, false);
+    }
+
+    /**
+     * Canny边缘检测
+     *
+     * @param src          CV_8UC1的输入，数据连续
+     * @param dst          CV_8UC1的输出，与输入尺寸相同，数据连续
+     * @param threshold1   第一个阈值
+     * @param threshold2   第二个阈值
+     * @param apertureSize Sobel的孔径，3、5或7
+     * @param l2Gradient   是否使用L2梯度
+     */
+    public void detect(Mat src, Mat dst, double threshold1, double threshold2, int apertureSize, boolean l2Gradient) {
+        if (src.type() != CvType.CV_8UC1 || dst.type() != CvType.CV_8UC1) {
+            throw new IllegalArgumentException("src and dst must be CV_8UC1");
+        }
+        if (!src.isContinuous() || !dst.isContinuous()) {
+            throw new IllegalArgumentException("src and dst must be continuous");
+        }
+        int size = src.rows() * src.cols();
+        if (mSrc.length != size) {
+            mSrc = new byte[size];
+            mDst = new byte[size];
+        }
+        src.get(0, 0, mSrc);
+        detect(mSrc, mDst, src.rows(), src.cols(), threshold1, threshold2, apertureSize, l2Gradient);
+        dst.put(0, 0, mDst);
+    }
+
+    /**
+     * 在按行存放的byte[]上做Canny边缘检测
+     *
+     * @param src          灰度图
+     * @param dst          输出，边缘为255，其余为0
+     * @param rows         行数
+     * @param cols         列数
+     * @param threshold1   第一个阈值
+     * @param threshold2   第二个阈值
+     * @param apertureSize Sobel的孔径，3、5或7
+     * @param l2Gradient   是否使用L2梯度
+     */
+    public void detect(final byte[] src, byte[] dst, final int rows, final int cols, double threshold1,
+                       double threshold2, int apertureSize, final boolean l2Gradient) {
+        if (apertureSize != 3 && apertureSize != 5 && apertureSize != 7) {
+            throw new IllegalArgumentException("apertureSize must be 3, 5 or 7: " + apertureSize);
+        }
+        double lowThresh = Math.min(threshold1, threshold2);
+        double highThresh = Math.max(threshold1, threshold2);
+        if (l2Gradient) {
+            lowThresh = Math.min(32767.0, lowThresh);
+            highThresh = Math.min(32767.0, highThresh);
+            if (lowThresh > 0) {
+                lowThresh *= lowThresh;
+            }
+            if (highThresh > 0) {
+                highThresh *= highThresh;
+            }
+        }
+        final int low = (int) Math.floor(lowThresh);
+        final int high = (int) Math.floor(highThresh);
+        prepare(rows, cols, apertureSize);
+
+        bands(rows, new BandExecutor.BandTask() {
+            @Override
+            public void apply(int from, int to) {
+                filterRows(src, from, to);
+            }
+        });
+        bands(rows, new BandExecutor.BandTask() {
+            @Override
+            public void apply(int from, int to) {
+                filterColumns(from, to, l2Gradient);
+            }
+        });
+        bands(rows, new BandExecutor.BandTask() {
+            @Override
+            public void apply(int from, int to) {
+                suppress(from, to, low, high);
+            }
+        });
+        hysteresis();
+
+        int mapStep = cols + 2;
+        for (int y = 0; y < rows; y++) {
+            int m = (y + 1) * mapStep + 1;
+            int p = y * cols;
+            for (int x = 0; x < cols; x++) {
+                dst[p + x] = (byte) -(mMap[m + x] >> 1);
+            }
+        }
+    }
+
+    /**
+     * @return 上次检测时x方向的导数，按行存放，饱和到short
+     */
+    public short[] getDx() {
+        return mDx;
+    }
+
+    /**
+     * @return 上次检测时y方向的导数，按行存放，饱和到short
+     */
+    public short[] getDy() {
+        return mDy;
+    }
+
+    private void bands(int rows, BandExecutor.BandTask task) {
+        if (null == mBandExecutor) {
+            task.apply(0, rows);
+        } else {
+            mBandExecutor.run(rows, task);
+        }
+    }
+
+    /**
+     * 尺寸或孔径变化时重新分配缓冲
+     */
+    private void prepare(int rows, int cols, int aperture) {
+        if (rows == mRows && cols == mCols && aperture == mAperture) {
+            return;
+        }
+        int size = rows * cols;
+        if (rows != mRows || cols != mCols) {
+            mRowDeriv = new int[size];
+            mRowSmooth = new int[size];
+            mDx = new short[size];
+            mDy = new short[size];
+            int mapSize = (rows + 2) * (cols + 2);
+            // 边界一圈的幅值为0、标记为不是边缘，之后不会被改写
+            mMag = new int[mapSize];
+            mMap = new byte[mapSize];
+            Arrays.fill(mMap, NOT_EDGE);
+        }
+        mDeriv = derivKernel(aperture);
+        mSmooth = smoothKernel(aperture);
+        int radius = aperture / 2;
+        mXIndex = replicateIndex(cols, radius);
+        mYIndex = replicateIndex(rows, radius);
+        mRows = rows;
+        mCols = cols;
+        mAperture = aperture;
+    }
+
+    /**
+     * Sobel的一阶导数核
+     */
+    static int[] derivKernel(int aperture) {
+        switch (aperture) {
+            case 3:
+                return new int[]{-1, 0, 1};
+            case 5:
+                return new int[]{-1, -2, 0, 2, 1};
+            default:
+                return new int[]{-1, -4, -5, 0, 5, 4, 1};
+        }
+    }
+
+    /**
+     * Sobel的平滑核
+     */
+    static int[] smoothKernel(int aperture) {
+        switch (aperture) {
+            case 3:
+                return new int[]{1, 2, 1};
+            case 5:
+                return new int[]{1, 4, 6, 4, 1};
+            default:
+                return new int[]{1, 6, 15, 20, 15, 6, 1};
+        }
+    }
+
+    /**
+     * BORDER_REPLICATE：下标i对应原图的第index[i + radius]个元素
+     */
+    private static int[] replicateIndex(int n, int radius) {
+        int[] index = new int[n + 2 * radius];
+        for (int i = 0; i < index.length; i++) {
+            index[i] = Math.max(0, Math.min(n - 1, i - radius));
+        }
+        return index;
+    }
+
+    /**
+     * 水平方向：x方向求导、y方向求导所需的平滑
+     */
+    private void filterRows(byte[] src, int from, int to) {
+        int cols = mCols;
+        int[] deriv = mDeriv;
+        int[] smooth = mSmooth;
+        int[] xIndex = mXIndex;
+        for (int y = from; y < to; y++) {
+            int p = y * cols;
+            for (int x = 0; x < cols; x++) {
+                int d = 0;
+                int s = 0;
+                for (int k = 0; k < deriv.length; k++) {
+                    int v = src[p + xIndex[x + k]] & 0xFF;
+                    d += deriv[k] * v;
+                    s += smooth[k] * v;
+                }
+                mRowDeriv[p + x] = d;
+                mRowSmooth[p + x] = s;
+            }
+        }
+    }
+
+    /**
+     * 竖直方向：得到dx、dy并计算幅值
+     */
+    private void filterColumns(int from, int to, boolean l2Gradient) {
+        int cols = mCols;
+        int magStep = cols + 2;
+        int[] deriv = mDeriv;
+        int[] smooth = mSmooth;
+        int[] yIndex = mYIndex;
+        for (int y = from; y < to; y++) {
+            int p = y * cols;
+            int m = (y + 1) * magStep + 1;
+            for (int x = 0; x < cols; x++) {
+                int gx = 0;
+                int gy = 0;
+                for (int k = 0; k < deriv.length; k++) {
+                    int offset = yIndex[y + k] * cols + x;
+                    gx += smooth[k] * mRowDeriv[offset];
+                    gy += deriv[k] * mRowSmooth[offset];
+                }
+                short dx = saturate(gx);
+                short dy = saturate(gy);
+                mDx[p + x] = dx;
+                mDy[p + x] = dy;
+                mMag[m + x] = l2Gradient ? dx * dx + dy * dy : Math.abs(dx) + Math.abs(dy);
+            }
+        }
+    }
+
+    private static short saturate(int value) {
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+    }
+
+    /**
+     * 非极大值抑制，按梯度方向与相邻的两个像素比较
+     */
+    private void suppress(int from, int to, int low, int high) {
+        int cols = mCols;
+        int step = cols + 2;
+        int[] mag = mMag;
+        byte[] map = mMap;
+        for (int y = from; y < to; y++) {
+            int p = y * cols;
+            int c = (y + 1) * step + 1;
+            for (int x = 0; x < cols; x++, p++, c++) {
+                int m = mag[c];
+                byte flag = NOT_EDGE;
+                if (m > low) {
+                    int xs = mDx[p];
+                    int ys = mDy[p];
+                    int ax = Math.abs(xs);
+                    int ay = Math.abs(ys) << CANNY_SHIFT;
+                    int tg22x = ax * TG22;
+                    boolean max;
+                    if (ay < tg22x) {
+                        // 接近水平
+                        max = m > mag[c - 1] && m >= mag[c + 1];
+                    } else {
+                        int tg67x = tg22x + (ax << (CANNY_SHIFT + 1));
+                        if (ay > tg67x) {
+                            // 接近竖直
+                            max = m > mag[c - step] && m >= mag[c + step];
+                        } else {
+                            // 对角线
+                            int s = (xs ^ ys) < 0 ? -1 : 1;
+                            max = m > mag[c - step - s] && m > mag[c + step + s];
+                        }
+                    }
+                    if (max) {
+                        flag = m > high ? EDGE : MAYBE_EDGE;
+                    }
+                }
+                map[c] = flag;
+            }
+        }
+    }
+
+    /**
+     * 滞后阈值：从强边缘出发，把8邻域内可能的边缘标记为边缘
+     */
+    private void hysteresis() {
+        int step = mCols + 2;
+        byte[] map = mMap;
+        int[] stack = mStack;
+        int top = 0;
+        for (int y = 1; y <= mRows; y++) {
+            int c = y * step + 1;
+            for (int x = 0; x < mCols; x++, c++) {
+                if (map[c] == EDGE) {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, stack.length * 2);
+                    }
+                    stack[top++] = c;
+                }
+            }
+        }
+        while (top > 0) {
+            if (top + 8 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            int c = stack[--top];
+            top = push(map, stack, top, c - 1);
+            top = push(map, stack, top, c + 1);
+            top = push(map, stack, top, c - step - 1);
+            top = push(map, stack, top, c - step);
+            top = push(map, stack, top, c - step + 1);
+            top = push(map, stack, top, c + step - 1);
+            top = push(map, stack, top, c + step);
+            top = push(map, stack, top, c + step + 1);
+        }
+        mStack = stack;
+    }
+
+    private static int push(byte[] map, int[] stack, int top, int c) {
+        if (map[c] == MAYBE_EDGE) {
+            map[c] = EDGE;
+            stack[top++] = c;
+        }
+        return top;
+    }
+}
@@ -0,0 +1,77 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+/**
+ * 紧凑的圆列表，圆心、半径和支持点数保存在基本类型数组中，可以反复使用
+ */
+public class CircleList {
+
+    private float[] mXYR;
+    private int[] mSupport;
+    private int mSize;
+
+    public CircleList() {
+        this(32);
+    }
+
+    /**
+     * @param capacity 初始容量
+     */
+    public CircleList(int capacity) {
+        capacity = Math.max(1, capacity);
+        mXYR = new float[capacity * 3];
+        mSupport = new int[capacity];
+    }
+
+    /**
+     * 添加一个圆
+     */
+    public void add(float x, float y, float radius, int support) {
+        if (mSize == mSupport.length) {
+            int capacity = mSize * 2;
+            float[] xyr = new float[capacity * 3];
+            int[] supports = new int[capacity];
+            System.arraycopy(mXYR, 0, xyr, 0, mSize * 3);
+            System.arraycopy(mSupport, 0, supports, 0, mSize);
+            mXYR = xyr;
+            mSupport = supports;
+        }
+        mXYR[mSize * 3] = x;
+        mXYR[mSize * 3 + 1] = y;
+        mXYR[mSize * 3 + 2] = radius;
+        mSupport[mSize] = support;
+        mSize++;
+    }
+
+    /**
+     * 清空，保留已分配的数组
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * @return 圆的数量
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public float x(int index) {
+        return mXYR[index * 3];
+    }
+
+    public float y(int index) {
+        return mXYR[index * 3 + 1];
+    }
+
+    public float radius(int index) {
+        return mXYR[index * 3 + 2];
+    }
+
+    /**
+     * @return 落在圆周上的边缘点数量
+     */
+    public int support(int index) {
+        return mSupport[index];
+    }
+}
@@ -0,0 +1,179 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import java.util.Arrays;
+
+/**
+ * 紧凑的轮廓列表
+ * <p>
+ * 所有轮廓的点依次保存在同一个int[]中（x、y交替），第i个轮廓的点是第offset(i)到第offset(i + 1) - 1个点；
+ * 层级关系与OpenCV相同，每个轮廓对应next、previous、firstChild、parent四个下标，不存在时为-1。
+ * 不为每个轮廓创建对象，可以反复使用。
+ */
+public class ContourList {
+
+    private int[] mPoints = new int[512];
+    private int mPointCount;
+    private int[] mOffsets = new int[65];
+    private int[] mHierarchy = new int[256];
+    private boolean[] mHoles = new boolean[64];
+    private int mSize;
+
+    /**
+     * 清空，保留已分配的数组
+     */
+    public void clear() {
+        mPointCount = 0;
+        mSize = 0;
+        mOffsets[0] = 0;
+    }
+
+    /**
+     * @return 轮廓数量
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return 所有轮廓的点数之和
+     */
+    public int pointCount() {
+        return mPointCount;
+    }
+
+    /**
+     * @return 第index个轮廓的第一个点在所有点中的序号
+     */
+    public int offset(int index) {
+        return mOffsets[index];
+    }
+
+    /**
+     * @return 第index个轮廓的点数
+     */
+    public int length(int index) {
+        return mOffsets[index + 1] - mOffsets[index];
+    }
+
+    /**
+     * @return 第point个点（所有轮廓统一编号）的x坐标
+     */
+    public int x(int point) {
+        return mPoints[point * 2];
+    }
+
+    /**
+     * @return 第point个点（所有轮廓统一编号）的y坐标
+     */
+    public int y(int point) {
+        return mPoints[point * 2 + 1];
+    }
+
+    /**
+     * @return x、y交替保存的所有点，只有前pointCount() * 2个元素有效
+     */
+    public int[] points() {
+        return mPoints;
+    }
+
+    public int next(int index) {
+        return mHierarchy[index * 4];
+    }
+
+    public int previous(int index) {
+        return mHierarchy[index * 4 + 1];
+    }
+
+    public int firstChild(int index) {
+        return mHierarchy[index * 4 + 2];
+    }
+
+    public int parent(int index) {
+        return mHierarchy[index * 4 + 3];
+    }
+
+    /**
+     * @return 是否是孔的边界，否则为外边界
+     */
+    public boolean isHole(int index) {
+        return mHoles[index];
+    }
+
+    /**
+     * 开始一个新的轮廓
+     */
+    void begin(boolean hole) {
+        if (mSize + 2 > mOffsets.length) {
+            int capacity = mOffsets.length * 2;
+            mOffsets = Arrays.copyOf(mOffsets, capacity);
+            mHierarchy = Arrays.copyOf(mHierarchy, capacity * 4);
+            mHoles = Arrays.copyOf(mHoles, capacity);
+        }
+        mHoles[mSize] = hole;
+        Arrays.fill(mHierarchy, mSize * 4, mSize * 4 + 4, -1);
+    }
+
+    /**
+     * 向当前轮廓添加一个点
+     */
+    void add(int x, int y) {
+        if (mPointCount * 2 + 2 > mPoints.length) {
+            mPoints = Arrays.copyOf(mPoints, mPoints.length * 2);
+        }
+        mPoints[mPointCount * 2] = x;
+        mPoints[mPointCount * 2 + 1] = y;
+        mPointCount++;
+    }
+
+    /**
+     * 结束当前轮廓，只保留水平、竖直和对角线方向线段的端点
+     */
+    void endSimple() {
+        int start = mOffsets[mSize];
+        int n = mPointCount - start;
+        if (n > 2) {
+            int[] p = mPoints;
+            // 第一个点的方向要和最后一个点比较，先记下
+            int lastX = p[(start + n - 1) * 2];
+            int lastY = p[(start + n - 1) * 2 + 1];
+            int firstX = p[start * 2];
+            int firstY = p[start * 2 + 1];
+            int prevX = lastX;
+            int prevY = lastY;
+            int kept = start;
+            for (int k = 0; k < n; k++) {
+                int x = p[(start + k) * 2];
+                int y = p[(start + k) * 2 + 1];
+                int nextX = k + 1 < n ? p[(start + k + 1) * 2] : firstX;
+                int nextY = k + 1 < n ? p[(start + k + 1) * 2 + 1] : firstY;
+                if (x - prevX != nextX - x || y - prevY != nextY - y) {
+                    p[kept * 2] = x;
+                    p[kept * 2 + 1] = y;
+                    kept++;
+                }
+                prevX = x;
+                prevY = y;
+            }
+            mPointCount = kept;
+        }
+        end();
+    }
+
+    /**
+     * 结束当前轮廓
+     */
+    void end() {
+        mSize++;
+        mOffsets[mSize] = mPointCount;
+    }
+
+    /**
+     * 设置层级
+     */
+    void setHierarchy(int index, int next, int previous, int firstChild, int parent) {
+        mHierarchy[index * 4] = next;
+        mHierarchy[index * 4 + 1] = previous;
+        mHierarchy[index * 4 + 2] = firstChild;
+        mHierarchy[index * 4 + 3] = parent;
+    }
+}
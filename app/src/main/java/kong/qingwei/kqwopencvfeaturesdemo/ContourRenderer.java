@@ -0,0 +1,146 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.Arrays;
+
+/**
+ * 一次画出{@link ContourList}中的所有轮廓
+ * <p>
+ * 所有轮廓先画到一个byte[]上，最后一次put到CV_8UC3的Mat中，代替逐个轮廓调用Imgproc.drawContours。
+ * 描边与drawContours的thickness为1、8连通时相同；填充时按扫描线填满每个轮廓围成的多边形，再描边，
+ * 后画的轮廓覆盖先画的。同一个实例不能被多个线程同时使用。
+ */
+public class ContourRenderer {
+
+    private byte[] mPixels = new byte[0];
+    private float[] mCrossings = new float[16];
+
+    /**
+     * 画出所有轮廓，画布先被清为黑色
+     *
+     * @param contours 轮廓
+     * @param colors   每个轮廓的颜色，按0xC0C1C2打包，C0为第一个通道
+     * @param fill     是否填充轮廓内部，否则只描边
+     * @param dst      CV_8UC3的输出，数据连续
+     */
+    public void render(ContourList contours, int[] colors, boolean fill, Mat dst) {
+        if (dst.type() != CvType.CV_8UC3) {
+            throw new IllegalArgumentException("dst must be CV_8UC3");
+        }
+        if (!dst.isContinuous()) {
+            throw new IllegalArgumentException("dst must be continuous");
+        }
+        int size = dst.rows() * dst.cols() * 3;
+        if (mPixels.length != size) {
+            mPixels = new byte[size];
+        }
+        render(contours, colors, fill, mPixels, dst.rows(), dst.cols());
+        dst.put(0, 0, mPixels);
+    }
+
+    /**
+     * 在按行存放的三通道byte[]上画出所有轮廓，参数同{@link #render(ContourList, int[], boolean, Mat)}
+     */
+    public void render(ContourList contours, int[] colors, boolean fill, byte[] dst, int rows, int cols) {
+        Arrays.fill(dst, 0, rows * cols * 3, (byte) 0);
+        for (int i = 0; i < contours.size(); i++) {
+            int color = colors[i];
+            if (fill) {
+                fill(contours, i, color, dst, rows, cols);
+            }
+            int start = contours.offset(i);
+            int n = contours.length(i);
+            for (int k = 0; k < n; k++) {
+                int a = start + k;
+                int b = start + (k + 1 < n ? k + 1 : 0);
+                line(contours.x(a), contours.y(a), contours.x(b), contours.y(b), color, dst, rows, cols);
+            }
+        }
+    }
+
+    /**
+     * 按扫描线填充一个轮廓，交点取在像素中心所在的水平线上，奇偶规则
+     */
+    private void fill(ContourList contours, int index, int color, byte[] dst, int rows, int cols) {
+        int start = contours.offset(index);
+        int n = contours.length(index);
+        if (n < 3) {
+            return;
+        }
+        int top = Integer.MAX_VALUE;
+        int bottom = Integer.MIN_VALUE;
+        for (int k = 0; k < n; k++) {
+            int y = contours.y(start + k);
+            top = Math.min(top, y);
+            bottom = Math.max(bottom, y);
+        }
+        if (mCrossings.length < n) {
+            mCrossings = new float[Math.max(n, mCrossings.length * 2)];
+        }
+        float[] crossings = mCrossings;
+        for (int y = Math.max(top, 0); y <= Math.min(bottom, rows - 1); y++) {
+            int count = 0;
+            for (int k = 0; k < n; k++) {
+                int a = start + k;
+                int b = start + (k + 1 < n ? k + 1 : 0);
+                int y0 = contours.y(a);
+                int y1 = contours.y(b);
+                // 半开区间，顶点不会被算两次
+                if (y0 <= y ? y1 > y : y1 <= y) {
+                    int x0 = contours.x(a);
+                    float x = x0 + (float) (y - y0) * (contours.x(b) - x0) / (y1 - y0);
+                    // 插入排序，交点通常很少
+                    int j = count++;
+                    while (j > 0 && crossings[j - 1] > x) {
+                        crossings[j] = crossings[j - 1];
+                        j--;
+                    }
+                    crossings[j] = x;
+                }
+            }
+            for (int j = 0; j + 1 < count; j += 2) {
+                int from = Math.max(0, (int) Math.ceil(crossings[j]));
+                int to = Math.min(cols - 1, (int) Math.floor(crossings[j + 1]));
+                for (int x = from; x <= to; x++) {
+                    set(dst, (y * cols + x) * 3, color);
+                }
+            }
+        }
+    }
+
+    /**
+     * Bresenham画8连通线段
+     */
+    private static void line(int x0, int y0, int x1, int y1, int color, byte[] dst, int rows, int cols) {
+        int dx = Math.abs(x1 - x0);
+        int dy = -Math.abs(y1 - y0);
+        int sx = x0 < x1 ? 1 : -1;
+        int sy = y0 < y1 ? 1 : -1;
+        int error = dx + dy;
+        while (true) {
+            if (x0 >= 0 && x0 < cols && y0 >= 0 && y0 < rows) {
+                set(dst, (y0 * cols + x0) * 3, color);
+            }
+            if (x0 == x1 && y0 == y1) {
+                return;
+            }
+            int e2 = 2 * error;
+            if (e2 >= dy) {
+                error += dy;
+                x0 += sx;
+            }
+            if (e2 <= dx) {
+                error += dx;
+                y0 += sy;
+            }
+        }
+    }
+
+    private static void set(byte[] dst, int offset, int color) {
+        dst[offset] = (byte) (color >> 16);
+        dst[offset + 1] = (byte) (color >> 8);
+        dst[offset + 2] = (byte) color;
+    }
+}
@@ -0,0 +1,250 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Arrays;
+
+/**
+ * 纯Java实现的轮廓跟踪（Suzuki-Abe边界跟踪算法）
+ * <p>
+ * 与Imgproc.findContours相同，非零像素视为前景，图像外围视为一圈背景；结果写入{@link ContourList}，
+ * 所有轮廓共用一个坐标数组，不会为每个轮廓分配一个MatOfPoint。输入图像不会被修改。
+ * 支持RETR_LIST、RETR_TREE两种检索模式和CHAIN_APPROX_NONE、CHAIN_APPROX_SIMPLE两种近似方法。
+ * <p>
+ * 除输出外只使用一个与图像等大（四周各多一像素）的int[]标记图，可以反复使用。同一个实例不能被多个线程同时使用。
+ */
+public class ContourTracer {
+
+    /**
+     * 8邻域按顺时针排列（y轴向下）：右、右下、下、左下、左、左上、上、右上
+     */
+    private static final int[] DX = {1, 1, 0, -1, -1, -1, 0, 1};
+    private static final int[] DY = {0, 1, 1, 1, 0, -1, -1, -1};
+
+    private byte[] mSrc = new byte[0];
+    private int[] mLabels = new int[0];
+    private int[] mParents = new int[16];
+    private int[] mLastChildren = new int[16];
+
+    /**
+     * 找出轮廓
+     *
+     * @param src    CV_8UC1的二值图像，数据连续
+     * @param mode   Imgproc.RETR_LIST或Imgproc.RETR_TREE
+     * @param method Imgproc.CHAIN_APPROX_NONE或Imgproc.CHAIN_APPROX_SIMPLE
+     * @param out    输出，原有内容会被清空
+     */
+    public void find(Mat src, int mode, int method, ContourList out) {
+        if (src.type() != CvType.CV_8UC1) {
+            throw new IllegalArgumentException("src must be CV_8UC1");
+        }
+        if (!src.isContinuous()) {
+            throw new IllegalArgumentException("src must be continuous");
+        }
+        int size = src.rows() * src.cols();
+        if (mSrc.length != size) {
+            mSrc = new byte[size];
+        }
+        src.get(0, 0, mSrc);
+        find(mSrc, src.rows(), src.cols(), mode, method, out);
+    }
+
+    /**
+     * 在按行存放的byte[]上找出轮廓，参数同{@link #find(Mat, int, int, ContourList)}
+     */
+    public void find(byte[] src, int rows, int cols, int mode, int method, ContourList out) {
+        if (mode != Imgproc.RETR_LIST && mode != Imgproc.RETR_TREE) {
+            throw new IllegalArgumentException("unsupported mode: " + mode);
+        }
+        if (method != Imgproc.CHAIN_APPROX_NONE && method != Imgproc.CHAIN_APPROX_SIMPLE) {
+            throw new IllegalArgumentException("unsupported method: " + method);
+        }
+        out.clear();
+
+        // 四周各补一像素的背景，跟踪时不用判断越界
+        int stride = cols + 2;
+        int size = stride * (rows + 2);
+        if (mLabels.length < size) {
+            mLabels = new int[size];
+        }
+        int[] f = mLabels;
+        Arrays.fill(f, 0, size, 0);
+        for (int y = 0; y < rows; y++) {
+            int s = y * cols;
+            int d = (y + 1) * stride + 1;
+            for (int x = 0; x < cols; x++) {
+                f[d + x] = src[s + x] != 0 ? 1 : 0;
+            }
+        }
+
+        int[] offsets = new int[8];
+        for (int k = 0; k < 8; k++) {
+            offsets[k] = DY[k] * stride + DX[k];
+        }
+
+        // 边界编号NBD从2开始，第n个轮廓的编号为n + 2；编号1是图像外框，视为孔边界
+        boolean simple = method == Imgproc.CHAIN_APPROX_SIMPLE;
+        for (int y = 1; y <= rows; y++) {
+            int lnbd = 1;
+            for (int x = 1; x <= cols; x++) {
+                int p = y * stride + x;
+                int value = f[p];
+                if (value == 0) {
+                    continue;
+                }
+                int from;
+                boolean hole;
+                if (value == 1 && f[p - 1] == 0) {
+                    // 外边界的起点
+                    from = 4;
+                    hole = false;
+                } else if (value >= 1 && f[p + 1] == 0) {
+                    // 孔边界的起点
+                    from = 0;
+                    hole = true;
+                    if (value > 1) {
+                        lnbd = value;
+                    }
+                } else {
+                    if (value != 1) {
+                        lnbd = Math.abs(value);
+                    }
+                    continue;
+                }
+
+                int index = out.size();
+                int nbd = index + 2;
+                out.begin(hole);
+                setParent(index, parentOf(out, hole, lnbd));
+                follow(f, p, from, nbd, stride, offsets, out);
+                if (simple) {
+                    out.endSimple();
+                } else {
+                    out.end();
+                }
+
+                if (f[p] != 1) {
+                    lnbd = Math.abs(f[p]);
+                }
+            }
+        }
+
+        link(out, mode == Imgproc.RETR_TREE);
+    }
+
+    /**
+     * 按Suzuki-Abe的规则确定新边界的父边界
+     *
+     * @return 父轮廓的下标，外框为-1
+     */
+    private int parentOf(ContourList out, boolean hole, int lnbd) {
+        if (lnbd < 2) {
+            // 外框视为孔边界，新的外边界以外框为父边界，都记为顶层
+            return -1;
+        }
+        int index = lnbd - 2;
+        return out.isHole(index) == hole ? mParents[index] : index;
+    }
+
+    private void setParent(int index, int parent) {
+        if (index >= mParents.length) {
+            mParents = Arrays.copyOf(mParents, mParents.length * 2);
+        }
+        mParents[index] = parent;
+    }
+
+    /**
+     * 从起点p开始沿边界跟踪，把经过的点写入当前轮廓
+     *
+     * @param from 起点处开始搜索的方向
+     */
+    private static void follow(int[] f, int p, int from, int nbd, int stride, int[] offsets, ContourList out) {
+        // 从from开始顺时针找第一个前景像素
+        int first = -1;
+        for (int k = 0; k < 8; k++) {
+            int d = (from + k) & 7;
+            if (f[p + offsets[d]] != 0) {
+                first = d;
+                break;
+            }
+        }
+        out.add(p % stride - 1, p / stride - 1);
+        if (first < 0) {
+            // 孤立点
+            f[p] = -nbd;
+            return;
+        }
+
+        int p1 = p + offsets[first];
+        int current = p;
+        // 当前点指向上一个点的方向
+        int back = first;
+        while (true) {
+            // 从上一个点的下一个位置开始逆时针找下一个前景像素
+            int d = back;
+            boolean eastExamined = false;
+            int next;
+            while (true) {
+                d = (d + 7) & 7;
+                next = current + offsets[d];
+                if (f[next] != 0) {
+                    break;
+                }
+                if (d == 0) {
+                    eastExamined = true;
+                }
+            }
+            if (eastExamined) {
+                f[current] = -nbd;
+            } else if (f[current] == 1) {
+                f[current] = nbd;
+            }
+            if (next == p && current == p1) {
+                return;
+            }
+            // 下一个点指向当前点的方向
+            back = (d + 4) & 7;
+            current = next;
+            out.add(current % stride - 1, current / stride - 1);
+        }
+    }
+
+    /**
+     * 建立next、previous、firstChild、parent层级
+     *
+     * @param tree 是否保留父子关系，否则所有轮廓在同一层
+     */
+    private void link(ContourList out, boolean tree) {
+        int n = out.size();
+        if (!tree) {
+            for (int i = 0; i < n; i++) {
+                out.setHierarchy(i, i + 1 < n ? i + 1 : -1, i - 1, -1, -1);
+            }
+            return;
+        }
+        if (mLastChildren.length < n) {
+            mLastChildren = new int[n];
+        }
+        int[] last = mLastChildren;
+        Arrays.fill(last, 0, n, -1);
+        // 顶层轮廓的上一个兄弟
+        int lastTop = -1;
+        for (int i = 0; i < n; i++) {
+            int parent = mParents[i];
+            int previous = parent < 0 ? lastTop : last[parent];
+            out.setHierarchy(i, -1, previous, -1, parent);
+            if (previous >= 0) {
+                out.setHierarchy(previous, i, out.previous(previous), out.firstChild(previous), out.parent(previous));
+            } else if (parent >= 0) {
+                out.setHierarchy(parent, out.next(parent), out.previous(parent), i, out.parent(parent));
+            }
+            if (parent < 0) {
+                lastTop = i;
+            } else {
+                last[parent] = i;
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+/**
+ * 紧凑的角点列表，坐标和响应值保存在基本类型数组中，可以反复使用
+ */
+public class CornerList {
+
+    private int[] mXY;
+    private float[] mResponse;
+    private int mSize;
+
+    public CornerList() {
+        this(256);
+    }
+
+    /**
+     * @param capacity 初始容量
+     */
+    public CornerList(int capacity) {
+        mXY = new int[capacity * 2];
+        mResponse = new float[capacity];
+    }
+
+    /**
+     * 添加一个角点
+     */
+    public void add(int x, int y, float response) {
+        if (mSize == mResponse.length) {
+            int capacity = Math.max(16, mSize * 2);
+            int[] xy = new int[capacity * 2];
+            float[] responses = new float[capacity];
+            System.arraycopy(mXY, 0, xy, 0, mSize * 2);
+            System.arraycopy(mResponse, 0, responses, 0, mSize);
+            mXY = xy;
+            mResponse = responses;
+        }
+        mXY[mSize * 2] = x;
+        mXY[mSize * 2 + 1] = y;
+        mResponse[mSize] = response;
+        mSize++;
+    }
+
+    /**
+     * 清空，保留已分配的数组
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * @return 角点数量
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public int x(int index) {
+        return mXY[index * 2];
+    }
+
+    public int y(int index) {
+        return mXY[index * 2 + 1];
+    }
+
+    public float response(int index) {
+        return mResponse[index];
+    }
+}
@@ -0,0 +1,428 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * 高斯差分（DoG）
+ * <p>
+ * 两次模糊在同一遍中完成：每一行输出只读取一次上下各大核半径以内的输入行，竖直方向中间2*r1+1行
+ * 同时累加到两个核，其余行只累加到大核；再分别做水平方向的卷积。
+ * 相减取绝对值、乘以系数和阈值化合并为一次查表，结果直接写入输出，不产生中间图像。
+ * <p>
+ * 模糊与OpenCV 2.4对8位图像的GaussianBlur逐位相同：系数取getGaussianKernel的单精度结果乘以256后取整，
+ * 两个方向都用整数累加，最后加2^15右移16位并饱和到8位，边界按BORDER_REFLECT_101处理。
+ * 整数累加没有误差，先竖直后水平与OpenCV先水平后竖直的结果相同。
+ * 系数取整后的和不一定正好是256，均匀的图像模糊后也可能与原值差1，这一点同样与OpenCV一致。
+ * 阈值化前的差值只要差1就可能翻转输出像素，因此不能用浮点模糊近似。
+ * <p>
+ * 每一行输出只依赖输入中上下各核半径以内的行，开启分带并行时各条带直接读取整幅输入中需要的行，
+ * 使用各自的临时行，结果与单线程处理完全一致。
+ * 同一个实例不能被多个线程同时使用。
+ */
+public class DogEngine {
+
+    private final BandExecutor mBandExecutor;
+
+    // 定点系数的小数位数，两个方向累加后共2 * BITS位
+    private static final int BITS = 8;
+    private static final int SHIFT = 2 * BITS;
+    private static final int DELTA = 1 << (SHIFT - 1);
+
+    // 竖直方向的结果，两个核各一行，左右各留出大核半径的边界
+    private int[] mInner = new int[0];
+    private int[] mOuter = new int[0];
+    private byte[] mSrc = new byte[0];
+    private byte[] mDst = new byte[0];
+    private final byte[] mLut = new byte[256];
+
+    public DogEngine() {
+        this(null);
+    }
+
+    /**
+     * @param bandExecutor 不为null时按行分带并行
+     */
+    public DogEngine(BandExecutor bandExecutor) {
+        mBandExecutor = bandExecutor;
+    }
+
+    /**
+     * @return 分带并行执行器，为null时单线程处理
+     */
+    public BandExecutor getBandExecutor() {
+        return mBandExecutor;
+    }
+
+    /**
+     * 高斯差分后阈值化，相当于依次执行GaussianBlur、GaussianBlur、absdiff、multiply和threshold
+     *
+     * @param src    CV_8UC1的输入，数据连续
+     * @param dst    CV_8UC1的输出，与输入尺寸相同，数据连续
+     * @param ksize1 第一次模糊的核大小，小于等于0时由sigma1推出
+     * @param ksize2 第二次模糊的核大小，小于等于0时由sigma2推出，得到的核不小于第一次的
+     * @param sigma1 第一次模糊的标准差，小于等于0时由ksize1推出
+     * @param sigma2 第二次模糊的标准差，小于等于0时由ksize2推出
+     * @param scale  差值乘以的系数
+     * @param thresh 阈值
+     * @param maxval 最大值
+     * @param type   Imgproc.THRESH_BINARY或Imgproc.THRESH_BINARY_INV
+     */
+    public void threshold(Mat src, Mat dst, int ksize1, int ksize2, double sigma1, double sigma2,
+                          double scale, double thresh, double maxval, int type) {
+        if (src.type() != CvType.CV_8UC1 || dst.type() != CvType.CV_8UC1) {
+            throw new IllegalArgumentException("src and dst must be CV_8UC1");
+        }
+        if (!src.isContinuous() || !dst.isContinuous()) {
+            throw new IllegalArgumentException("src and dst must be continuous");
+        }
+        int rows = src.rows();
+        int cols = src.cols();
+        int size = rows * cols;
+        if (mSrc.length != size) {
+            mSrc = new byte[size];
+            mDst = new byte[size];
+        }
+        src.get(0, 0, mSrc);
+        threshold(mSrc, mDst, rows, cols, ksize1, ksize2, sigma1, sigma2, scale, thresh, maxval, type);
+        dst.put(0, 0, mDst);
+    }
+
+    /**
+     * 在byte[]上执行{@link #threshold(Mat, Mat, int, int, double, double, double, double, double, int)}
+     */
+    public void threshold(byte[] src, byte[] dst, int rows, int cols, int ksize1, int ksize2,
+                          double sigma1, double sigma2, double scale, double thresh, double maxval, int type) {
+        int[] kernel1 = fixedKernel(ksize1, sigma1);
+        int[] kernel2 = fixedKernel(ksize2, sigma2);
+        if (kernel2.length < kernel1.length) {
+            throw new IllegalArgumentException("second blur must not be narrower than the first");
+        }
+        buildLut(scale, thresh, maxval, type);
+        sharedRows(src, dst, rows, cols, kernel1, kernel2);
+    }
+
+    /**
+     * 多个八度的DoG金字塔
+     * <p>
+     * 每个八度有scales+3层高斯，相邻两层相减得到scales+2层DoG，每层的sigma是上一层的2^(1/scales)倍，
+     * 每层只在上一层的基础上做增量模糊。下一个八度由本八度sigma为2σ0的那一层隔点采样得到。
+     *
+     * @param src     灰度图
+     * @param rows    行数
+     * @param cols    列数
+     * @param octaves 最多的八度数，图像边长小于8时提前结束
+     * @param scales  每个八度的尺度数
+     * @param sigma0  每个八度第一层的标准差
+     * @return 金字塔
+     */
+    public static DogPyramid pyramid(byte[] src, int rows, int cols, int octaves, int scales, double sigma0) {
+        if (octaves < 1 || scales < 1 || sigma0 <= 0) {
+            throw new IllegalArgumentException("octaves=" + octaves + ", scales=" + scales + ", sigma0=" + sigma0);
+        }
+        int levels = scales + 3;
+        double[] sigmas = new double[levels];
+        float[][] increments = new float[levels][];
+        for (int i = 0; i < levels; i++) {
+            sigmas[i] = sigma0 * Math.pow(2, (double) i / scales);
+            if (i > 0) {
+                increments[i] = kernel(0, Math.sqrt(sigmas[i] * sigmas[i] - sigmas[i - 1] * sigmas[i - 1]));
+            }
+        }
+
+        float[] base = new float[rows * cols];
+        for (int i = 0; i < base.length; i++) {
+            base[i] = src[i] & 0xFF;
+        }
+        float[] row = new float[0];
+        float[] gaussian = new float[base.length];
+        row = blur(base, gaussian, rows, cols, kernel(0, sigma0), row);
+
+        DogPyramid pyramid = new DogPyramid(scales + 2, sigmas);
+        for (int o = 0; o < octaves && rows >= 8 && cols >= 8; o++) {
+            float[][] dogs = new float[scales + 2][];
+            float[] next = null;
+            for (int i = 1; i < levels; i++) {
+                float[] blurred = new float[rows * cols];
+                row = blur(gaussian, blurred, rows, cols, increments[i], row);
+                float[] dog = new float[rows * cols];
+                for (int p = 0; p < dog.length; p++) {
+                    dog[p] = blurred[p] - gaussian[p];
+                }
+                dogs[i - 1] = dog;
+                if (i == scales) {
+                    next = blurred;
+                }
+                gaussian = blurred;
+            }
+            pyramid.addOctave(rows, cols, dogs);
+
+            // 隔点采样得到下一个八度，sigma回到σ0
+            int nextRows = rows / 2;
+            int nextCols = cols / 2;
+            gaussian = new float[nextRows * nextCols];
+            for (int y = 0; y < nextRows; y++) {
+                for (int x = 0; x < nextCols; x++) {
+                    gaussian[y * nextCols + x] = next[2 * y * cols + 2 * x];
+                }
+            }
+            rows = nextRows;
+            cols = nextCols;
+        }
+        return pyramid;
+    }
+
+    /**
+     * 归一化的一维高斯核，与Imgproc.getGaussianKernel一致
+     *
+     * @param ksize 核大小，小于等于0时由sigma推出
+     * @param sigma 标准差，小于等于0时由ksize推出
+     */
+    static float[] kernel(int ksize, double sigma) {
+        if (ksize <= 0) {
+            ksize = (int) Math.round(sigma * 3) * 2 + 1;
+        }
+        if (sigma <= 0) {
+            sigma = 0.3 * ((ksize - 1) * 0.5 - 1) + 0.8;
+        }
+        double[] weights = weights(ksize, sigma);
+        double sum = 0;
+        for (double weight : weights) {
+            sum += weight;
+        }
+        float[] kernel = new float[ksize];
+        for (int i = 0; i < ksize; i++) {
+            kernel[i] = (float) (weights[i] / sum);
+        }
+        return kernel;
+    }
+
+    /**
+     * OpenCV 2.4对8位图像模糊时使用的定点系数
+     * <p>
+     * 与getGaussianKernel相同：核大小不超过7且sigma小于等于0时取固定的系数表，否则按单精度计算并归一化；
+     * 再乘以2^BITS四舍五入（恰好为.5时取偶数）。核大小小于等于0时按8位图像的规则由sigma推出。
+     *
+     * @param ksize 核大小，奇数
+     * @param sigma 标准差，小于等于0时由ksize推出
+     */
+    static int[] fixedKernel(int ksize, double sigma) {
+        if (ksize <= 0) {
+            ksize = (int) Math.rint(sigma * 3 * 2 + 1) | 1;
+        }
+        if (ksize % 2 == 0) {
+            throw new IllegalArgumentException("ksize must be odd: " + ksize);
+        }
+        float[] kernel = new float[ksize];
+        if (ksize <= 7 && sigma <= 0) {
+            System.arraycopy(SMALL_GAUSSIAN[ksize / 2], 0, kernel, 0, ksize);
+        } else {
+            if (sigma <= 0) {
+                sigma = ((ksize - 1) * 0.5 - 1) * 0.3 + 0.8;
+            }
+            double scale = -0.5 / (sigma * sigma);
+            double sum = 0;
+            for (int i = 0; i < ksize; i++) {
+                double x = i - (ksize - 1) * 0.5;
+                kernel[i] = (float) Math.exp(scale * x * x);
+                sum += kernel[i];
+            }
+            sum = 1. / sum;
+            for (int i = 0; i < ksize; i++) {
+                kernel[i] = (float) (kernel[i] * sum);
+            }
+        }
+        int[] fixed = new int[ksize];
+        for (int i = 0; i < ksize; i++) {
+            fixed[i] = (int) Math.rint(kernel[i] * (1 << BITS));
+        }
+        return fixed;
+    }
+
+    /**
+     * getGaussianKernel中核大小为1、3、5、7时的固定系数
+     */
+    private static final float[][] SMALL_GAUSSIAN = {
+            {1f},
+            {0.25f, 0.5f, 0.25f},
+            {0.0625f, 0.25f, 0.375f, 0.25f, 0.0625f},
+            {0.03125f, 0.109375f, 0.21875f, 0.28125f, 0.21875f, 0.109375f, 0.03125f}
+    };
+
+    /**
+     * 未归一化的高斯系数
+     */
+    private static double[] weights(int ksize, double sigma) {
+        double[] weights = new double[ksize];
+        int radius = ksize / 2;
+        for (int i = 0; i < ksize; i++) {
+            int d = i - radius;
+            weights[i] = Math.exp(-d * d / (2 * sigma * sigma));
+        }
+        return weights;
+    }
+
+    /**
+     * BORDER_REFLECT_101
+     */
+    static int reflect(int i, int n) {
+        if (n == 1) {
+            return 0;
+        }
+        while (i < 0 || i >= n) {
+            i = i < 0 ? -i : 2 * n - 2 - i;
+        }
+        return i;
+    }
+
+    /**
+     * 相减取绝对值、乘以系数和阈值化合并为查表
+     */
+    private void buildLut(double scale, double thresh, double maxval, int type) {
+        if (type != Imgproc.THRESH_BINARY && type != Imgproc.THRESH_BINARY_INV) {
+            throw new IllegalArgumentException("unsupported threshold type " + type);
+        }
+        byte high = (byte) Math.max(0, Math.min(255, Math.round(maxval)));
+        for (int d = 0; d < 256; d++) {
+            // multiply在8位上饱和取整
+            long scaled = Math.max(0, Math.min(255, Math.round(d * scale)));
+            boolean above = scaled > thresh;
+            mLut[d] = (type == Imgproc.THRESH_BINARY) == above ? high : 0;
+        }
+    }
+
+    /**
+     * 两次模糊共用竖直方向读取的输入行，逐行输出
+     */
+    private void sharedRows(final byte[] src, final byte[] dst, final int rows, final int cols,
+                            final int[] kernel1, final int[] kernel2) {
+        final int padded = cols + 2 * (kernel2.length / 2);
+        if (null == mBandExecutor) {
+            if (mInner.length < padded) {
+                mInner = new int[padded];
+                mOuter = new int[padded];
+            }
+            sharedRows(src, dst, rows, cols, 0, rows, kernel1, kernel2, mInner, mOuter);
+            return;
+        }
+        mBandExecutor.run(rows, new BandExecutor.BandTask() {
+            @Override
+            public void apply(int from, int to) {
+                sharedRows(src, dst, rows, cols, from, to, kernel1, kernel2, new int[padded], new int[padded]);
+            }
+        });
+    }
+
+    /**
+     * 输出[from, to)行
+     *
+     * @param inner 临时行，不小于cols + 2 * r2
+     * @param outer 临时行，不小于cols + 2 * r2
+     */
+    private void sharedRows(byte[] src, byte[] dst, int rows, int cols, int from, int to,
+                            int[] kernel1, int[] kernel2, int[] inner, int[] outer) {
+        int r1 = kernel1.length / 2;
+        int r2 = kernel2.length / 2;
+        for (int y = from; y < to; y++) {
+            // 竖直方向：中间2*r1+1行属于两个核，其余行只属于大核
+            for (int x = 0; x < cols; x++) {
+                inner[r2 + x] = 0;
+                outer[r2 + x] = 0;
+            }
+            for (int k = -r2; k <= r2; k++) {
+                int offset = reflect(y + k, rows) * cols;
+                int weight2 = kernel2[k + r2];
+                if (Math.abs(k) <= r1) {
+                    int weight1 = kernel1[k + r1];
+                    for (int x = 0; x < cols; x++) {
+                        int v = src[offset + x] & 0xFF;
+                        inner[r2 + x] += weight1 * v;
+                        outer[r2 + x] += weight2 * v;
+                    }
+                } else {
+                    for (int x = 0; x < cols; x++) {
+                        outer[r2 + x] += weight2 * (src[offset + x] & 0xFF);
+                    }
+                }
+            }
+            // 左右边界
+            for (int i = 1; i <= r2; i++) {
+                inner[r2 - i] = inner[r2 + reflect(-i, cols)];
+                outer[r2 - i] = outer[r2 + reflect(-i, cols)];
+                inner[r2 + cols - 1 + i] = inner[r2 + reflect(cols - 1 + i, cols)];
+                outer[r2 + cols - 1 + i] = outer[r2 + reflect(cols - 1 + i, cols)];
+            }
+            // 水平方向，两个结果取整到8位后直接相减查表
+            int rowOffset = y * cols;
+            for (int x = 0; x < cols; x++) {
+                int b1 = 0;
+                int start1 = r2 - r1 + x;
+                for (int k = 0; k < kernel1.length; k++) {
+                    b1 += kernel1[k] * inner[start1 + k];
+                }
+                int b2 = 0;
+                for (int k = 0; k < kernel2.length; k++) {
+                    b2 += kernel2[k] * outer[x + k];
+                }
+                int d = Math.abs(toByte(b1) - toByte(b2));
+                dst[rowOffset + x] = mLut[d];
+            }
+        }
+    }
+
+    /**
+     * 定点结果四舍五入并饱和到8位
+     */
+    private static int toByte(int value) {
+        return Math.min(255, (value + DELTA) >> SHIFT);
+    }
+
+    /**
+     * 可分离的高斯模糊，src与dst不能是同一个数组
+     *
+     * @param row 可复用的临时行，长度不够时重新分配
+     * @return 临时行
+     */
+    static float[] blur(float[] src, float[] dst, int rows, int cols, float[] kernel, float[] row) {
+        return blur(src, dst, rows, cols, kernel, row, 0, rows);
+    }
+
+    /**
+     * 只输出[from, to)行的可分离高斯模糊，上下的边界行直接从src中读取
+     */
+    static float[] blur(float[] src, float[] dst, int rows, int cols, float[] kernel, float[] row, int from, int to) {
+        int radius = kernel.length / 2;
+        int padded = cols + 2 * radius;
+        if (row.length < padded) {
+            row = new float[padded];
+        }
+        for (int y = from; y < to; y++) {
+            // 竖直方向
+            for (int x = 0; x < cols; x++) {
+                row[radius + x] = 0;
+            }
+            for (int k = -radius; k <= radius; k++) {
+                int offset = reflect(y + k, rows) * cols;
+                float weight = kernel[k + radius];
+                for (int x = 0; x < cols; x++) {
+                    row[radius + x] += weight * src[offset + x];
+                }
+            }
+            for (int i = 1; i <= radius; i++) {
+                row[radius - i] = row[radius + reflect(-i, cols)];
+                row[radius + cols - 1 + i] = row[radius + reflect(cols - 1 + i, cols)];
+            }
+            // 水平方向
+            int rowOffset = y * cols;
+            for (int x = 0; x < cols; x++) {
+                float sum = 0;
+                for (int k = 0; k < kernel.length; k++) {
+                    sum += kernel[k] * row[x + k];
+                }
+                dst[rowOffset + x] = sum;
+            }
+        }
+        return row;
+    }
+}
@@ -0,0 +1,71 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 多个八度的DoG金字塔，由{@link DogEngine#pyramid(byte[], int, int, int, int, double)}生成
+ * <p>
+ * 每层DoG按行存放在float[]中，第o个八度的尺寸为原图的1/2^o。
+ */
+public class DogPyramid {
+
+    private final int mLevels;
+    private final double[] mSigmas;
+    private final List<int[]> mSizes = new ArrayList<>();
+    private final List<float[][]> mOctaves = new ArrayList<>();
+
+    DogPyramid(int levels, double[] sigmas) {
+        mLevels = levels;
+        mSigmas = sigmas;
+    }
+
+    void addOctave(int rows, int cols, float[][] dogs) {
+        mSizes.add(new int[]{rows, cols});
+        mOctaves.add(dogs);
+    }
+
+    /**
+     * @return 八度数
+     */
+    public int octaves() {
+        return mOctaves.size();
+    }
+
+    /**
+     * @return 每个八度的DoG层数
+     */
+    public int levels() {
+        return mLevels;
+    }
+
+    /**
+     * @return 第octave个八度的行数
+     */
+    public int rows(int octave) {
+        return mSizes.get(octave)[0];
+    }
+
+    /**
+     * @return 第octave个八度的列数
+     */
+    public int cols(int octave) {
+        return mSizes.get(octave)[1];
+    }
+
+    /**
+     * @return 第octave个八度第level层的DoG，按行存放
+     */
+    public float[] get(int octave, int level) {
+        return mOctaves.get(octave)[level];
+    }
+
+    /**
+     * 第level层DoG是sigma为sigma(octave, level + 1)与sigma(octave, level)的两层高斯相减
+     *
+     * @return 第octave个八度第level层高斯相对原图的标准差
+     */
+    public double sigma(int octave, int level) {
+        return mSigmas[level] * (1 << octave);
+    }
+}
@@ -0,0 +1,422 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Range;
+import org.opencv.imgproc.Imgproc;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * 灰度图、模糊后的灰度图、Canny边缘图和积分图的共享缓存
+ * <p>
+ * 同一张图片依次执行多个检测算法时，Bitmap转Mat、置灰和Canny只计算一次。
+ * 缓存以图片对象、图片的generationId、金字塔层级和算法参数作为key，Mat和积分图共用同一个字节数上限做LRU淘汰。
+ * 层级大于0时灰度图由上一层pyrDown得到，宽高各缩小一半。
+ * <p>
+ * 返回给调用者的Mat是共享底层数据的新Mat头，调用者只能读取，使用完毕后调用close()即可，
+ * 缓存淘汰时底层数据由OpenCV的引用计数负责释放。
+ * <p>
+ * 锁只在查找和放入缓存时持有，置灰、模糊、Canny等计算在锁外进行，不同图片、不同阶段可以同时计算；
+ * 同一个key正在被其他线程计算时等待其结束，不会重复计算。
+ */
+public class EdgeStageCache {
+
+    /**
+     * 默认缓存上限 32MB
+     */
+    public static final int DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+    private static final int STAGE_GRAY = 0;
+    private static final int STAGE_CANNY = 1;
+    private static final int STAGE_INTEGRAL = 2;
+    private static final int STAGE_BLURRED_GRAY = 3;
+
+    // 值为Mat或IntegralImage
+    private final LruCache<Key, Object> mCache;
+    private final BitmapConverter mBitmapConverter;
+    // 正在计算的key，由this保护
+    private final Map<Key, FutureTask<?>> mPending = new HashMap<>();
+
+    public EdgeStageCache() {
+        this(DEFAULT_MAX_BYTES, new BitmapConverter());
+    }
+
+    /**
+     * @param maxBytes        缓存的Mat和积分图一共最多占用的内存字节数
+     * @param bitmapConverter 原图转Mat使用的转换器
+     */
+    public EdgeStageCache(int maxBytes, BitmapConverter bitmapConverter) {
+        mBitmapConverter = bitmapConverter;
+        mCache = new LruCache<Key, Object>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, Object value) {
+                if (value instanceof IntegralImage) {
+                    IntegralImage integral = (IntegralImage) value;
+                    int cells = (integral.rows() + 1) * (integral.cols() + 1);
+                    return cells * (4 + (integral.hasSquared() ? 8 : 0) + (integral.hasTilted() ? 4 : 0));
+                }
+                Mat mat = (Mat) value;
+                return (int) (mat.total() * mat.elemSize());
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Key key, Object oldValue, Object newValue) {
+                // 只释放缓存持有的Mat头，外部仍在使用的Mat头不受影响；积分图交给GC
+                if (oldValue instanceof Mat) {
+                    ((Mat) oldValue).close();
+                }
+            }
+        };
+    }
+
+    /**
+     * 获取图片的灰度图
+     *
+     * @param bitmap 原图
+     * @return 灰度图（只读，使用完毕后调用close()）
+     */
+    public Mat gray(Bitmap bitmap) {
+        return gray(bitmap, 0);
+    }
+
+    /**
+     * 获取图片缩小后的灰度图
+     *
+     * @param bitmap 原图
+     * @param level  金字塔层级，0为原始尺寸，每增加一层宽高各缩小一半
+     * @return 灰度图（只读，使用完毕后调用close()）
+     */
+    public Mat gray(final Bitmap bitmap, final int level) {
+        return obtain(new Key(bitmap, STAGE_GRAY, level, 0, 0), new Callable<Mat>() {
+            @Override
+            public Mat call() {
+                Mat grayMat = new Mat();
+                if (level > 0) {
+                    // 由上一层缩小得到
+                    Mat upper = gray(bitmap, level - 1);
+                    Imgproc.pyrDown(upper, grayMat);
+                    upper.close();
+                } else {
+                    // Bitmap转为Mat，原图不变时复用上次转换的结果
+                    Mat src = mBitmapConverter.toRgba(bitmap);
+
+                    // 原图置灰
+                    Imgproc.cvtColor(src, grayMat, Imgproc.COLOR_BGR2GRAY);
+                    src.close();
+                }
+                return grayMat;
+            }
+        });
+    }
+
+    /**
+     * 获取图片模糊后的灰度图
+     * <p>
+     * 总是由{@link GrayBlurFrontEnd}计算：原始尺寸下灰度图还没有缓存时从RGBA原图一遍完成置灰和模糊，
+     * keepGray为true时顺便输出灰度图并放入缓存；灰度图已经缓存或者在缩小的层级上时对该层的灰度图只做模糊。
+     * 两种方式的结果完全相同，与缓存状态无关。
+     *
+     * @param bitmap       原图
+     * @param level        金字塔层级，0为原始尺寸，每增加一层宽高各缩小一半
+     * @param ksize        核大小，奇数
+     * @param sigma        标准差
+     * @param keepGray     是否同时缓存未模糊的灰度图
+     * @param bandExecutor 计算时使用的分带并行执行器，可以为null
+     * @return 模糊后的灰度图（只读，使用完毕后调用close()）
+     */
+    public Mat blurredGray(final Bitmap bitmap, final int level, final int ksize, final double sigma,
+                           final boolean keepGray, final BandExecutor bandExecutor) {
+        return obtain(new Key(bitmap, STAGE_BLURRED_GRAY, level, ksize, sigma), new Callable<Mat>() {
+            @Override
+            public Mat call() {
+                GrayBlurFrontEnd frontEnd = new GrayBlurFrontEnd(ksize, sigma, bandExecutor);
+                Key grayKey = new Key(bitmap, STAGE_GRAY, level, 0, 0);
+                Mat grayMat = peek(grayKey);
+                if (level > 0 || null != grayMat) {
+                    // 已有灰度图时只做模糊
+                    if (null == grayMat) {
+                        grayMat = gray(bitmap, level);
+                    }
+                    Mat blurred = new Mat(grayMat.rows(), grayMat.cols(), CvType.CV_8UC1);
+                    frontEnd.blur(grayMat, blurred);
+                    grayMat.close();
+                    return blurred;
+                }
+
+                Mat src = mBitmapConverter.toRgba(bitmap);
+                Mat blurred = new Mat(src.rows(), src.cols(), CvType.CV_8UC1);
+                grayMat = keepGray ? new Mat(src.rows(), src.cols(), CvType.CV_8UC1) : null;
+                frontEnd.process(src, blurred, grayMat);
+                src.close();
+                if (null != grayMat) {
+                    insert(grayKey, grayMat);
+                }
+                return blurred;
+            }
+        });
+    }
+
+    /**
+     * 获取图片的Canny边缘图
+     *
+     * @param bitmap     原图
+     * @param threshold1 Canny第一个阈值
+     * @param threshold2 Canny第二个阈值
+     * @return 边缘图（只读，使用完毕后调用close()）
+     */
+    public Mat canny(Bitmap bitmap, double threshold1, double threshold2) {
+        return canny(bitmap, 0, threshold1, threshold2);
+    }
+
+    /**
+     * 获取图片缩小后的Canny边缘图
+     *
+     * @param bitmap     原图
+     * @param level      金字塔层级，0为原始尺寸，每增加一层宽高各缩小一半
+     * @param threshold1 Canny第一个阈值
+     * @param threshold2 Canny第二个阈值
+     * @return 边缘图（只读，使用完毕后调用close()）
+     */
+    public Mat canny(final Bitmap bitmap, final int level, final double threshold1, final double threshold2) {
+        return obtain(new Key(bitmap, STAGE_CANNY, level, threshold1, threshold2), new Callable<Mat>() {
+            @Override
+            public Mat call() {
+                Mat grayMat = gray(bitmap, level);
+
+                // Canny边缘检测器检测图像边缘
+                Mat cannyEdges = new Mat();
+                Imgproc.Canny(grayMat, cannyEdges, threshold1, threshold2);
+                grayMat.close();
+                return cannyEdges;
+            }
+        });
+    }
+
+    /**
+     * 获取图片灰度图的积分图
+     * <p>
+     * 积分图与灰度图放在同一个缓存中，同一张图片上的多次盒式滤波、窗口求和只构建一次。
+     *
+     * @param bitmap       原图
+     * @param level        金字塔层级，0为原始尺寸，每增加一层宽高各缩小一半
+     * @param squared      是否需要平方和
+     * @param tilted       是否需要旋转积分图
+     * @param bandExecutor 构建时使用的分带并行执行器，可以为null
+     * @return 积分图（只读）
+     */
+    public IntegralImage integral(final Bitmap bitmap, final int level, final boolean squared, final boolean tilted,
+                                  final BandExecutor bandExecutor) {
+        Key key = new Key(bitmap, STAGE_INTEGRAL, level, squared ? 1 : 0, tilted ? 1 : 0);
+        return obtain(key, new Callable<IntegralImage>() {
+            @Override
+            public IntegralImage call() {
+                Mat grayMat = gray(bitmap, level);
+                // 不使用build(Mat)，缓存的积分图不必保留灰度数据的副本
+                byte[] pixels = new byte[(int) grayMat.total()];
+                grayMat.get(0, 0, pixels);
+                IntegralImage integral = new IntegralImage(bandExecutor);
+                integral.build(pixels, grayMat.rows(), grayMat.cols(), squared, tilted);
+                grayMat.close();
+                return integral;
+            }
+        });
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        mCache.evictAll();
+    }
+
+    /**
+     * 移除某张图片的所有缓存，图片处理完不再使用时调用，尽早释放内存
+     * <p>
+     * 已经被回收的图片留下的缓存也一并移除。
+     *
+     * @param bitmap 原图
+     */
+    public synchronized void remove(Bitmap bitmap) {
+        for (Key key : mCache.snapshot().keySet()) {
+            Bitmap cached = key.mBitmap.get();
+            if (cached == bitmap || null == cached) {
+                mCache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 从缓存中取出结果，没有时在调用者的线程中计算并放入缓存
+     * <p>
+     * 只在查找和放入时持有锁。同一个key正在被其他线程计算时等待其结束后重新查找，
+     * 结果已经被淘汰时再由当前线程计算；计算失败时所有等待的线程抛出同样的异常。
+     *
+     * @param loader 在锁外执行的计算
+     * @return 缓存的结果，Mat为共享数据的新Mat头
+     */
+    private <V> V obtain(final Key key, final Callable<V> loader) {
+        while (true) {
+            FutureTask<V> task;
+            boolean owner = false;
+            synchronized (this) {
+                @SuppressWarnings("unchecked")
+                V value = (V) mCache.get(key);
+                if (null != value) {
+                    return export(value);
+                }
+                @SuppressWarnings("unchecked")
+                FutureTask<V> pending = (FutureTask<V>) mPending.get(key);
+                task = pending;
+                if (null == task) {
+                    task = new FutureTask<>(new Callable<V>() {
+                        @Override
+                        public V call() throws Exception {
+                            V computed = null;
+                            V result = null;
+                            try {
+                                computed = loader.call();
+                            } finally {
+                                synchronized (EdgeStageCache.this) {
+                                    mPending.remove(key);
+                                    if (null != computed) {
+                                        // 先创建返回给调用者的Mat头，避免超过上限的Mat放入后立即被淘汰释放
+                                        result = export(computed);
+                                        mCache.put(key, computed);
+                                    }
+                                }
+                            }
+                            return result;
+                        }
+                    });
+                    mPending.put(key, task);
+                    owner = true;
+                }
+            }
+            if (owner) {
+                task.run();
+                return await(task);
+            }
+            // 等待其他线程算完，结果属于那个线程，重新从缓存中取
+            await(task);
+        }
+    }
+
+    /**
+     * 取出已经缓存的Mat，没有时返回null，不会计算
+     */
+    private synchronized Mat peek(Key key) {
+        Mat mat = (Mat) mCache.get(key);
+        return null == mat ? null : share(mat);
+    }
+
+    /**
+     * 计算某个key时顺便得到的其他结果直接放入缓存
+     */
+    private synchronized void insert(Key key, Mat value) {
+        mCache.put(key, value);
+    }
+
+    /**
+     * 等待计算结束，不响应中断（计算还在使用缓存），抛出计算中的异常
+     */
+    private static <V> V await(FutureTask<V> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 返回给调用者的结果，Mat创建共享数据的新Mat头，其他结果本身就是只读的
+     */
+    @SuppressWarnings("unchecked")
+    private static <V> V export(V value) {
+        return value instanceof Mat ? (V) share((Mat) value) : value;
+    }
+
+    /**
+     * 创建共享底层数据的Mat头
+     */
+    private static Mat share(Mat mat) {
+        return new Mat(mat, Range.all());
+    }
+
+    /**
+     * 缓存的key，弱引用持有图片，不影响图片回收
+     */
+    private static final class Key {
+        private final WeakReference<Bitmap> mBitmap;
+        private final int mIdentity;
+        private final int mGenerationId;
+        private final int mStage;
+        private final int mLevel;
+        private final double mParam1;
+        private final double mParam2;
+
+        Key(Bitmap bitmap, int stage, int level, double param1, double param2) {
+            mBitmap = new WeakReference<>(bitmap);
+            mIdentity = System.identityHashCode(bitmap);
+            mGenerationId = bitmap.getGenerationId();
+            mStage = stage;
+            mLevel = level;
+            mParam1 = param1;
+            mParam2 = param2;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            Bitmap bitmap = mBitmap.get();
+            return null != bitmap
+                    && bitmap == key.mBitmap.get()
+                    && mGenerationId == key.mGenerationId
+                    && mStage == key.mStage
+                    && mLevel == key.mLevel
+                    && Double.compare(mParam1, key.mParam1) == 0
+                    && Double.compare(mParam2, key.mParam2) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mIdentity;
+            result = 31 * result + mGenerationId;
+            result = 31 * result + mStage;
+            result = 31 * result + mLevel;
+            long bits = Double.doubleToLongBits(mParam1);
+            result = 31 * result + (int) (bits ^ (bits >>> 32));
+            bits = Double.doubleToLongBits(mParam2);
+            result = 31 * result + (int) (bits ^ (bits >>> 32));
+            return result;
+        }
+    }
+}
@@ -0,0 +1,699 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 声明式的图算
+ * <p>
+ * 每个处理步骤是图中的一个节点，例如 原图 → 灰度 → 模糊/Canny/Sobel → 检测 → 绘制。
+ * 算子名称（含参数）和输入都相同的节点自动合并，多个算法共用的前置步骤只计算一次，
+ * 互不依赖的分支（如Sobel的X、Y方向，高斯差分的两次模糊）由{@link GraphExecutor}并行执行。
+ * <p>
+ * 灰度图、Canny边缘图和积分图直接取自{@link EdgeStageCache}，不占用图中的输入。
+ * <p>
+ * 算子的参数按原图尺寸给出，在缩小的预览层级上执行时由算子按{@link StageContext#getScale()}自行缩放，
+ * 同一张图可以直接在不同层级上执行。
+ */
+public class FeatureGraph {
+
+    private final Map<String, Node> mNodes = new LinkedHashMap<>();
+
+    /**
+     * 图中的节点
+     */
+    public static final class Node {
+
+        private final FeatureGraph mGraph;
+        private final int mId;
+        private final Operator mOperator;
+        private final Node[] mInputs;
+        private String mSignature;
+
+        private Node(FeatureGraph graph, int id, Operator operator, Node[] inputs) {
+            mGraph = graph;
+            mId = id;
+            mOperator = operator;
+            mInputs = inputs;
+        }
+
+        FeatureGraph getGraph() {
+            return mGraph;
+        }
+
+        int getId() {
+            return mId;
+        }
+
+        Operator getOperator() {
+            return mOperator;
+        }
+
+        Node[] getInputs() {
+            return mInputs;
+        }
+
+        /**
+         * @return 算子名称（含参数）和所有前置节点的签名，与节点所在的图无关，可以作为结果缓存的key
+         */
+        public synchronized String getSignature() {
+            if (null == mSignature) {
+                StringBuilder signature = new StringBuilder(mOperator.getName());
+                if (mInputs.length > 0) {
+                    signature.append('[');
+                    for (int i = 0; i < mInputs.length; i++) {
+                        if (i > 0) {
+                            signature.append(',');
+                        }
+                        signature.append(mInputs[i].getSignature());
+                    }
+                    signature.append(']');
+                }
+                mSignature = signature.toString();
+            }
+            return mSignature;
+        }
+
+        @Override
+        public String toString() {
+            return mId + ":" + mOperator.getName();
+        }
+    }
+
+    /**
+     * 添加节点，名称和输入相同的节点只会添加一次
+     *
+     * @param operator 算子
+     * @param inputs   输入节点
+     * @return 节点
+     */
+    public synchronized Node node(Operator operator, Node... inputs) {
+        StringBuilder key = new StringBuilder(operator.getName());
+        for (Node input : inputs) {
+            if (input.mGraph != this) {
+                throw new IllegalArgumentException("input " + input + " belongs to another graph");
+            }
+            key.append('#').append(input.mId);
+        }
+        String nodeKey = key.toString();
+        Node node = mNodes.get(nodeKey);
+        if (null == node) {
+            node = new Node(this, mNodes.size(), operator, inputs.clone());
+            mNodes.put(nodeKey, node);
+        }
+        return node;
+    }
+
+    /**
+     * @return 图中节点的数量
+     */
+    public synchronized int size() {
+        return mNodes.size();
+    }
+
+    // ------------------------------------------------------------------ 基础算子
+
+    /**
+     * 原图置灰
+     */
+    public Node gray() {
+        return node(new Operator("gray") {
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                return context.getEdgeStageCache().gray(context.getSource(), context.getLevel());
+            }
+        });
+    }
+
+    /**
+     * 原图置灰并高斯模糊，由{@link GrayBlurFrontEnd}一遍完成，代替gaussianBlur(gray(), ...)
+     *
+     * @param ksize    核大小（原图尺寸下）
+     * @param sigma    标准差（原图尺寸下）
+     * @param keepGray 是否同时缓存未模糊的灰度图，图中还有其他节点使用gray()时为true
+     */
+    public Node blurredGray(final int ksize, final double sigma, final boolean keepGray) {
+        return node(new Operator("blurredGray(" + ksize + "," + sigma + "," + keepGray + ")") {
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                return context.getEdgeStageCache().blurredGray(context.getSource(), context.getLevel(),
+                        scaleKernel(context, ksize), sigma * context.getScale(), keepGray, context.getBandExecutor());
+            }
+        });
+    }
+
+    /**
+     * Canny边缘检测
+     *
+     * @param threshold1 第一个阈值
+     * @param threshold2 第二个阈值
+     */
+    public Node canny(final double threshold1, final double threshold2) {
+        return node(new Operator("canny(" + threshold1 + "," + threshold2 + ")") {
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                return context.getEdgeStageCache().canny(context.getSource(), context.getLevel(), threshold1, threshold2);
+            }
+        });
+    }
+
+    /**
+     * 灰度图上的均值滤波，窗口求和取自{@link EdgeStageCache#integral}缓存的积分图，
+     * 同一张图片上不同窗口大小的均值滤波共用一次构建，开销与窗口大小无关
+     *
+     * @param ksize 窗口边长（原图尺寸下）
+     */
+    public Node boxFilter(final int ksize) {
+        return node(new Operator("boxFilter(" + ksize + ")") {
+            private byte[] mPixels = new byte[0];
+
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                IntegralImage integral = context.getEdgeStageCache().integral(context.getSource(),
+                        context.getLevel(), false, false, context.getBandExecutor());
+                Mat dst = context.getMatPool().acquire(integral.rows(), integral.cols(), CvType.CV_8UC1);
+                synchronized (this) {
+                    int size = integral.rows() * integral.cols();
+                    if (mPixels.length < size) {
+                        mPixels = new byte[size];
+                    }
+                    integral.boxFilter(mPixels, scaleKernel(context, ksize));
+                    dst.put(0, 0, mPixels);
+                }
+                return dst;
+            }
+        });
+    }
+
+    /**
+     * 高斯模糊
+     *
+     * @param src   输入
+     * @param ksize 核大小（原图尺寸下）
+     * @param sigma 标准差（原图尺寸下）
+     */
+    public Node gaussianBlur(Node src, final int ksize, final double sigma) {
+        return node(new Operator("gaussianBlur(" + ksize + "," + sigma + ")") {
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                final int k = scaleKernel(context, ksize);
+                final double s = sigma * context.getScale();
+                Mat dst = acquireLike(context, inputs[0], inputs[0].type());
+                filter(context, inputs, dst, k / 2, new BandExecutor.BandFilter() {
+                    @Override
+                    public void apply(Mat[] srcs, Mat dst) {
+                        Imgproc.GaussianBlur(srcs[0], dst, new Size(k, k), s);
+                    }
+                });
+                return dst;
+            }
+        }, src);
+    }
+
+    /**
+     * 两幅图像相减取绝对值
+     */
+    public Node absdiff(Node src1, Node src2) {
+        return node(new Operator("absdiff") {
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                Mat dst = acquireLike(context, inputs[0], inputs[0].type());
+                filter(context, inputs, dst, 0, new BandExecutor.BandFilter() {
+                    @Override
+                    public void apply(Mat[] srcs, Mat dst) {
+                        Core.absdiff(srcs[0], srcs[1], dst);
+                    }
+                });
+                return dst;
+            }
+        }, src1, src2);
+    }
+
+    /**
+     * 乘以一个常数
+     */
+    public Node multiply(Node src, final double scale) {
+        return node(new Operator("multiply(" + scale + ")") {
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                Mat dst = acquireLike(context, inputs[0], inputs[0].type());
+                filter(context, inputs, dst, 0, new BandExecutor.BandFilter() {
+                    @Override
+                    public void apply(Mat[] srcs, Mat dst) {
+                        Core.multiply(srcs[0], new Scalar(scale), dst);
+                    }
+                });
+                return dst;
+            }
+        }, src);
+    }
+
+    /**
+     * 阈值化
+     *
+     * @param thresh 阈值
+     * @param maxval 最大值
+     * @param type   阈值化类型，如Imgproc.THRESH_BINARY_INV
+     */
+    public Node threshold(Node src, final double thresh, final double maxval, final int type) {
+        return node(new Operator("threshold(" + thresh + "," + maxval + "," + type + ")") {
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                Mat dst = acquireLike(context, inputs[0], inputs[0].type());
+                filter(context, inputs, dst, 0, new BandExecutor.BandFilter() {
+                    @Override
+                    public void apply(Mat[] srcs, Mat dst) {
+                        Imgproc.threshold(srcs[0], dst, thresh, maxval, type);
+                    }
+                });
+                return dst;
+            }
+        }, src);
+    }
+
+    /**
+     * 高斯差分后阈值化，由{@link DogEngine}一次完成两次模糊、相减、乘以系数和阈值化
+     *
+     * @param ksize1 第一次模糊的核大小（原图尺寸下）
+     * @param ksize2 第二次模糊的核大小（原图尺寸下），不小于ksize1
+     * @param sigma  两次模糊的标准差（原图尺寸下）
+     * @param scale  差值乘以的系数
+     * @param thresh 阈值
+     * @param maxval 最大值
+     * @param type   Imgproc.THRESH_BINARY或Imgproc.THRESH_BINARY_INV
+     */
+    public Node differenceOfGaussian(Node src, final int ksize1, final int ksize2, final double sigma,
+                                     final double scale, final double thresh, final double maxval, final int type) {
+        return node(new Operator("differenceOfGaussian(" + ksize1 + "," + ksize2 + "," + sigma + ","
+                + scale + "," + thresh + "," + maxval + "," + type + ")") {
+            private DogEngine mEngine;
+
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                double s = sigma * context.getScale();
+                Mat dst = acquireLike(context, inputs[0], CvType.CV_8UC1);
+                synchronized (this) {
+                    if (null == mEngine || mEngine.getBandExecutor() != context.getBandExecutor()) {
+                        mEngine = new DogEngine(context.getBandExecutor());
+                    }
+                    mEngine.threshold(inputs[0], dst, scaleKernel(context, ksize1), scaleKernel(context, ksize2),
+                            s, s, scale, thresh, maxval, type);
+                }
+                return dst;
+            }
+        }, src);
+    }
+
+    /**
+     * Sobel求导，输出CV_16S
+     *
+     * @param dx x方向导数的阶数
+     * @param dy y方向导数的阶数
+     */
+    public Node sobel(Node src, final int dx, final int dy) {
+        return node(new Operator("sobel(" + dx + "," + dy + ")") {
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                Mat dst = acquireLike(context, inputs[0], CvType.CV_16SC(inputs[0].channels()));
+                filter(context, inputs, dst, 1, new BandExecutor.BandFilter() {
+                    @Override
+                    public void apply(Mat[] srcs, Mat dst) {
+                        Imgproc.Sobel(srcs[0], dst, CvType.CV_16S, dx, dy, 3, 1, 0);
+                    }
+                });
+                return dst;
+            }
+        }, src);
+    }
+
+    /**
+     * 一次完成两个方向的求导和梯度幅值，由{@link SobelEngine}直接输出CV_8U
+     *
+     * @param scharr 是否使用Scharr系数
+     * @param l2     是否使用sqrt(gx²+gy²)，否则为alpha*|gx|+beta*|gy|+gamma
+     */
+    public Node sobelMagnitude(Node src, final boolean scharr, final boolean l2,
+                               final double alpha, final double beta, final double gamma) {
+        return node(new Operator("sobelMagnitude(" + scharr + "," + l2 + "," + alpha + "," + beta + "," + gamma + ")") {
+            private SobelEngine mEngine;
+
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                Mat dst = acquireLike(context, inputs[0], CvType.CV_8UC1);
+                synchronized (this) {
+                    if (null == mEngine || mEngine.getBandExecutor() != context.getBandExecutor()) {
+                        mEngine = new SobelEngine(context.getBandExecutor());
+                    }
+                    mEngine.magnitude(inputs[0], dst, scharr, l2, alpha, beta, gamma);
+                }
+                return dst;
+            }
+        }, src);
+    }
+
+    /**
+     * 取绝对值并转为8位
+     */
+    public Node convertScaleAbs(Node src) {
+        return node(new Operator("convertScaleAbs") {
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                Mat dst = acquireLike(context, inputs[0], CvType.CV_8UC(inputs[0].channels()));
+                filter(context, inputs, dst, 0, new BandExecutor.BandFilter() {
+                    @Override
+                    public void apply(Mat[] srcs, Mat dst) {
+                        Core.convertScaleAbs(srcs[0], dst);
+                    }
+                });
+                return dst;
+            }
+        }, src);
+    }
+
+    /**
+     * 两幅图像加权求和
+     */
+    public Node addWeighted(Node src1, final double alpha, Node src2, final double beta, final double gamma) {
+        return node(new Operator("addWeighted(" + alpha + "," + beta + "," + gamma + ")") {
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                Mat dst = acquireLike(context, inputs[0], inputs[0].type());
+                filter(context, inputs, dst, 0, new BandExecutor.BandFilter() {
+                    @Override
+                    public void apply(Mat[] srcs, Mat dst) {
+                        Core.addWeighted(srcs[0], alpha, srcs[1], beta, gamma, dst);
+                    }
+                });
+                return dst;
+            }
+        }, src1, src2);
+    }
+
+    /**
+     * Harris角点响应，输出CV_32F
+     *
+     * @param blockSize 邻域大小（原图尺寸下）
+     */
+    public Node cornerHarris(Node src, final int blockSize, final int ksize, final double k) {
+        return node(new Operator("cornerHarris(" + blockSize + "," + ksize + "," + k + ")") {
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                Mat dst = acquireLike(context, inputs[0], CvType.CV_32FC1);
+                Imgproc.cornerHarris(inputs[0], dst, scaleLength(context, blockSize), ksize, k);
+                return dst;
+            }
+        }, src);
+    }
+
+    /**
+     * 归一化
+     *
+     * @param normType 归一化类型，如Core.NORM_MINMAX
+     */
+    public Node normalize(Node src, final double alpha, final double beta, final int normType) {
+        return node(new Operator("normalize(" + alpha + "," + beta + "," + normType + ")") {
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                Mat dst = acquireLike(context, inputs[0], inputs[0].type());
+                Core.normalize(inputs[0], dst, alpha, beta, normType);
+                return dst;
+            }
+        }, src);
+    }
+
+    /**
+     * 在归一化后的Harris响应上绘制角点
+     * <p>
+     * 角点由{@link HarrisCornerExtractor}一次性读出响应后提取（3x3非极大值抑制），并批量绘制。
+     *
+     * @param threshold 响应大于该值的局部极大值点被认为是角点
+     */
+    public Node drawHarrisCorners(Node normalized, final double threshold) {
+        return node(new Operator("drawHarrisCorners(" + threshold + ")") {
+            private final HarrisCornerExtractor mExtractor = new HarrisCornerExtractor(1);
+            private final CornerList mCorners = new CornerList();
+
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                Mat tempDstNorm = inputs[0];
+                Mat corners = acquireLike(context, tempDstNorm, CvType.CV_8UC1);
+                Core.convertScaleAbs(tempDstNorm, corners);
+
+                // 在新的图像上绘制角点
+                synchronized (mExtractor) {
+                    mExtractor.extract(tempDstNorm, (float) threshold, mCorners);
+                    mExtractor.draw(corners, mCorners, scaleLength(context, 5), new Random());
+                }
+                return corners;
+            }
+        }, normalized);
+    }
+
+    /**
+     * 由{@link HoughLinesEngine}做渐进概率霍夫变换检测直线并绘制
+     * <p>
+     * 投票数、最短线段长度和最大间隔按原图尺寸给出，在预览层级上与边长一起缩放。
+     */
+    public Node drawHoughLines(Node edges, final double rho, final double theta, final int threshold,
+                               final double minLineLength, final double maxLineGap) {
+        return node(new Operator("drawHoughLines(" + rho + "," + theta + "," + threshold + ","
+                + minLineLength + "," + maxLineGap + ")") {
+            private final HoughLinesEngine mEngine = new HoughLinesEngine();
+            private final SegmentList mSegments = new SegmentList();
+
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                Mat cannyEdges = inputs[0];
+                double scale = context.getScale();
+
+                // 池中取出的Mat内容未初始化，先清空画布
+                Mat houghLines = acquireLike(context, cannyEdges, CvType.CV_8UC1);
+                houghLines.setTo(new Scalar(0));
+
+                synchronized (this) {
+                    mEngine.segments(cannyEdges, rho, theta, scaleLength(context, threshold),
+                            minLineLength * scale, maxLineGap * scale, mSegments);
+
+                    // 在图像上画直线
+                    Point pt1 = new Point();
+                    Point pt2 = new Point();
+                    Scalar color = new Scalar(255, 0, 0);
+                    for (int i = 0; i < mSegments.size(); i++) {
+                        pt1.x = mSegments.x1(i);
+                        pt1.y = mSegments.y1(i);
+                        pt2.x = mSegments.x2(i);
+                        pt2.y = mSegments.y2(i);
+
+                        // 绘制直线
+                        Core.line(houghLines, pt1, pt2, color, 1);
+                    }
+                }
+                return houghLines;
+            }
+        }, edges);
+    }
+
+    /**
+     * 由{@link HoughCirclesEngine}在灰度图上检测圆并绘制
+     * <p>
+     * 边缘和梯度由引擎自己的Canny得到，不再对Canny边缘图重复做一次Canny。
+     *
+     * @param dp             累加器分辨率与图像分辨率的反比
+     * @param minDistDivisor 圆心最小距离为图像高度除以该值，因此随预览层级自动缩放
+     * @param cannyThreshold Canny的高阈值
+     * @param votesThreshold 圆心票数和圆周上的边缘点数都要大于该值（原图尺寸下）
+     * @param minRadius      最小半径（原图尺寸下）
+     * @param maxRadius      最大半径（原图尺寸下），小于等于0时不限制
+     */
+    public Node drawCircles(Node gray, final double dp, final int minDistDivisor, final double cannyThreshold,
+                            final int votesThreshold, final int minRadius, final int maxRadius) {
+        return node(new Operator("drawCircles(" + dp + "," + minDistDivisor + "," + cannyThreshold + ","
+                + votesThreshold + "," + minRadius + "," + maxRadius + ")") {
+            private final CircleList mCircles = new CircleList();
+            private HoughCirclesEngine mEngine;
+
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                Mat grayMat = inputs[0];
+
+                // 池中取出的Mat内容未初始化，先清空画布
+                Mat houghCircles = acquireLike(context, grayMat, CvType.CV_8UC1);
+                houghCircles.setTo(new Scalar(0));
+
+                synchronized (this) {
+                    if (null == mEngine || mEngine.getBandExecutor() != context.getBandExecutor()) {
+                        mEngine = new HoughCirclesEngine(context.getBandExecutor());
+                    }
+                    mEngine.detect(grayMat, dp, grayMat.rows() / minDistDivisor, cannyThreshold,
+                            scaleLength(context, votesThreshold),
+                            minRadius > 0 ? scaleLength(context, minRadius) : 0,
+                            maxRadius > 0 ? scaleLength(context, maxRadius) : 0, mCircles);
+
+                    // 在图像上画圆
+                    Point center = new Point();
+                    Scalar color = new Scalar(255, 0, 0);
+                    for (int i = 0; i < mCircles.size(); i++) {
+                        center.x = mCircles.x(i);
+                        center.y = mCircles.y(i);
+
+                        // 绘制圆
+                        Core.circle(houghCircles, center, (int) mCircles.radius(i), color, 1);
+                    }
+                }
+                return houghCircles;
+            }
+        }, gray);
+    }
+
+    /**
+     * 找出轮廓并以随机颜色描边
+     *
+     * @param mode   轮廓检索模式，Imgproc.RETR_LIST或Imgproc.RETR_TREE
+     * @param method 轮廓近似方法，Imgproc.CHAIN_APPROX_NONE或Imgproc.CHAIN_APPROX_SIMPLE
+     */
+    public Node drawContours(Node edges, int mode, int method) {
+        return drawContours(edges, mode, method, false);
+    }
+
+    /**
+     * 找出轮廓并以随机颜色绘制
+     * <p>
+     * 轮廓跟踪和绘制都在Java中完成，所有轮廓保存在一个{@link ContourList}中，不会为每个轮廓创建MatOfPoint。
+     *
+     * @param mode   轮廓检索模式，Imgproc.RETR_LIST或Imgproc.RETR_TREE
+     * @param method 轮廓近似方法，Imgproc.CHAIN_APPROX_NONE或Imgproc.CHAIN_APPROX_SIMPLE
+     * @param fill   是否填充轮廓内部
+     */
+    public Node drawContours(Node edges, final int mode, final int method, final boolean fill) {
+        return node(new Operator("drawContours(" + mode + "," + method + "," + fill + ")") {
+            private final ContourTracer mTracer = new ContourTracer();
+            private final ContourRenderer mRenderer = new ContourRenderer();
+            private final ContourList mContours = new ContourList();
+            private int[] mColors = new int[0];
+
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                Mat cannyEdges = inputs[0];
+                Mat contours = acquireLike(context, cannyEdges, CvType.CV_8UC3);
+                synchronized (this) {
+                    // 输入不会被修改，不用复制
+                    mTracer.find(cannyEdges, mode, method, mContours);
+
+                    // 画出轮廓
+                    if (mColors.length < mContours.size()) {
+                        mColors = new int[mContours.size()];
+                    }
+                    Random r = new Random();
+                    for (int i = 0; i < mContours.size(); i++) {
+                        mColors[i] = r.nextInt(255) << 16 | r.nextInt(255) << 8 | r.nextInt(255);
+                    }
+                    mRenderer.render(mContours, mColors, fill, contours);
+                }
+                return contours;
+            }
+        }, edges);
+    }
+
+    // ------------------------------------------------------------------ 组合算法
+
+    /**
+     * 高斯差分算法边缘检测
+     * <p>
+     * 以两个不同的模糊半径对图像做模糊处理，相减后反转二值阈值化，五个步骤合并为一个节点。
+     */
+    public Node differenceOfGaussian() {
+        return differenceOfGaussian(gray(), 15, 21, 5, 100, 50, 255, Imgproc.THRESH_BINARY_INV);
+    }
+
+    /**
+     * Canny边缘检测算法
+     */
+    public Node canny() {
+        return canny(10, 100);
+    }
+
+    /**
+     * Sobel滤波器
+     */
+    public Node sobel() {
+        // 水平方向、垂直方向梯度的绝对值各取一半相加
+        return sobelMagnitude(gray(), false, false, 0.5, 0.5, 1);
+    }
+
+    /**
+     * Harris角点检测
+     */
+    public Node harris() {
+        // 找出角点并归一化
+        Node tempDstNorm = normalize(cornerHarris(canny(), 2, 3, 0.04), 0, 255, Core.NORM_MINMAX);
+        return drawHarrisCorners(tempDstNorm, 150);
+    }
+
+    /**
+     * 霍夫直线
+     */
+    public Node houghLines() {
+        return drawHoughLines(canny(), 1, Math.PI / 180, 50, 20, 20);
+    }
+
+    /**
+     * 霍夫圆
+     * <p>
+     * 与OpenCV的HoughCircles示例一样先做9x9、sigma为2的高斯模糊，减少噪声产生的误检；
+     * 其他算法还在使用灰度图，所以同时缓存未模糊的灰度图。
+     */
+    public Node houghCircles() {
+        return drawCircles(blurredGray(9, 2, true), 1, 15, 100, 100, 0, 0);
+    }
+
+    /**
+     * 找出轮廓
+     */
+    public Node findContours() {
+        return drawContours(canny(), Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
+    }
+
+    /**
+     * 执行逐像素滤波，开启分带并行时交给{@link BandExecutor}
+     *
+     * @param halo 滤波核半径，逐像素运算为0
+     */
+    static void filter(StageContext context, Mat[] srcs, Mat dst, int halo, BandExecutor.BandFilter filter) {
+        BandExecutor bandExecutor = context.getBandExecutor();
+        if (null == bandExecutor) {
+            filter.apply(srcs, dst);
+        } else {
+            bandExecutor.run(srcs, dst, halo, context.getMatPool(), filter);
+        }
+    }
+
+    /**
+     * 按预览层级缩放长度，至少为1
+     */
+    static int scaleLength(StageContext context, int length) {
+        return Math.max(1, (int) Math.round(length * context.getScale()));
+    }
+
+    /**
+     * 按预览层级缩放滤波核大小，结果为不小于1的奇数
+     */
+    static int scaleKernel(StageContext context, int ksize) {
+        return scaleLength(context, ksize) | 1;
+    }
+
+    /**
+     * 从池中借出与src尺寸相同的Mat
+     */
+    static Mat acquireLike(StageContext context, Mat src, int type) {
+        return context.getMatPool().acquire(src.rows(), src.cols(), type);
+    }
+}
@@ -2,24 +2,17 @@ package kong.qingwei.kqwopencvfeaturesdemo;
 
 import android.graphics.Bitmap;
 
-import org.opencv.android.Utils;
-import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfPoint;
-import org.opencv.core.Point;
-import org.opencv.core.Scalar;
-import org.opencv.core.Size;
-import org.opencv.imgproc.Imgproc;
-
-import java.util.ArrayList;
-import java.util.Random;
 
 import rx.Observable;
 import rx.Subscriber;
+import rx.Subscription;
 import rx.android.schedulers.AndroidSchedulers;
-import rx.functions.Func1;
+import rx.functions.Action0;
 import rx.schedulers.Schedulers;
+import rx.subscriptions.CompositeSubscription;
+import rx.subscriptions.Subscriptions;
 
 /**
  * Created by kqw on 2016/8/19.
@@ -27,410 +20,396 @@ import rx.schedulers.Schedulers;
  */
 public class FeaturesUtil {
 
+    /**
+     * 原图像素数不小于该值时才先输出预览，小图直接处理原图更快
+     */
+    private static final int PREVIEW_MIN_PIXELS = 1024 * 1024;
+
     private Subscriber<Bitmap> mSubscriber;
+    // Bitmap与Mat的转换，复用原图的Mat和结果图
+    private final BitmapConverter mBitmapConverter = new BitmapConverter();
+    // 各算法共享的灰度图和Canny边缘图
+    private final EdgeStageCache mEdgeStageCache = new EdgeStageCache(EdgeStageCache.DEFAULT_MAX_BYTES, mBitmapConverter);
+    // 中间结果复用的Mat池
+    private final MatPool mMatPool = new MatPool();
+    // 图算执行器
+    private final GraphExecutor mGraphExecutor = GraphExecutor.getDefault();
+    // 逐像素滤波是否按行分带并行
+    private volatile boolean mTileParallel;
+    // 预览的金字塔层级，0为不输出预览
+    private volatile int mPreviewLevel;
+    // 新的请求是否取消之前的请求
+    private volatile boolean mLatestWins;
+    // 正在执行的请求
+    private final CompositeSubscription mRunning = new CompositeSubscription();
+    // 检测结果的缓存，为null时不缓存
+    private volatile ResultCache mResultCache;
+    // 各算法的节点只创建一次，节点中的引擎和缓冲区在多次请求之间复用
+    private final FeatureGraph mGraph = new FeatureGraph();
+    private final FeatureGraph.Node mDifferenceOfGaussian = mGraph.differenceOfGaussian();
+    private final FeatureGraph.Node mCanny = mGraph.canny();
+    private final FeatureGraph.Node mSobel = mGraph.sobel();
+    private final FeatureGraph.Node mHarris = mGraph.harris();
+    private final FeatureGraph.Node mHoughLines = mGraph.houghLines();
+    private final FeatureGraph.Node mHoughCircles = mGraph.houghCircles();
+    private final FeatureGraph.Node mFindContours = mGraph.findContours();
 
     public FeaturesUtil(Subscriber<Bitmap> subscriber) {
         mSubscriber = subscriber;
     }
 
     /**
-     * 高斯差分算法边缘检测
+     * 获取各算法所在的图，在这个图上组合的节点与内置算法共用前置步骤和引擎
      *
-     * @param bitmap 要检测的图片
+     * @return 图
      */
-    public void differenceOfGaussian(Bitmap bitmap) {
-        if (null != mSubscriber)
-            Observable
-                    .just(bitmap)
-                    .map(new Func1<Bitmap, Bitmap>() {
-
-                        @Override
-                        public Bitmap call(Bitmap bitmap) {
-
-                            Mat grayMat = new Mat();
-                            Mat blur1 = new Mat();
-                            Mat blur2 = new Mat();
-
-                            // Bitmap转为Mat
-                            Mat src = new Mat(bitmap.getHeight(), bitmap.getWidth(), CvType.CV_8UC4);
-                            Utils.bitmapToMat(bitmap, src);
+    public FeatureGraph getGraph() {
+        return mGraph;
+    }
 
-                            // 原图置灰
-                            Imgproc.cvtColor(src, grayMat, Imgproc.COLOR_BGR2GRAY);
+    /**
+     * 获取中间结果使用的Mat池，可以查看命中次数和占用的内存
+     *
+     * @return Mat池
+     */
+    public MatPool getMatPool() {
+        return mMatPool;
+    }
 
-                            // 以两个不同的模糊半径对图像做模糊处理
-                            Imgproc.GaussianBlur(grayMat, blur1, new Size(15, 15), 5);
-                            Imgproc.GaussianBlur(grayMat, blur2, new Size(21, 21), 5);
+    /**
+     * 回收不再显示的结果图，下次处理时直接写入该Bitmap，避免重新申请整幅图像的内存
+     *
+     * @param bitmap 之前通过onNext得到、已经不再显示的结果图
+     */
+    public void recycle(Bitmap bitmap) {
+        mBitmapConverter.recycle(bitmap);
+    }
 
-                            // 将两幅模糊后的图像相减
-                            Mat diff = new Mat();
-                            Core.absdiff(blur1, blur2, diff);
+    /**
+     * 设置逐像素滤波（高斯模糊、高斯差分、Sobel以及相减、阈值化等运算）是否按行分带，在所有CPU核上并行执行
+     * <p>
+     * 结果与单线程处理完全一致，适合处理大图。Canny的滞后阈值是全局的，不会分带执行。
+     *
+     * @param tileParallel 是否分带并行
+     */
+    public void setTileParallel(boolean tileParallel) {
+        mTileParallel = tileParallel;
+    }
 
-                            // 反转二值阈值化
-                            Core.multiply(diff, new Scalar(100), diff);
-                            Imgproc.threshold(diff, diff, 50, 255, Imgproc.THRESH_BINARY_INV);
+    /**
+     * 设置是否先输出低分辨率的预览
+     * <p>
+     * 开启后处理大图时先在pyrDown缩小的图像上执行一遍，把预览结果通过onNext发出，
+     * 再在原图上执行并发出最终结果，每个输出节点依次对应两次onNext（先小图后原图）。
+     * 模糊核、角点窗口、直线长度等与尺寸相关的参数会随分辨率缩放。
+     *
+     * @param previewLevel 0为关闭，1为宽高各缩小一半（像素数1/4），2为宽高各缩小到1/4（像素数1/16）
+     */
+    public void setProgressive(int previewLevel) {
+        if (previewLevel < 0) {
+            throw new IllegalArgumentException("previewLevel < 0: " + previewLevel);
+        }
+        mPreviewLevel = previewLevel;
+    }
 
-                            // Mat转Bitmap
-                            Bitmap processedImage = Bitmap.createBitmap(grayMat.cols(), grayMat.rows(), Bitmap.Config.ARGB_8888);
-                            Utils.matToBitmap(diff, processedImage);
+    /**
+     * 设置检测结果的缓存
+     * <p>
+     * 同一张图片（按像素内容判断）再次执行同样的算法时直接从缓存取出结果，不经过OpenCV；
+     * 所有输出都命中时也不再输出预览。
+     *
+     * @param resultCache 结果缓存，为null时不缓存
+     */
+    public void setResultCache(ResultCache resultCache) {
+        mResultCache = resultCache;
+    }
 
-                            return processedImage;
-                        }
-                    })
-                    .subscribeOn(Schedulers.io())
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .subscribe(mSubscriber);
+    /**
+     * @return 结果缓存，可以查看命中率或使其失效
+     */
+    public ResultCache getResultCache() {
+        return mResultCache;
     }
 
+    /**
+     * 高斯差分算法边缘检测
+     *
+     * @param bitmap 要检测的图片
+     * @return 用于取消本次处理
+     */
+    public Subscription differenceOfGaussian(Bitmap bitmap) {
+        return analyze(bitmap, mDifferenceOfGaussian);
+    }
 
     /**
      * Canny边缘检测算法
      *
      * @param bitmap 要检测的图片
+     * @return 用于取消本次处理
      */
-    public void canny(Bitmap bitmap) {
-        if (null != mSubscriber)
-            Observable
-                    .just(bitmap)
-                    .map(new Func1<Bitmap, Bitmap>() {
-
-                        @Override
-                        public Bitmap call(Bitmap bitmap) {
-
-                            Mat grayMat = new Mat();
-                            Mat cannyEdges = new Mat();
-
-                            // Bitmap转为Mat
-                            Mat src = new Mat(bitmap.getHeight(), bitmap.getWidth(), CvType.CV_8UC4);
-                            Utils.bitmapToMat(bitmap, src);
-
-                            // 原图置灰
-                            Imgproc.cvtColor(src, grayMat, Imgproc.COLOR_BGR2GRAY);
-                            // Canny边缘检测器检测图像边缘
-                            Imgproc.Canny(grayMat, cannyEdges, 10, 100);
-
-                            // Mat转Bitmap
-                            Bitmap processedImage = Bitmap.createBitmap(cannyEdges.cols(), cannyEdges.rows(), Bitmap.Config.ARGB_8888);
-                            Utils.matToBitmap(cannyEdges, processedImage);
-
-                            return processedImage;
-                        }
-                    })
-                    .subscribeOn(Schedulers.io())
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .subscribe(mSubscriber);
+    public Subscription canny(Bitmap bitmap) {
+        return analyze(bitmap, mCanny);
     }
 
     /**
      * Sobel滤波器
      *
      * @param bitmap 要检测的图片
+     * @return 用于取消本次处理
      */
-    public void sobel(Bitmap bitmap) {
-        if (null != mSubscriber)
-            Observable
-                    .just(bitmap)
-                    .map(new Func1<Bitmap, Bitmap>() {
-
-                        @Override
-                        public Bitmap call(Bitmap bitmap) {
-
-                            Mat grayMat = new Mat();
-                            Mat sobel = new Mat();
-                            Mat grad_x = new Mat();
-                            Mat grad_y = new Mat();
-                            Mat abs_grad_x = new Mat();
-                            Mat abs_grad_y = new Mat();
-
-                            // Bitmap转为Mat
-                            Mat src = new Mat(bitmap.getHeight(), bitmap.getWidth(), CvType.CV_8UC4);
-                            Utils.bitmapToMat(bitmap, src);
-                            // 原图置灰
-                            Imgproc.cvtColor(src, grayMat, Imgproc.COLOR_BGR2GRAY);
-
-                            // 计算水平方向梯度
-                            Imgproc.Sobel(grayMat, grad_x, CvType.CV_16S, 1, 0, 3, 1, 0);
-                            // 计算垂直方向梯度
-                            Imgproc.Sobel(grayMat, grad_y, CvType.CV_16S, 0, 1, 3, 1, 0);
-                            // 计算两个方向上的梯度的绝对值
-                            Core.convertScaleAbs(grad_x, abs_grad_x);
-                            Core.convertScaleAbs(grad_y, abs_grad_y);
-                            // 计算结果梯度
-                            Core.addWeighted(abs_grad_x, 0.5, abs_grad_y, 0.5, 1, sobel);
-
-                            // Mat转Bitmap
-                            Bitmap processedImage = Bitmap.createBitmap(sobel.cols(), sobel.rows(), Bitmap.Config.ARGB_8888);
-                            Utils.matToBitmap(sobel, processedImage);
-
-                            return processedImage;
-                        }
-                    })
-                    .subscribeOn(Schedulers.io())
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .subscribe(mSubscriber);
+    public Subscription sobel(Bitmap bitmap) {
+        return analyze(bitmap, mSobel);
     }
 
     /**
      * Harris角点检测
      *
      * @param bitmap 要检测的图片
+     * @return 用于取消本次处理
      */
-    public void harris(Bitmap bitmap) {
-        if (null != mSubscriber)
-            Observable
-                    .just(bitmap)
-                    // 检测边缘
-                    .map(new Func1<Bitmap, Mat>() {
-                        @Override
-                        public Mat call(Bitmap bitmap) {
-                            Mat grayMat = new Mat();
-                            Mat cannyEdges = new Mat();
-
-                            // Bitmap转为Mat
-                            Mat src = new Mat(bitmap.getHeight(), bitmap.getWidth(), CvType.CV_8UC4);
-                            Utils.bitmapToMat(bitmap, src);
-
-                            // 原图置灰
-                            Imgproc.cvtColor(src, grayMat, Imgproc.COLOR_BGR2GRAY);
-                            // Canny边缘检测器检测图像边缘
-                            Imgproc.Canny(grayMat, cannyEdges, 10, 100);
-
-                            return cannyEdges;
-                        }
-                    })
-                    // Harris对角检测
-                    .map(new Func1<Mat, Bitmap>() {
-
-                        @Override
-                        public Bitmap call(Mat cannyEdges) {
-                            Mat corners = new Mat();
-                            Mat tempDst = new Mat();
-
-                            // 找出角点
-                            Imgproc.cornerHarris(cannyEdges, tempDst, 2, 3, 0.04);
-
-                            // 归一化Harris角点的输出
-                            Mat tempDstNorm = new Mat();
-                            Core.normalize(tempDst, tempDstNorm, 0, 255, Core.NORM_MINMAX);
-                            Core.convertScaleAbs(tempDstNorm, corners);
-
-                            // 在新的图像上绘制角点
-                            Random r = new Random();
-                            for (int i = 0; i < tempDstNorm.cols(); i++) {
-                                for (int j = 0; j < tempDstNorm.rows(); j++) {
-                                    double[] value = tempDstNorm.get(j, i);
-                                    if (value[0] > 150) {
-                                        Core.circle(corners, new Point(i, j), 5, new Scalar(r.nextInt(255), 2));
-                                    }
-                                }
-                            }
-
-                            // Mat转Bitmap
-                            Bitmap processedImage = Bitmap.createBitmap(corners.cols(), corners.rows(), Bitmap.Config.ARGB_8888);
-                            Utils.matToBitmap(corners, processedImage);
-
-                            return processedImage;
-                        }
-                    })
-                    .subscribeOn(Schedulers.io())
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .subscribe(mSubscriber);
+    public Subscription harris(Bitmap bitmap) {
+        return analyze(bitmap, mHarris);
     }
 
     /**
      * 霍夫直线
      *
      * @param bitmap 要检测的图片
+     * @return 用于取消本次处理
      */
-    public void houghLines(Bitmap bitmap) {
-        if (null != mSubscriber)
-            Observable
-                    .just(bitmap)
-                    // 检测边缘
-                    .map(new Func1<Bitmap, Mat>() {
-                        @Override
-                        public Mat call(Bitmap bitmap) {
-                            Mat grayMat = new Mat();
-                            Mat cannyEdges = new Mat();
-
-                            // Bitmap转为Mat
-                            Mat src = new Mat(bitmap.getHeight(), bitmap.getWidth(), CvType.CV_8UC4);
-                            Utils.bitmapToMat(bitmap, src);
-
-                            // 原图置灰
-                            Imgproc.cvtColor(src, grayMat, Imgproc.COLOR_BGR2GRAY);
-                            // Canny边缘检测器检测图像边缘
-                            Imgproc.Canny(grayMat, cannyEdges, 10, 100);
-
-                            return cannyEdges;
-                        }
-                    })
-                    // 霍夫直线
-                    .map(new Func1<Mat, Bitmap>() {
-
-                        @Override
-                        public Bitmap call(Mat cannyEdges) {
-
-                            Mat lines = new Mat();
-
-                            Imgproc.HoughLinesP(cannyEdges, lines, 1, Math.PI / 180, 50, 20, 20);
-
-                            Mat houghLines = new Mat();
-                            houghLines.create(cannyEdges.rows(), cannyEdges.cols(), CvType.CV_8UC1);
-
-                            // 在图像上画直线
-                            for (int i = 0; i < lines.cols(); i++) {
-                                double[] points = lines.get(0, i);
-                                double x1, y1, x2, y2;
-                                x1 = points[0];
-                                y1 = points[1];
-                                x2 = points[2];
-                                y2 = points[3];
-
-                                Point pt1 = new Point(x1, y1);
-                                Point pt2 = new Point(x2, y2);
-
-                                // 绘制直线
-                                Core.line(houghLines, pt1, pt2, new Scalar(255, 0, 0), 1);
-                            }
-
-                            // Mat转Bitmap
-                            Bitmap processedImage = Bitmap.createBitmap(houghLines.cols(), houghLines.rows(), Bitmap.Config.ARGB_8888);
-                            Utils.matToBitmap(houghLines, processedImage);
-
-                            return processedImage;
-                        }
-                    })
-                    .subscribeOn(Schedulers.io())
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .subscribe(mSubscriber);
+    public Subscription houghLines(Bitmap bitmap) {
+        return analyze(bitmap, mHoughLines);
     }
 
     /**
      * 霍夫圆
      *
      * @param bitmap 要检测的图片
+     * @return 用于取消本次处理
      */
-    public void houghCircles(Bitmap bitmap) {
-        if (null != mSubscriber)
-            Observable
-                    .just(bitmap)
-                    // 检测边缘
-                    .map(new Func1<Bitmap, Mat>() {
-                        @Override
-                        public Mat call(Bitmap bitmap) {
-                            Mat grayMat = new Mat();
-                            Mat cannyEdges = new Mat();
-
-                            // Bitmap转为Mat
-                            Mat src = new Mat(bitmap.getHeight(), bitmap.getWidth(), CvType.CV_8UC4);
-                            Utils.bitmapToMat(bitmap, src);
-
-                            // 原图置灰
-                            Imgproc.cvtColor(src, grayMat, Imgproc.COLOR_BGR2GRAY);
-                            // Canny边缘检测器检测图像边缘
-                            Imgproc.Canny(grayMat, cannyEdges, 10, 100);
-
-                            return cannyEdges;
-                        }
-                    })
-                    // 霍夫圆
-                    .map(new Func1<Mat, Bitmap>() {
-
-                        @Override
-                        public Bitmap call(Mat cannyEdges) {
-
-                            Mat circles = new Mat();
-                            Imgproc.HoughCircles(cannyEdges, circles, Imgproc.CV_HOUGH_GRADIENT, 1, cannyEdges.rows() / 15);
-
-                            Mat houghCircles = new Mat();
-                            houghCircles.create(cannyEdges.rows(), cannyEdges.cols(), CvType.CV_8UC1);
-
-                            // 在图像上画圆
-                            for (int i = 0; i < circles.cols(); i++) {
-                                double[] parameters = circles.get(0, i);
-                                double x, y;
-                                int r;
-
-                                x = parameters[0];
-                                y = parameters[1];
-                                r = (int) parameters[2];
-
-                                // 绘制圆
-                                Point center = new Point(x, y);
-                                Core.circle(houghCircles, center, r, new Scalar(255, 0, 0), 1);
-                            }
-
-                            // Mat转Bitmap
-                            Bitmap processedImage = Bitmap.createBitmap(houghCircles.cols(), houghCircles.rows(), Bitmap.Config.ARGB_8888);
-                            Utils.matToBitmap(houghCircles, processedImage);
-
-                            return processedImage;
-                        }
-                    })
-                    .subscribeOn(Schedulers.io())
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .subscribe(mSubscriber);
+    public Subscription houghCircles(Bitmap bitmap) {
+        return analyze(bitmap, mHoughCircles);
     }
 
     /**
      * 找出轮廓
      *
      * @param bitmap 要检测的图片
+     * @return 用于取消本次处理
      */
-    public void findContours(Bitmap bitmap) {
-        if (null != mSubscriber)
-            Observable
-                    .just(bitmap)
-                    // 检测边缘
-                    .map(new Func1<Bitmap, Mat>() {
-                        @Override
-                        public Mat call(Bitmap bitmap) {
-                            Mat grayMat = new Mat();
-                            Mat cannyEdges = new Mat();
-
-                            // Bitmap转为Mat
-                            Mat src = new Mat(bitmap.getHeight(), bitmap.getWidth(), CvType.CV_8UC4);
-                            Utils.bitmapToMat(bitmap, src);
+    public Subscription findContours(Bitmap bitmap) {
+        return analyze(bitmap, mFindContours);
+    }
 
-                            // 原图置灰
-                            Imgproc.cvtColor(src, grayMat, Imgproc.COLOR_BGR2GRAY);
-                            // Canny边缘检测器检测图像边缘
-                            Imgproc.Canny(grayMat, cannyEdges, 10, 100);
+    /**
+     * 在一次执行中计算图中的多个节点，共用的前置步骤只计算一次，每个输出节点对应一次onNext
+     * <p>
+     * 例如同时做Harris角点检测和霍夫直线：
+     * <pre>
+     * FeatureGraph graph = featuresUtil.getGraph();
+     * featuresUtil.analyze(bitmap, graph.harris(), graph.houghLines());
+     * </pre>
+     *
+     * @param bitmap  要检测的图片
+     * @param outputs 要输出的节点
+     * @return 用于取消本次处理
+     */
+    public Subscription analyze(Bitmap bitmap, FeatureGraph.Node... outputs) {
+        return subscribe(observe(bitmap, outputs));
+    }
 
-                            return cannyEdges;
+    /**
+     * 创建计算图中多个节点的Observable，订阅后在io线程中执行
+     * <p>
+     * 取消订阅时正在执行的步骤完成后不再开始新的步骤，中间结果立即归还。
+     * 开启{@link #setProgressive(int)}且原图足够大时，先发射每个输出节点的预览结果，再发射原图的结果。
+     *
+     * @param bitmap  要检测的图片
+     * @param outputs 要输出的节点
+     * @return 依次发射每个输出节点的结果
+     */
+    public Observable<Bitmap> observe(final Bitmap bitmap, final FeatureGraph.Node... outputs) {
+        final int previewLevel = bitmap.getWidth() * bitmap.getHeight() >= PREVIEW_MIN_PIXELS ? mPreviewLevel : 0;
+        final BandExecutor bandExecutor = mTileParallel ? BandExecutor.getDefault() : null;
+        return Observable
+                .create(new Observable.OnSubscribe<Bitmap>() {
+                    @Override
+                    public void call(Subscriber<? super Bitmap> subscriber) {
+                        // 先查结果缓存，全部命中时不需要执行图算
+                        ResultCache cache = mResultCache;
+                        String[] keys = null;
+                        ResultCache.Entry[] cached = null;
+                        if (null != cache) {
+                            long hash = cache.hash(bitmap);
+                            keys = new String[outputs.length];
+                            cached = new ResultCache.Entry[outputs.length];
+                            boolean all = true;
+                            for (int i = 0; i < outputs.length; i++) {
+                                keys[i] = ResultCache.key(hash, outputs[i].getSignature(), 0);
+                                cached[i] = cache.get(keys[i]);
+                                all &= null != cached[i];
+                            }
+                            if (all) {
+                                for (ResultCache.Entry entry : cached) {
+                                    if (subscriber.isUnsubscribed()) {
+                                        return;
+                                    }
+                                    subscriber.onNext(mBitmapConverter.toBitmap(entry));
+                                }
+                                subscriber.onCompleted();
+                                return;
+                            }
                         }
-                    })
-                    // 找出轮廓
-                    .map(new Func1<Mat, Bitmap>() {
 
-                        @Override
-                        public Bitmap call(Mat cannyEdges) {
+                        final StageContext preview = previewLevel > 0
+                                ? new StageContext(bitmap, mEdgeStageCache, mMatPool, bandExecutor, previewLevel)
+                                : null;
+                        final StageContext context = new StageContext(bitmap, mEdgeStageCache, mMatPool, bandExecutor);
+                        // 取消订阅时中止图算
+                        subscriber.add(Subscriptions.create(new Action0() {
+                            @Override
+                            public void call() {
+                                if (null != preview) {
+                                    preview.cancel();
+                                }
+                                context.cancel();
+                            }
+                        }));
 
-                            Mat hierarchy = new Mat();
-                            // 保存轮廓
-                            ArrayList<MatOfPoint> contourList = new ArrayList<>();
+                        // 先在缩小的图像上执行，尽快给出预览
+                        if (null != preview && !emit(subscriber, preview, outputs, null, null, null)) {
+                            return;
+                        }
+                        if (emit(subscriber, context, outputs, cache, keys, cached)) {
+                            subscriber.onCompleted();
+                        }
+                    }
+                })
+                .subscribeOn(Schedulers.io());
+    }
 
-                            // 检测轮廓
-                            Imgproc.findContours(cannyEdges, contourList, hierarchy, Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
+    /**
+     * 执行图算并发射结果
+     * <p>
+     * 有结果缓存时只计算没有命中的输出，命中的直接发射缓存中的结果。新算出的结果在所有输出都发射后
+     * 再放入缓存，压缩和写磁盘不会推迟后面输出的发射。
+     *
+     * @param cache  结果缓存，为null时计算所有输出
+     * @param keys   每个输出的缓存key
+     * @param cached 每个输出已经缓存的结果，没有命中的为null
+     * @return 是否所有结果都已发射，出错或取消订阅时返回false
+     */
+    private boolean emit(Subscriber<? super Bitmap> subscriber, StageContext context, FeatureGraph.Node[] outputs,
+                         ResultCache cache, String[] keys, ResultCache.Entry[] cached) {
+        FeatureGraph.Node[] missing = outputs;
+        if (null != cache) {
+            int count = 0;
+            for (ResultCache.Entry entry : cached) {
+                if (null == entry) {
+                    count++;
+                }
+            }
+            missing = new FeatureGraph.Node[count];
+            for (int i = 0, j = 0; i < outputs.length; i++) {
+                if (null == cached[i]) {
+                    missing[j++] = outputs[i];
+                }
+            }
+        }
+        Mat[] results;
+        try {
+            results = mGraphExecutor.execute(context, missing);
+        } catch (Throwable e) {
+            if (!subscriber.isUnsubscribed()) {
+                subscriber.onError(e);
+            }
+            return false;
+        }
+        try {
+            for (int i = 0, j = 0; i < outputs.length; i++) {
+                if (subscriber.isUnsubscribed()) {
+                    return false;
+                }
+                if (null != cache && null != cached[i]) {
+                    subscriber.onNext(mBitmapConverter.toBitmap(cached[i]));
+                    continue;
+                }
+                // Mat转Bitmap
+                subscriber.onNext(mBitmapConverter.toBitmap(results[j++]));
+            }
+            if (null != cache) {
+                for (int i = 0, j = 0; i < outputs.length; i++) {
+                    if (null != cached[i]) {
+                        continue;
+                    }
+                    Mat result = results[j++];
+                    if (CvType.depth(result.type()) == CvType.CV_8U) {
+                        byte[] data = new byte[(int) (result.total() * result.elemSize())];
+                        result.get(0, 0, data);
+                        cache.put(keys[i], new ResultCache.Entry(result.rows(), result.cols(), result.type(), data));
+                    }
+                }
+            }
+        } finally {
+            mMatPool.release(results);
+        }
+        return true;
+    }
 
-                            // 画出轮廓
-                            Mat contours = new Mat();
-                            contours.create(cannyEdges.rows(), cannyEdges.cols(), CvType.CV_8UC3);
-                            Random r = new Random();
-                            for (int i = 0; i < contourList.size(); i++) {
-                                Imgproc.drawContours(contours, contourList, i, new Scalar(r.nextInt(255), r.nextInt(255), r.nextInt(255), -1));
-                            }
+    /**
+     * 设置是否只保留最新的请求
+     * <p>
+     * 开启后新的请求会取消还在执行的请求（switchMap语义），同一时间只有一个请求占用CPU和内存，
+     * 被取消的请求不会回调。
+     *
+     * @param latestWins 是否只保留最新的请求
+     */
+    public void setLatestWins(boolean latestWins) {
+        mLatestWins = latestWins;
+    }
 
-                            // Mat转Bitmap
-                            Bitmap processedImage = Bitmap.createBitmap(contours.cols(), contours.rows(), Bitmap.Config.ARGB_8888);
-                            Utils.matToBitmap(contours, processedImage);
+    /**
+     * 取消所有正在执行的请求
+     */
+    public void cancel() {
+        mRunning.clear();
+    }
 
-                            return processedImage;
-                        }
-                    })
-                    .subscribeOn(Schedulers.io())
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .subscribe(mSubscriber);
+    /**
+     * 在主线程中把结果转发给构造时传入的Subscriber
+     * <p>
+     * 每个请求使用单独的Subscriber订阅，构造时传入的Subscriber不会因为某个请求结束而被取消订阅。
+     */
+    private Subscription subscribe(Observable<Bitmap> observable) {
+        if (null == mSubscriber) {
+            return Subscriptions.unsubscribed();
+        }
+        if (mLatestWins) {
+            // 取消还在执行的请求，只保留最新的一个
+            mRunning.clear();
+        }
+        Subscriber<Bitmap> forwarder = new Subscriber<Bitmap>() {
+            @Override
+            public void onCompleted() {
+                mRunning.remove(this);
+                mSubscriber.onCompleted();
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                mRunning.remove(this);
+                mSubscriber.onError(e);
+            }
+
+            @Override
+            public void onNext(Bitmap bitmap) {
+                mSubscriber.onNext(bitmap);
+            }
+        };
+        mRunning.add(forwarder);
+        observable
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(forwarder);
+        return forwarder;
     }
 }
@@ -0,0 +1,252 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatMemory;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 图算的执行器
+ * <p>
+ * 节点的所有输入就绪后提交到固定大小的线程池中执行，互不依赖的分支并行计算。
+ * 中间结果在最后一个使用它的节点执行完后立即归还到{@link MatPool}。
+ * 执行过程中调用{@link StageContext#cancel()}后不再开始新的节点，正在执行的节点结束后
+ * 所有中间结果立即归还，execute抛出CancellationException。
+ */
+public class GraphExecutor {
+
+    private static GraphExecutor sDefault;
+
+    private final ExecutorService mExecutorService;
+
+    /**
+     * @param threads 线程数
+     */
+    public GraphExecutor(int threads) {
+        mExecutorService = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "GraphExecutor-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return 线程数与CPU核数相同的默认执行器
+     */
+    public static synchronized GraphExecutor getDefault() {
+        if (null == sDefault) {
+            sDefault = new GraphExecutor(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        }
+        return sDefault;
+    }
+
+    /**
+     * 执行图算，阻塞直到所有输出计算完成
+     *
+     * @param context 执行上下文
+     * @param outputs 要计算的节点，不能重复
+     * @return 与outputs一一对应的结果，使用完毕后归还到context的MatPool
+     */
+    public Mat[] execute(StageContext context, FeatureGraph.Node... outputs) {
+        return new Execution(context, outputs).run();
+    }
+
+    /**
+     * 节点在一次执行中的状态
+     */
+    private static final class NodeState {
+        final FeatureGraph.Node mNode;
+        final List<FeatureGraph.Node> mConsumers = new ArrayList<>();
+        // 尚未就绪的输入数
+        int mPendingInputs;
+        // 结果还会被使用的次数
+        int mRemainingUses;
+        Mat mResult;
+
+        NodeState(FeatureGraph.Node node) {
+            mNode = node;
+            mPendingInputs = node.getInputs().length;
+        }
+    }
+
+    /**
+     * 一次执行
+     */
+    private final class Execution {
+
+        private final StageContext mContext;
+        private final FeatureGraph.Node[] mOutputs;
+        private final Map<FeatureGraph.Node, NodeState> mStates = new IdentityHashMap<>();
+        private int mUnfinished;
+        private int mRunning;
+        private Throwable mError;
+
+        Execution(StageContext context, FeatureGraph.Node[] outputs) {
+            mContext = context;
+            mOutputs = outputs;
+            Map<FeatureGraph.Node, Boolean> distinct = new IdentityHashMap<>();
+            for (FeatureGraph.Node output : outputs) {
+                if (null != distinct.put(output, Boolean.TRUE)) {
+                    throw new IllegalArgumentException("duplicate output " + output);
+                }
+                collect(output).mRemainingUses++;
+            }
+            mUnfinished = mStates.size();
+        }
+
+        private NodeState collect(FeatureGraph.Node node) {
+            NodeState state = mStates.get(node);
+            if (null == state) {
+                state = new NodeState(node);
+                mStates.put(node, state);
+                for (FeatureGraph.Node input : node.getInputs()) {
+                    NodeState inputState = collect(input);
+                    inputState.mConsumers.add(node);
+                    inputState.mRemainingUses++;
+                }
+            }
+            return state;
+        }
+
+        Mat[] run() {
+            mContext.setOnCancelListener(new Runnable() {
+                @Override
+                public void run() {
+                    onCancelled();
+                }
+            });
+            try {
+                return await();
+            } finally {
+                mContext.setOnCancelListener(null);
+            }
+        }
+
+        private Mat[] await() {
+            synchronized (this) {
+                for (NodeState state : mStates.values()) {
+                    if (null == mError && 0 == state.mPendingInputs) {
+                        submit(state);
+                    }
+                }
+                boolean interrupted = false;
+                while (mRunning > 0 || (null == mError && mUnfinished > 0)) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                        if (null == mError) {
+                            mError = e;
+                        }
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                if (null != mError) {
+                    for (NodeState state : mStates.values()) {
+                        releaseResult(state);
+                    }
+                    if (mError instanceof RuntimeException) {
+                        throw (RuntimeException) mError;
+                    }
+                    if (mError instanceof Error) {
+                        throw (Error) mError;
+                    }
+                    throw new RuntimeException(mError);
+                }
+                Mat[] results = new Mat[mOutputs.length];
+                for (int i = 0; i < mOutputs.length; i++) {
+                    results[i] = mStates.get(mOutputs[i]).mResult;
+                }
+                return results;
+            }
+        }
+
+        private void submit(final NodeState state) {
+            mRunning++;
+            final FeatureGraph.Node[] inputs = state.mNode.getInputs();
+            final Mat[] inputMats = new Mat[inputs.length];
+            for (int i = 0; i < inputs.length; i++) {
+                inputMats[i] = mStates.get(inputs[i]).mResult;
+            }
+            mExecutorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Mat result = null;
+                    Throwable error = null;
+                    try {
+                        if (mContext.isCancelled()) {
+                            error = new CancellationException("graph execution cancelled");
+                        } else {
+                            // 算子中创建的Mat按算子名称统计本地内存
+                            String stage = MatMemory.setStage(state.mNode.getOperator().getName());
+                            try {
+                                result = state.mNode.getOperator().apply(mContext, inputMats);
+                            } finally {
+                                MatMemory.setStage(stage);
+                                // 算子可能重新分配了输入、输出的数据，开启字节统计时重新测量，记录峰值
+                                MatMemory.measure();
+                            }
+                        }
+                    } catch (Throwable t) {
+                        error = t;
+                    }
+                    onFinished(state, result, error);
+                }
+            });
+        }
+
+        private synchronized void onCancelled() {
+            if (null == mError) {
+                mError = new CancellationException("graph execution cancelled");
+            }
+            notifyAll();
+        }
+
+        private synchronized void onFinished(NodeState state, Mat result, Throwable error) {
+            mRunning--;
+            mUnfinished--;
+            state.mResult = result;
+            if (null != error && null == mError) {
+                mError = error;
+            }
+            // 输入不再被使用时立即归还
+            for (FeatureGraph.Node input : state.mNode.getInputs()) {
+                NodeState inputState = mStates.get(input);
+                if (--inputState.mRemainingUses == 0) {
+                    releaseResult(inputState);
+                }
+            }
+            if (null == mError) {
+                for (FeatureGraph.Node consumer : state.mConsumers) {
+                    NodeState consumerState = mStates.get(consumer);
+                    if (--consumerState.mPendingInputs == 0) {
+                        submit(consumerState);
+                    }
+                }
+            }
+            notifyAll();
+        }
+
+        private void releaseResult(NodeState state) {
+            if (null != state.mResult) {
+                mContext.getMatPool().release(state.mResult);
+                state.mResult = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * 置灰和高斯模糊合并为一遍的前置处理
+ * <p>
+ * RGBA原图逐行读入，每行置灰后立即做水平方向的模糊，结果放入只有ksize行的环形缓冲区，
+ * 缓冲区中的行够用时立即做竖直方向的模糊并写出一行结果。整幅灰度图不需要先写出再读回，
+ * 只在调用者需要时才顺便输出未模糊的灰度图。已经有灰度图时可以只做模糊，结果与从原图一遍完成的完全相同。
+ * <p>
+ * 置灰与Imgproc.COLOR_BGR2GRAY相同，模糊的核与Imgproc.getGaussianKernel相同，边界按BORDER_REFLECT_101处理。
+ * 按行分带并行时每个条带各自使用一个环形缓冲区，条带上下多读的行只用于模糊。
+ * 同一个实例可以被多个线程同时使用。
+ */
+public class GrayBlurFrontEnd {
+
+    /**
+     * 按行读取RGBA原图或灰度图
+     */
+    interface RowReader {
+        /**
+         * @param row 行号
+         * @param dst 输出，cols * 通道数个字节
+         */
+        void read(int row, byte[] dst);
+    }
+
+    private final float[] mKernel;
+    private final BandExecutor mBandExecutor;
+
+    /**
+     * @param ksize 核大小，奇数
+     * @param sigma 标准差，小于等于0时由ksize推出
+     */
+    public GrayBlurFrontEnd(int ksize, double sigma) {
+        this(ksize, sigma, null);
+    }
+
+    /**
+     * @param ksize        核大小，奇数
+     * @param sigma        标准差，小于等于0时由ksize推出
+     * @param bandExecutor 不为null时按行分带并行
+     */
+    public GrayBlurFrontEnd(int ksize, double sigma, BandExecutor bandExecutor) {
+        mKernel = DogEngine.kernel(ksize, sigma);
+        mBandExecutor = bandExecutor;
+    }
+
+    /**
+     * @return 分带并行执行器，为null时单线程处理
+     */
+    public BandExecutor getBandExecutor() {
+        return mBandExecutor;
+    }
+
+    /**
+     * 置灰并模糊
+     *
+     * @param rgba    CV_8UC4的原图
+     * @param blurred CV_8UC1的模糊结果，与原图尺寸相同，数据连续
+     * @param gray    CV_8UC1的灰度图，与原图尺寸相同，数据连续；为null时不输出
+     */
+    public void process(final Mat rgba, Mat blurred, Mat gray) {
+        if (rgba.type() != CvType.CV_8UC4) {
+            throw new IllegalArgumentException("rgba must be CV_8UC4");
+        }
+        if (blurred.type() != CvType.CV_8UC1 || (null != gray && gray.type() != CvType.CV_8UC1)) {
+            throw new IllegalArgumentException("blurred and gray must be CV_8UC1");
+        }
+        if (!blurred.isContinuous() || (null != gray && !gray.isContinuous())) {
+            throw new IllegalArgumentException("blurred and gray must be continuous");
+        }
+        int size = rgba.rows() * rgba.cols();
+        byte[] blurredData = new byte[size];
+        byte[] grayData = null == gray ? null : new byte[size];
+        process(new RowReader() {
+            @Override
+            public void read(int row, byte[] dst) {
+                rgba.get(row, 0, dst);
+            }
+        }, 4, rgba.rows(), rgba.cols(), blurredData, grayData);
+        blurred.put(0, 0, blurredData);
+        if (null != gray) {
+            gray.put(0, 0, grayData);
+        }
+    }
+
+    /**
+     * 在按行存放的RGBA byte[]上置灰并模糊，参数同{@link #process(Mat, Mat, Mat)}
+     */
+    public void process(final byte[] rgba, final int rows, final int cols, byte[] blurred, byte[] gray) {
+        process(new RowReader() {
+            @Override
+            public void read(int row, byte[] dst) {
+                System.arraycopy(rgba, row * cols * 4, dst, 0, cols * 4);
+            }
+        }, 4, rows, cols, blurred, gray);
+    }
+
+    /**
+     * 只做模糊，输入已经是灰度图
+     *
+     * @param gray    CV_8UC1的灰度图，数据连续
+     * @param blurred CV_8UC1的模糊结果，与灰度图尺寸相同，数据连续
+     */
+    public void blur(final Mat gray, Mat blurred) {
+        if (gray.type() != CvType.CV_8UC1 || blurred.type() != CvType.CV_8UC1) {
+            throw new IllegalArgumentException("gray and blurred must be CV_8UC1");
+        }
+        if (!blurred.isContinuous()) {
+            throw new IllegalArgumentException("blurred must be continuous");
+        }
+        byte[] blurredData = new byte[gray.rows() * gray.cols()];
+        process(new RowReader() {
+            @Override
+            public void read(int row, byte[] dst) {
+                gray.get(row, 0, dst);
+            }
+        }, 1, gray.rows(), gray.cols(), blurredData, null);
+        blurred.put(0, 0, blurredData);
+    }
+
+    /**
+     * 在按行存放的灰度byte[]上只做模糊，参数同{@link #blur(Mat, Mat)}
+     */
+    public void blur(final byte[] gray, final int rows, final int cols, byte[] blurred) {
+        process(new RowReader() {
+            @Override
+            public void read(int row, byte[] dst) {
+                System.arraycopy(gray, row * cols, dst, 0, cols);
+            }
+        }, 1, rows, cols, blurred, null);
+    }
+
+    /**
+     * @param channels 4为RGBA原图，先置灰；1为灰度图
+     */
+    void process(final RowReader reader, final int channels, final int rows, final int cols, final byte[] blurred,
+                 final byte[] gray) {
+        BandExecutor.BandTask task = new BandExecutor.BandTask() {
+            @Override
+            public void apply(int from, int to) {
+                processBand(reader, channels, rows, cols, from, to, blurred, gray);
+            }
+        };
+        if (null == mBandExecutor) {
+            task.apply(0, rows);
+        } else {
+            mBandExecutor.run(rows, task);
+        }
+    }
+
+    private void processBand(RowReader reader, int channels, int rows, int cols, int from, int to, byte[] blurred,
+                             byte[] gray) {
+        float[] kernel = mKernel;
+        int ksize = kernel.length;
+        int radius = ksize / 2;
+        byte[] srcRow = new byte[cols * channels];
+        float[] padded = new float[cols + 2 * radius];
+        // 环形缓冲区，第i行水平模糊的结果放在第i % ksize行
+        float[] ring = new float[ksize * cols];
+        float[] sums = new float[cols];
+
+        // 下一个要读入的行，条带上方的radius行只用于模糊
+        int loadedBottom = Math.max(0, from - radius);
+        for (int y = from; y < to; y++) {
+            int need = Math.min(rows, y + radius + 1);
+            while (loadedBottom < need) {
+                int row = loadedBottom++;
+                reader.read(row, srcRow);
+                // 置灰，只有本条带的行写出灰度图
+                boolean own = null != gray && row >= from && row < to;
+                for (int x = 0; x < cols; x++) {
+                    int v;
+                    if (channels == 1) {
+                        v = srcRow[x] & 0xFF;
+                    } else {
+                        int s = x * channels;
+                        v = PixelKernels.gray(srcRow[s] & 0xFF, srcRow[s + 1] & 0xFF, srcRow[s + 2] & 0xFF);
+                    }
+                    padded[radius + x] = v;
+                    if (own) {
+                        gray[row * cols + x] = (byte) v;
+                    }
+                }
+                for (int i = 1; i <= radius; i++) {
+                    padded[radius - i] = padded[radius + DogEngine.reflect(-i, cols)];
+                    padded[radius + cols - 1 + i] = padded[radius + DogEngine.reflect(cols - 1 + i, cols)];
+                }
+                // 水平方向
+                int slot = (row % ksize) * cols;
+                for (int x = 0; x < cols; x++) {
+                    float sum = 0;
+                    for (int k = 0; k < ksize; k++) {
+                        sum += kernel[k] * padded[x + k];
+                    }
+                    ring[slot + x] = sum;
+                }
+            }
+
+            // 竖直方向
+            for (int x = 0; x < cols; x++) {
+                sums[x] = 0;
+            }
+            for (int k = -radius; k <= radius; k++) {
+                int slot = (DogEngine.reflect(y + k, rows) % ksize) * cols;
+                float weight = kernel[k + radius];
+                for (int x = 0; x < cols; x++) {
+                    sums[x] += weight * ring[slot + x];
+                }
+            }
+            int offset = y * cols;
+            for (int x = 0; x < cols; x++) {
+                blurred[offset + x] = (byte) (int) (sums[x] + 0.5f);
+            }
+        }
+    }
+}
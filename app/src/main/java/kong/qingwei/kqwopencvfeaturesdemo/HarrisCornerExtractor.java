@@ -0,0 +1,162 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.Random;
+
+/**
+ * 从Harris响应中提取角点并批量绘制
+ * <p>
+ * 响应按行一次性拷贝到可复用的float[]中，阈值判断和非极大值抑制都在Java中完成，
+ * 不再对每个像素调用Mat.get()；绘制时整幅图只读写一次。
+ * 同一个实例不能被多个线程同时使用。
+ */
+public class HarrisCornerExtractor {
+
+    /**
+     * 按行读取响应
+     */
+    interface RowReader {
+        void read(int row, float[] dst);
+    }
+
+    private final int mRadius;
+    // 非极大值抑制窗口内的行，环形使用
+    private float[][] mRows = new float[0][];
+    private byte[] mCanvas = new byte[0];
+
+    /**
+     * @param radius 非极大值抑制的半径，0表示不做抑制
+     */
+    public HarrisCornerExtractor(int radius) {
+        mRadius = radius;
+    }
+
+    /**
+     * 提取角点
+     *
+     * @param response  归一化后的Harris响应，类型为CV_32FC1
+     * @param threshold 响应大于该值的局部极大值点被认为是角点
+     * @param out       保存结果，会先被清空
+     */
+    public void extract(final Mat response, float threshold, CornerList out) {
+        if (response.type() != CvType.CV_32FC1) {
+            throw new IllegalArgumentException("response must be CV_32FC1");
+        }
+        extract(new RowReader() {
+            @Override
+            public void read(int row, float[] dst) {
+                response.get(row, 0, dst);
+            }
+        }, response.rows(), response.cols(), threshold, out);
+    }
+
+    void extract(RowReader reader, int rows, int cols, float threshold, CornerList out) {
+        out.clear();
+        int window = 2 * mRadius + 1;
+        if (mRows.length != window || (window > 0 && mRows[0].length != cols)) {
+            mRows = new float[window][cols];
+        }
+        // 预先读入窗口的下半部分
+        for (int y = 0; y < Math.min(mRadius, rows); y++) {
+            reader.read(y, mRows[y % window]);
+        }
+        for (int y = 0; y < rows; y++) {
+            int next = y + mRadius;
+            if (next < rows) {
+                reader.read(next, mRows[next % window]);
+            }
+            float[] row = mRows[y % window];
+            for (int x = 0; x < cols; x++) {
+                float value = row[x];
+                if (value > threshold && isLocalMax(value, x, y, rows, cols)) {
+                    out.add(x, y, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * 窗口内没有更大的值；值相等时只保留扫描顺序中的第一个
+     */
+    private boolean isLocalMax(float value, int x, int y, int rows, int cols) {
+        int window = mRows.length;
+        int y0 = Math.max(0, y - mRadius);
+        int y1 = Math.min(rows - 1, y + mRadius);
+        int x0 = Math.max(0, x - mRadius);
+        int x1 = Math.min(cols - 1, x + mRadius);
+        for (int yy = y0; yy <= y1; yy++) {
+            float[] row = mRows[yy % window];
+            for (int xx = x0; xx <= x1; xx++) {
+                float other = row[xx];
+                if (other > value) {
+                    return false;
+                }
+                if (other == value && (yy < y || (yy == y && xx < x))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 在单通道8位图像上批量绘制角点，整幅图像只拷贝进出一次
+     *
+     * @param canvas  CV_8UC1图像
+     * @param corners 角点
+     * @param radius  圆的半径
+     * @param random  每个圆的灰度值随机
+     */
+    public void draw(Mat canvas, CornerList corners, int radius, Random random) {
+        if (canvas.type() != CvType.CV_8UC1 || !canvas.isContinuous()) {
+            throw new IllegalArgumentException("canvas must be a continuous CV_8UC1 Mat");
+        }
+        int rows = canvas.rows();
+        int cols = canvas.cols();
+        if (mCanvas.length != rows * cols) {
+            mCanvas = new byte[rows * cols];
+        }
+        canvas.get(0, 0, mCanvas);
+        draw(mCanvas, rows, cols, corners, radius, random);
+        canvas.put(0, 0, mCanvas);
+    }
+
+    /**
+     * 用中点画圆法绘制1像素宽的圆
+     */
+    static void draw(byte[] pixels, int rows, int cols, CornerList corners, int radius, Random random) {
+        for (int i = 0; i < corners.size(); i++) {
+            byte color = (byte) random.nextInt(255);
+            int cx = corners.x(i);
+            int cy = corners.y(i);
+            int x = radius;
+            int y = 0;
+            int err = 1 - radius;
+            while (x >= y) {
+                plot(pixels, rows, cols, cx + x, cy + y, color);
+                plot(pixels, rows, cols, cx + y, cy + x, color);
+                plot(pixels, rows, cols, cx - y, cy + x, color);
+                plot(pixels, rows, cols, cx - x, cy + y, color);
+                plot(pixels, rows, cols, cx - x, cy - y, color);
+                plot(pixels, rows, cols, cx - y, cy - x, color);
+                plot(pixels, rows, cols, cx + y, cy - x, color);
+                plot(pixels, rows, cols, cx + x, cy - y, color);
+                y++;
+                if (err < 0) {
+                    err += 2 * y + 1;
+                } else {
+                    x--;
+                    err += 2 * (y - x) + 1;
+                }
+            }
+        }
+    }
+
+    private static void plot(byte[] pixels, int rows, int cols, int x, int y, byte color) {
+        if (x >= 0 && x < cols && y >= 0 && y < rows) {
+            pixels[y * cols + x] = color;
+        }
+    }
+}
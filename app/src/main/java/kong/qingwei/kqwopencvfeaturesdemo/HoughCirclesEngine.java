@@ -0,0 +1,371 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Java实现的霍夫梯度法检测圆
+ * <p>
+ * 输入灰度图（或者已经算好的边缘和梯度），每个边缘点沿梯度方向正反两侧在[minRadius, maxRadius]范围内
+ * 向圆心累加器投票；票数超过阈值的局部极大值作为候选圆心，再统计周围边缘点到圆心距离的直方图确定半径。
+ * 半径范围越小，投票和统计的工作量越小。
+ * <p>
+ * 开启分带并行时，各条带向自己的累加器投票后按累加器的行分块求和，候选圆心的半径也并行统计，
+ * 最后按票数从多到少依次按最小圆心距离筛选。所有步骤都是整数计数或固定顺序，结果与单线程完全一致。
+ * 同一个实例不能被多个线程同时使用。
+ */
+public class HoughCirclesEngine {
+
+    private static final int SHIFT = 10;
+    private static final int ONE = 1 << SHIFT;
+
+    private final BandExecutor mBandExecutor;
+    private final CannyEngine mCanny;
+
+    private int[] mAccum = new int[0];
+    private final ArrayDeque<int[]> mFreePartials = new ArrayDeque<>();
+    private final List<int[]> mPartials = new ArrayList<>();
+    // 边缘点坐标
+    private int[] mPointX = new int[0];
+    private int[] mPointY = new int[0];
+    // 候选圆心，高32位为票数
+    private long[] mCenters = new long[0];
+    private int[] mRadius = new int[0];
+    private int[] mSupport = new int[0];
+    private final ArrayDeque<int[]> mFreeHistograms = new ArrayDeque<>();
+    private byte[] mGray = new byte[0];
+    private byte[] mEdges = new byte[0];
+
+    public HoughCirclesEngine() {
+        this(null);
+    }
+
+    /**
+     * @param bandExecutor 不为null时投票、累加器求和与半径统计并行执行
+     */
+    public HoughCirclesEngine(BandExecutor bandExecutor) {
+        mBandExecutor = bandExecutor;
+        mCanny = new CannyEngine(bandExecutor);
+    }
+
+    /**
+     * @return 分带并行执行器，为null时单线程处理
+     */
+    public BandExecutor getBandExecutor() {
+        return mBandExecutor;
+    }
+
+    /**
+     * 检测灰度图中的圆
+     *
+     * @param gray           CV_8UC1的灰度图，数据连续
+     * @param dp             累加器分辨率与图像分辨率的反比
+     * @param minDist        圆心之间的最小距离
+     * @param cannyThreshold Canny的高阈值，低阈值为它的一半
+     * @param votesThreshold 圆心票数和圆周上的边缘点数都要大于该值
+     * @param minRadius      最小半径
+     * @param maxRadius      最大半径，小于等于0时为图像的长边
+     * @param out            按圆心票数从多到少保存结果，会先被清空
+     */
+    public void detect(Mat gray, double dp, double minDist, double cannyThreshold, int votesThreshold,
+                       int minRadius, int maxRadius, CircleList out) {
+        if (gray.type() != CvType.CV_8UC1 || !gray.isContinuous()) {
+            throw new IllegalArgumentException("gray must be continuous CV_8UC1");
+        }
+        int size = gray.rows() * gray.cols();
+        if (mGray.length != size) {
+            mGray = new byte[size];
+        }
+        gray.get(0, 0, mGray);
+        detect(mGray, gray.rows(), gray.cols(), dp, minDist, cannyThreshold, votesThreshold, minRadius, maxRadius, out);
+    }
+
+    /**
+     * 在按行存放的灰度图上检测圆，参数同{@link #detect(Mat, double, double, double, int, int, int, CircleList)}
+     */
+    public void detect(byte[] gray, int rows, int cols, double dp, double minDist, double cannyThreshold,
+                       int votesThreshold, int minRadius, int maxRadius, CircleList out) {
+        int size = rows * cols;
+        if (mEdges.length != size) {
+            mEdges = new byte[size];
+        }
+        mCanny.detect(gray, mEdges, rows, cols, Math.max(cannyThreshold / 2, 1), cannyThreshold, 3, false);
+        detect(mEdges, mCanny.getDx(), mCanny.getDy(), rows, cols, dp, minDist, votesThreshold,
+                minRadius, maxRadius, out);
+    }
+
+    /**
+     * 用已经算好的边缘和梯度检测圆
+     *
+     * @param edges 边缘图，非0为边缘点
+     * @param dx    x方向的导数
+     * @param dy    y方向的导数
+     */
+    public void detect(final byte[] edges, final short[] dx, final short[] dy, final int rows, final int cols,
+                       double dp, double minDist, final int votesThreshold, int minRadius, int maxRadius,
+                       CircleList out) {
+        out.clear();
+        if (dp < 1) {
+            throw new IllegalArgumentException("dp must be >= 1: " + dp);
+        }
+        final int minR = Math.max(minRadius, 0);
+        final int maxR = maxRadius <= 0 ? Math.max(rows, cols) : Math.max(maxRadius, minR + 2);
+        final float idp = (float) (1 / dp);
+        final int accumCols = (int) Math.ceil(cols * idp);
+        final int accumRows = (int) Math.ceil(rows * idp);
+        final int step = accumCols + 2;
+        final int size = (accumRows + 2) * step;
+        if (mAccum.length != size) {
+            mAccum = new int[size];
+            synchronized (mFreePartials) {
+                mFreePartials.clear();
+            }
+        }
+
+        // 沿梯度方向投票
+        if (null == mBandExecutor) {
+            Arrays.fill(mAccum, 0);
+            vote(edges, dx, dy, cols, 0, rows, idp, minR, maxR, accumRows, accumCols, mAccum);
+        } else {
+            mPartials.clear();
+            mBandExecutor.run(rows, new BandExecutor.BandTask() {
+                @Override
+                public void apply(int from, int to) {
+                    int[] partial = obtain(mFreePartials, size);
+                    vote(edges, dx, dy, cols, from, to, idp, minR, maxR, accumRows, accumCols, partial);
+                    synchronized (mPartials) {
+                        mPartials.add(partial);
+                    }
+                }
+            });
+            // 按累加器的行分块求和
+            mBandExecutor.run(accumRows + 2, new BandExecutor.BandTask() {
+                @Override
+                public void apply(int from, int to) {
+                    int start = from * step;
+                    int end = to * step;
+                    Arrays.fill(mAccum, start, end, 0);
+                    for (int[] partial : mPartials) {
+                        for (int i = start; i < end; i++) {
+                            mAccum[i] += partial[i];
+                        }
+                    }
+                }
+            });
+            synchronized (mFreePartials) {
+                mFreePartials.addAll(mPartials);
+            }
+            mPartials.clear();
+        }
+
+        final int points = collectPoints(edges, rows, cols);
+        final int centers = findCenters(accumRows, accumCols, votesThreshold);
+        if (mRadius.length < centers) {
+            mRadius = new int[centers];
+            mSupport = new int[centers];
+        }
+
+        // 每个候选圆心各自统计半径
+        final float fdp = (float) dp;
+        BandExecutor.BandTask radiusTask = new BandExecutor.BandTask() {
+            @Override
+            public void apply(int from, int to) {
+                int[] histogram = obtain(mFreeHistograms, maxR + 2);
+                for (int i = from; i < to; i++) {
+                    int index = Integer.MAX_VALUE - (int) mCenters[i];
+                    float cx = (index % step - 1 + 0.5f) * fdp;
+                    float cy = (index / step - 1 + 0.5f) * fdp;
+                    estimateRadius(edges, rows, cols, points, cx, cy, minR, maxR, histogram, i);
+                    Arrays.fill(histogram, 0);
+                }
+                synchronized (mFreeHistograms) {
+                    mFreeHistograms.push(histogram);
+                }
+            }
+        };
+        if (null == mBandExecutor) {
+            radiusTask.apply(0, centers);
+        } else {
+            mBandExecutor.run(centers, radiusTask);
+        }
+
+        // 按票数从多到少筛选
+        double minDist2 = minDist * minDist;
+        for (int i = 0; i < centers; i++) {
+            if (mSupport[i] <= votesThreshold) {
+                continue;
+            }
+            int index = Integer.MAX_VALUE - (int) mCenters[i];
+            float cx = (index % step - 1 + 0.5f) * fdp;
+            float cy = (index / step - 1 + 0.5f) * fdp;
+            boolean tooClose = false;
+            for (int j = 0; j < out.size(); j++) {
+                float ddx = out.x(j) - cx;
+                float ddy = out.y(j) - cy;
+                if (ddx * ddx + ddy * ddy < minDist2) {
+                    tooClose = true;
+                    break;
+                }
+            }
+            if (!tooClose) {
+                out.add(cx, cy, mRadius[i], mSupport[i]);
+            }
+        }
+    }
+
+    /**
+     * 每个边缘点沿梯度的正反两个方向投票
+     */
+    private static void vote(byte[] edges, short[] dx, short[] dy, int cols, int from, int to, float idp,
+                             int minR, int maxR, int accumRows, int accumCols, int[] accum) {
+        int step = accumCols + 2;
+        for (int y = from; y < to; y++) {
+            int p = y * cols;
+            for (int x = 0; x < cols; x++) {
+                if (edges[p + x] == 0) {
+                    continue;
+                }
+                float vx = dx[p + x];
+                float vy = dy[p + x];
+                float mag = (float) Math.sqrt(vx * vx + vy * vy);
+                if (mag < 1.0f) {
+                    continue;
+                }
+                int sx = Math.round(vx * idp * ONE / mag);
+                int sy = Math.round(vy * idp * ONE / mag);
+                int x0 = Math.round(x * idp * ONE);
+                int y0 = Math.round(y * idp * ONE);
+                for (int k = 0; k < 2; k++) {
+                    int x1 = x0 + minR * sx;
+                    int y1 = y0 + minR * sy;
+                    for (int r = minR; r <= maxR; r++, x1 += sx, y1 += sy) {
+                        int x2 = x1 >> SHIFT;
+                        int y2 = y1 >> SHIFT;
+                        if (x2 < 0 || x2 >= accumCols || y2 < 0 || y2 >= accumRows) {
+                            break;
+                        }
+                        accum[(y2 + 1) * step + x2 + 1]++;
+                    }
+                    sx = -sx;
+                    sy = -sy;
+                }
+            }
+        }
+    }
+
+    private int collectPoints(byte[] edges, int rows, int cols) {
+        int count = 0;
+        for (int i = 0; i < rows * cols; i++) {
+            if (edges[i] != 0) {
+                if (count == mPointX.length) {
+                    int capacity = Math.max(256, count * 2);
+                    mPointX = Arrays.copyOf(mPointX, capacity);
+                    mPointY = Arrays.copyOf(mPointY, capacity);
+                }
+                mPointX[count] = i % cols;
+                mPointY[count] = i / cols;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 四邻域的局部极大值，按票数从多到少排序
+     *
+     * @return 候选圆心的数量
+     */
+    private int findCenters(int accumRows, int accumCols, int votesThreshold) {
+        int step = accumCols + 2;
+        int count = 0;
+        for (int y = 0; y < accumRows; y++) {
+            for (int x = 0; x < accumCols; x++) {
+                int index = (y + 1) * step + x + 1;
+                int votes = mAccum[index];
+                if (votes > votesThreshold
+                        && votes > mAccum[index - 1] && votes >= mAccum[index + 1]
+                        && votes > mAccum[index - step] && votes >= mAccum[index + step]) {
+                    if (count == mCenters.length) {
+                        mCenters = Arrays.copyOf(mCenters, Math.max(64, count * 2));
+                    }
+                    mCenters[count++] = ((long) votes << 32) | (Integer.MAX_VALUE - index);
+                }
+            }
+        }
+        Arrays.sort(mCenters, 0, count);
+        // 票数多的排在前面，票数相同时下标小的在前
+        for (int i = 0, j = count - 1; i < j; i++, j--) {
+            long t = mCenters[i];
+            mCenters[i] = mCenters[j];
+            mCenters[j] = t;
+        }
+        return count;
+    }
+
+    /**
+     * 统计边缘点到圆心距离的直方图，取圆周覆盖率最高的半径
+     * <p>
+     * 相邻三个像素宽的距离都计入同一个半径，覆盖率为支持点数除以半径（与圆周长成正比）。
+     */
+    private void estimateRadius(byte[] edges, int rows, int cols, int points, float cx, float cy,
+                                int minR, int maxR, int[] histogram, int candidate) {
+        long box = 2L * maxR + 1;
+        if (box * box < points) {
+            // 半径范围小时只扫描圆心周围的方框
+            int x0 = Math.max(0, (int) (cx - maxR - 1));
+            int x1 = Math.min(cols - 1, (int) (cx + maxR + 1));
+            int y0 = Math.max(0, (int) (cy - maxR - 1));
+            int y1 = Math.min(rows - 1, (int) (cy + maxR + 1));
+            for (int y = y0; y <= y1; y++) {
+                int p = y * cols;
+                for (int x = x0; x <= x1; x++) {
+                    if (edges[p + x] != 0) {
+                        count(histogram, x - cx, y - cy, minR, maxR);
+                    }
+                }
+            }
+        } else {
+            for (int i = 0; i < points; i++) {
+                count(histogram, mPointX[i] - cx, mPointY[i] - cy, minR, maxR);
+            }
+        }
+
+        int bestRadius = 0;
+        int bestSupport = 0;
+        for (int r = Math.max(minR, 1); r <= maxR; r++) {
+            int support = histogram[r - 1] + histogram[r] + histogram[r + 1];
+            // support / r > bestSupport / bestRadius
+            if (support > 0 && (0 == bestRadius || (long) support * bestRadius > (long) bestSupport * r)) {
+                bestRadius = r;
+                bestSupport = support;
+            }
+        }
+        mRadius[candidate] = bestRadius;
+        mSupport[candidate] = bestSupport;
+    }
+
+    private static void count(int[] histogram, float ddx, float ddy, int minR, int maxR) {
+        float d2 = ddx * ddx + ddy * ddy;
+        if (d2 < (float) minR * minR || d2 > (float) maxR * maxR) {
+            return;
+        }
+        histogram[(int) (Math.sqrt(d2) + 0.5)]++;
+    }
+
+    private static int[] obtain(ArrayDeque<int[]> pool, int size) {
+        int[] array;
+        synchronized (pool) {
+            array = pool.poll();
+        }
+        if (null == array || array.length != size) {
+            return new int[size];
+        }
+        Arrays.fill(array, 0);
+        return array;
+    }
+}
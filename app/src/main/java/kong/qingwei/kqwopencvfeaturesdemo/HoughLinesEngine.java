@@ -0,0 +1,387 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Java实现的霍夫直线检测
+ * <p>
+ * 各角度的cos、sin（已除以rho）预先算好放在查找表中。
+ * <ul>
+ * <li>{@link #lines}：标准霍夫变换。开启分带并行时每个条带向自己的累加器投票，最后按角度分带求和，
+ * 投票可以随CPU核数线性加速。峰值的判断和排序与Imgproc.HoughLines一致。</li>
+ * <li>{@link #segments}：渐进概率霍夫变换，步骤与Imgproc.HoughLinesP一致（包括随机数发生器），
+ * rho、theta、threshold、minLineLength、maxLineGap的含义相同。每个点投票后立即判断并删除已找到的线段上的点，
+ * 前后依赖，只能单线程执行。</li>
+ * </ul>
+ * 结果保存在{@link PolarLineList}和{@link SegmentList}中，不为每条直线创建数组。
+ * 累加器等缓冲在参数和图像尺寸不变时反复使用。同一个实例不能被多个线程同时使用。
+ */
+public class HoughLinesEngine {
+
+    private static final int SHIFT = 16;
+
+    private final BandExecutor mBandExecutor;
+
+    // 查找表
+    private int mCols = -1;
+    private int mRows = -1;
+    private double mRho;
+    private double mTheta;
+    private int mNumAngle;
+    private int mNumRho;
+    private float[] mTrig = new float[0];
+
+    private int[] mAccum = new int[0];
+    // 分带投票的累加器
+    private final ArrayDeque<int[]> mFreePartials = new ArrayDeque<>();
+    private final List<int[]> mPartials = new ArrayList<>();
+    private long[] mPeaks = new long[0];
+
+    private int[] mPoints = new int[0];
+    private byte[] mMask = new byte[0];
+    private byte[] mEdges = new byte[0];
+    // 线段两个方向的端点
+    private final int[] mEndX = new int[2];
+    private final int[] mEndY = new int[2];
+
+    public HoughLinesEngine() {
+        this(null);
+    }
+
+    /**
+     * @param bandExecutor 不为null时标准霍夫变换按行分带并行投票
+     */
+    public HoughLinesEngine(BandExecutor bandExecutor) {
+        mBandExecutor = bandExecutor;
+    }
+
+    /**
+     * 标准霍夫变换
+     *
+     * @param edges     二值边缘图，非0为边缘点，按行存放
+     * @param rows      行数
+     * @param cols      列数
+     * @param rho       距离分辨率（像素）
+     * @param theta     角度分辨率（弧度）
+     * @param threshold 票数大于该值的局部极大值被认为是直线
+     * @param linesMax  最多输出的直线数量
+     * @param out       按票数从多到少保存结果，会先被清空
+     */
+    public void lines(final byte[] edges, int rows, final int cols, double rho, double theta, int threshold,
+                      int linesMax, PolarLineList out) {
+        out.clear();
+        prepare(rows, cols, rho, theta);
+        final int numAngle = mNumAngle;
+        final int numRho = mNumRho;
+        final int size = (numAngle + 2) * (numRho + 2);
+        if (mAccum.length != size) {
+            mAccum = new int[size];
+        }
+
+        if (null == mBandExecutor) {
+            Arrays.fill(mAccum, 0);
+            vote(edges, cols, 0, rows, mAccum);
+        } else {
+            mPartials.clear();
+            mBandExecutor.run(rows, new BandExecutor.BandTask() {
+                @Override
+                public void apply(int from, int to) {
+                    int[] partial = obtainPartial(size);
+                    vote(edges, cols, from, to, partial);
+                    synchronized (mPartials) {
+                        mPartials.add(partial);
+                    }
+                }
+            });
+            // 按角度分带把各条带的累加器加起来
+            mBandExecutor.run(numAngle + 2, new BandExecutor.BandTask() {
+                @Override
+                public void apply(int from, int to) {
+                    int start = from * (numRho + 2);
+                    int end = to * (numRho + 2);
+                    Arrays.fill(mAccum, start, end, 0);
+                    for (int[] partial : mPartials) {
+                        for (int i = start; i < end; i++) {
+                            mAccum[i] += partial[i];
+                        }
+                    }
+                }
+            });
+            synchronized (mFreePartials) {
+                mFreePartials.addAll(mPartials);
+            }
+            mPartials.clear();
+        }
+
+        // 四邻域的局部极大值
+        int step = numRho + 2;
+        int count = 0;
+        for (int n = 0; n < numAngle; n++) {
+            for (int r = 0; r < numRho; r++) {
+                int index = (n + 1) * step + r + 1;
+                int votes = mAccum[index];
+                if (votes > threshold
+                        && votes > mAccum[index - 1] && votes >= mAccum[index + 1]
+                        && votes > mAccum[index - step] && votes >= mAccum[index + step]) {
+                    if (count == mPeaks.length) {
+                        mPeaks = Arrays.copyOf(mPeaks, Math.max(64, count * 2));
+                    }
+                    // 票数多的在后，票数相同时下标小的在后
+                    mPeaks[count++] = ((long) votes << 32) | (Integer.MAX_VALUE - index);
+                }
+            }
+        }
+        Arrays.sort(mPeaks, 0, count);
+        for (int i = count - 1; i >= 0 && count - 1 - i < linesMax; i--) {
+            int index = Integer.MAX_VALUE - (int) mPeaks[i];
+            int n = index / step - 1;
+            int r = index - (n + 1) * step - 1;
+            out.add((float) ((r - (numRho - 1) * 0.5f) * rho), (float) (n * theta), (int) (mPeaks[i] >>> 32));
+        }
+    }
+
+    /**
+     * 渐进概率霍夫变换
+     *
+     * @param edges         CV_8UC1的二值边缘图，数据连续
+     * @param rho           距离分辨率（像素）
+     * @param theta         角度分辨率（弧度）
+     * @param threshold     累加器中的票数不小于该值时沿直线查找线段
+     * @param minLineLength 线段的最短长度
+     * @param maxLineGap    同一条线段上相邻两点的最大间隔
+     * @param out           保存结果，会先被清空
+     */
+    public void segments(Mat edges, double rho, double theta, int threshold, double minLineLength,
+                         double maxLineGap, SegmentList out) {
+        if (edges.type() != CvType.CV_8UC1 || !edges.isContinuous()) {
+            throw new IllegalArgumentException("edges must be continuous CV_8UC1");
+        }
+        int size = edges.rows() * edges.cols();
+        if (mEdges.length != size) {
+            mEdges = new byte[size];
+        }
+        edges.get(0, 0, mEdges);
+        segments(mEdges, edges.rows(), edges.cols(), rho, theta, threshold, minLineLength, maxLineGap,
+                Integer.MAX_VALUE, out);
+    }
+
+    /**
+     * 在按行存放的边缘图上执行渐进概率霍夫变换，参数同{@link #segments(Mat, double, double, int, double, double, SegmentList)}
+     *
+     * @param linesMax 最多输出的线段数量
+     */
+    public void segments(byte[] edges, int rows, int cols, double rho, double theta, int threshold,
+                         double minLineLength, double maxLineGap, int linesMax, SegmentList out) {
+        out.clear();
+        prepare(rows, cols, rho, theta);
+        int numAngle = mNumAngle;
+        int numRho = mNumRho;
+        int lineLength = (int) minLineLength;
+        int lineGap = (int) maxLineGap;
+        float[] trig = mTrig;
+        if (mAccum.length != numAngle * numRho) {
+            mAccum = new int[numAngle * numRho];
+        } else {
+            Arrays.fill(mAccum, 0);
+        }
+        int[] accum = mAccum;
+
+        // 收集边缘点
+        int size = rows * cols;
+        if (mMask.length != size) {
+            mMask = new byte[size];
+            mPoints = new int[size];
+        }
+        byte[] mask = mMask;
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (edges[i] != 0) {
+                mask[i] = 1;
+                mPoints[count++] = i;
+            } else {
+                mask[i] = 0;
+            }
+        }
+
+        // 与cv::RNG((uint64)-1)相同的随机数序列
+        long state = -1L;
+        int[] endX = mEndX;
+        int[] endY = mEndY;
+        for (; count > 0; count--) {
+            state = (state & 0xFFFFFFFFL) * 4164903690L + (state >>> 32);
+            int idx = (int) ((state & 0xFFFFFFFFL) % count);
+            int point = mPoints[idx];
+            int i = point / cols;
+            int j = point - i * cols;
+            // 用最后一个点覆盖选中的点
+            mPoints[idx] = mPoints[count - 1];
+
+            // 已经属于其他线段
+            if (mask[point] == 0) {
+                continue;
+            }
+
+            // 投票并找出票数最多的角度
+            int maxVal = threshold - 1;
+            int maxN = 0;
+            for (int n = 0, offset = 0; n < numAngle; n++, offset += numRho) {
+                int r = round(j * trig[n * 2] + i * trig[n * 2 + 1]) + (numRho - 1) / 2;
+                int val = ++accum[offset + r];
+                if (maxVal < val) {
+                    maxVal = val;
+                    maxN = n;
+                }
+            }
+            if (maxVal < threshold) {
+                continue;
+            }
+
+            // 从当前点沿直线向两个方向查找线段的端点
+            float a = -trig[maxN * 2 + 1];
+            float b = trig[maxN * 2];
+            int x0 = j;
+            int y0 = i;
+            int dx0;
+            int dy0;
+            boolean xflag;
+            if (Math.abs(a) > Math.abs(b)) {
+                xflag = true;
+                dx0 = a > 0 ? 1 : -1;
+                dy0 = round(b * (1 << SHIFT) / Math.abs(a));
+                y0 = (y0 << SHIFT) + (1 << (SHIFT - 1));
+            } else {
+                xflag = false;
+                dy0 = b > 0 ? 1 : -1;
+                dx0 = round(a * (1 << SHIFT) / Math.abs(b));
+                x0 = (x0 << SHIFT) + (1 << (SHIFT - 1));
+            }
+
+            for (int k = 0; k < 2; k++) {
+                int gap = 0;
+                int dx = k > 0 ? -dx0 : dx0;
+                int dy = k > 0 ? -dy0 : dy0;
+                for (int x = x0, y = y0; ; x += dx, y += dy) {
+                    int j1 = xflag ? x : x >> SHIFT;
+                    int i1 = xflag ? y >> SHIFT : y;
+                    if (j1 < 0 || j1 >= cols || i1 < 0 || i1 >= rows) {
+                        break;
+                    }
+                    if (mask[i1 * cols + j1] != 0) {
+                        gap = 0;
+                        endX[k] = j1;
+                        endY[k] = i1;
+                    } else if (++gap > lineGap) {
+                        break;
+                    }
+                }
+            }
+
+            boolean goodLine = Math.abs(endX[1] - endX[0]) >= lineLength
+                    || Math.abs(endY[1] - endY[0]) >= lineLength;
+
+            // 删除线段上的点，是有效线段时同时撤销它们的投票
+            for (int k = 0; k < 2; k++) {
+                int dx = k > 0 ? -dx0 : dx0;
+                int dy = k > 0 ? -dy0 : dy0;
+                for (int x = x0, y = y0; ; x += dx, y += dy) {
+                    int j1 = xflag ? x : x >> SHIFT;
+                    int i1 = xflag ? y >> SHIFT : y;
+                    int m = i1 * cols + j1;
+                    if (mask[m] != 0) {
+                        if (goodLine) {
+                            for (int n = 0, offset = 0; n < numAngle; n++, offset += numRho) {
+                                int r = round(j1 * trig[n * 2] + i1 * trig[n * 2 + 1]) + (numRho - 1) / 2;
+                                accum[offset + r]--;
+                            }
+                        }
+                        mask[m] = 0;
+                    }
+                    if (i1 == endY[k] && j1 == endX[k]) {
+                        break;
+                    }
+                }
+            }
+
+            if (goodLine) {
+                out.add(endX[0], endY[0], endX[1], endY[1]);
+                if (out.size() >= linesMax) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 与cvRound相同，0.5时取偶数
+     */
+    private static int round(float value) {
+        return (int) Math.rint(value);
+    }
+
+    /**
+     * 参数或尺寸变化时重新计算查找表
+     */
+    private void prepare(int rows, int cols, double rho, double theta) {
+        if (rows == mRows && cols == mCols && rho == mRho && theta == mTheta) {
+            return;
+        }
+        if (rho <= 0 || theta <= 0) {
+            throw new IllegalArgumentException("rho=" + rho + ", theta=" + theta);
+        }
+        float irho = (float) (1 / rho);
+        mNumAngle = (int) Math.rint(Math.PI / theta);
+        mNumRho = (int) Math.rint(((cols + rows) * 2 + 1) / rho);
+        mTrig = new float[mNumAngle * 2];
+        for (int n = 0; n < mNumAngle; n++) {
+            mTrig[n * 2] = (float) (Math.cos(n * theta) * irho);
+            mTrig[n * 2 + 1] = (float) (Math.sin(n * theta) * irho);
+        }
+        mRows = rows;
+        mCols = cols;
+        mRho = rho;
+        mTheta = theta;
+        synchronized (mFreePartials) {
+            mFreePartials.clear();
+        }
+    }
+
+    /**
+     * 向带边界的累加器投票
+     */
+    private void vote(byte[] edges, int cols, int from, int to, int[] accum) {
+        int numAngle = mNumAngle;
+        int numRho = mNumRho;
+        float[] trig = mTrig;
+        int step = numRho + 2;
+        for (int i = from; i < to; i++) {
+            int p = i * cols;
+            for (int j = 0; j < cols; j++) {
+                if (edges[p + j] == 0) {
+                    continue;
+                }
+                for (int n = 0; n < numAngle; n++) {
+                    int r = round(j * trig[n * 2] + i * trig[n * 2 + 1]) + (numRho - 1) / 2;
+                    accum[(n + 1) * step + r + 1]++;
+                }
+            }
+        }
+    }
+
+    private int[] obtainPartial(int size) {
+        int[] partial;
+        synchronized (mFreePartials) {
+            partial = mFreePartials.poll();
+        }
+        if (null == partial || partial.length != size) {
+            return new int[size];
+        }
+        Arrays.fill(partial, 0);
+        return partial;
+    }
+}
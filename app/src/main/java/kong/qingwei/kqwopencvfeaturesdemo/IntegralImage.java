@@ -0,0 +1,369 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * 积分图（summed-area table）
+ * <p>
+ * 一次构建后，任意矩形内的像素和、平方和以及45°旋转矩形内的像素和都只需读四个值，
+ * 盒式滤波、Harris窗口等按窗口求和的运算不再随窗口变大而变慢。
+ * 三张表的定义与Imgproc.integral3相同，尺寸都是(rows + 1) * (cols + 1)：
+ * <ul>
+ * <li>sum(X, Y)：y &lt; Y、x &lt; X的像素和</li>
+ * <li>sqsum(X, Y)：y &lt; Y、x &lt; X的像素平方和</li>
+ * <li>tilted(X, Y)：y &lt; Y、|x - X + 1| &lt;= Y - y - 1的像素和</li>
+ * </ul>
+ * 像素和按int保存，超过int范围时回绕，但只要矩形内的和本身不超过2^32，相减得到的结果仍然正确。
+ * <p>
+ * 像素和、平方和按行分带并行构建：各条带先独立求和，再依次把上一个条带的最后一行加到本条带上。
+ * 旋转积分图的每一行依赖前两行，单线程构建。
+ * <p>
+ * 构建后只读，可以被多个线程同时查询；构建不能与查询或其他构建同时进行。
+ */
+public class IntegralImage {
+
+    private final BandExecutor mBandExecutor;
+    private byte[] mSrc = new byte[0];
+    private int[] mSum = new int[0];
+    private long[] mSqsum = new long[0];
+    private int[] mTilted = new int[0];
+    private int mRows;
+    private int mCols;
+    private boolean mSquared;
+    private boolean mHasTilted;
+
+    public IntegralImage() {
+        this(null);
+    }
+
+    /**
+     * @param bandExecutor 不为null时按行分带并行构建
+     */
+    public IntegralImage(BandExecutor bandExecutor) {
+        mBandExecutor = bandExecutor;
+    }
+
+    /**
+     * @return 分带并行执行器，为null时单线程构建
+     */
+    public BandExecutor getBandExecutor() {
+        return mBandExecutor;
+    }
+
+    /**
+     * 构建积分图
+     *
+     * @param gray    CV_8UC1的图像，数据连续
+     * @param squared 是否构建平方和
+     * @param tilted  是否构建旋转积分图
+     */
+    public void build(Mat gray, boolean squared, boolean tilted) {
+        if (gray.type() != CvType.CV_8UC1) {
+            throw new IllegalArgumentException("gray must be CV_8UC1");
+        }
+        if (!gray.isContinuous()) {
+            throw new IllegalArgumentException("gray must be continuous");
+        }
+        int size = gray.rows() * gray.cols();
+        if (mSrc.length != size) {
+            mSrc = new byte[size];
+        }
+        gray.get(0, 0, mSrc);
+        build(mSrc, gray.rows(), gray.cols(), squared, tilted);
+    }
+
+    /**
+     * 在按行存放的byte[]上构建积分图，参数同{@link #build(Mat, boolean, boolean)}
+     */
+    public void build(final byte[] src, final int rows, final int cols, final boolean squared, boolean tilted) {
+        mRows = rows;
+        mCols = cols;
+        mSquared = squared;
+        mHasTilted = tilted;
+        final int stride = cols + 1;
+        int size = (rows + 1) * stride;
+        if (mSum.length < size) {
+            mSum = new int[size];
+        }
+        if (squared && mSqsum.length < size) {
+            mSqsum = new long[size];
+        }
+        final int[] sum = mSum;
+        final long[] sqsum = mSqsum;
+
+        // 第0行和第0列都是0
+        for (int x = 0; x < stride; x++) {
+            sum[x] = 0;
+            if (squared) {
+                sqsum[x] = 0;
+            }
+        }
+
+        // 各条带独立求和，条带第一行的上一行按0计算
+        BandExecutor.BandTask local = new BandExecutor.BandTask() {
+            @Override
+            public void apply(int from, int to) {
+                for (int y = from; y < to; y++) {
+                    int row = (y + 1) * stride;
+                    int up = y == from ? -1 : y * stride;
+                    int s = 0;
+                    long sq = 0;
+                    sum[row] = 0;
+                    if (squared) {
+                        sqsum[row] = 0;
+                    }
+                    for (int x = 0; x < cols; x++) {
+                        int v = src[y * cols + x] & 0xFF;
+                        s += v;
+                        sum[row + x + 1] = up < 0 ? s : sum[up + x + 1] + s;
+                        if (squared) {
+                            sq += v * v;
+                            sqsum[row + x + 1] = up < 0 ? sq : sqsum[up + x + 1] + sq;
+                        }
+                    }
+                }
+            }
+        };
+        if (null == mBandExecutor) {
+            local.apply(0, rows);
+        } else {
+            final int bands = mBandExecutor.bands(rows);
+            mBandExecutor.run(rows, local);
+            if (bands > 1) {
+                // 依次修正每个条带的最后一行
+                for (int i = 1; i < bands; i++) {
+                    int carry = (rows * i / bands) * stride;
+                    int last = (rows * (i + 1) / bands) * stride;
+                    for (int x = 1; x < stride; x++) {
+                        sum[last + x] += sum[carry + x];
+                        if (squared) {
+                            sqsum[last + x] += sqsum[carry + x];
+                        }
+                    }
+                }
+                // 条带内其余的行加上上一个条带的最后一行
+                mBandExecutor.run(rows, new BandExecutor.BandTask() {
+                    @Override
+                    public void apply(int from, int to) {
+                        if (from == 0) {
+                            return;
+                        }
+                        int carry = from * stride;
+                        for (int y = from + 1; y < to; y++) {
+                            int row = y * stride;
+                            for (int x = 1; x < stride; x++) {
+                                sum[row + x] += sum[carry + x];
+                                if (squared) {
+                                    sqsum[row + x] += sqsum[carry + x];
+                                }
+                            }
+                        }
+                    }
+                });
+            }
+        }
+
+        if (tilted) {
+            buildTilted(src, rows, cols);
+        }
+    }
+
+    /**
+     * T(X, Y) = T(X - 1, Y - 1) + T(X + 1, Y - 1) - T(X, Y - 2) + I(X - 1, Y - 1) + I(X - 1, Y - 2)
+     * <p>
+     * 超出左右边界的T(-1, Y)等于T(0, Y - 1)，T(cols + 1, Y)等于T(cols, Y - 1)。
+     */
+    private void buildTilted(byte[] src, int rows, int cols) {
+        int stride = cols + 1;
+        int size = (rows + 1) * stride;
+        if (mTilted.length < size) {
+            mTilted = new int[size];
+        }
+        int[] t = mTilted;
+        for (int x = 0; x < stride; x++) {
+            t[x] = 0;
+        }
+        if (rows == 0) {
+            return;
+        }
+        t[stride] = 0;
+        for (int x = 1; x < stride; x++) {
+            t[stride + x] = src[x - 1] & 0xFF;
+        }
+        for (int y = 2; y <= rows; y++) {
+            int row = y * stride;
+            int up = row - stride;
+            int up2 = up - stride;
+            int src1 = (y - 1) * cols;
+            int src2 = (y - 2) * cols;
+            for (int x = 0; x < stride; x++) {
+                int left = x > 0 ? t[up + x - 1] : t[up2];
+                int right = x < cols ? t[up + x + 1] : t[up2 + cols];
+                int pixels = x > 0 ? (src[src1 + x - 1] & 0xFF) + (src[src2 + x - 1] & 0xFF) : 0;
+                t[row + x] = left + right - t[up2 + x] + pixels;
+            }
+        }
+    }
+
+    public int rows() {
+        return mRows;
+    }
+
+    public int cols() {
+        return mCols;
+    }
+
+    /**
+     * @return 是否构建了平方和
+     */
+    public boolean hasSquared() {
+        return mSquared;
+    }
+
+    /**
+     * @return 是否构建了旋转积分图
+     */
+    public boolean hasTilted() {
+        return mHasTilted;
+    }
+
+    /**
+     * @return 像素和表，(rows + 1) * (cols + 1)个元素
+     */
+    public int[] sumTable() {
+        return mSum;
+    }
+
+    /**
+     * @return 平方和表，(rows + 1) * (cols + 1)个元素
+     */
+    public long[] squaredSumTable() {
+        return mSqsum;
+    }
+
+    /**
+     * @return 旋转积分图，(rows + 1) * (cols + 1)个元素
+     */
+    public int[] tiltedTable() {
+        return mTilted;
+    }
+
+    /**
+     * @return 左上角为(x, y)、宽w高h的矩形内的像素和
+     */
+    public long sum(int x, int y, int w, int h) {
+        int stride = mCols + 1;
+        int top = y * stride + x;
+        int bottom = (y + h) * stride + x;
+        int value = mSum[bottom + w] - mSum[bottom] - mSum[top + w] + mSum[top];
+        return value & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return 左上角为(x, y)、宽w高h的矩形内的像素平方和
+     */
+    public long squaredSum(int x, int y, int w, int h) {
+        int stride = mCols + 1;
+        int top = y * stride + x;
+        int bottom = (y + h) * stride + x;
+        return mSqsum[bottom + w] - mSqsum[bottom] - mSqsum[top + w] + mSqsum[top];
+    }
+
+    /**
+     * 旋转45°的矩形内的像素和，矩形的定义与Haar特征的旋转矩形相同：
+     * 顶点在(x, y)，沿右下方向长w、沿左下方向长h
+     */
+    public long tiltedSum(int x, int y, int w, int h) {
+        int stride = mCols + 1;
+        int value = mTilted[y * stride + x] - mTilted[(y + h) * stride + x - h]
+                - mTilted[(y + w) * stride + x + w] + mTilted[(y + w + h) * stride + x + w - h];
+        return value & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return 矩形内像素的平均值
+     */
+    public double mean(int x, int y, int w, int h) {
+        return (double) sum(x, y, w, h) / ((long) w * h);
+    }
+
+    /**
+     * @return 矩形内像素的方差，需要构建平方和
+     */
+    public double variance(int x, int y, int w, int h) {
+        double n = (double) w * h;
+        double mean = sum(x, y, w, h) / n;
+        return Math.max(0, squaredSum(x, y, w, h) / n - mean * mean);
+    }
+
+    /**
+     * 均值滤波，窗口超出图像的部分不参与计算（按实际面积求平均），每个像素的开销与窗口大小无关
+     *
+     * @param dst   输出，rows * cols个元素
+     * @param ksize 窗口边长
+     */
+    public void boxFilter(final byte[] dst, int ksize) {
+        final int rows = mRows;
+        final int cols = mCols;
+        final int before = ksize / 2;
+        final int after = ksize - before;
+        BandExecutor.BandTask task = new BandExecutor.BandTask() {
+            @Override
+            public void apply(int from, int to) {
+                for (int y = from; y < to; y++) {
+                    int y0 = Math.max(0, y - before);
+                    int y1 = Math.min(rows, y + after);
+                    for (int x = 0; x < cols; x++) {
+                        int x0 = Math.max(0, x - before);
+                        int x1 = Math.min(cols, x + after);
+                        int area = (x1 - x0) * (y1 - y0);
+                        long s = sum(x0, y0, x1 - x0, y1 - y0);
+                        dst[y * cols + x] = (byte) ((s * 2 + area) / (area * 2));
+                    }
+                }
+            }
+        };
+        if (null == mBandExecutor) {
+            task.apply(0, rows);
+        } else {
+            mBandExecutor.run(rows, task);
+        }
+    }
+
+    /**
+     * 浮点图像上的窗口求和，用于Harris结构张量等由梯度得到的图像。
+     * 窗口超出图像的部分不参与计算，每个像素的开销与窗口大小无关。
+     *
+     * @param src   输入，rows * cols个元素
+     * @param dst   输出，rows * cols个元素，可以与输入相同
+     * @param table 积分表，至少(rows + 1) * (cols + 1)个元素，内容会被覆盖
+     * @param ksize 窗口边长
+     */
+    public static void windowSums(float[] src, float[] dst, double[] table, int rows, int cols, int ksize) {
+        int stride = cols + 1;
+        for (int x = 0; x < stride; x++) {
+            table[x] = 0;
+        }
+        for (int y = 0; y < rows; y++) {
+            int row = (y + 1) * stride;
+            double s = 0;
+            table[row] = 0;
+            for (int x = 0; x < cols; x++) {
+                s += src[y * cols + x];
+                table[row + x + 1] = table[row - stride + x + 1] + s;
+            }
+        }
+        int before = ksize / 2;
+        int after = ksize - before;
+        for (int y = 0; y < rows; y++) {
+            int top = Math.max(0, y - before) * stride;
+            int bottom = Math.min(rows, y + after) * stride;
+            for (int x = 0; x < cols; x++) {
+                int x0 = Math.max(0, x - before);
+                int x1 = Math.min(cols, x + after);
+                dst[y * cols + x] = (float) (table[bottom + x1] - table[bottom + x0] - table[top + x1] + table[top + x0]);
+            }
+        }
+    }
+}
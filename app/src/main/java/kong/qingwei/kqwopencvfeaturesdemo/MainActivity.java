@@ -17,6 +17,10 @@ import android.widget.ImageView;
 import org.opencv.android.BaseLoaderCallback;
 import org.opencv.android.LoaderCallbackInterface;
 import org.opencv.android.OpenCVLoader;
+import org.opencv.core.MatCleaner;
+import org.opencv.core.MatMemory;
+
+import java.io.File;
 
 import rx.Subscriber;
 
@@ -25,6 +29,8 @@ public class MainActivity extends BaseActivity {
     private static final String TAG = "MainActivity";
     private ImageView mImageView;
     private Bitmap mSelectImage;
+    // 当前显示的处理结果
+    private Bitmap mProcessedImage;
 
     private BaseLoaderCallback mOpenCVCallBack = new BaseLoaderCallback(this) {
         @Override
@@ -50,6 +56,19 @@ public class MainActivity extends BaseActivity {
 
         mImageView = (ImageView) findViewById(R.id.image_view);
 
+        // 调试时记录Mat的创建位置，没有close()就被回收的Mat会打印出来
+        MatCleaner.setLeakTracking(BuildConfig.DEBUG);
+        if (BuildConfig.DEBUG) {
+            // 调试时统计Mat占用的本地内存，每10秒按算子输出一次
+            MatMemory.setByteAccounting(true);
+            MatMemory.startDump(10000, new MatMemory.SnapshotListener() {
+                @Override
+                public void onSnapshot(MatMemory.Snapshot snapshot) {
+                    Log.d(TAG, snapshot.toString());
+                }
+            });
+        }
+
         // 图片特征提取的工具类
         mFeaturesUtil = new FeaturesUtil(new Subscriber<Bitmap>() {
             @Override
@@ -68,8 +87,18 @@ public class MainActivity extends BaseActivity {
             public void onNext(Bitmap bitmap) {
                 // 获取到处理后的图片
                 mImageView.setImageBitmap(bitmap);
+                // 之前的结果不再显示，回收后下次处理可以直接复用
+                mFeaturesUtil.recycle(mProcessedImage);
+                mProcessedImage = bitmap;
             }
         });
+        // 连续点击菜单时只处理最后一次请求
+        mFeaturesUtil.setLatestWins(true);
+        // 大图先显示低分辨率的预览
+        mFeaturesUtil.setProgressive(1);
+        // 同一张图片重复执行同样的算法时直接使用上次的结果
+        mFeaturesUtil.setResultCache(new ResultCache(ResultCache.DEFAULT_MEMORY_BYTES,
+                new File(getCacheDir(), "results"), ResultCache.DEFAULT_DISK_BYTES));
     }
 
     @Override
@@ -78,6 +107,14 @@ public class MainActivity extends BaseActivity {
         OpenCVLoader.initAsync(OpenCVLoader.OPENCV_VERSION_2_4_11, this, mOpenCVCallBack);
     }
 
+    @Override
+    protected void onDestroy() {
+        // 取消还在执行的图片处理
+        mFeaturesUtil.cancel();
+        MatMemory.stopDump();
+        super.onDestroy();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_main, menu);
@@ -187,6 +224,8 @@ public class MainActivity extends BaseActivity {
 
 
                 mImageView.setImageBitmap(mSelectImage);
+                mFeaturesUtil.recycle(mProcessedImage);
+                mProcessedImage = null;
             }
 
 
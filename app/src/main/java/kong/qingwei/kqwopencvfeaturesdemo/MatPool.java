@@ -0,0 +1,209 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.opencv.core.Mat;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * 按尺寸和类型复用Mat的对象池
+ * <p>
+ * 算法中的中间结果从池中取出，用完后归还，稳定运行时不再申请新的本地内存，
+ * 也不再依赖垃圾回收释放本地内存。
+ * 空闲的Mat总字节数超过上限时，归还的Mat直接释放。
+ */
+public class MatPool {
+
+    /**
+     * 默认空闲Mat上限 32MB
+     */
+    public static final long DEFAULT_MAX_IDLE_BYTES = 32 * 1024 * 1024;
+
+    private final long mMaxIdleBytes;
+    // 空闲的Mat，key由行数、列数和类型组成
+    private final Map<Long, ArrayDeque<Mat>> mIdle = new HashMap<>();
+    // 已借出的Mat以及借出时的字节数
+    private final IdentityHashMap<Mat, Long> mOutstanding = new IdentityHashMap<>();
+
+    private long mIdleBytes;
+    private long mOutstandingBytes;
+    private long mHitCount;
+    private long mMissCount;
+
+    public MatPool() {
+        this(DEFAULT_MAX_IDLE_BYTES);
+    }
+
+    /**
+     * @param maxIdleBytes 池中空闲Mat最多占用的本地内存字节数
+     */
+    public MatPool(long maxIdleBytes) {
+        mMaxIdleBytes = maxIdleBytes;
+    }
+
+    /**
+     * 借出一个指定尺寸和类型的Mat，内容未初始化
+     *
+     * @param rows 行数
+     * @param cols 列数
+     * @param type 类型，如CvType.CV_8UC1
+     * @return Mat
+     */
+    public synchronized Mat acquire(int rows, int cols, int type) {
+        ArrayDeque<Mat> idle = mIdle.get(key(rows, cols, type));
+        Mat mat = null == idle ? null : idle.poll();
+        if (null != mat) {
+            mHitCount++;
+            mIdleBytes -= bytesOf(mat);
+        } else {
+            mMissCount++;
+            mat = new Mat(rows, cols, type);
+        }
+        long bytes = bytesOf(mat);
+        mOutstanding.put(mat, bytes);
+        mOutstandingBytes += bytes;
+        return mat;
+    }
+
+    /**
+     * 借出一个Mat，并包装成可以在try-with-resources中使用的对象
+     *
+     * @param rows 行数
+     * @param cols 列数
+     * @param type 类型，如CvType.CV_8UC1
+     * @return 包装后的Mat，close()时归还
+     */
+    public PooledMat acquireHandle(int rows, int cols, int type) {
+        return new PooledMat(this, acquire(rows, cols, type));
+    }
+
+    /**
+     * 归还Mat
+     * <p>
+     * 归还时按照Mat当前的尺寸和类型入池，OpenCV函数内部重新分配过的Mat也可以归还。
+     * 不是从池中借出的Mat（例如EdgeStageCache返回的共享Mat）不会入池，直接调用close()连同Mat头一起释放。
+     *
+     * @param mat 要归还的Mat，可以为null
+     */
+    public synchronized void release(Mat mat) {
+        if (null == mat) {
+            return;
+        }
+        Long lent = mOutstanding.remove(mat);
+        if (null == lent) {
+            mat.close();
+            return;
+        }
+        mOutstandingBytes -= lent;
+        long bytes = bytesOf(mat);
+        if (mat.empty() || mIdleBytes + bytes > mMaxIdleBytes) {
+            // 池中的Mat不会再被使用，连同本地的Mat头一起释放
+            mat.close();
+            return;
+        }
+        long key = key(mat.rows(), mat.cols(), mat.type());
+        ArrayDeque<Mat> idle = mIdle.get(key);
+        if (null == idle) {
+            idle = new ArrayDeque<>();
+            mIdle.put(key, idle);
+        }
+        idle.push(mat);
+        mIdleBytes += bytes;
+    }
+
+    /**
+     * 归还多个Mat
+     */
+    public void release(Mat... mats) {
+        for (Mat mat : mats) {
+            release(mat);
+        }
+    }
+
+    /**
+     * 释放所有空闲的Mat
+     */
+    public synchronized void clear() {
+        for (ArrayDeque<Mat> idle : mIdle.values()) {
+            for (Mat mat : idle) {
+                mat.close();
+            }
+        }
+        mIdle.clear();
+        mIdleBytes = 0;
+    }
+
+    /**
+     * @return 命中次数
+     */
+    public synchronized long hitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return 未命中（新申请Mat）的次数
+     */
+    public synchronized long missCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return 已借出未归还的Mat占用的字节数
+     */
+    public synchronized long outstandingBytes() {
+        return mOutstandingBytes;
+    }
+
+    /**
+     * @return 池中空闲的Mat占用的字节数
+     */
+    public synchronized long idleBytes() {
+        return mIdleBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MatPool{hit=" + mHitCount + ", miss=" + mMissCount
+                + ", outstandingBytes=" + mOutstandingBytes + ", idleBytes=" + mIdleBytes + "}";
+    }
+
+    private static long key(int rows, int cols, int type) {
+        return ((long) rows << 40) | ((long) (cols & 0xFFFFFF) << 16) | (type & 0xFFFF);
+    }
+
+    private static long bytesOf(Mat mat) {
+        return mat.total() * mat.elemSize();
+    }
+
+    /**
+     * 从池中借出的Mat，close()时归还
+     */
+    public static final class PooledMat implements Closeable {
+
+        private final MatPool mPool;
+        private Mat mMat;
+
+        private PooledMat(MatPool pool, Mat mat) {
+            mPool = pool;
+            mMat = mat;
+        }
+
+        public Mat mat() {
+            return mMat;
+        }
+
+        /**
+         * 归还到池中，重复调用无效
+         */
+        @Override
+        public void close() {
+            if (null != mMat) {
+                mPool.release(mMat);
+                mMat = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.opencv.core.Mat;
+
+/**
+ * 图算中的一个算子
+ * <p>
+ * 算子只读取输入，输出必须是新的Mat（一般从{@link MatPool}中借出），
+ * 输入和输出的释放由{@link GraphExecutor}负责。
+ * 名称需要包含全部参数，名称相同且输入相同的节点会被合并成一个。
+ */
+public abstract class Operator {
+
+    private final String mName;
+
+    protected Operator(String name) {
+        mName = name;
+    }
+
+    /**
+     * @return 包含参数的算子名称，如 gaussianBlur(15,5.0)
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * 执行算子
+     *
+     * @param context 执行上下文
+     * @param inputs  输入，顺序与创建节点时一致
+     * @return 输出
+     */
+    public abstract Mat apply(StageContext context, Mat... inputs);
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
@@ -0,0 +1,44 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * 把条带结果依次写成二进制PGM（P5）灰度图，结果不在内存中累积
+ * <p>
+ * 写入失败时抛出的IOException包装在RuntimeException中。使用完毕后调用close()。
+ */
+public class PgmBandSink implements BandStreamProcessor.BandSink, Closeable {
+
+    private final OutputStream mOutputStream;
+    private final int mCols;
+
+    /**
+     * @param outputStream 输出流，close()时一并关闭
+     * @param rows         图像行数
+     * @param cols         图像列数
+     * @throws IOException 写入文件头失败
+     */
+    public PgmBandSink(OutputStream outputStream, int rows, int cols) throws IOException {
+        mOutputStream = new BufferedOutputStream(outputStream);
+        mCols = cols;
+        mOutputStream.write(("P5\n" + cols + " " + rows + "\n255\n").getBytes(Charset.forName("US-ASCII")));
+    }
+
+    @Override
+    public void write(int top, int count, byte[] data, int offset) {
+        try {
+            mOutputStream.write(data, offset, count * mCols);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mOutputStream.close();
+    }
+}
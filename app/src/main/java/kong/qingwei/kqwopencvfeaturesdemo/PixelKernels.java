@@ -0,0 +1,194 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * 纯Java实现的逐像素运算：灰度转换、absdiff、乘常数、threshold、addWeighted
+ * <p>
+ * 输入输出都是连续存放的8位数据，不经过JNI，可以在没有OpenCV本地库的JVM上运行。
+ * 只依赖输入值的运算（乘常数、阈值化）先算出256项的查找表，之后每个元素只查一次表；
+ * 数据较多时按块交给{@link BandExecutor}并行。各运算的取整和饱和方式与OpenCV 2.4的8位实现相同。
+ * <p>
+ * 同一个实例不能被多个线程同时使用。
+ */
+public class PixelKernels {
+
+    /**
+     * 并行时每块的元素个数
+     */
+    private static final int CHUNK = 4096;
+
+    /**
+     * 灰度转换的定点系数，与OpenCV的RGB2Gray相同（14位小数）
+     */
+    private static final int GRAY_SHIFT = 14;
+    private static final int R2Y = 4899;
+    private static final int G2Y = 9617;
+    private static final int B2Y = 1868;
+
+    private final BandExecutor mBandExecutor;
+    private final byte[] mLut = new byte[256];
+
+    public PixelKernels() {
+        this(null);
+    }
+
+    /**
+     * @param bandExecutor 不为null时分块并行
+     */
+    public PixelKernels(BandExecutor bandExecutor) {
+        mBandExecutor = bandExecutor;
+    }
+
+    /**
+     * @return 分块并行执行器，为null时单线程处理
+     */
+    public BandExecutor getBandExecutor() {
+        return mBandExecutor;
+    }
+
+    /**
+     * 转为灰度，与Imgproc.COLOR_BGR2GRAY相同：第0个通道按蓝色、第2个通道按红色计算
+     *
+     * @param src      每个像素channels个字节
+     * @param channels 3或4，第4个通道被忽略
+     * @param dst      输出，每个像素一个字节
+     * @param pixels   像素个数
+     */
+    public void bgrToGray(final byte[] src, final int channels, final byte[] dst, int pixels) {
+        if (channels != 3 && channels != 4) {
+            throw new IllegalArgumentException("channels must be 3 or 4");
+        }
+        run(pixels, new BandExecutor.BandTask() {
+            @Override
+            public void apply(int from, int to) {
+                for (int i = from, s = from * channels; i < to; i++, s += channels) {
+                    dst[i] = (byte) gray(src[s] & 0xFF, src[s + 1] & 0xFF, src[s + 2] & 0xFF);
+                }
+            }
+        });
+    }
+
+    /**
+     * 一个像素的灰度值，与Imgproc.COLOR_BGR2GRAY相同
+     *
+     * @param b 第0个通道
+     * @param g 第1个通道
+     * @param r 第2个通道
+     */
+    static int gray(int b, int g, int r) {
+        return (b * B2Y + g * G2Y + r * R2Y + (1 << (GRAY_SHIFT - 1))) >> GRAY_SHIFT;
+    }
+
+    /**
+     * dst = |a - b|
+     */
+    public void absdiff(final byte[] a, final byte[] b, final byte[] dst, int length) {
+        run(length, new BandExecutor.BandTask() {
+            @Override
+            public void apply(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    int d = (a[i] & 0xFF) - (b[i] & 0xFF);
+                    dst[i] = (byte) (d < 0 ? -d : d);
+                }
+            }
+        });
+    }
+
+    /**
+     * dst = saturate(src * scale)，与Core.multiply乘一个常数相同
+     */
+    public void multiply(byte[] src, double scale, byte[] dst, int length) {
+        for (int i = 0; i < 256; i++) {
+            mLut[i] = (byte) saturate(Math.rint(i * scale));
+        }
+        lut(src, dst, length);
+    }
+
+    /**
+     * 阈值化，与Imgproc.threshold在8位图像上的结果相同
+     *
+     * @param type Imgproc.THRESH_BINARY、THRESH_BINARY_INV、THRESH_TRUNC、THRESH_TOZERO或THRESH_TOZERO_INV
+     */
+    public void threshold(byte[] src, byte[] dst, int length, double thresh, double maxval, int type) {
+        // 8位图像上阈值向下取整，最大值四舍五入
+        int t = (int) Math.floor(thresh);
+        int max = saturate(Math.rint(maxval));
+        for (int i = 0; i < 256; i++) {
+            int value;
+            switch (type) {
+                case Imgproc.THRESH_BINARY:
+                    value = i > t ? max : 0;
+                    break;
+                case Imgproc.THRESH_BINARY_INV:
+                    value = i > t ? 0 : max;
+                    break;
+                case Imgproc.THRESH_TRUNC:
+                    value = i > t ? Math.max(t, 0) : i;
+                    break;
+                case Imgproc.THRESH_TOZERO:
+                    value = i > t ? i : 0;
+                    break;
+                case Imgproc.THRESH_TOZERO_INV:
+                    value = i > t ? 0 : i;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unsupported threshold type: " + type);
+            }
+            mLut[i] = (byte) value;
+        }
+        lut(src, dst, length);
+    }
+
+    /**
+     * dst = saturate(a * alpha + b * beta + gamma)，与Core.addWeighted相同，按单精度计算
+     */
+    public void addWeighted(final byte[] a, double alpha, final byte[] b, double beta, double gamma,
+                            final byte[] dst, int length) {
+        final float fa = (float) alpha;
+        final float fb = (float) beta;
+        final float fg = (float) gamma;
+        run(length, new BandExecutor.BandTask() {
+            @Override
+            public void apply(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    float value = (a[i] & 0xFF) * fa + (b[i] & 0xFF) * fb + fg;
+                    dst[i] = (byte) saturate(Math.rint(value));
+                }
+            }
+        });
+    }
+
+    private void lut(final byte[] src, final byte[] dst, int length) {
+        final byte[] lut = mLut;
+        run(length, new BandExecutor.BandTask() {
+            @Override
+            public void apply(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    dst[i] = lut[src[i] & 0xFF];
+                }
+            }
+        });
+    }
+
+    /**
+     * 把[0, length)按块分给执行器
+     */
+    private void run(final int length, final BandExecutor.BandTask task) {
+        if (null == mBandExecutor || length <= CHUNK) {
+            task.apply(0, length);
+            return;
+        }
+        int chunks = (length + CHUNK - 1) / CHUNK;
+        mBandExecutor.run(chunks, new BandExecutor.BandTask() {
+            @Override
+            public void apply(int from, int to) {
+                task.apply(from * CHUNK, Math.min(length, to * CHUNK));
+            }
+        });
+    }
+
+    private static int saturate(double value) {
+        return value <= 0 ? 0 : value >= 255 ? 255 : (int) value;
+    }
+}
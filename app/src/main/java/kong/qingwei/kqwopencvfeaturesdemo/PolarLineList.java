@@ -0,0 +1,69 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+/**
+ * 紧凑的直线列表，直线以(rho, theta)表示，与票数一起保存在基本类型数组中，可以反复使用
+ */
+public class PolarLineList {
+
+    private float[] mRhoTheta;
+    private int[] mVotes;
+    private int mSize;
+
+    public PolarLineList() {
+        this(64);
+    }
+
+    /**
+     * @param capacity 初始容量
+     */
+    public PolarLineList(int capacity) {
+        capacity = Math.max(1, capacity);
+        mRhoTheta = new float[capacity * 2];
+        mVotes = new int[capacity];
+    }
+
+    /**
+     * 添加一条直线
+     */
+    public void add(float rho, float theta, int votes) {
+        if (mSize == mVotes.length) {
+            int capacity = mSize * 2;
+            float[] rhoTheta = new float[capacity * 2];
+            int[] votesArray = new int[capacity];
+            System.arraycopy(mRhoTheta, 0, rhoTheta, 0, mSize * 2);
+            System.arraycopy(mVotes, 0, votesArray, 0, mSize);
+            mRhoTheta = rhoTheta;
+            mVotes = votesArray;
+        }
+        mRhoTheta[mSize * 2] = rho;
+        mRhoTheta[mSize * 2 + 1] = theta;
+        mVotes[mSize] = votes;
+        mSize++;
+    }
+
+    /**
+     * 清空，保留已分配的数组
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * @return 直线数量
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public float rho(int index) {
+        return mRhoTheta[index * 2];
+    }
+
+    public float theta(int index) {
+        return mRhoTheta[index * 2 + 1];
+    }
+
+    public int votes(int index) {
+        return mVotes[index];
+    }
+}
@@ -0,0 +1,75 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 用BitmapRegionDecoder按条带解码图片文件，不需要把整张图片解码到内存中
+ * <p>
+ * Android 4.4及以上复用同一个条带Bitmap，之前的版本每个条带解码一个新的Bitmap并立即回收。
+ * 使用完毕后调用close()。
+ */
+public class RegionBandSource implements BandStreamProcessor.BandSource, Closeable {
+
+    private final BitmapRegionDecoder mDecoder;
+    private final BitmapFactory.Options mOptions = new BitmapFactory.Options();
+    private final Rect mRect = new Rect();
+    private Bitmap mBand;
+
+    /**
+     * @param path 图片路径
+     * @throws IOException 图片无法打开或格式不支持
+     */
+    public RegionBandSource(String path) throws IOException {
+        mDecoder = BitmapRegionDecoder.newInstance(path, false);
+        mOptions.inPreferredConfig = Bitmap.Config.ARGB_8888;
+    }
+
+    @Override
+    public int rows() {
+        return mDecoder.getHeight();
+    }
+
+    @Override
+    public int cols() {
+        return mDecoder.getWidth();
+    }
+
+    @Override
+    public void read(int top, int count, byte[] rgba) {
+        int cols = cols();
+        mRect.set(0, top, cols, top + count);
+        boolean reuse = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        if (reuse && null != mBand && (mBand.getWidth() != cols || mBand.getHeight() != count)) {
+            // 尺寸不同（最后一个条带）时不复用
+            mBand.recycle();
+            mBand = null;
+        }
+        mOptions.inBitmap = reuse ? mBand : null;
+        Bitmap band = mDecoder.decodeRegion(mRect, mOptions);
+        // ARGB_8888在内存中按R、G、B、A的顺序存放
+        band.copyPixelsToBuffer(ByteBuffer.wrap(rgba, 0, count * cols * 4));
+        if (reuse) {
+            mBand = band;
+        } else {
+            band.recycle();
+        }
+    }
+
+    @Override
+    public void close() {
+        mOptions.inBitmap = null;
+        if (null != mBand) {
+            mBand.recycle();
+            mBand = null;
+        }
+        mDecoder.recycle();
+    }
+}
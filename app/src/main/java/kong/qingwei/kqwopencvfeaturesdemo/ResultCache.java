@@ -0,0 +1,270 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 检测结果的两级缓存
+ * <p>
+ * key由原图像素的内容哈希、算法（图中节点的签名，含所有前置步骤和参数）以及金字塔层级组成，
+ * 同一张图片重新打开、旋转屏幕后重建界面、在算法之间来回切换时直接取出结果，不再经过OpenCV。
+ * <p>
+ * 第一级是按字节数做LRU淘汰的内存缓存；第二级是{@link ResultDiskCache}，每个结果一个压缩文件。
+ * 磁盘读写较慢，应在后台线程中调用。可以被多个线程同时使用。
+ */
+public class ResultCache {
+
+    /**
+     * 默认内存缓存上限 16MB
+     */
+    public static final int DEFAULT_MEMORY_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * 默认磁盘缓存上限 64MB
+     */
+    public static final long DEFAULT_DISK_BYTES = 64L * 1024 * 1024;
+
+    private final LruCache<String, Entry> mMemory;
+    // 为null时不使用磁盘缓存
+    private final ResultDiskCache mDisk;
+
+    private final AtomicLong mMemoryHits = new AtomicLong();
+    private final AtomicLong mDiskHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mPuts = new AtomicLong();
+
+    // 最近一次计算哈希的图片
+    private WeakReference<Bitmap> mHashedBitmap = new WeakReference<>(null);
+    private int mHashedGenerationId;
+    private long mHash;
+
+    /**
+     * 缓存的一个结果，数据按行连续存放
+     */
+    public static final class Entry {
+        private final int mRows;
+        private final int mCols;
+        private final int mType;
+        private final byte[] mData;
+
+        /**
+         * @param rows 行数
+         * @param cols 列数
+         * @param type OpenCV的类型，如CvType.CV_8UC3
+         * @param data rows * cols * 通道数个字节
+         */
+        public Entry(int rows, int cols, int type, byte[] data) {
+            mRows = rows;
+            mCols = cols;
+            mType = type;
+            mData = data;
+        }
+
+        public int getRows() {
+            return mRows;
+        }
+
+        public int getCols() {
+            return mCols;
+        }
+
+        public int getType() {
+            return mType;
+        }
+
+        /**
+         * @return 像素数据，不能修改
+         */
+        public byte[] getData() {
+            return mData;
+        }
+    }
+
+    /**
+     * 只使用内存缓存
+     *
+     * @param maxMemoryBytes 内存缓存的字节数上限
+     */
+    public ResultCache(int maxMemoryBytes) {
+        this(maxMemoryBytes, null, 0);
+    }
+
+    /**
+     * @param maxMemoryBytes 内存缓存的字节数上限
+     * @param directory      磁盘缓存目录，为null时不使用磁盘缓存
+     * @param maxDiskBytes   磁盘缓存的字节数上限
+     */
+    public ResultCache(int maxMemoryBytes, File directory, long maxDiskBytes) {
+        mDisk = null == directory ? null : new ResultDiskCache(directory, maxDiskBytes);
+        mMemory = new LruCache<String, Entry>(maxMemoryBytes) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return entry.mData.length;
+            }
+        };
+    }
+
+    /**
+     * 计算图片像素的内容哈希，同一张图片内容不变时直接返回上次的结果
+     *
+     * @param bitmap 原图
+     * @return 64位哈希
+     */
+    public long hash(Bitmap bitmap) {
+        synchronized (this) {
+            if (mHashedBitmap.get() == bitmap && mHashedGenerationId == bitmap.getGenerationId()) {
+                return mHash;
+            }
+        }
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] row = new int[width];
+        // 64位FNV-1a，按像素而不是按字节计算
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ width) * 0x100000001b3L;
+        hash = (hash ^ height) * 0x100000001b3L;
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++) {
+                hash = (hash ^ row[x]) * 0x100000001b3L;
+            }
+        }
+        synchronized (this) {
+            mHashedBitmap = new WeakReference<>(bitmap);
+            mHashedGenerationId = bitmap.getGenerationId();
+            mHash = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * 组成缓存的key
+     *
+     * @param contentHash 原图的内容哈希
+     * @param algorithm   算法及参数，如图中节点的签名
+     * @param level       金字塔层级
+     */
+    public static String key(long contentHash, String algorithm, int level) {
+        return Long.toHexString(contentHash) + "/" + level + "/" + algorithm;
+    }
+
+    /**
+     * 取出结果，先查内存再查磁盘，磁盘命中时放回内存
+     *
+     * @return 结果，没有时返回null
+     */
+    public Entry get(String key) {
+        Entry entry = mMemory.get(key);
+        if (null != entry) {
+            mMemoryHits.incrementAndGet();
+            return entry;
+        }
+        entry = null == mDisk ? null : mDisk.read(key);
+        if (null != entry) {
+            mDiskHits.incrementAndGet();
+            mMemory.put(key, entry);
+            return entry;
+        }
+        mMisses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 放入结果，同时写入内存和磁盘
+     */
+    public void put(String key, Entry entry) {
+        mPuts.incrementAndGet();
+        mMemory.put(key, entry);
+        if (null != mDisk) {
+            mDisk.write(key, entry);
+        }
+    }
+
+    /**
+     * 移除某张图片的所有结果
+     *
+     * @param contentHash 原图的内容哈希
+     */
+    public void invalidate(long contentHash) {
+        String prefix = Long.toHexString(contentHash) + "/";
+        for (String key : mMemory.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                mMemory.remove(key);
+            }
+        }
+        if (null != mDisk) {
+            mDisk.invalidate(contentHash);
+        }
+    }
+
+    /**
+     * 清空内存和磁盘中的所有结果
+     */
+    public void clear() {
+        mMemory.evictAll();
+        if (null != mDisk) {
+            mDisk.clear();
+        }
+    }
+
+    /**
+     * @return 内存命中次数
+     */
+    public long getMemoryHits() {
+        return mMemoryHits.get();
+    }
+
+    /**
+     * @return 磁盘命中次数
+     */
+    public long getDiskHits() {
+        return mDiskHits.get();
+    }
+
+    /**
+     * @return 未命中次数
+     */
+    public long getMisses() {
+        return mMisses.get();
+    }
+
+    /**
+     * @return 放入次数
+     */
+    public long getPuts() {
+        return mPuts.get();
+    }
+
+    /**
+     * @return 磁盘读写失败的次数，失败时按未命中处理
+     */
+    public long getDiskErrors() {
+        return null == mDisk ? 0 : mDisk.getErrors();
+    }
+
+    /**
+     * @return 命中率，没有查询时为0
+     */
+    public double getHitRate() {
+        long hits = mMemoryHits.get() + mDiskHits.get();
+        long total = hits + mMisses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * @return 内存缓存占用的字节数
+     */
+    public int getMemoryBytes() {
+        return mMemory.size();
+    }
+
+    @Override
+    public String toString() {
+        return "ResultCache{memoryHits=" + mMemoryHits + ", diskHits=" + mDiskHits + ", misses=" + mMisses
+                + ", puts=" + mPuts + ", memoryBytes=" + mMemory.size() + "}";
+    }
+}
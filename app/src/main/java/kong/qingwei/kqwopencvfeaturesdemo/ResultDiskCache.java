@@ -0,0 +1,265 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.opencv.core.CvType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * {@link ResultCache}的磁盘缓存
+ * <p>
+ * 每个结果一个文件，内容为文件头、完整的key和Deflate压缩后的像素。文件名由内容哈希和key的哈希组成，
+ * 按内容哈希前缀可以找到一张图片的所有结果。超过上限时删除最早写入的文件。
+ * 读写失败时按未命中处理并计数。读写较慢，应在后台线程中调用。可以被多个线程同时使用。
+ */
+public class ResultDiskCache {
+
+    private static final int MAGIC = 0x4B515243;
+    private static final int VERSION = 1;
+    static final String SUFFIX = ".res";
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    private final AtomicLong mErrors = new AtomicLong();
+    // 占用的字节数，第一次使用时扫描目录，由this保护
+    private long mBytes = -1;
+
+    /**
+     * @param directory 缓存目录，不存在时在第一次写入时创建
+     * @param maxBytes  字节数上限
+     */
+    public ResultDiskCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 读出结果
+     *
+     * @return 结果，没有、格式不符或哈希冲突时返回null
+     */
+    public synchronized ResultCache.Entry read(String key) {
+        File file = file(key);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        InputStream pixels = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !key.equals(in.readUTF())) {
+                // 格式不符或哈希冲突
+                return null;
+            }
+            int rows = in.readInt();
+            int cols = in.readInt();
+            int type = in.readInt();
+            int length = in.readInt();
+            // 只缓存8位结果，长度必须与尺寸和通道数一致，损坏的文件头不能用来分配数组
+            if (rows <= 0 || cols <= 0 || CvType.depth(type) != CvType.CV_8U
+                    || (long) rows * cols * CvType.channels(type) != length) {
+                throw new IOException("corrupt header in " + file);
+            }
+            byte[] data = new byte[length];
+            // 关闭时同时释放Inflater的本地内存
+            pixels = new InflaterInputStream(in);
+            new DataInputStream(pixels).readFully(data);
+            return new ResultCache.Entry(rows, cols, type, data);
+        } catch (IOException e) {
+            mErrors.incrementAndGet();
+        } finally {
+            close(pixels);
+            close(in);
+        }
+        // 读取失败，文件关闭后删除
+        delete(file);
+        return null;
+    }
+
+    /**
+     * 写入结果，超过上限时删除最早写入的文件
+     *
+     * @return 是否写入成功
+     */
+    public synchronized boolean write(String key, ResultCache.Entry entry) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            mErrors.incrementAndGet();
+            return false;
+        }
+        bytes();
+        File file = file(key);
+        // 先写临时文件再改名，中途失败不会留下不完整的结果
+        File temp = new File(mDirectory, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        boolean written = false;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(key);
+            out.writeInt(entry.getRows());
+            out.writeInt(entry.getCols());
+            out.writeInt(entry.getType());
+            out.writeInt(entry.getData().length);
+            DeflaterOutputStream pixels = new DeflaterOutputStream(out, deflater);
+            pixels.write(entry.getData());
+            pixels.finish();
+            out.close();
+            out = null;
+            if (file.exists()) {
+                delete(file);
+            }
+            written = temp.renameTo(file);
+        } catch (IOException e) {
+            // 按写入失败处理
+        } finally {
+            close(out);
+            deflater.end();
+        }
+        if (!written) {
+            mErrors.incrementAndGet();
+            delete(temp);
+            return false;
+        }
+        mBytes += file.length();
+        trim();
+        return true;
+    }
+
+    /**
+     * 删除某张图片的所有结果
+     *
+     * @param contentHash 原图的内容哈希
+     */
+    public synchronized void invalidate(long contentHash) {
+        String prefix = Long.toHexString(contentHash) + "-";
+        File[] files = mDirectory.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                if (file.getName().startsWith(prefix)) {
+                    delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * 删除所有结果
+     */
+    public synchronized void clear() {
+        File[] files = mDirectory.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                if (file.getName().endsWith(SUFFIX)) {
+                    delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 读写失败的次数
+     */
+    public long getErrors() {
+        return mErrors.get();
+    }
+
+    /**
+     * @return 缓存文件占用的字节数
+     */
+    public synchronized long getBytes() {
+        return bytes();
+    }
+
+    /**
+     * key对应的文件，由内容哈希和key的哈希组成
+     */
+    File file(String key) {
+        int slash = key.indexOf('/');
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        return new File(mDirectory, key.substring(0, slash) + "-" + Long.toHexString(hash) + SUFFIX);
+    }
+
+    private long bytes() {
+        if (mBytes < 0) {
+            long bytes = 0;
+            File[] files = mDirectory.listFiles();
+            if (null != files) {
+                for (File file : files) {
+                    if (file.getName().endsWith(SUFFIX)) {
+                        bytes += file.length();
+                    }
+                }
+            }
+            mBytes = bytes;
+        }
+        return mBytes;
+    }
+
+    /**
+     * 超过上限时从最早写入的文件开始删除
+     */
+    private void trim() {
+        if (mBytes <= mMaxBytes) {
+            return;
+        }
+        File[] files = mDirectory.listFiles();
+        if (null == files) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (mBytes <= mMaxBytes) {
+                break;
+            }
+            if (file.getName().endsWith(SUFFIX)) {
+                delete(file);
+            }
+        }
+    }
+
+    /**
+     * 删除文件，同时更新占用的字节数
+     */
+    private void delete(File file) {
+        long length = file.length();
+        if (file.delete() && mBytes >= 0 && file.getName().endsWith(SUFFIX)) {
+            mBytes -= length;
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (null != closeable) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // 关闭失败不影响结果
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+/**
+ * 紧凑的线段列表，每条线段的两个端点依次保存在一个int[]中，可以反复使用
+ */
+public class SegmentList {
+
+    private int[] mPoints;
+    private int mSize;
+
+    public SegmentList() {
+        this(64);
+    }
+
+    /**
+     * @param capacity 初始容量
+     */
+    public SegmentList(int capacity) {
+        mPoints = new int[Math.max(1, capacity) * 4];
+    }
+
+    /**
+     * 添加一条线段
+     */
+    public void add(int x1, int y1, int x2, int y2) {
+        ensureCapacity(mSize + 1);
+        int offset = mSize * 4;
+        mPoints[offset] = x1;
+        mPoints[offset + 1] = y1;
+        mPoints[offset + 2] = x2;
+        mPoints[offset + 3] = y2;
+        mSize++;
+    }
+
+    /**
+     * 清空，保留已分配的数组
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * @return 线段数量
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return 按x1, y1, x2, y2依次保存的坐标，只有前size() * 4个元素有效
+     */
+    public int[] points() {
+        return mPoints;
+    }
+
+    public int x1(int index) {
+        return mPoints[index * 4];
+    }
+
+    public int y1(int index) {
+        return mPoints[index * 4 + 1];
+    }
+
+    public int x2(int index) {
+        return mPoints[index * 4 + 2];
+    }
+
+    public int y2(int index) {
+        return mPoints[index * 4 + 3];
+    }
+
+    private void ensureCapacity(int size) {
+        if (size * 4 > mPoints.length) {
+            int[] points = new int[Math.max(size, mSize * 2) * 4];
+            System.arraycopy(mPoints, 0, points, 0, mSize * 4);
+            mPoints = points;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * 一次完成x、y方向求导和梯度幅值的Sobel/Scharr滤波
+ * <p>
+ * 每个输出像素直接读取输入中相邻的三行，两个方向的导数和幅值在同一个循环里算完，
+ * 结果直接写成8位，没有16位的中间图像。原来的Sobel X、Sobel Y、两次convertScaleAbs和addWeighted
+ * 共五遍读写变为一遍读一遍写。
+ * <p>
+ * 边界按BORDER_REFLECT_101处理。加权绝对值的取整方式与addWeighted相同（四舍六入五成双），
+ * 结果与原来的五步流程一致。同一个实例不能被多个线程同时使用。
+ */
+public class SobelEngine {
+
+    private final BandExecutor mBandExecutor;
+    private byte[] mSrc = new byte[0];
+    private byte[] mDst = new byte[0];
+
+    public SobelEngine() {
+        this(null);
+    }
+
+    /**
+     * @param bandExecutor 不为null时按行分带并行
+     */
+    public SobelEngine(BandExecutor bandExecutor) {
+        mBandExecutor = bandExecutor;
+    }
+
+    /**
+     * @return 分带并行执行器，为null时单线程处理
+     */
+    public BandExecutor getBandExecutor() {
+        return mBandExecutor;
+    }
+
+    /**
+     * 计算梯度幅值
+     *
+     * @param src    CV_8UC1的输入，数据连续
+     * @param dst    CV_8UC1的输出，与输入尺寸相同，数据连续
+     * @param scharr 是否使用Scharr系数，否则为3x3的Sobel
+     * @param l2     是否使用sqrt(gx²+gy²)，否则为alpha*|gx|+beta*|gy|+gamma
+     * @param alpha  |gx|的权重，绝对值先饱和到255
+     * @param beta   |gy|的权重，绝对值先饱和到255
+     * @param gamma  加到加权和上的常数
+     */
+    public void magnitude(Mat src, Mat dst, boolean scharr, boolean l2, double alpha, double beta, double gamma) {
+        if (src.type() != CvType.CV_8UC1 || dst.type() != CvType.CV_8UC1) {
+            throw new IllegalArgumentException("src and dst must be CV_8UC1");
+        }
+        if (!src.isContinuous() || !dst.isContinuous()) {
+            throw new IllegalArgumentException("src and dst must be continuous");
+        }
+        int size = src.rows() * src.cols();
+        if (mSrc.length != size) {
+            mSrc = new byte[size];
+            mDst = new byte[size];
+        }
+        src.get(0, 0, mSrc);
+        magnitude(mSrc, mDst, src.rows(), src.cols(), scharr, l2, alpha, beta, gamma);
+        dst.put(0, 0, mDst);
+    }
+
+    /**
+     * 在按行存放的byte[]上计算梯度幅值，参数同{@link #magnitude(Mat, Mat, boolean, boolean, double, double, double)}
+     */
+    public void magnitude(final byte[] src, final byte[] dst, final int rows, final int cols, boolean scharr,
+                          final boolean l2, final double alpha, final double beta, final double gamma) {
+        // 平滑方向上两侧和中间的系数
+        final int side = scharr ? 3 : 1;
+        final int center = scharr ? 10 : 2;
+        BandExecutor.BandTask task = new BandExecutor.BandTask() {
+            @Override
+            public void apply(int from, int to) {
+                for (int y = from; y < to; y++) {
+                    filterRow(src, dst, y, rows, cols, side, center, l2, alpha, beta, gamma);
+                }
+            }
+        };
+        if (null == mBandExecutor) {
+            task.apply(0, rows);
+        } else {
+            mBandExecutor.run(rows, task);
+        }
+    }
+
+    private static void filterRow(byte[] src, byte[] dst, int y, int rows, int cols, int side, int center,
+                                  boolean l2, double alpha, double beta, double gamma) {
+        // 相邻三行
+        int up = DogEngine.reflect(y - 1, rows) * cols;
+        int mid = y * cols;
+        int down = DogEngine.reflect(y + 1, rows) * cols;
+        for (int x = 0; x < cols; x++) {
+            int left = x > 0 ? x - 1 : DogEngine.reflect(-1, cols);
+            int right = x < cols - 1 ? x + 1 : DogEngine.reflect(cols, cols);
+
+            int ul = src[up + left] & 0xFF;
+            int uc = src[up + x] & 0xFF;
+            int ur = src[up + right] & 0xFF;
+            int ml = src[mid + left] & 0xFF;
+            int mr = src[mid + right] & 0xFF;
+            int dl = src[down + left] & 0xFF;
+            int dc = src[down + x] & 0xFF;
+            int dr = src[down + right] & 0xFF;
+
+            int gx = side * (ur - ul + dr - dl) + center * (mr - ml);
+            int gy = side * (dl - ul + dr - ur) + center * (dc - uc);
+
+            double value;
+            if (l2) {
+                value = Math.sqrt(gx * gx + gy * gy);
+            } else {
+                value = alpha * Math.min(255, Math.abs(gx)) + beta * Math.min(255, Math.abs(gy)) + gamma;
+            }
+            dst[mid + x] = (byte) Math.max(0, Math.min(255, (int) Math.rint(value)));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import android.graphics.Bitmap;
+
+/**
+ * 一次图算执行的上下文，算子通过它拿到原图、共享的边缘缓存和Mat池
+ * <p>
+ * 层级大于0时在缩小的图像上执行（预览），与尺寸相关的参数（模糊核、角点窗口、直线长度等）按{@link #getScale()}缩放。
+ */
+public class StageContext {
+
+    private final Bitmap mSource;
+    private final EdgeStageCache mEdgeStageCache;
+    private final MatPool mMatPool;
+    private final BandExecutor mBandExecutor;
+    private final int mLevel;
+    private volatile boolean mCancelled;
+    private Runnable mOnCancelListener;
+
+    public StageContext(Bitmap source, EdgeStageCache edgeStageCache, MatPool matPool) {
+        this(source, edgeStageCache, matPool, null);
+    }
+
+    /**
+     * @param bandExecutor 不为null时逐像素滤波按行分带并行执行
+     */
+    public StageContext(Bitmap source, EdgeStageCache edgeStageCache, MatPool matPool, BandExecutor bandExecutor) {
+        this(source, edgeStageCache, matPool, bandExecutor, 0);
+    }
+
+    /**
+     * @param bandExecutor 不为null时逐像素滤波按行分带并行执行
+     * @param level        金字塔层级，0为原始尺寸，每增加一层宽高各缩小一半
+     */
+    public StageContext(Bitmap source, EdgeStageCache edgeStageCache, MatPool matPool, BandExecutor bandExecutor,
+                        int level) {
+        if (level < 0) {
+            throw new IllegalArgumentException("level < 0: " + level);
+        }
+        mSource = source;
+        mEdgeStageCache = edgeStageCache;
+        mMatPool = matPool;
+        mBandExecutor = bandExecutor;
+        mLevel = level;
+    }
+
+    /**
+     * @return 原图
+     */
+    public Bitmap getSource() {
+        return mSource;
+    }
+
+    /**
+     * @return 灰度图和Canny边缘图的共享缓存
+     */
+    public EdgeStageCache getEdgeStageCache() {
+        return mEdgeStageCache;
+    }
+
+    /**
+     * @return 中间结果使用的Mat池
+     */
+    public MatPool getMatPool() {
+        return mMatPool;
+    }
+
+    /**
+     * @return 分带并行执行器，为null时单线程处理整幅图像
+     */
+    public BandExecutor getBandExecutor() {
+        return mBandExecutor;
+    }
+
+    /**
+     * @return 金字塔层级，0为原始尺寸
+     */
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * @return 处理的图像相对原图的边长比例，层级为0时是1
+     */
+    public double getScale() {
+        return 1.0 / (1 << mLevel);
+    }
+
+    /**
+     * 取消执行，正在执行的步骤完成后不再开始新的步骤
+     */
+    public void cancel() {
+        Runnable listener;
+        synchronized (this) {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            listener = mOnCancelListener;
+        }
+        if (null != listener) {
+            listener.run();
+        }
+    }
+
+    /**
+     * @return 是否已经取消
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * 设置取消时的回调，已经取消时立即回调
+     *
+     * @param listener 回调，可以为null
+     */
+    public void setOnCancelListener(Runnable listener) {
+        synchronized (this) {
+            mOnCancelListener = listener;
+            if (!mCancelled || null == listener) {
+                return;
+            }
+        }
+        listener.run();
+    }
+}
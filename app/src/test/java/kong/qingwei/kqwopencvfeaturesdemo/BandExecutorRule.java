@@ -0,0 +1,33 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.junit.rules.ExternalResource;
+
+/**
+ * 为每个测试创建分带并行执行器，测试结束后关闭线程池
+ * <p>
+ * 线程数固定为4，与CPU核数无关，保证测试中的图像总是被切成多个条带。
+ */
+class BandExecutorRule extends ExternalResource {
+
+    static final int THREADS = 4;
+
+    private BandExecutor mBandExecutor;
+
+    @Override
+    protected void before() {
+        mBandExecutor = new BandExecutor(THREADS);
+    }
+
+    @Override
+    protected void after() {
+        mBandExecutor.shutdown();
+        mBandExecutor = null;
+    }
+
+    /**
+     * @return 本次测试的执行器
+     */
+    BandExecutor get() {
+        return mBandExecutor;
+    }
+}
@@ -0,0 +1,155 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BandStreamProcessorTest {
+
+    /**
+     * 内存中的RGBA图像，记录读取的行数
+     */
+    private static final class ArraySource implements BandStreamProcessor.BandSource {
+        private final byte[] mRgba;
+        private final int mRows;
+        private final int mCols;
+        private int mRowsRead;
+
+        ArraySource(byte[] rgba, int rows, int cols) {
+            mRgba = rgba;
+            mRows = rows;
+            mCols = cols;
+        }
+
+        @Override
+        public int rows() {
+            return mRows;
+        }
+
+        @Override
+        public int cols() {
+            return mCols;
+        }
+
+        @Override
+        public void read(int top, int count, byte[] rgba) {
+            System.arraycopy(mRgba, top * mCols * 4, rgba, 0, count * mCols * 4);
+            mRowsRead += count;
+        }
+    }
+
+    /**
+     * 收集结果，检查条带按顺序到达
+     */
+    private static final class ArraySink implements BandStreamProcessor.BandSink {
+        private final byte[] mData;
+        private final int mCols;
+        private int mNext;
+
+        ArraySink(int rows, int cols) {
+            mData = new byte[rows * cols];
+            mCols = cols;
+        }
+
+        @Override
+        public void write(int top, int count, byte[] data, int offset) {
+            assertEquals(mNext, top);
+            System.arraycopy(data, offset, mData, top * mCols, count * mCols);
+            mNext = top + count;
+        }
+    }
+
+    private static byte[] image(int rows, int cols, long seed) {
+        Random random = new Random(seed);
+        byte[] rgba = new byte[rows * cols * 4];
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) {
+                // 平滑的渐变加上一些方块和噪声，让边缘和梯度都不为空
+                int v = (x * 3 + y * 2) % 200 + ((x / 9 + y / 7) % 2) * 40 + random.nextInt(8);
+                int i = (y * cols + x) * 4;
+                rgba[i] = (byte) v;
+                rgba[i + 1] = (byte) (v / 2);
+                rgba[i + 2] = (byte) (255 - v);
+                rgba[i + 3] = (byte) 255;
+            }
+        }
+        return rgba;
+    }
+
+    private static byte[] run(byte[] rgba, int rows, int cols, int bandRows, ArraySource[] sourceOut,
+                              BandStreamProcessor.BandOperation... operations) {
+        ArraySource source = new ArraySource(rgba, rows, cols);
+        ArraySink sink = new ArraySink(rows, cols);
+        new BandStreamProcessor(bandRows).process(source, sink, operations);
+        assertEquals(rows, sink.mNext);
+        if (null != sourceOut) {
+            sourceOut[0] = source;
+        }
+        return sink.mData;
+    }
+
+    @Test
+    public void grayReadsEachRowOnce() throws Exception {
+        int rows = 50;
+        int cols = 20;
+        byte[] rgba = image(rows, cols, 1);
+        ArraySource[] source = new ArraySource[1];
+
+        byte[] gray = run(rgba, rows, cols, 8, source, BandStreamProcessor.gaussian(5, 0));
+
+        assertEquals(rows, source[0].mRowsRead);
+        assertArrayEquals(run(rgba, rows, cols, rows, null, BandStreamProcessor.gaussian(5, 0)), gray);
+    }
+
+    @Test
+    public void bandedBlurAndSobelMatchWholeImage() throws Exception {
+        int rows = 61;
+        int cols = 33;
+        byte[] rgba = image(rows, cols, 2);
+
+        byte[] whole = run(rgba, rows, cols, rows, null,
+                BandStreamProcessor.gaussian(7, 1.5), BandStreamProcessor.sobel(false, false, 0.5, 0.5, 0));
+        byte[] banded = run(rgba, rows, cols, 5, null,
+                BandStreamProcessor.gaussian(7, 1.5), BandStreamProcessor.sobel(false, false, 0.5, 0.5, 0));
+
+        assertArrayEquals(whole, banded);
+    }
+
+    @Test
+    public void bandedCannyMatchesWholeImageWithEnoughReach() throws Exception {
+        int rows = 70;
+        int cols = 40;
+        byte[] rgba = image(rows, cols, 3);
+
+        byte[] whole = run(rgba, rows, cols, rows, null,
+                BandStreamProcessor.gaussian(5, 0), BandStreamProcessor.canny(20, 60, 0));
+        byte[] banded = run(rgba, rows, cols, 16, null,
+                BandStreamProcessor.gaussian(5, 0), BandStreamProcessor.canny(20, 60, rows));
+
+        assertArrayEquals(whole, banded);
+    }
+
+    @Test
+    public void pgmSinkWritesHeaderAndRows() throws Exception {
+        int rows = 10;
+        int cols = 6;
+        byte[] rgba = image(rows, cols, 4);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PgmBandSink sink = new PgmBandSink(bytes, rows, cols);
+
+        new BandStreamProcessor(3).process(new ArraySource(rgba, rows, cols), sink);
+        sink.close();
+
+        byte[] header = "P5\n6 10\n255\n".getBytes("US-ASCII");
+        byte[] out = bytes.toByteArray();
+        assertEquals(header.length + rows * cols, out.length);
+        byte[] gray = new byte[rows * cols];
+        new PixelKernels().bgrToGray(rgba, 4, gray, rows * cols);
+        for (int i = 0; i < gray.length; i++) {
+            assertEquals(gray[i], out[header.length + i]);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Observable;
+import rx.Subscriber;
+
+import static org.junit.Assert.*;
+
+public class BatchProcessorTest {
+
+    /**
+     * 不经过BitmapFactory和OpenCV的批量处理，原图都是null，记录同时存在的原图数量
+     */
+    private static final class FakeProcessor extends BatchProcessor {
+        private final long mComputeMillis;
+        private final AtomicInteger mDecoded = new AtomicInteger();
+        private final AtomicInteger mRecycled = new AtomicInteger();
+        private final AtomicInteger mLive = new AtomicInteger();
+        private final AtomicInteger mMaxLive = new AtomicInteger();
+
+        FakeProcessor(int decodeAhead, int computeConcurrency, long computeMillis) {
+            super(decodeAhead, computeConcurrency);
+            mComputeMillis = computeMillis;
+        }
+
+        @Override
+        Bitmap decodeFile(String path) throws IOException {
+            if (path.startsWith("bad")) {
+                throw new IOException("cannot decode " + path);
+            }
+            mDecoded.incrementAndGet();
+            int live = mLive.incrementAndGet();
+            int max;
+            while (live > (max = mMaxLive.get()) && !mMaxLive.compareAndSet(max, live)) {
+                // 重试
+            }
+            return null;
+        }
+
+        @Override
+        Bitmap[] render(Bitmap source, FeatureGraph.Node[] outputs, Subscriber<?> subscriber) {
+            try {
+                Thread.sleep(mComputeMillis);
+            } catch (InterruptedException e) {
+                throw new CancellationException("interrupted");
+            }
+            return new Bitmap[outputs.length];
+        }
+
+        @Override
+        long pixels(Bitmap source) {
+            return 100;
+        }
+
+        @Override
+        void recycleSource(Bitmap source) {
+            mRecycled.incrementAndGet();
+            mLive.decrementAndGet();
+        }
+    }
+
+    private static List<String> paths(String prefix, int count) {
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            paths.add(prefix + i);
+        }
+        return paths;
+    }
+
+    private static List<String> pathsOf(List<BatchProcessor.Result> results) {
+        List<String> paths = new ArrayList<>();
+        for (BatchProcessor.Result result : results) {
+            paths.add(result.getPath());
+        }
+        return paths;
+    }
+
+    @Test
+    public void keepsInputOrderWithoutConcurrency() throws Exception {
+        List<String> paths = paths("image", 20);
+        List<BatchProcessor.Result> results = new FakeProcessor(1, 1, 1)
+                .process(Observable.from(paths)).toList().toBlocking().single();
+
+        assertEquals(paths, pathsOf(results));
+    }
+
+    @Test
+    public void processesEveryImageOnceConcurrently() throws Exception {
+        List<String> paths = paths("image", 40);
+        FakeProcessor processor = new FakeProcessor(3, 3, 2);
+        List<BatchProcessor.Result> results = processor
+                .process(Observable.from(paths)).toList().toBlocking().single();
+
+        assertEquals(paths.size(), results.size());
+        assertEquals(new HashSet<>(paths), new HashSet<>(pathsOf(results)));
+        assertEquals(40, processor.mRecycled.get());
+    }
+
+    @Test
+    public void boundsDecodedImagesInMemory() throws Exception {
+        FakeProcessor processor = new FakeProcessor(2, 1, 5);
+        processor.process(Observable.from(paths("image", 30))).toList().toBlocking().single();
+
+        // 提前解码的加上正在处理的
+        assertTrue("max live " + processor.mMaxLive.get(), processor.mMaxLive.get() <= 2 + 1);
+        assertEquals(0, processor.mLive.get());
+    }
+
+    @Test
+    public void statsCountFailuresAndPixels() throws Exception {
+        List<String> paths = paths("image", 5);
+        paths.add(2, "bad");
+        List<BatchProcessor.Result> results = new FakeProcessor(1, 1, 0)
+                .process(Observable.from(paths)).toList().toBlocking().single();
+
+        BatchProcessor.Result failed = results.get(2);
+        assertFalse(failed.isSuccessful());
+        assertNull(failed.getOutputs());
+        assertTrue(failed.getError() instanceof IOException);
+        assertTrue(results.get(3).isSuccessful());
+
+        // 每个结果带着截至它的累计统计
+        for (int i = 0; i < results.size(); i++) {
+            BatchProcessor.Stats stats = results.get(i).getStats();
+            assertEquals(i + 1, stats.getImages());
+            assertEquals(i >= 2 ? 1 : 0, stats.getFailures());
+        }
+        BatchProcessor.Stats last = results.get(results.size() - 1).getStats();
+        assertEquals(5 * 100, last.getPixels());
+        assertTrue(last.getImagesPerSecond() > 0);
+    }
+
+    @Test
+    public void unsubscribeRecyclesDecodedImages() throws Exception {
+        final FakeProcessor processor = new FakeProcessor(3, 1, 20);
+        List<BatchProcessor.Result> results = processor
+                .process(Observable.from(paths("image", 50))).take(2).toList().toBlocking().single();
+        assertEquals(2, results.size());
+
+        // 还在解码或处理的图片结束后也要回收
+        long deadline = System.currentTimeMillis() + 5000;
+        while (processor.mLive.get() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, processor.mLive.get());
+        assertEquals(processor.mDecoded.get(), processor.mRecycled.get());
+        assertTrue(processor.mDecoded.get() > 2);
+        assertTrue(processor.mDecoded.get() < 50);
+    }
+}
@@ -0,0 +1,114 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class CannyEngineTest {
+
+    @Rule
+    public final BandExecutorRule mBandExecutor = new BandExecutorRule();
+
+    /**
+     * 左半边为0，右半边为value的竖直阶跃
+     */
+    private static byte[] step(int rows, int cols, int[] values) {
+        byte[] image = new byte[rows * cols];
+        for (int y = 0; y < rows; y++) {
+            for (int x = cols / 2; x < cols; x++) {
+                image[y * cols + x] = (byte) values[y];
+            }
+        }
+        return image;
+    }
+
+    private static int count(byte[] edges, int rows, int cols, int row0, int row1) {
+        int count = 0;
+        for (int y = row0; y < row1; y++) {
+            for (int x = 0; x < cols; x++) {
+                if (edges[y * cols + x] != 0) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void sobelUsesReplicatedBorder() throws Exception {
+        int rows = 4;
+        int cols = 6;
+        byte[] ramp = new byte[rows * cols];
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) {
+                ramp[y * cols + x] = (byte) (x * 10);
+            }
+        }
+        CannyEngine engine = new CannyEngine();
+        engine.detect(ramp, new byte[rows * cols], rows, cols, 10, 100, 3, false);
+
+        assertEquals(40, engine.getDx()[0]);
+        assertEquals(80, engine.getDx()[2 * cols + 3]);
+        assertEquals(0, engine.getDy()[2 * cols + 3]);
+    }
+
+    @Test
+    public void stepEdgeIsOnePixelWide() throws Exception {
+        int rows = 20;
+        int cols = 20;
+        int[] values = new int[rows];
+        Arrays.fill(values, 200);
+        byte[] edges = new byte[rows * cols];
+        new CannyEngine().detect(step(rows, cols, values), edges, rows, cols, 10, 100, 3, false);
+
+        for (int y = 0; y < rows; y++) {
+            int count = 0;
+            for (int x = 0; x < cols; x++) {
+                if (edges[y * cols + x] != 0) {
+                    count++;
+                    assertTrue(x == cols / 2 - 1 || x == cols / 2);
+                }
+            }
+            assertEquals(1, count);
+        }
+    }
+
+    @Test
+    public void weakEdgesSurviveOnlyWhenConnected() throws Exception {
+        int rows = 20;
+        int cols = 20;
+        int[] values = new int[rows];
+        for (int y = 0; y < rows; y++) {
+            // 上半部分对比度高，下半部分对比度低
+            values[y] = y < rows / 2 ? 200 : 30;
+        }
+        byte[] edges = new byte[rows * cols];
+        new CannyEngine().detect(step(rows, cols, values), edges, rows, cols, 100, 500, 3, false);
+        // 弱边缘与强边缘相连，每一行的阶跃处都是边缘
+        for (int y = 0; y < rows; y++) {
+            assertTrue(edges[y * cols + cols / 2 - 1] != 0 || edges[y * cols + cols / 2] != 0);
+        }
+
+        Arrays.fill(values, 30);
+        new CannyEngine().detect(step(rows, cols, values), edges, rows, cols, 100, 500, 3, false);
+        assertEquals(0, count(edges, rows, cols, 0, rows));
+    }
+
+    @Test
+    public void bandsMatchSingleThread() throws Exception {
+        int rows = 160;
+        int cols = 90;
+        byte[] image = TestImages.random(rows * cols, 5);
+        byte[] serial = new byte[image.length];
+        byte[] parallel = new byte[image.length];
+
+        new CannyEngine().detect(image, serial, rows, cols, 200, 600, 5, true);
+        new CannyEngine(mBandExecutor.get()).detect(image, parallel, rows, cols, 200, 600, 5, true);
+
+        assertArrayEquals(serial, parallel);
+        assertTrue(count(serial, rows, cols, 0, rows) > 0);
+    }
+}
@@ -0,0 +1,152 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.junit.Test;
+import org.opencv.imgproc.Imgproc;
+
+import static org.junit.Assert.*;
+
+public class ContourTracerTest {
+
+    private static void rect(byte[] image, int cols, int left, int top, int right, int bottom, int value) {
+        for (int y = top; y <= bottom; y++) {
+            for (int x = left; x <= right; x++) {
+                image[y * cols + x] = (byte) value;
+            }
+        }
+    }
+
+    @Test
+    public void simpleApproximationKeepsCorners() throws Exception {
+        int rows = 16;
+        int cols = 16;
+        byte[] image = new byte[rows * cols];
+        rect(image, cols, 3, 4, 10, 12, 255);
+        ContourList contours = new ContourList();
+
+        new ContourTracer().find(image, rows, cols, Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE, contours);
+
+        assertEquals(1, contours.size());
+        assertEquals(4, contours.length(0));
+        assertFalse(contours.isHole(0));
+        int[] xs = new int[4];
+        int[] ys = new int[4];
+        for (int k = 0; k < 4; k++) {
+            xs[k] = contours.x(contours.offset(0) + k);
+            ys[k] = contours.y(contours.offset(0) + k);
+        }
+        assertEquals(3, xs[0]);
+        assertEquals(4, ys[0]);
+        for (int k = 0; k < 4; k++) {
+            assertTrue(xs[k] == 3 || xs[k] == 10);
+            assertTrue(ys[k] == 4 || ys[k] == 12);
+        }
+    }
+
+    @Test
+    public void noApproximationKeepsEveryBorderPixel() throws Exception {
+        int rows = 8;
+        int cols = 8;
+        byte[] image = new byte[rows * cols];
+        rect(image, cols, 2, 2, 4, 4, 1);
+        ContourList contours = new ContourList();
+
+        new ContourTracer().find(image, rows, cols, Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_NONE, contours);
+
+        assertEquals(1, contours.size());
+        assertEquals(8, contours.length(0));
+        assertEquals(8, contours.pointCount());
+    }
+
+    @Test
+    public void treeModeLinksHolesAndNestedShapes() throws Exception {
+        int rows = 24;
+        int cols = 24;
+        byte[] image = new byte[rows * cols];
+        // 带孔的方框，孔里有一个孤立点，旁边还有另一个方块
+        rect(image, cols, 1, 1, 14, 14, 255);
+        rect(image, cols, 4, 4, 11, 11, 0);
+        rect(image, cols, 7, 7, 7, 7, 255);
+        rect(image, cols, 17, 2, 20, 5, 255);
+        ContourList contours = new ContourList();
+
+        new ContourTracer().find(image, rows, cols, Imgproc.RETR_TREE, Imgproc.CHAIN_APPROX_SIMPLE, contours);
+
+        assertEquals(4, contours.size());
+        int outer = 0;
+        int square = 1;
+        int hole = 2;
+        int dot = 3;
+        assertFalse(contours.isHole(outer));
+        assertFalse(contours.isHole(square));
+        assertTrue(contours.isHole(hole));
+        assertFalse(contours.isHole(dot));
+
+        assertEquals(-1, contours.parent(outer));
+        assertEquals(-1, contours.parent(square));
+        assertEquals(outer, contours.parent(hole));
+        assertEquals(hole, contours.parent(dot));
+
+        assertEquals(square, contours.next(outer));
+        assertEquals(outer, contours.previous(square));
+        assertEquals(hole, contours.firstChild(outer));
+        assertEquals(dot, contours.firstChild(hole));
+        assertEquals(-1, contours.firstChild(square));
+        assertEquals(1, contours.length(dot));
+        assertEquals(7, contours.x(contours.offset(dot)));
+    }
+
+    @Test
+    public void listModeFlattensHierarchy() throws Exception {
+        int rows = 24;
+        int cols = 24;
+        byte[] image = new byte[rows * cols];
+        rect(image, cols, 1, 1, 14, 14, 255);
+        rect(image, cols, 4, 4, 11, 11, 0);
+        ContourList contours = new ContourList();
+        ContourTracer tracer = new ContourTracer();
+
+        tracer.find(image, rows, cols, Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE, contours);
+
+        assertEquals(2, contours.size());
+        for (int i = 0; i < contours.size(); i++) {
+            assertEquals(-1, contours.parent(i));
+            assertEquals(-1, contours.firstChild(i));
+        }
+        assertEquals(1, contours.next(0));
+        assertEquals(0, contours.previous(1));
+
+        // 复用同一个列表
+        tracer.find(new byte[rows * cols], rows, cols, Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE, contours);
+        assertEquals(0, contours.size());
+        assertEquals(0, contours.pointCount());
+    }
+
+    @Test
+    public void rendererOutlinesAndFills() throws Exception {
+        int rows = 12;
+        int cols = 12;
+        byte[] image = new byte[rows * cols];
+        rect(image, cols, 2, 3, 8, 9, 255);
+        ContourList contours = new ContourList();
+        new ContourTracer().find(image, rows, cols, Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE, contours);
+        ContourRenderer renderer = new ContourRenderer();
+        byte[] rgb = new byte[rows * cols * 3];
+        int[] colors = {0x102030};
+
+        renderer.render(contours, colors, false, rgb, rows, cols);
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) {
+                boolean border = image[y * cols + x] != 0 && (x == 2 || x == 8 || y == 3 || y == 9);
+                assertEquals(border ? 0x10 : 0, rgb[(y * cols + x) * 3]);
+                assertEquals(border ? 0x30 : 0, rgb[(y * cols + x) * 3 + 2]);
+            }
+        }
+
+        renderer.render(contours, colors, true, rgb, rows, cols);
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) {
+                assertEquals(image[y * cols + x] != 0 ? 0x20 : 0, rgb[(y * cols + x) * 3 + 1]);
+            }
+        }
+    }
+}
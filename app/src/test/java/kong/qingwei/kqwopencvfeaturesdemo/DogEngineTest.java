@@ -0,0 +1,181 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class DogEngineTest {
+
+    @Rule
+    public final BandExecutorRule mBandExecutor = new BandExecutorRule();
+
+    /**
+     * 按OpenCV 2.4的FilterEngine逐点计算的8位高斯模糊：先水平后竖直，整数累加，BORDER_REFLECT_101
+     */
+    private static int[] referenceBlur(byte[] src, int rows, int cols, int[] kernel) {
+        int radius = kernel.length / 2;
+        int[] horizontal = new int[src.length];
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) {
+                int v = 0;
+                for (int k = 0; k < kernel.length; k++) {
+                    v += kernel[k] * (src[y * cols + reflect101(x + k - radius, cols)] & 0xFF);
+                }
+                horizontal[y * cols + x] = v;
+            }
+        }
+        int[] blurred = new int[src.length];
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) {
+                int v = 0;
+                for (int k = 0; k < kernel.length; k++) {
+                    v += kernel[k] * horizontal[reflect101(y + k - radius, rows) * cols + x];
+                }
+                blurred[y * cols + x] = Math.min(255, (v + (1 << 15)) >> 16);
+            }
+        }
+        return blurred;
+    }
+
+    private static int reflect101(int i, int n) {
+        return i < 0 ? -i : (i >= n ? 2 * n - 2 - i : i);
+    }
+
+    /**
+     * 系数为1、阈值为t时输出表示差值是否大于t，逐个阈值统计得到每个像素的差值
+     */
+    private static int[] differences(DogEngine engine, byte[] src, int rows, int cols,
+                                     int ksize1, int ksize2, double sigma1, double sigma2) {
+        int[] diff = new int[src.length];
+        byte[] dst = new byte[src.length];
+        for (int t = 0; t < 255; t++) {
+            engine.threshold(src, dst, rows, cols, ksize1, ksize2, sigma1, sigma2, 1, t, 255, Imgproc.THRESH_BINARY);
+            for (int i = 0; i < dst.length; i++) {
+                if (dst[i] != 0) {
+                    diff[i]++;
+                }
+            }
+        }
+        return diff;
+    }
+
+    @Test
+    public void kernelIsNormalizedAndSymmetric() throws Exception {
+        float[] kernel = DogEngine.kernel(21, 5);
+        float sum = 0;
+        for (float k : kernel) {
+            sum += k;
+        }
+        assertEquals(1f, sum, 1e-5f);
+        assertEquals(kernel[0], kernel[20], 0);
+        assertTrue(kernel[10] > kernel[9]);
+    }
+
+    @Test
+    public void reflectsBorderWithoutRepeatingEdge() throws Exception {
+        assertEquals(1, DogEngine.reflect(-1, 5));
+        assertEquals(3, DogEngine.reflect(5, 5));
+        assertEquals(2, DogEngine.reflect(-6, 5));
+    }
+
+    @Test
+    public void fixedKernelMatchesOpenCvTaps() throws Exception {
+        // 核大小不超过7且sigma为0时取getGaussianKernel的固定系数表
+        assertArrayEquals(new int[]{64, 128, 64}, DogEngine.fixedKernel(3, 0));
+        assertArrayEquals(new int[]{16, 64, 96, 64, 16}, DogEngine.fixedKernel(5, 0));
+        assertArrayEquals(new int[]{8, 28, 56, 72, 56, 28, 8}, DogEngine.fixedKernel(7, 0));
+
+        // 计算得到的系数取整后的和不一定是256
+        int[] kernel = DogEngine.fixedKernel(21, 5);
+        int sum = 0;
+        for (int i = 0; i < kernel.length; i++) {
+            assertEquals(kernel[i], kernel[kernel.length - 1 - i]);
+            sum += kernel[i];
+        }
+        assertEquals(256, sum, kernel.length / 2);
+        // 8位图像由sigma推出的核大小
+        assertEquals(31, DogEngine.fixedKernel(0, 5).length);
+    }
+
+    @Test
+    public void matchesOpenCvFixedPointBlurs() throws Exception {
+        int rows = 23;
+        int cols = 31;
+        byte[] src = TestImages.random(rows * cols, 7);
+        DogEngine engine = new DogEngine();
+        int[][] cases = {
+                // ksize1, ksize2, sigma1 * 10, sigma2 * 10
+                {5, 9, 20, 20},
+                {15, 21, 50, 50},
+                {3, 7, 10, 30},
+                {3, 5, 0, 0},
+        };
+        for (int[] c : cases) {
+            double sigma1 = c[2] / 10.0;
+            double sigma2 = c[3] / 10.0;
+            int[] blur1 = referenceBlur(src, rows, cols, DogEngine.fixedKernel(c[0], sigma1));
+            int[] blur2 = referenceBlur(src, rows, cols, DogEngine.fixedKernel(c[1], sigma2));
+
+            int[] diff = differences(engine, src, rows, cols, c[0], c[1], sigma1, sigma2);
+
+            for (int i = 0; i < src.length; i++) {
+                assertEquals("pixel " + i, Math.abs(blur1[i] - blur2[i]), diff[i]);
+            }
+        }
+    }
+
+    @Test
+    public void constantImageHasNoDifference() throws Exception {
+        byte[] src = new byte[16 * 16];
+        Arrays.fill(src, (byte) 90);
+        byte[] dst = new byte[src.length];
+        // 固定系数表的和正好是256，均匀的图像模糊后不变
+        new DogEngine().threshold(src, dst, 16, 16, 3, 7, 0, 0, 100, 50, 255, Imgproc.THRESH_BINARY_INV);
+        for (byte b : dst) {
+            assertEquals((byte) 255, b);
+        }
+
+        // 21x21的系数和为257，90模糊后变成91，与OpenCV一样整幅输出为0
+        new DogEngine().threshold(src, dst, 16, 16, 15, 21, 5, 5, 100, 50, 255, Imgproc.THRESH_BINARY_INV);
+        for (byte b : dst) {
+            assertEquals(0, b);
+        }
+    }
+
+    @Test
+    public void parallelMatchesSingleThread() throws Exception {
+        int rows = 150;
+        int cols = 40;
+        byte[] src = TestImages.random(rows * cols, 11);
+        byte[] serial = new byte[src.length];
+        byte[] parallel = new byte[src.length];
+        DogEngine engine = new DogEngine(mBandExecutor.get());
+
+        // 相同的sigma共用竖直方向的计算
+        new DogEngine().threshold(src, serial, rows, cols, 5, 9, 2, 2, 100, 50, 255, Imgproc.THRESH_BINARY_INV);
+        engine.threshold(src, parallel, rows, cols, 5, 9, 2, 2, 100, 50, 255, Imgproc.THRESH_BINARY_INV);
+        assertArrayEquals(serial, parallel);
+
+        // 不同的sigma做增量模糊
+        new DogEngine().threshold(src, serial, rows, cols, 3, 7, 1, 3, 20, 10, 255, Imgproc.THRESH_BINARY);
+        engine.threshold(src, parallel, rows, cols, 3, 7, 1, 3, 20, 10, 255, Imgproc.THRESH_BINARY);
+        assertArrayEquals(serial, parallel);
+    }
+
+    @Test
+    public void pyramidHalvesEachOctave() throws Exception {
+        DogPyramid pyramid = DogEngine.pyramid(TestImages.random(64 * 40, 3), 64, 40, 5, 2, 1.6);
+
+        // 40 -> 20 -> 10 -> 5，第四个八度小于8个像素
+        assertEquals(3, pyramid.octaves());
+        assertEquals(4, pyramid.levels());
+        assertEquals(16, pyramid.rows(2));
+        assertEquals(10, pyramid.cols(2));
+        assertEquals(16 * 10, pyramid.get(2, 3).length);
+        assertEquals(3.2, pyramid.sigma(1, 0), 1e-9);
+    }
+}
@@ -0,0 +1,161 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.opencv.core.FakeNativeMatRule;
+import org.opencv.core.Mat;
+import org.opencv.core.MatMemory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 图算的节点合并和执行顺序，算子不调用OpenCV，可以在JVM上运行
+ */
+public class FeatureGraphTest {
+
+    @Rule
+    public final FakeNativeMatRule mMats = new FakeNativeMatRule();
+
+    private static Operator record(final String name, final List<String> log) {
+        return new Operator(name) {
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                log.add(getName());
+                return null;
+            }
+        };
+    }
+
+    @Test
+    public void sameOperatorAndInputsAreMerged() throws Exception {
+        FeatureGraph graph = new FeatureGraph();
+        List<String> log = new ArrayList<>();
+        FeatureGraph.Node source = graph.node(record("source", log));
+        FeatureGraph.Node a = graph.node(record("blur(3)", log), source);
+        FeatureGraph.Node b = graph.node(record("blur(3)", log), source);
+        FeatureGraph.Node c = graph.node(record("blur(5)", log), source);
+
+        assertSame(a, b);
+        assertNotSame(a, c);
+        assertSame(graph.canny(), graph.canny(10, 100));
+        assertEquals(4, graph.size());
+    }
+
+    @Test
+    public void sharedPrefixRunsOnceBeforeConsumers() throws Exception {
+        FeatureGraph graph = new FeatureGraph();
+        List<String> log = Collections.synchronizedList(new ArrayList<String>());
+        FeatureGraph.Node source = graph.node(record("source", log));
+        FeatureGraph.Node left = graph.node(record("left", log), source);
+        FeatureGraph.Node right = graph.node(record("right", log), source);
+        FeatureGraph.Node merge = graph.node(record("merge", log), left, right);
+
+        Mat[] results = new GraphExecutor(2).execute(new StageContext(null, null, new MatPool()), merge, left);
+
+        assertEquals(2, results.length);
+        assertEquals(4, log.size());
+        assertEquals("source", log.get(0));
+        assertEquals("merge", log.get(3));
+    }
+
+    @Test
+    public void independentBranchesRunConcurrently() throws Exception {
+        FeatureGraph graph = new FeatureGraph();
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        final Operator waitForSibling = new Operator("branch") {
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                bothStarted.countDown();
+                try {
+                    // 两个分支都开始执行后才返回，串行执行会超时
+                    if (!bothStarted.await(5, TimeUnit.SECONDS)) {
+                        throw new IllegalStateException("branches did not run concurrently");
+                    }
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return null;
+            }
+        };
+        FeatureGraph.Node x = graph.node(waitForSibling);
+        FeatureGraph.Node y = graph.node(new Operator("other branch") {
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                return waitForSibling.apply(context, inputs);
+            }
+        });
+
+        new GraphExecutor(2).execute(new StageContext(null, null, new MatPool()), x, y);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void operatorFailureIsRethrown() throws Exception {
+        FeatureGraph graph = new FeatureGraph();
+        FeatureGraph.Node failing = graph.node(new Operator("fail") {
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                throw new IllegalStateException("boom");
+            }
+        });
+        new GraphExecutor(1).execute(new StageContext(null, null, new MatPool()), failing);
+    }
+
+    @Test
+    public void signatureCoversWholeChain() throws Exception {
+        FeatureGraph graph = new FeatureGraph();
+        List<String> log = new ArrayList<>();
+        FeatureGraph.Node source = graph.node(record("source", log));
+        FeatureGraph.Node blur3 = graph.node(record("blur(3)", log), source);
+        FeatureGraph.Node blur5 = graph.node(record("blur(5)", log), source);
+        FeatureGraph.Node a = graph.node(record("diff", log), blur3, blur5);
+        FeatureGraph.Node b = graph.node(record("diff", log), blur5, blur3);
+
+        assertEquals("diff[blur(3)[source],blur(5)[source]]", a.getSignature());
+        assertNotEquals(a.getSignature(), b.getSignature());
+        // 不同图中同样的算子链签名相同，可以作为结果缓存的key
+        FeatureGraph other = new FeatureGraph();
+        FeatureGraph.Node otherSource = other.node(record("source", log));
+        assertEquals(blur3.getSignature(), other.node(record("blur(3)", log), otherSource).getSignature());
+        assertEquals("ab/0/" + a.getSignature(), ResultCache.key(0xab, a.getSignature(), 0));
+    }
+
+    @Test
+    public void matsAreTaggedWithTheOperatorName() throws Exception {
+        FeatureGraph graph = new FeatureGraph();
+        final List<String> stages = Collections.synchronizedList(new ArrayList<String>());
+        FeatureGraph.Node source = graph.node(new Operator("tagged source") {
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                stages.add(MatMemory.getStage());
+                return mMats.allocate();
+            }
+        });
+        FeatureGraph.Node output = graph.node(new Operator("tagged output") {
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                stages.add(MatMemory.getStage());
+                return mMats.allocate();
+            }
+        }, source);
+
+        Mat[] results = new GraphExecutor(2).execute(new StageContext(null, null, new MatPool()), output);
+
+        assertEquals(Arrays.asList("tagged source", "tagged output"), stages);
+        Map<String, MatMemory.StageUsage> usage = MatMemory.snapshot().stages;
+        // 中间结果已经归还给MatPool并释放，只剩输出
+        assertFalse(usage.containsKey("tagged source"));
+        assertEquals(1, usage.get("tagged output").count);
+        assertNull(MatMemory.getStage());
+
+        results[0].close();
+        assertFalse(MatMemory.snapshot().stages.containsKey("tagged output"));
+    }
+}
@@ -0,0 +1,101 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GrayBlurFrontEndTest {
+
+    @Rule
+    public final BandExecutorRule mBandExecutor = new BandExecutorRule();
+
+    /**
+     * 先置灰、再用DogEngine的两遍模糊得到的参考结果
+     */
+    private static byte[] reference(byte[] rgba, int rows, int cols, int ksize, double sigma, byte[] gray) {
+        int size = rows * cols;
+        new PixelKernels().bgrToGray(rgba, 4, gray, size);
+        float[] src = new float[size];
+        for (int i = 0; i < size; i++) {
+            src[i] = gray[i] & 0xFF;
+        }
+        float[] dst = new float[size];
+        DogEngine.blur(src, dst, rows, cols, DogEngine.kernel(ksize, sigma), new float[0]);
+        byte[] out = new byte[size];
+        for (int i = 0; i < size; i++) {
+            out[i] = (byte) (int) (dst[i] + 0.5f);
+        }
+        return out;
+    }
+
+    @Test
+    public void matchesGrayThenBlur() throws Exception {
+        int rows = 37;
+        int cols = 29;
+        byte[] src = TestImages.random(rows * cols * 4, 1);
+        byte[] expectedGray = new byte[rows * cols];
+        byte[] expected = reference(src, rows, cols, 5, 1.2, expectedGray);
+        byte[] blurred = new byte[rows * cols];
+        byte[] gray = new byte[rows * cols];
+
+        new GrayBlurFrontEnd(5, 1.2).process(src, rows, cols, blurred, gray);
+
+        assertArrayEquals(expectedGray, gray);
+        for (int i = 0; i < blurred.length; i++) {
+            // 两个方向的先后顺序不同，浮点误差最多让取整差1
+            assertEquals(expected[i] & 0xFF, blurred[i] & 0xFF, 1);
+        }
+    }
+
+    @Test
+    public void blurOfGrayMatchesFusedPass() throws Exception {
+        int rows = 41;
+        int cols = 33;
+        byte[] src = TestImages.random(rows * cols * 4, 4);
+        byte[] fused = new byte[rows * cols];
+        byte[] gray = new byte[rows * cols];
+        byte[] blurred = new byte[rows * cols];
+        byte[] parallel = new byte[rows * cols];
+
+        new GrayBlurFrontEnd(9, 2).process(src, rows, cols, fused, gray);
+        new GrayBlurFrontEnd(9, 2).blur(gray, rows, cols, blurred);
+        new GrayBlurFrontEnd(9, 2, mBandExecutor.get()).blur(gray, rows, cols, parallel);
+
+        // 灰度图已经缓存与否，得到的模糊结果逐位相同
+        assertArrayEquals(fused, blurred);
+        assertArrayEquals(fused, parallel);
+    }
+
+    @Test
+    public void imageSmallerThanKernel() throws Exception {
+        int rows = 3;
+        int cols = 4;
+        byte[] src = TestImages.random(rows * cols * 4, 2);
+        byte[] expected = reference(src, rows, cols, 9, 2, new byte[rows * cols]);
+        byte[] blurred = new byte[rows * cols];
+
+        new GrayBlurFrontEnd(9, 2).process(src, rows, cols, blurred, null);
+
+        for (int i = 0; i < blurred.length; i++) {
+            assertEquals(expected[i] & 0xFF, blurred[i] & 0xFF, 1);
+        }
+    }
+
+    @Test
+    public void parallelMatchesSingleThread() throws Exception {
+        int rows = 200;
+        int cols = 50;
+        byte[] src = TestImages.random(rows * cols * 4, 3);
+        byte[] serial = new byte[rows * cols];
+        byte[] parallel = new byte[rows * cols];
+        byte[] serialGray = new byte[rows * cols];
+        byte[] parallelGray = new byte[rows * cols];
+
+        new GrayBlurFrontEnd(7, 0).process(src, rows, cols, serial, serialGray);
+        new GrayBlurFrontEnd(7, 0, mBandExecutor.get()).process(src, rows, cols, parallel, parallelGray);
+
+        assertArrayEquals(serial, parallel);
+        assertArrayEquals(serialGray, parallelGray);
+    }
+}
@@ -0,0 +1,86 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HarrisCornerExtractorTest {
+
+    private static HarrisCornerExtractor.RowReader reader(final float[] image, final int cols) {
+        return new HarrisCornerExtractor.RowReader() {
+            @Override
+            public void read(int row, float[] dst) {
+                System.arraycopy(image, row * cols, dst, 0, cols);
+            }
+        };
+    }
+
+    @Test
+    public void keepsOnlyLocalMaximaAboveThreshold() throws Exception {
+        int rows = 6;
+        int cols = 7;
+        float[] image = new float[rows * cols];
+        // 一个峰值和它旁边较小的响应
+        image[2 * cols + 2] = 200;
+        image[2 * cols + 3] = 180;
+        image[3 * cols + 2] = 170;
+        // 孤立的峰值
+        image[5 * cols + 6] = 160;
+        // 低于阈值
+        image[0] = 100;
+
+        CornerList corners = new CornerList(1);
+        new HarrisCornerExtractor(1).extract(reader(image, cols), rows, cols, 150, corners);
+
+        assertEquals(2, corners.size());
+        assertEquals(2, corners.x(0));
+        assertEquals(2, corners.y(0));
+        assertEquals(200f, corners.response(0), 0);
+        assertEquals(6, corners.x(1));
+        assertEquals(5, corners.y(1));
+    }
+
+    @Test
+    public void plateauKeepsFirstPixel() throws Exception {
+        int rows = 3;
+        int cols = 3;
+        float[] image = {
+                0, 0, 0,
+                0, 200, 200,
+                0, 200, 0};
+
+        CornerList corners = new CornerList();
+        new HarrisCornerExtractor(1).extract(reader(image, cols), rows, cols, 150, corners);
+
+        assertEquals(1, corners.size());
+        assertEquals(1, corners.x(0));
+        assertEquals(1, corners.y(0));
+    }
+
+    @Test
+    public void radiusZeroKeepsEveryPixelAboveThreshold() throws Exception {
+        float[] image = {151, 152, 0, 153};
+
+        CornerList corners = new CornerList();
+        new HarrisCornerExtractor(0).extract(reader(image, 2), 2, 2, 150, corners);
+
+        assertEquals(3, corners.size());
+    }
+
+    @Test
+    public void drawsClippedCircleOutline() throws Exception {
+        int rows = 9;
+        int cols = 9;
+        byte[] pixels = new byte[rows * cols];
+        CornerList corners = new CornerList();
+        corners.add(0, 4, 200);
+
+        HarrisCornerExtractor.draw(pixels, rows, cols, corners, 2, new Random(1));
+
+        assertNotEquals(0, pixels[4 * cols + 2]);
+        assertNotEquals(0, pixels[2 * cols]);
+        assertEquals(0, pixels[4 * cols]);
+    }
+}
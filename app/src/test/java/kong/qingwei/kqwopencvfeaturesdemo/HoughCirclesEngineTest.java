@@ -0,0 +1,76 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HoughCirclesEngineTest {
+
+    @Rule
+    public final BandExecutorRule mBandExecutor = new BandExecutorRule();
+
+    private static void disk(byte[] image, int cols, int cx, int cy, int radius) {
+        int rows = image.length / cols;
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) {
+                if ((x - cx) * (x - cx) + (y - cy) * (y - cy) <= radius * radius) {
+                    image[y * cols + x] = (byte) 200;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void findsDiskCenterAndRadius() throws Exception {
+        int rows = 64;
+        int cols = 80;
+        byte[] gray = new byte[rows * cols];
+        disk(gray, cols, 40, 30, 15);
+        CircleList circles = new CircleList();
+
+        new HoughCirclesEngine().detect(gray, rows, cols, 1, 20, 100, 10, 5, 30, circles);
+
+        assertEquals(1, circles.size());
+        assertEquals(40, circles.x(0), 2f);
+        assertEquals(30, circles.y(0), 2f);
+        assertEquals(15, circles.radius(0), 1.5f);
+        assertTrue(circles.support(0) > 10);
+    }
+
+    @Test
+    public void radiusBoundsExcludeCircle() throws Exception {
+        int rows = 64;
+        int cols = 80;
+        byte[] gray = new byte[rows * cols];
+        disk(gray, cols, 40, 30, 15);
+        CircleList circles = new CircleList();
+
+        new HoughCirclesEngine().detect(gray, rows, cols, 1, 20, 100, 10, 25, 30, circles);
+
+        assertEquals(0, circles.size());
+    }
+
+    @Test
+    public void parallelMatchesSingleThread() throws Exception {
+        int rows = 160;
+        int cols = 120;
+        byte[] gray = new byte[rows * cols];
+        disk(gray, cols, 40, 40, 20);
+        disk(gray, cols, 80, 110, 25);
+        CircleList serial = new CircleList();
+        CircleList parallel = new CircleList();
+
+        new HoughCirclesEngine().detect(gray, rows, cols, 1, 20, 100, 20, 0, 0, serial);
+        new HoughCirclesEngine(mBandExecutor.get()).detect(gray, rows, cols, 1, 20, 100, 20, 0, 0, parallel);
+
+        assertTrue(serial.size() >= 2);
+        assertEquals(serial.size(), parallel.size());
+        for (int i = 0; i < serial.size(); i++) {
+            assertEquals(serial.x(i), parallel.x(i), 0);
+            assertEquals(serial.y(i), parallel.y(i), 0);
+            assertEquals(serial.radius(i), parallel.radius(i), 0);
+            assertEquals(serial.support(i), parallel.support(i));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HoughLinesEngineTest {
+
+    @Rule
+    public final BandExecutorRule mBandExecutor = new BandExecutorRule();
+
+    private static byte[] horizontalLine(int rows, int cols, int y, int x0, int x1) {
+        byte[] edges = new byte[rows * cols];
+        for (int x = x0; x <= x1; x++) {
+            edges[y * cols + x] = (byte) 255;
+        }
+        return edges;
+    }
+
+    @Test
+    public void strongestLineIsTheHorizontalOne() throws Exception {
+        int rows = 40;
+        int cols = 60;
+        PolarLineList lines = new PolarLineList();
+        new HoughLinesEngine().lines(horizontalLine(rows, cols, 10, 0, 59), rows, cols, 1, Math.PI / 180, 30, 10, lines);
+
+        assertTrue(lines.size() > 0);
+        assertEquals(10f, lines.rho(0), 0.5f);
+        assertEquals(Math.PI / 2, lines.theta(0), 1e-3);
+        assertEquals(60, lines.votes(0));
+    }
+
+    @Test
+    public void partialAccumulatorsMatchSingleThread() throws Exception {
+        int rows = 128;
+        int cols = 96;
+        byte[] edges = new byte[rows * cols];
+        Random random = new Random(9);
+        for (int i = 0; i < 400; i++) {
+            edges[random.nextInt(edges.length)] = (byte) 255;
+        }
+        for (int x = 0; x < cols; x++) {
+            edges[70 * cols + x] = (byte) 255;
+        }
+        PolarLineList serial = new PolarLineList();
+        PolarLineList parallel = new PolarLineList();
+
+        new HoughLinesEngine().lines(edges, rows, cols, 1, Math.PI / 180, 20, 50, serial);
+        new HoughLinesEngine(mBandExecutor.get()).lines(edges, rows, cols, 1, Math.PI / 180, 20, 50, parallel);
+
+        assertEquals(serial.size(), parallel.size());
+        for (int i = 0; i < serial.size(); i++) {
+            assertEquals(serial.rho(i), parallel.rho(i), 0);
+            assertEquals(serial.theta(i), parallel.theta(i), 0);
+            assertEquals(serial.votes(i), parallel.votes(i));
+        }
+    }
+
+    @Test
+    public void probabilisticFindsSegmentEndpoints() throws Exception {
+        int rows = 40;
+        int cols = 60;
+        SegmentList segments = new SegmentList();
+        new HoughLinesEngine().segments(horizontalLine(rows, cols, 20, 5, 44), rows, cols,
+                1, Math.PI / 180, 10, 20, 2, Integer.MAX_VALUE, segments);
+
+        assertEquals(1, segments.size());
+        assertEquals(20, segments.y1(0));
+        assertEquals(20, segments.y2(0));
+        assertEquals(5, Math.min(segments.x1(0), segments.x2(0)));
+        assertEquals(44, Math.max(segments.x1(0), segments.x2(0)));
+    }
+
+    @Test
+    public void probabilisticDropsShortSegments() throws Exception {
+        int rows = 40;
+        int cols = 60;
+        SegmentList segments = new SegmentList();
+        new HoughLinesEngine().segments(horizontalLine(rows, cols, 20, 5, 16), rows, cols,
+                1, Math.PI / 180, 10, 20, 2, Integer.MAX_VALUE, segments);
+
+        assertEquals(0, segments.size());
+    }
+}
@@ -0,0 +1,132 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class IntegralImageTest {
+
+    @Rule
+    public final BandExecutorRule mBandExecutor = new BandExecutorRule();
+
+    @Test
+    public void tablesMatchDefinition() throws Exception {
+        int rows = 13;
+        int cols = 17;
+        byte[] src = TestImages.random(rows * cols, 1);
+        IntegralImage integral = new IntegralImage();
+
+        integral.build(src, rows, cols, true, true);
+
+        int stride = cols + 1;
+        for (int yy = 0; yy <= rows; yy++) {
+            for (int xx = 0; xx <= cols; xx++) {
+                long sum = 0;
+                long sqsum = 0;
+                long tilted = 0;
+                for (int y = 0; y < rows; y++) {
+                    for (int x = 0; x < cols; x++) {
+                        int v = src[y * cols + x] & 0xFF;
+                        if (y < yy && x < xx) {
+                            sum += v;
+                            sqsum += v * v;
+                        }
+                        if (y < yy && Math.abs(x - xx + 1) <= yy - y - 1) {
+                            tilted += v;
+                        }
+                    }
+                }
+                assertEquals(sum, integral.sumTable()[yy * stride + xx]);
+                assertEquals(sqsum, integral.squaredSumTable()[yy * stride + xx]);
+                assertEquals("tilted " + xx + "," + yy, tilted, integral.tiltedTable()[yy * stride + xx]);
+            }
+        }
+    }
+
+    @Test
+    public void rectangleQueries() throws Exception {
+        int rows = 20;
+        int cols = 30;
+        byte[] src = TestImages.random(rows * cols, 2);
+        IntegralImage integral = new IntegralImage();
+        integral.build(src, rows, cols, true, false);
+
+        long sum = 0;
+        long sqsum = 0;
+        for (int y = 3; y < 3 + 7; y++) {
+            for (int x = 5; x < 5 + 11; x++) {
+                int v = src[y * cols + x] & 0xFF;
+                sum += v;
+                sqsum += v * v;
+            }
+        }
+        assertEquals(sum, integral.sum(5, 3, 11, 7));
+        assertEquals(sqsum, integral.squaredSum(5, 3, 11, 7));
+        double mean = sum / 77.0;
+        assertEquals(sqsum / 77.0 - mean * mean, integral.variance(5, 3, 11, 7), 1e-9);
+
+        // 旋转矩形的面积为2 * w * h
+        byte[] ones = new byte[rows * cols];
+        Arrays.fill(ones, (byte) 1);
+        integral.build(ones, rows, cols, false, true);
+        assertEquals(2 * 4 * 3, integral.tiltedSum(10, 2, 4, 3));
+    }
+
+    @Test
+    public void parallelBuildMatchesSingleThread() throws Exception {
+        int rows = 301;
+        int cols = 97;
+        byte[] src = TestImages.random(rows * cols, 3);
+        IntegralImage serial = new IntegralImage();
+        IntegralImage parallel = new IntegralImage(mBandExecutor.get());
+
+        serial.build(src, rows, cols, true, false);
+        parallel.build(src, rows, cols, true, false);
+
+        int size = (rows + 1) * (cols + 1);
+        for (int i = 0; i < size; i++) {
+            assertEquals(serial.sumTable()[i], parallel.sumTable()[i]);
+            assertEquals(serial.squaredSumTable()[i], parallel.squaredSumTable()[i]);
+        }
+    }
+
+    @Test
+    public void boxFilterAndWindowSums() throws Exception {
+        int rows = 9;
+        int cols = 11;
+        byte[] src = TestImages.random(rows * cols, 4);
+        IntegralImage integral = new IntegralImage();
+        integral.build(src, rows, cols, false, false);
+        byte[] box = new byte[rows * cols];
+        float[] plane = new float[rows * cols];
+        for (int i = 0; i < plane.length; i++) {
+            plane[i] = (src[i] & 0xFF) * 0.5f;
+        }
+        float[] sums = new float[rows * cols];
+
+        integral.boxFilter(box, 3);
+        IntegralImage.windowSums(plane, sums, new double[(rows + 1) * (cols + 1)], rows, cols, 3);
+
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) {
+                int s = 0;
+                int n = 0;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int yy = y + dy;
+                        int xx = x + dx;
+                        if (yy >= 0 && yy < rows && xx >= 0 && xx < cols) {
+                            s += src[yy * cols + xx] & 0xFF;
+                            n++;
+                        }
+                    }
+                }
+                assertEquals(Math.round((double) s / n), box[y * cols + x] & 0xFF);
+                assertEquals(s * 0.5f, sums[y * cols + x], 1e-3f);
+            }
+        }
+    }
+}
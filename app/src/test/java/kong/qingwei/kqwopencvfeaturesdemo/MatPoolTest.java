@@ -0,0 +1,100 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.opencv.core.FakeNativeMatRule;
+import org.opencv.core.Mat;
+import org.opencv.core.MatCleaner;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 不是从池中借出的Mat归还时的释放，Mat使用假地址，不调用OpenCV
+ */
+public class MatPoolTest {
+
+    @Rule
+    public final FakeNativeMatRule mMats = new FakeNativeMatRule();
+
+    @Test
+    public void foreignMatIsClosed() throws Exception {
+        MatPool pool = new MatPool();
+        Mat shared = mMats.allocate();
+
+        pool.release(shared);
+        pool.release((Mat) null);
+
+        // 连同Mat头一起释放，不会入池
+        assertTrue(shared.isClosed());
+        assertTrue(mMats.isDeleted(shared));
+        assertEquals(0, pool.outstandingBytes());
+    }
+
+    @Test
+    public void graphIntermediatesAreNotReportedAsLeaks() throws Exception {
+        final Set<Long> reported = Collections.synchronizedSet(new HashSet<Long>());
+        final CountDownLatch leaked = new CountDownLatch(1);
+        final long[] control = new long[1];
+        MatCleaner.setLeakTracking(true);
+        MatCleaner.setLeakListener(new MatCleaner.LeakListener() {
+            @Override
+            public void onLeak(long nativeObj, Throwable allocation) {
+                reported.add(nativeObj);
+                if (nativeObj == control[0]) {
+                    leaked.countDown();
+                }
+            }
+        });
+
+        // 中间结果由GraphExecutor通过MatPool归还
+        final Set<Long> intermediates = Collections.synchronizedSet(new HashSet<Long>());
+        FeatureGraph graph = new FeatureGraph();
+        FeatureGraph.Node source = graph.node(new Operator("source") {
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                Mat mat = mMats.allocate();
+                intermediates.add(mat.nativeObj);
+                return mat;
+            }
+        });
+        FeatureGraph.Node output = graph.node(new Operator("output") {
+            @Override
+            public Mat apply(StageContext context, Mat... inputs) {
+                return mMats.allocate();
+            }
+        }, source);
+        Mat[] results = new GraphExecutor(2).execute(new StageContext(null, null, new MatPool()), output);
+        results[0].close();
+
+        // 中间结果在执行过程中就已经释放，不必等到GC
+        assertEquals(1, intermediates.size());
+        for (Long nativeObj : intermediates) {
+            assertTrue(mMats.isDeleted(nativeObj));
+        }
+        // 没有close()的对照
+        control[0] = allocateAndDrop();
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!leaked.await(10, TimeUnit.MILLISECONDS) && System.currentTimeMillis() < deadline) {
+            System.gc();
+        }
+
+        assertEquals(0, leaked.getCount());
+        for (Long nativeObj : intermediates) {
+            assertFalse(reported.contains(nativeObj));
+        }
+        assertFalse(reported.contains(results[0].nativeObj));
+        assertFalse(mMats.hasDoubleDelete());
+    }
+
+    // Mat不留在测试方法的栈帧中，可以被回收
+    private long allocateAndDrop() {
+        return mMats.allocate().nativeObj;
+    }
+}
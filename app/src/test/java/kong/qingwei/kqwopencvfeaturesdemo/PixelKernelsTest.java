@@ -0,0 +1,110 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.opencv.imgproc.Imgproc;
+
+import static org.junit.Assert.*;
+
+public class PixelKernelsTest {
+
+    @Rule
+    public final BandExecutorRule mBandExecutor = new BandExecutorRule();
+
+    @Test
+    public void grayMatchesFixedPointWeightedSum() throws Exception {
+        int pixels = 1000;
+        byte[] rgba = TestImages.random(pixels * 4, 1);
+        byte[] gray = new byte[pixels];
+
+        new PixelKernels().bgrToGray(rgba, 4, gray, pixels);
+
+        // cvtColor的14位定点系数，结果必须逐位一致
+        for (int i = 0; i < pixels; i++) {
+            int expected = ((rgba[i * 4] & 0xFF) * 1868 + (rgba[i * 4 + 1] & 0xFF) * 9617
+                    + (rgba[i * 4 + 2] & 0xFF) * 4899 + (1 << 13)) >> 14;
+            assertEquals(expected, gray[i] & 0xFF);
+        }
+        // OpenCV对纯色的已知结果：白、蓝、绿、红
+        byte[] bgr = {
+                (byte) 255, (byte) 255, (byte) 255,
+                (byte) 255, 0, 0,
+                0, (byte) 255, 0,
+                0, 0, (byte) 255};
+        byte[] out = new byte[4];
+        new PixelKernels().bgrToGray(bgr, 3, out, 4);
+        assertEquals(255, out[0] & 0xFF);
+        assertEquals(29, out[1] & 0xFF);
+        assertEquals(150, out[2] & 0xFF);
+        assertEquals(76, out[3] & 0xFF);
+    }
+
+    @Test
+    public void absdiffMultiplyAndAddWeighted() throws Exception {
+        int length = 4096;
+        byte[] a = TestImages.random(length, 2);
+        byte[] b = TestImages.random(length, 3);
+        byte[] dst = new byte[length];
+        PixelKernels kernels = new PixelKernels();
+
+        kernels.absdiff(a, b, dst, length);
+        for (int i = 0; i < length; i++) {
+            assertEquals(Math.abs((a[i] & 0xFF) - (b[i] & 0xFF)), dst[i] & 0xFF);
+        }
+
+        kernels.multiply(a, 2.5, dst, length);
+        for (int i = 0; i < length; i++) {
+            assertEquals(Math.min(255, (int) Math.rint((a[i] & 0xFF) * 2.5)), dst[i] & 0xFF);
+        }
+
+        kernels.addWeighted(a, 0.5, b, -0.25, 10, dst, length);
+        for (int i = 0; i < length; i++) {
+            double expected = (a[i] & 0xFF) * 0.5 - (b[i] & 0xFF) * 0.25 + 10;
+            assertEquals(Math.max(0, Math.min(255, Math.rint(expected))), dst[i] & 0xFF, 0);
+        }
+    }
+
+    @Test
+    public void thresholdTypes() throws Exception {
+        byte[] src = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            src[i] = (byte) i;
+        }
+        byte[] dst = new byte[256];
+        PixelKernels kernels = new PixelKernels();
+
+        kernels.threshold(src, dst, 256, 100.7, 200, Imgproc.THRESH_BINARY);
+        assertEquals(0, dst[100] & 0xFF);
+        assertEquals(200, dst[101] & 0xFF);
+
+        kernels.threshold(src, dst, 256, 100, 255, Imgproc.THRESH_BINARY_INV);
+        assertEquals(255, dst[100] & 0xFF);
+        assertEquals(0, dst[101] & 0xFF);
+
+        kernels.threshold(src, dst, 256, 100, 255, Imgproc.THRESH_TRUNC);
+        assertEquals(50, dst[50] & 0xFF);
+        assertEquals(100, dst[180] & 0xFF);
+
+        kernels.threshold(src, dst, 256, 100, 255, Imgproc.THRESH_TOZERO);
+        assertEquals(0, dst[50] & 0xFF);
+        assertEquals(180, dst[180] & 0xFF);
+
+        kernels.threshold(src, dst, 256, 100, 255, Imgproc.THRESH_TOZERO_INV);
+        assertEquals(50, dst[50] & 0xFF);
+        assertEquals(0, dst[180] & 0xFF);
+    }
+
+    @Test
+    public void parallelMatchesSingleThread() throws Exception {
+        int length = 1 << 20;
+        byte[] a = TestImages.random(length, 4);
+        byte[] b = TestImages.random(length, 5);
+        byte[] serial = new byte[length];
+        byte[] parallel = new byte[length];
+
+        new PixelKernels().addWeighted(a, 0.3, b, 0.7, 0, serial, length);
+        new PixelKernels(mBandExecutor.get()).addWeighted(a, 0.3, b, 0.7, 0, parallel, length);
+
+        assertArrayEquals(serial, parallel);
+    }
+}
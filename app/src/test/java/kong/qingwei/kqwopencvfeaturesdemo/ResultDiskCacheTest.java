@@ -0,0 +1,159 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class ResultDiskCacheTest {
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static ResultCache.Entry entry(int rows, int cols, long seed) {
+        return new ResultCache.Entry(rows, cols, 16, TestImages.random(rows * cols * 3, seed));
+    }
+
+    private static void assertEntryEquals(ResultCache.Entry expected, ResultCache.Entry actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getRows(), actual.getRows());
+        assertEquals(expected.getCols(), actual.getCols());
+        assertEquals(expected.getType(), actual.getType());
+        assertArrayEquals(expected.getData(), actual.getData());
+    }
+
+    @Test
+    public void roundTripsThroughANewInstance() throws Exception {
+        File directory = new File(mFolder.getRoot(), "results");
+        String key = ResultCache.key(0x1234L, "canny(10.0,100.0)", 0);
+        ResultCache.Entry entry = entry(7, 5, 1);
+
+        // 目录不存在时写入创建
+        assertTrue(new ResultDiskCache(directory, 1 << 20).write(key, entry));
+
+        ResultDiskCache reopened = new ResultDiskCache(directory, 1 << 20);
+        assertEntryEquals(entry, reopened.read(key));
+        assertNull(reopened.read(ResultCache.key(0x1234L, "canny(10.0,100.0)", 1)));
+        assertEquals(reopened.file(key).length(), reopened.getBytes());
+        assertEquals(0, reopened.getErrors());
+    }
+
+    @Test
+    public void corruptFileIsDeletedAndCounted() throws Exception {
+        ResultDiskCache cache = new ResultDiskCache(mFolder.getRoot(), 1 << 20);
+        String key = ResultCache.key(1, "sobel", 0);
+        cache.write(key, entry(20, 20, 2));
+        File file = cache.file(key);
+
+        // 截断压缩数据
+        RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+        truncated.setLength(file.length() / 2);
+        truncated.close();
+
+        assertNull(cache.read(key));
+        assertEquals(1, cache.getErrors());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void corruptHeaderIsDeletedAndCounted() throws Exception {
+        ResultDiskCache cache = new ResultDiskCache(mFolder.getRoot(), 1 << 20);
+        String key = ResultCache.key(1, "sobel", 0);
+        // 文件头中的rows、cols、type和长度
+        int[][] headers = {
+                {20, 20, 16, -1},
+                {20, 20, 16, Integer.MAX_VALUE},
+                {20, 20, 16, 20 * 20},
+                {0, 20, 16, 0},
+                {-20, -20, 16, 20 * 20 * 3},
+                {20, 20, 21, 20 * 20 * 3},
+        };
+        for (int i = 0; i < headers.length; i++) {
+            cache.write(key, entry(20, 20, 2));
+            File file = cache.file(key);
+            RandomAccessFile header = new RandomAccessFile(file, "rw");
+            // MAGIC、VERSION和writeUTF写入的key之后
+            header.seek(4 + 4 + 2 + key.length());
+            for (int value : headers[i]) {
+                header.writeInt(value);
+            }
+            header.close();
+
+            assertNull(cache.read(key));
+            assertEquals(i + 1, cache.getErrors());
+            assertFalse(file.exists());
+        }
+    }
+
+    @Test
+    public void otherKeyInTheSameFileIsAMiss() throws Exception {
+        ResultDiskCache cache = new ResultDiskCache(mFolder.getRoot(), 1 << 20);
+        String key = ResultCache.key(1, "sobel", 0);
+        String other = ResultCache.key(1, "canny", 0);
+        cache.write(other, entry(4, 4, 3));
+
+        // 模拟文件名的哈希冲突：文件中保存的key与要读的不同
+        File file = cache.file(key);
+        assertTrue(cache.file(other).renameTo(file));
+        assertNull(cache.read(key));
+        assertEquals(0, cache.getErrors());
+
+        // 不是Deflate压缩的结果文件同样按未命中处理
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+        assertNull(cache.read(key));
+    }
+
+    @Test
+    public void trimDeletesOldestFilesFirst() throws Exception {
+        ResultDiskCache probe = new ResultDiskCache(mFolder.newFolder(), 1 << 20);
+        probe.write(ResultCache.key(1, "a", 0), entry(10, 10, 4));
+        long fileBytes = probe.getBytes();
+
+        // 放得下两个结果
+        ResultDiskCache cache = new ResultDiskCache(mFolder.getRoot(), fileBytes * 5 / 2);
+        String first = ResultCache.key(1, "a", 0);
+        String second = ResultCache.key(1, "b", 0);
+        String third = ResultCache.key(1, "c", 0);
+        long now = System.currentTimeMillis();
+        cache.write(first, entry(10, 10, 5));
+        assertTrue(cache.file(first).setLastModified(now - 20000));
+        cache.write(second, entry(10, 10, 6));
+        assertTrue(cache.file(second).setLastModified(now - 10000));
+        cache.write(third, entry(10, 10, 7));
+
+        assertNull(cache.read(first));
+        assertNotNull(cache.read(second));
+        assertNotNull(cache.read(third));
+        assertTrue(cache.getBytes() <= fileBytes * 5 / 2);
+    }
+
+    @Test
+    public void invalidateRemovesOneImage() throws Exception {
+        ResultDiskCache cache = new ResultDiskCache(mFolder.getRoot(), 1 << 20);
+        String a = ResultCache.key(0xAL, "canny", 0);
+        String b = ResultCache.key(0xAL, "sobel", 1);
+        String c = ResultCache.key(0xBL, "canny", 0);
+        cache.write(a, entry(3, 3, 8));
+        cache.write(b, entry(3, 3, 9));
+        ResultCache.Entry kept = entry(3, 3, 10);
+        cache.write(c, kept);
+
+        cache.invalidate(0xAL);
+
+        assertNull(cache.read(a));
+        assertNull(cache.read(b));
+        assertEntryEquals(kept, cache.read(c));
+        assertEquals(cache.file(c).length(), cache.getBytes());
+
+        cache.clear();
+        assertNull(cache.read(c));
+        assertEquals(0, cache.getBytes());
+    }
+}
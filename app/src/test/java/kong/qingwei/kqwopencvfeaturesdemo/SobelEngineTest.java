@@ -0,0 +1,84 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SobelEngineTest {
+
+    @Rule
+    public final BandExecutorRule mBandExecutor = new BandExecutorRule();
+
+    private static int at(byte[] image, int rows, int cols, int y, int x) {
+        return image[DogEngine.reflect(y, rows) * cols + DogEngine.reflect(x, cols)] & 0xFF;
+    }
+
+    /**
+     * 按原来的步骤分别求导、取绝对值、加权求和
+     */
+    private static byte[] reference(byte[] src, int rows, int cols) {
+        int[] kx = {-1, 0, 1, -2, 0, 2, -1, 0, 1};
+        int[] ky = {-1, -2, -1, 0, 0, 0, 1, 2, 1};
+        byte[] dst = new byte[src.length];
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) {
+                int gx = 0;
+                int gy = 0;
+                for (int i = 0; i < 9; i++) {
+                    int v = at(src, rows, cols, y + i / 3 - 1, x + i % 3 - 1);
+                    gx += kx[i] * v;
+                    gy += ky[i] * v;
+                }
+                int absX = Math.min(255, Math.abs(gx));
+                int absY = Math.min(255, Math.abs(gy));
+                dst[y * cols + x] = (byte) Math.min(255, (int) Math.rint(0.5 * absX + 0.5 * absY + 1));
+            }
+        }
+        return dst;
+    }
+
+    @Test
+    public void matchesSeparatePasses() throws Exception {
+        int rows = 37;
+        int cols = 41;
+        byte[] src = TestImages.random(rows * cols, 11);
+        byte[] dst = new byte[src.length];
+
+        new SobelEngine().magnitude(src, dst, rows, cols, false, false, 0.5, 0.5, 1);
+
+        assertArrayEquals(reference(src, rows, cols), dst);
+    }
+
+    @Test
+    public void scharrL2OnVerticalStep() throws Exception {
+        int rows = 3;
+        int cols = 4;
+        byte[] src = {
+                0, 0, 10, 10,
+                0, 0, 10, 10,
+                0, 0, 10, 10};
+        byte[] dst = new byte[src.length];
+
+        new SobelEngine().magnitude(src, dst, rows, cols, true, true, 0, 0, 0);
+
+        // gx = (3 + 10 + 3) * 10
+        assertEquals(160, dst[cols + 1] & 0xFF);
+        assertEquals(160, dst[cols + 2] & 0xFF);
+        assertEquals(0, dst[cols] & 0xFF);
+    }
+
+    @Test
+    public void bandsMatchSingleThread() throws Exception {
+        int rows = 200;
+        int cols = 50;
+        byte[] src = TestImages.random(rows * cols, 3);
+        byte[] serial = new byte[src.length];
+        byte[] parallel = new byte[src.length];
+
+        new SobelEngine().magnitude(src, serial, rows, cols, true, false, 0.5, 0.5, 0);
+        new SobelEngine(mBandExecutor.get()).magnitude(src, parallel, rows, cols, true, false, 0.5, 0.5, 0);
+
+        assertArrayEquals(serial, parallel);
+    }
+}
@@ -0,0 +1,23 @@
+package kong.qingwei.kqwopencvfeaturesdemo;
+
+import java.util.Random;
+
+/**
+ * 测试用的图像数据
+ */
+final class TestImages {
+
+    private TestImages() {
+    }
+
+    /**
+     * @param length 字节数，如rows * cols * 通道数
+     * @param seed   随机数种子，相同的种子得到相同的数据
+     * @return 随机的像素数据
+     */
+    static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
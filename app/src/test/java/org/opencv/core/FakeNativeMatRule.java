@@ -0,0 +1,87 @@
+package org.opencv.core;
+
+import org.junit.rules.ExternalResource;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 不加载OpenCV本地库时测试Mat的释放
+ * <p>
+ * 测试期间MatCleaner只记录被删除的Mat头地址，release()什么也不做，Mat的字节数总是0，都不调用本地方法；
+ * Mat用{@link #allocate()}得到的假地址构造。测试结束后恢复原来的本地调用，并关闭泄漏跟踪。
+ */
+public class FakeNativeMatRule extends ExternalResource {
+
+    private static long sNextAddress = 0x10000L;
+
+    private final Set<Long> mDeleted = Collections.synchronizedSet(new HashSet<Long>());
+    private final Set<Long> mDeletedTwice = Collections.synchronizedSet(new HashSet<Long>());
+    private MatCleaner.Natives mPrevious;
+
+    @Override
+    protected void before() {
+        mPrevious = MatCleaner.natives;
+        MatCleaner.natives = new MatCleaner.Natives() {
+            @Override
+            public void delete(long nativeObj) {
+                if (!mDeleted.add(nativeObj)) {
+                    mDeletedTwice.add(nativeObj);
+                }
+            }
+
+            @Override
+            public void release(long nativeObj) {
+            }
+
+            @Override
+            public long dataAddr(long nativeObj) {
+                return 0;
+            }
+
+            @Override
+            public long bytes(long nativeObj) {
+                return 0;
+            }
+        };
+    }
+
+    @Override
+    protected void after() {
+        MatCleaner.setLeakListener(null);
+        MatCleaner.setLeakTracking(false);
+        MatCleaner.natives = mPrevious;
+    }
+
+    /**
+     * @return 用不重复的假地址构造的Mat，不能传给本地方法
+     */
+    public Mat allocate() {
+        synchronized (FakeNativeMatRule.class) {
+            sNextAddress += 0x10;
+            return new Mat(sNextAddress);
+        }
+    }
+
+    /**
+     * @return Mat头是否已经被删除
+     */
+    public boolean isDeleted(Mat mat) {
+        return isDeleted(mat.nativeObj);
+    }
+
+    /**
+     * @return 地址对应的Mat头是否已经被删除
+     */
+    public boolean isDeleted(long nativeObj) {
+        return mDeleted.contains(nativeObj);
+    }
+
+    /**
+     * @return 是否有Mat头被删除了不止一次
+     */
+    public boolean hasDoubleDelete() {
+        return !mDeletedTwice.isEmpty();
+    }
+}
@@ -414,15 +414,18 @@ package org.opencv.core;
  *
  * @see <a href="http://docs.opencv.org/modules/core/doc/basic_structures.html#mat">org.opencv.core.Mat</a>
  */
-public class Mat {
+public class Mat implements java.io.Closeable {
 
     public final long nativeObj;
 
+    private final MatCleaner.Cleanup cleanup;
+
     public Mat(long addr)
     {
         if (addr == 0)
             throw new java.lang.UnsupportedOperationException("Native object address is NULL");
         nativeObj = addr;
+        cleanup = MatCleaner.register(this, nativeObj);
     }
 
     //
@@ -445,6 +448,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat();
+        cleanup = MatCleaner.register(this, nativeObj);
 
         return;
     }
@@ -475,6 +479,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat(rows, cols, type);
+        cleanup = MatCleaner.register(this, nativeObj);
 
         return;
     }
@@ -506,6 +511,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat(size.width, size.height, type);
+        cleanup = MatCleaner.register(this, nativeObj);
 
         return;
     }
@@ -539,6 +545,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat(rows, cols, type, s.val[0], s.val[1], s.val[2], s.val[3]);
+        cleanup = MatCleaner.register(this, nativeObj);
 
         return;
     }
@@ -573,6 +580,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat(size.width, size.height, type, s.val[0], s.val[1], s.val[2], s.val[3]);
+        cleanup = MatCleaner.register(this, nativeObj);
 
         return;
     }
@@ -610,6 +618,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat(m.nativeObj, rowRange.start, rowRange.end, colRange.start, colRange.end);
+        cleanup = MatCleaner.register(this, nativeObj);
 
         return;
     }
@@ -641,6 +650,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat(m.nativeObj, rowRange.start, rowRange.end);
+        cleanup = MatCleaner.register(this, nativeObj);
 
         return;
     }
@@ -674,6 +684,7 @@ public class Mat {
     {
 
         nativeObj = n_Mat(m.nativeObj, roi.y, roi.y + roi.height, roi.x, roi.x + roi.width);
+        cleanup = MatCleaner.register(this, nativeObj);
 
         return;
     }
@@ -1890,7 +1901,10 @@ public class Mat {
     public void release()
     {
 
-        n_release(nativeObj);
+        MatCleaner.natives.release(nativeObj);
+        // the data may be gone now, keep MatMemory's byte total current
+        if (MatMemory.isMeasuring())
+            cleanup.measure(null);
 
         return;
     }
@@ -2470,10 +2484,40 @@ public class Mat {
         return retVal;
     }
 
+    /**
+     * Deletes the native object right away instead of waiting for the garbage collector.
+     * Calling it more than once has no effect. The Mat must not be used afterwards.
+     * <p>
+     * Unlike {@link #release()}, which only drops the data and leaves an empty matrix, this
+     * also frees the native cv::Mat header. Mats that are never closed are still freed by
+     * {@link MatCleaner} once they become unreachable.
+     */
     @Override
-    protected void finalize() throws Throwable {
+    public void close() {
+        cleanup.run();
+    }
+
+    /**
+     * @return whether {@link #close()} has been called
+     */
+    public boolean isClosed() {
+        return cleanup.isDone();
+    }
+
+    static void delete(long nativeObj) {
         n_delete(nativeObj);
-        super.finalize();
+    }
+
+    static void release(long nativeObj) {
+        n_release(nativeObj);
+    }
+
+    static long dataAddr(long nativeObj) {
+        return n_dataAddr(nativeObj);
+    }
+
+    static long bytes(long nativeObj) {
+        return n_total(nativeObj) * n_elemSize(nativeObj);
     }
 
     @Override
@@ -2631,6 +2675,14 @@ public class Mat {
         return nGet(nativeObj, row, col);
     }
 
+    /**
+     * Returns a reusable buffer for reading and writing all elements of this Mat with one
+     * native call each way instead of one call per element; see {@link MatBuffer}.
+     */
+    public MatBuffer buffer() {
+        return new MatBuffer(this);
+    }
+
     public int height() {
         return rows();
     }
@@ -2835,7 +2887,7 @@ public class Mat {
     // C++: static Mat Mat::zeros(Size size, int type)
     private static native long n_zeros(double size_width, double size_height, int type);
 
-    // native support for java finalize()
+    // native support for close() and MatCleaner
     private static native void n_delete(long nativeObj);
 
     private static native int nPutD(long self, int row, int col, int count, double[] data);
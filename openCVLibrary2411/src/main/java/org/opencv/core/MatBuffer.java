@@ -0,0 +1,248 @@
+package org.opencv.core;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Bulk access to the elements of a Mat through reusable java.nio buffers.
+ * <p>
+ * {@link #load()} copies the whole matrix with a single native call into a Java array of the
+ * matching depth, {@link #store()} writes it back with a single native call. In between the
+ * elements are read and written at array speed without crossing JNI, e.g.
+ * <code>floats().array()[index(row, col) + channel]</code>.
+ * <p>
+ * The buffer is packed row by row: a row occupies {@link #rowStride()} elements no matter
+ * how the Mat is laid out in native memory, so submatrices and other non-continuous Mats are
+ * handled the same way as continuous ones. The backing array is reused by every later load
+ * that fits into it, so it may be longer than the Mat; the limit of the views is the number
+ * of elements. The buffer keeps a reference to its Mat, which therefore stays alive at least
+ * as long as the buffer.
+ * <p>
+ * Instances are not thread safe.
+ */
+public class MatBuffer {
+
+    private final Mat mat;
+
+    private int rows;
+    private int cols;
+    private int type;
+    private int size;
+
+    private byte[] byteData;
+    private short[] shortData;
+    private int[] intData;
+    private float[] floatData;
+    private double[] doubleData;
+
+    private ByteBuffer byteBuffer;
+    private ShortBuffer shortBuffer;
+    private IntBuffer intBuffer;
+    private FloatBuffer floatBuffer;
+    private DoubleBuffer doubleBuffer;
+
+    public MatBuffer(Mat mat) {
+        if (mat == null)
+            throw new IllegalArgumentException("mat == null");
+        this.mat = mat;
+    }
+
+    public Mat mat() {
+        return mat;
+    }
+
+    /**
+     * Copies all elements of the Mat into the buffer. The size and type are re-read from the
+     * Mat, so the same buffer can follow a Mat that is re-created between loads.
+     */
+    public MatBuffer load() {
+        if (mat.dims() > 2)
+            throw new UnsupportedOperationException("Only 2-dimensional Mats are supported");
+        rows = mat.rows();
+        cols = mat.cols();
+        type = mat.type();
+        long total = (long) rows * cols * CvType.channels(type);
+        if (total > Integer.MAX_VALUE)
+            throw new UnsupportedOperationException("Mat is too large: " + mat);
+        size = (int) total;
+        allocate();
+        if (size == 0)
+            return this;
+        switch (CvType.depth(type)) {
+            case CvType.CV_8U:
+            case CvType.CV_8S:
+                mat.get(0, 0, byteData);
+                break;
+            case CvType.CV_16U:
+            case CvType.CV_16S:
+                mat.get(0, 0, shortData);
+                break;
+            case CvType.CV_32S:
+                mat.get(0, 0, intData);
+                break;
+            case CvType.CV_32F:
+                mat.get(0, 0, floatData);
+                break;
+            default:
+                mat.get(0, 0, doubleData);
+                break;
+        }
+        return this;
+    }
+
+    /**
+     * Writes the buffer back into the Mat. The Mat must still have the size and type it had
+     * at the last {@link #load()}.
+     */
+    public MatBuffer store() {
+        if (mat.rows() != rows || mat.cols() != cols || mat.type() != type)
+            throw new IllegalStateException("Mat changed since load(): " + mat);
+        if (size == 0)
+            return this;
+        switch (CvType.depth(type)) {
+            case CvType.CV_8U:
+            case CvType.CV_8S:
+                mat.put(0, 0, byteData);
+                break;
+            case CvType.CV_16U:
+            case CvType.CV_16S:
+                mat.put(0, 0, shortData);
+                break;
+            case CvType.CV_32S:
+                mat.put(0, 0, intData);
+                break;
+            case CvType.CV_32F:
+                mat.put(0, 0, floatData);
+                break;
+            default:
+                mat.put(0, 0, doubleData);
+                break;
+        }
+        return this;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    public int type() {
+        return type;
+    }
+
+    public int channels() {
+        return CvType.channels(type);
+    }
+
+    /**
+     * Number of elements between the starts of two consecutive rows.
+     */
+    public int rowStride() {
+        return cols * CvType.channels(type);
+    }
+
+    /**
+     * Index of the first channel of the element at (row, col).
+     */
+    public int index(int row, int col) {
+        return row * rowStride() + col * CvType.channels(type);
+    }
+
+    /**
+     * View of a CV_8U or CV_8S Mat.
+     */
+    public ByteBuffer bytes() {
+        check(CvType.depth(type) == CvType.CV_8U || CvType.depth(type) == CvType.CV_8S);
+        return byteBuffer;
+    }
+
+    /**
+     * View of a CV_16U or CV_16S Mat.
+     */
+    public ShortBuffer shorts() {
+        check(CvType.depth(type) == CvType.CV_16U || CvType.depth(type) == CvType.CV_16S);
+        return shortBuffer;
+    }
+
+    /**
+     * View of a CV_32S Mat.
+     */
+    public IntBuffer ints() {
+        check(CvType.depth(type) == CvType.CV_32S);
+        return intBuffer;
+    }
+
+    /**
+     * View of a CV_32F Mat.
+     */
+    public FloatBuffer floats() {
+        check(CvType.depth(type) == CvType.CV_32F);
+        return floatBuffer;
+    }
+
+    /**
+     * View of a CV_64F Mat.
+     */
+    public DoubleBuffer doubles() {
+        check(CvType.depth(type) == CvType.CV_64F);
+        return doubleBuffer;
+    }
+
+    // mat.get()/put() copy at most the elements of the Mat, so an array that is at least as
+    // long can be reused; its length must stay a multiple of the channel count
+    private void allocate() {
+        int channels = CvType.channels(type);
+        switch (CvType.depth(type)) {
+            case CvType.CV_8U:
+            case CvType.CV_8S:
+                if (byteData == null || byteData.length < size || byteData.length % channels != 0) {
+                    byteData = new byte[size];
+                    byteBuffer = ByteBuffer.wrap(byteData);
+                }
+                byteBuffer.clear().limit(size);
+                break;
+            case CvType.CV_16U:
+            case CvType.CV_16S:
+                if (shortData == null || shortData.length < size || shortData.length % channels != 0) {
+                    shortData = new short[size];
+                    shortBuffer = ShortBuffer.wrap(shortData);
+                }
+                shortBuffer.clear().limit(size);
+                break;
+            case CvType.CV_32S:
+                if (intData == null || intData.length < size || intData.length % channels != 0) {
+                    intData = new int[size];
+                    intBuffer = IntBuffer.wrap(intData);
+                }
+                intBuffer.clear().limit(size);
+                break;
+            case CvType.CV_32F:
+                if (floatData == null || floatData.length < size || floatData.length % channels != 0) {
+                    floatData = new float[size];
+                    floatBuffer = FloatBuffer.wrap(floatData);
+                }
+                floatBuffer.clear().limit(size);
+                break;
+            case CvType.CV_64F:
+                if (doubleData == null || doubleData.length < size || doubleData.length % channels != 0) {
+                    doubleData = new double[size];
+                    doubleBuffer = DoubleBuffer.wrap(doubleData);
+                }
+                doubleBuffer.clear().limit(size);
+                break;
+            default:
+                throw new UnsupportedOperationException("Mat data type is not supported: " + type);
+        }
+    }
+
+    private void check(boolean compatible) {
+        if (!compatible)
+            throw new UnsupportedOperationException("Mat data type is not compatible: " + type);
+    }
+}
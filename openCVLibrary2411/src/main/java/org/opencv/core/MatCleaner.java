@@ -0,0 +1,213 @@
+package org.opencv.core;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Frees the native cv::Mat of every {@link Mat} that becomes unreachable without having been
+ * closed, replacing Mat.finalize().
+ * <p>
+ * Each Mat registers a phantom reference when it is constructed. {@link Mat#close()} deletes
+ * the native object right away and unregisters the reference. A reference that is still
+ * registered when its Mat is collected is picked up by a daemon thread, which deletes the
+ * native object and, if leak tracking is enabled, reports where the Mat was allocated.
+ * Unlike finalization, nothing keeps the Mat object itself alive for an extra GC cycle.
+ */
+public final class MatCleaner {
+
+    /**
+     * Receives Mats that were garbage collected without being closed.
+     */
+    public interface LeakListener {
+        /**
+         * Called on the cleaner thread after the native object has been deleted.
+         *
+         * @param nativeObj  address of the deleted native object
+         * @param allocation stack trace of the allocation, or null if leak tracking was off
+         *                   when the Mat was created
+         */
+        void onLeak(long nativeObj, Throwable allocation);
+    }
+
+    static final class Cleanup extends PhantomReference<Mat> {
+        final long nativeObj;
+        final Throwable allocation;
+        /** Stage tag for {@link MatMemory}. */
+        final String stage;
+        /** Bytes last measured by {@link MatMemory}, guarded by this. */
+        long bytes;
+        private boolean done;
+
+        Cleanup(Mat mat, long nativeObj, Throwable allocation, String stage) {
+            super(mat, queue);
+            this.nativeObj = nativeObj;
+            this.allocation = allocation;
+            this.stage = stage;
+        }
+
+        /**
+         * Deletes the native object once; later calls return false.
+         */
+        boolean run() {
+            synchronized (this) {
+                if (done)
+                    return false;
+                done = true;
+                natives.delete(nativeObj);
+                MatMemory.released(this);
+            }
+            pending.remove(this);
+            clear();
+            return true;
+        }
+
+        synchronized boolean isDone() {
+            return done;
+        }
+
+        /**
+         * Measures the native data while the object cannot be deleted concurrently.
+         *
+         * @param seen data addresses already counted, or null to count the data in any case
+         */
+        synchronized void measure(Set<Long> seen) {
+            if (done)
+                return;
+            Natives n = natives;
+            long dataAddr = n.dataAddr(nativeObj);
+            boolean shared = seen != null && dataAddr != 0 && !seen.add(dataAddr);
+            MatMemory.update(this, shared ? 0 : n.bytes(nativeObj));
+        }
+    }
+
+    /**
+     * The native calls made on a cv::Mat by the cleaner, {@link Mat#release()} and
+     * {@link MatMemory}.
+     */
+    interface Natives {
+        void delete(long nativeObj);
+
+        void release(long nativeObj);
+
+        long dataAddr(long nativeObj);
+
+        long bytes(long nativeObj);
+    }
+
+    private static final Natives NATIVE = new Natives() {
+        @Override
+        public void delete(long nativeObj) {
+            Mat.delete(nativeObj);
+        }
+
+        @Override
+        public void release(long nativeObj) {
+            Mat.release(nativeObj);
+        }
+
+        @Override
+        public long dataAddr(long nativeObj) {
+            return Mat.dataAddr(nativeObj);
+        }
+
+        @Override
+        public long bytes(long nativeObj) {
+            return Mat.bytes(nativeObj);
+        }
+    };
+
+    private static final ReferenceQueue<Mat> queue = new ReferenceQueue<Mat>();
+    // keeps the references themselves reachable until they are processed
+    private static final Set<Cleanup> pending =
+            Collections.newSetFromMap(new ConcurrentHashMap<Cleanup, Boolean>());
+
+    private static volatile boolean trackLeaks;
+    private static volatile LeakListener leakListener;
+    // replaced by tests, which run without the native library
+    static volatile Natives natives = NATIVE;
+
+    // started with the class, so registering a Mat takes no lock
+    static {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Cleanup cleanup = (Cleanup) queue.remove();
+                        if (cleanup.run())
+                            reportLeak(cleanup);
+                    } catch (InterruptedException e) {
+                        // keep cleaning, the thread lives as long as the process
+                    } catch (Throwable t) {
+                        // a failing listener must not stop the cleaner
+                        t.printStackTrace();
+                    }
+                }
+            }
+        }, "OpenCV Mat cleaner");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private MatCleaner() {
+    }
+
+    /**
+     * Records the stack trace of every Mat allocated from now on, so that Mats collected
+     * without {@link Mat#close()} can be traced back to their allocation. Costs one Throwable
+     * per Mat; intended for debugging.
+     */
+    public static void setLeakTracking(boolean enabled) {
+        trackLeaks = enabled;
+    }
+
+    public static boolean isLeakTracking() {
+        return trackLeaks;
+    }
+
+    /**
+     * @param listener receives leaked Mats; null reports them to System.err when leak
+     *                 tracking is enabled and ignores them otherwise
+     */
+    public static void setLeakListener(LeakListener listener) {
+        leakListener = listener;
+    }
+
+    /**
+     * Number of Mats that have been constructed but neither closed nor cleaned up yet.
+     */
+    public static int pendingCount() {
+        return pending.size();
+    }
+
+    static Cleanup register(Mat mat, long nativeObj) {
+        Cleanup cleanup = new Cleanup(mat, nativeObj,
+                trackLeaks ? new Throwable("Mat allocated here") : null, MatMemory.currentTag());
+        pending.add(cleanup);
+        MatMemory.allocated(cleanup);
+        if (MatMemory.isMeasuring())
+            cleanup.measure(null);
+        return cleanup;
+    }
+
+    /**
+     * Mats that are neither closed nor cleaned up yet.
+     */
+    static Iterable<Cleanup> live() {
+        return pending;
+    }
+
+    private static void reportLeak(Cleanup cleanup) {
+        LeakListener listener = leakListener;
+        if (listener != null) {
+            listener.onLeak(cleanup.nativeObj, cleanup.allocation);
+        } else if (cleanup.allocation != null) {
+            System.err.println("Mat 0x" + Long.toHexString(cleanup.nativeObj)
+                    + " was garbage collected without close()");
+            cleanup.allocation.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package org.opencv.core;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accounting of the native memory held by live {@link Mat}s.
+ * <p>
+ * Every Mat is counted from its construction until it is closed or cleaned up by
+ * {@link MatCleaner}, and is attributed to the stage tag that was current on the constructing
+ * thread (see {@link #setStage(String)}). Counts are always kept. Byte accounting is off by
+ * default because it costs two native calls per Mat; when enabled, the size of a Mat is
+ * measured at construction and at {@link Mat#release()}, and re-measured for all live Mats by
+ * {@link #measure()} and {@link #snapshot()}, which also picks up Mats that OpenCV functions
+ * reallocated in between. A full measurement counts headers that point at the same data, such
+ * as <code>new Mat(m, Range.all())</code>, only once; other views such as submatrices are
+ * counted with their own size.
+ * <p>
+ * The high-water mark is the largest byte total seen at a construction, release or full
+ * measurement. Callers that run a sequence of steps, such as one operator after another,
+ * call {@link #measure()} after each step so that the mark includes what the step allocated.
+ */
+public final class MatMemory {
+
+    /**
+     * Tag of Mats constructed while no stage was set.
+     */
+    public static final String UNTAGGED = "untagged";
+
+    /**
+     * Receives periodic snapshots, see {@link #startDump(long, SnapshotListener)}.
+     */
+    public interface SnapshotListener {
+        void onSnapshot(Snapshot snapshot);
+    }
+
+    /**
+     * Live Mats of one stage.
+     */
+    public static final class StageUsage {
+        public final String stage;
+        public final long count;
+        public final long bytes;
+
+        StageUsage(String stage, long count, long bytes) {
+            this.stage = stage;
+            this.count = count;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String toString() {
+            return stage + ": " + count + " Mats, " + bytes + " bytes";
+        }
+    }
+
+    /**
+     * Live Mats at one point in time.
+     */
+    public static final class Snapshot {
+        public final long timeMillis;
+        public final long liveCount;
+        public final long liveBytes;
+        public final long highWaterBytes;
+        public final long totalAllocated;
+        /** Usage per stage, sorted by stage tag. */
+        public final Map<String, StageUsage> stages;
+
+        Snapshot(long timeMillis, long liveCount, long liveBytes, long highWaterBytes,
+                 long totalAllocated, Map<String, StageUsage> stages) {
+            this.timeMillis = timeMillis;
+            this.liveCount = liveCount;
+            this.liveBytes = liveBytes;
+            this.highWaterBytes = highWaterBytes;
+            this.totalAllocated = totalAllocated;
+            this.stages = stages;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("MatMemory [ live=").append(liveCount)
+                    .append(", bytes=").append(liveBytes)
+                    .append(", highWater=").append(highWaterBytes)
+                    .append(", allocated=").append(totalAllocated).append(" ]");
+            for (StageUsage usage : stages.values())
+                sb.append("\n  ").append(usage);
+            return sb.toString();
+        }
+    }
+
+    private static final class Stage {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+    }
+
+    private static final ThreadLocal<String> currentStage = new ThreadLocal<String>();
+    private static final ConcurrentHashMap<String, Stage> stages = new ConcurrentHashMap<String, Stage>();
+    private static final AtomicLong liveCount = new AtomicLong();
+    private static final AtomicLong liveBytes = new AtomicLong();
+    private static final AtomicLong highWater = new AtomicLong();
+    private static final AtomicLong totalAllocated = new AtomicLong();
+
+    private static volatile boolean measureBytes;
+    private static Timer timer;
+
+    private MatMemory() {
+    }
+
+    /**
+     * Turns byte accounting on or off. Mats constructed while it is off are counted with zero
+     * bytes until the next {@link #snapshot()} taken while it is on.
+     */
+    public static void setByteAccounting(boolean enabled) {
+        measureBytes = enabled;
+    }
+
+    public static boolean isByteAccounting() {
+        return measureBytes;
+    }
+
+    /**
+     * Sets the stage tag for Mats constructed by the calling thread from now on.
+     *
+     * @param stage the tag, or null for {@link #UNTAGGED}
+     * @return the previous tag, to be restored with another call when the stage ends
+     */
+    public static String setStage(String stage) {
+        String previous = currentStage.get();
+        currentStage.set(stage);
+        return previous;
+    }
+
+    /**
+     * @return the stage tag of the calling thread, or null if none is set
+     */
+    public static String getStage() {
+        return currentStage.get();
+    }
+
+    public static long liveCount() {
+        return liveCount.get();
+    }
+
+    /**
+     * Bytes as of the last construction, release or measurement.
+     */
+    public static long liveBytes() {
+        return liveBytes.get();
+    }
+
+    public static long highWaterBytes() {
+        return highWater.get();
+    }
+
+    /**
+     * Sets the high-water mark back to the current byte total, e.g. between test runs.
+     */
+    public static void resetHighWater() {
+        highWater.set(liveBytes.get());
+    }
+
+    /**
+     * Re-measures every live Mat if byte accounting is on, raising the high-water mark if the
+     * total grew. Costs two native calls per live Mat; does nothing while accounting is off.
+     */
+    public static void measure() {
+        if (!measureBytes)
+            return;
+        Set<Long> seen = new HashSet<Long>();
+        for (MatCleaner.Cleanup cleanup : MatCleaner.live())
+            cleanup.measure(seen);
+    }
+
+    /**
+     * Re-measures every live Mat if byte accounting is on and returns the totals.
+     */
+    public static Snapshot snapshot() {
+        measure();
+        TreeMap<String, StageUsage> usage = new TreeMap<String, StageUsage>();
+        for (Map.Entry<String, Stage> entry : stages.entrySet()) {
+            long count = entry.getValue().count.get();
+            if (count > 0)
+                usage.put(entry.getKey(), new StageUsage(entry.getKey(), count, entry.getValue().bytes.get()));
+        }
+        return new Snapshot(System.currentTimeMillis(), liveCount.get(), liveBytes.get(), highWater.get(),
+                totalAllocated.get(), Collections.unmodifiableMap(usage));
+    }
+
+    /**
+     * Takes a snapshot every periodMillis on a daemon thread and passes it to the listener,
+     * replacing a dump that was started before.
+     */
+    public static synchronized void startDump(long periodMillis, final SnapshotListener listener) {
+        stopDump();
+        timer = new Timer("OpenCV MatMemory dump", true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                listener.onSnapshot(snapshot());
+            }
+        }, periodMillis, periodMillis);
+    }
+
+    public static synchronized void stopDump() {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    static String currentTag() {
+        String tag = currentStage.get();
+        return tag == null ? UNTAGGED : tag;
+    }
+
+    static void allocated(MatCleaner.Cleanup cleanup) {
+        stage(cleanup.stage).count.incrementAndGet();
+        liveCount.incrementAndGet();
+        totalAllocated.incrementAndGet();
+    }
+
+    /**
+     * Records the new size of a live Mat; the caller holds the lock of the cleanup.
+     */
+    static void update(MatCleaner.Cleanup cleanup, long bytes) {
+        long delta = bytes - cleanup.bytes;
+        if (delta == 0)
+            return;
+        cleanup.bytes = bytes;
+        stage(cleanup.stage).bytes.addAndGet(delta);
+        raiseHighWater(liveBytes.addAndGet(delta));
+    }
+
+    /**
+     * Removes a Mat from the totals; the caller holds the lock of the cleanup.
+     */
+    static void released(MatCleaner.Cleanup cleanup) {
+        Stage stage = stage(cleanup.stage);
+        stage.count.decrementAndGet();
+        stage.bytes.addAndGet(-cleanup.bytes);
+        liveCount.decrementAndGet();
+        liveBytes.addAndGet(-cleanup.bytes);
+    }
+
+    static boolean isMeasuring() {
+        return measureBytes;
+    }
+
+    private static Stage stage(String tag) {
+        Stage stage = stages.get(tag);
+        if (stage == null) {
+            Stage created = new Stage();
+            stage = stages.putIfAbsent(tag, created);
+            if (stage == null)
+                stage = created;
+        }
+        return stage;
+    }
+
+    private static void raiseHighWater(long bytes) {
+        long current;
+        while (bytes > (current = highWater.get())) {
+            if (highWater.compareAndSet(current, bytes))
+                return;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package org.opencv.features2d;
+
+import java.util.Arrays;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * DMatches stored as parallel arrays instead of one {@link DMatch} object per match.
+ * <p>
+ * {@link #load(Mat)} reads a {@link org.opencv.core.MatOfDMatch} (or any CV_32FC4 vector)
+ * with one native call and {@link #store(Mat)} writes it back with one native call. Sorting,
+ * best-N selection and filtering reorder the arrays in place.
+ * <p>
+ * Elements are valid at indices [0, {@link #size()}). The arrays are replaced by larger ones
+ * when the buffer grows, so do not keep references to them across loads or adds.
+ */
+public class DMatchBuffer extends FeatureBuffer {
+
+    private static final int CHANNELS = 4;
+
+    public interface Filter {
+        /**
+         * @return whether the match at index i is kept
+         */
+        boolean accept(DMatchBuffer matches, int i);
+    }
+
+    public int[] queryIdx = new int[0];
+    public int[] trainIdx = new int[0];
+    public int[] imgIdx = new int[0];
+    public float[] distance = new float[0];
+
+    // interleaved copy of the Mat
+    private float[] packed = new float[0];
+
+    public DMatchBuffer() {
+    }
+
+    public DMatchBuffer(int capacity) {
+        ensureCapacity(capacity);
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity <= queryIdx.length)
+            return;
+        int n = Math.max(capacity, queryIdx.length + (queryIdx.length >> 1));
+        queryIdx = Arrays.copyOf(queryIdx, n);
+        trainIdx = Arrays.copyOf(trainIdx, n);
+        imgIdx = Arrays.copyOf(imgIdx, n);
+        distance = Arrays.copyOf(distance, n);
+    }
+
+    /**
+     * Replaces the contents with the matches of a CV_32FC4 vector such as a MatOfDMatch.
+     */
+    public DMatchBuffer load(Mat m) {
+        int n = m.empty() ? 0 : m.checkVector(CHANNELS, CvType.CV_32F);
+        if (n < 0)
+            throw new IllegalArgumentException("Incompatible Mat: " + m);
+        ensureCapacity(n);
+        count = n;
+        if (n == 0)
+            return this;
+        float[] buff = packed(n);
+        m.get(0, 0, buff);
+        for (int i = 0, p = 0; i < n; i++, p += CHANNELS) {
+            queryIdx[i] = (int) buff[p];
+            trainIdx[i] = (int) buff[p + 1];
+            imgIdx[i] = (int) buff[p + 2];
+            distance[i] = buff[p + 3];
+        }
+        return this;
+    }
+
+    /**
+     * Writes the matches into dst as a CV_32FC4 column, the layout of MatOfDMatch.
+     */
+    public void store(Mat dst) {
+        if (count == 0) {
+            dst.release();
+            return;
+        }
+        float[] buff = packed(count);
+        for (int i = 0, p = 0; i < count; i++, p += CHANNELS) {
+            buff[p] = queryIdx[i];
+            buff[p + 1] = trainIdx[i];
+            buff[p + 2] = imgIdx[i];
+            buff[p + 3] = distance[i];
+        }
+        dst.create(count, 1, CvType.CV_32FC4);
+        dst.put(0, 0, buff);
+    }
+
+    public void add(int queryIdx, int trainIdx, int imgIdx, float distance) {
+        ensureCapacity(count + 1);
+        int i = count++;
+        this.queryIdx[i] = queryIdx;
+        this.trainIdx[i] = trainIdx;
+        this.imgIdx[i] = imgIdx;
+        this.distance[i] = distance;
+    }
+
+    public void add(DMatch match) {
+        add(match.queryIdx, match.trainIdx, match.imgIdx, match.distance);
+    }
+
+    /**
+     * Copies the match at index i into dst, or into a new DMatch if dst is null.
+     */
+    public DMatch get(int i, DMatch dst) {
+        if (i < 0 || i >= count)
+            throw new IndexOutOfBoundsException("index " + i + ", size " + count);
+        if (dst == null)
+            return new DMatch(queryIdx[i], trainIdx[i], imgIdx[i], distance[i]);
+        dst.queryIdx = queryIdx[i];
+        dst.trainIdx = trainIdx[i];
+        dst.imgIdx = imgIdx[i];
+        dst.distance = distance[i];
+        return dst;
+    }
+
+    /**
+     * Sorts by distance, best (smallest) first.
+     */
+    public void sortByDistance() {
+        sort();
+    }
+
+    /**
+     * Keeps the n matches with the smallest distance, in no particular order. Runs in linear
+     * time on average; call {@link #sortByDistance()} afterwards if order matters.
+     */
+    public void retainBestByDistance(int n) {
+        retainFirst(n);
+    }
+
+    /**
+     * Keeps the matches the filter accepts, in their current order.
+     */
+    public void filter(final Filter filter) {
+        retainAccepted(new Accept() {
+            @Override
+            public boolean accept(int i) {
+                return filter.accept(DMatchBuffer.this, i);
+            }
+        });
+    }
+
+    @Override
+    int compare(int i, int j) {
+        return Float.compare(distance[i], distance[j]);
+    }
+
+    @Override
+    void swap(int i, int j) {
+        int n = queryIdx[i]; queryIdx[i] = queryIdx[j]; queryIdx[j] = n;
+        n = trainIdx[i]; trainIdx[i] = trainIdx[j]; trainIdx[j] = n;
+        n = imgIdx[i]; imgIdx[i] = imgIdx[j]; imgIdx[j] = n;
+        float f = distance[i]; distance[i] = distance[j]; distance[j] = f;
+    }
+
+    @Override
+    void move(int from, int to) {
+        queryIdx[to] = queryIdx[from];
+        trainIdx[to] = trainIdx[from];
+        imgIdx[to] = imgIdx[from];
+        distance[to] = distance[from];
+    }
+
+    // Mat.get()/put() copy at most the elements of the Mat, so a larger array can be reused
+    private float[] packed(int n) {
+        if (packed.length < n * CHANNELS)
+            packed = new float[Math.max(n, packed.length / CHANNELS * 3 / 2) * CHANNELS];
+        return packed;
+    }
+
+    @Override
+    public String toString() {
+        return "DMatchBuffer [size=" + count + ", capacity=" + queryIdx.length + "]";
+    }
+}
@@ -0,0 +1,141 @@
+package org.opencv.features2d;
+
+/**
+ * In-place sorting, selection and filtering shared by the structure-of-arrays feature
+ * buffers. Elements are addressed by index; subclasses compare, swap and move them across
+ * all of their arrays.
+ */
+abstract class FeatureBuffer {
+
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    int count;
+
+    // bounds of the equal range left by the last partition()
+    private int lt;
+    private int gt;
+
+    /**
+     * @return the number of elements
+     */
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Removes all elements; the arrays are kept for reuse.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * @return negative if element i goes before element j, positive if after, 0 if equal
+     */
+    abstract int compare(int i, int j);
+
+    abstract void swap(int i, int j);
+
+    /**
+     * Copies element from over element to.
+     */
+    abstract void move(int from, int to);
+
+    void sort() {
+        sort(0, count - 1);
+    }
+
+    /**
+     * Reorders the elements so that the first n are the first n in sort order, unsorted, and
+     * drops the rest.
+     */
+    void retainFirst(int n) {
+        if (n < 0)
+            throw new IllegalArgumentException("n < 0");
+        if (n >= count)
+            return;
+        int k = n - 1;
+        int lo = 0;
+        int hi = count - 1;
+        while (k >= 0 && lo < hi) {
+            partition(lo, hi);
+            if (k < lt)
+                hi = lt - 1;
+            else if (k > gt)
+                lo = gt + 1;
+            else
+                break;
+        }
+        count = n;
+    }
+
+    /**
+     * Moves the accepted elements to the front, keeping their order, and drops the rest.
+     */
+    void retainAccepted(Accept accept) {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (accept.accept(i)) {
+                if (kept != i)
+                    move(i, kept);
+                kept++;
+            }
+        }
+        count = kept;
+    }
+
+    interface Accept {
+        boolean accept(int i);
+    }
+
+    private void sort(int lo, int hi) {
+        while (hi - lo >= INSERTION_SORT_THRESHOLD) {
+            partition(lo, hi);
+            // recurse into the smaller side to bound the stack depth
+            if (lt - lo < hi - gt) {
+                sort(lo, lt - 1);
+                lo = gt + 1;
+            } else {
+                sort(gt + 1, hi);
+                hi = lt - 1;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++)
+            for (int j = i; j > lo && compare(j, j - 1) < 0; j--)
+                swap(j, j - 1);
+    }
+
+    /**
+     * Three-way partition of [lo, hi] around the median of three: afterwards [lo, lt) goes
+     * before the pivot, [lt, gt] equals it and (gt, hi] goes after it.
+     */
+    private void partition(int lo, int hi) {
+        int mid = (lo + hi) >>> 1;
+        if (compare(mid, lo) < 0)
+            swap(mid, lo);
+        if (compare(hi, lo) < 0)
+            swap(hi, lo);
+        if (compare(hi, mid) < 0)
+            swap(hi, mid);
+        // the median is at mid now, use it as the pivot at lo
+        swap(lo, mid);
+        int l = lo;
+        int i = lo + 1;
+        int g = hi;
+        while (i <= g) {
+            int c = compare(i, l);
+            if (c < 0)
+                swap(l++, i++);
+            else if (c > 0)
+                swap(i, g--);
+            else
+                i++;
+        }
+        lt = l;
+        gt = g;
+    }
+}
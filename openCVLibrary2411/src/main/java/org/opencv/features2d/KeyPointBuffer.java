@@ -0,0 +1,210 @@
+package org.opencv.features2d;
+
+import java.util.Arrays;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+/**
+ * KeyPoints stored as parallel arrays instead of one {@link KeyPoint} object per feature.
+ * <p>
+ * {@link #load(Mat)} reads a {@link org.opencv.core.MatOfKeyPoint} (or any CV_32FC(7)
+ * vector) with one native call and {@link #store(Mat)} writes it back with one native
+ * call. Sorting, top-N selection and filtering reorder the arrays in place, so a buffer that
+ * is reused from frame to frame allocates nothing once its arrays are large enough.
+ * <p>
+ * Elements are valid at indices [0, {@link #size()}). The arrays are replaced by larger ones
+ * when the buffer grows, so do not keep references to them across loads or adds.
+ */
+public class KeyPointBuffer extends FeatureBuffer {
+
+    private static final int CHANNELS = 7;
+
+    public interface Filter {
+        /**
+         * @return whether the KeyPoint at index i is kept
+         */
+        boolean accept(KeyPointBuffer keyPoints, int i);
+    }
+
+    public float[] x = new float[0];
+    public float[] y = new float[0];
+    public float[] size = new float[0];
+    public float[] angle = new float[0];
+    public float[] response = new float[0];
+    public int[] octave = new int[0];
+    public int[] class_id = new int[0];
+
+    // interleaved copy of the Mat
+    private float[] packed = new float[0];
+
+    public KeyPointBuffer() {
+    }
+
+    public KeyPointBuffer(int capacity) {
+        ensureCapacity(capacity);
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity <= x.length)
+            return;
+        int n = Math.max(capacity, x.length + (x.length >> 1));
+        x = Arrays.copyOf(x, n);
+        y = Arrays.copyOf(y, n);
+        size = Arrays.copyOf(size, n);
+        angle = Arrays.copyOf(angle, n);
+        response = Arrays.copyOf(response, n);
+        octave = Arrays.copyOf(octave, n);
+        class_id = Arrays.copyOf(class_id, n);
+    }
+
+    /**
+     * Replaces the contents with the KeyPoints of a CV_32FC(7) vector such as a MatOfKeyPoint.
+     */
+    public KeyPointBuffer load(Mat m) {
+        int n = m.empty() ? 0 : m.checkVector(CHANNELS, CvType.CV_32F);
+        if (n < 0)
+            throw new IllegalArgumentException("Incompatible Mat: " + m);
+        ensureCapacity(n);
+        count = n;
+        if (n == 0)
+            return this;
+        float[] buff = packed(n);
+        m.get(0, 0, buff);
+        for (int i = 0, p = 0; i < n; i++, p += CHANNELS) {
+            x[i] = buff[p];
+            y[i] = buff[p + 1];
+            size[i] = buff[p + 2];
+            angle[i] = buff[p + 3];
+            response[i] = buff[p + 4];
+            octave[i] = (int) buff[p + 5];
+            class_id[i] = (int) buff[p + 6];
+        }
+        return this;
+    }
+
+    /**
+     * Writes the KeyPoints into dst as a CV_32FC(7) column, the layout of MatOfKeyPoint.
+     */
+    public void store(Mat dst) {
+        if (count == 0) {
+            dst.release();
+            return;
+        }
+        float[] buff = packed(count);
+        for (int i = 0, p = 0; i < count; i++, p += CHANNELS) {
+            buff[p] = x[i];
+            buff[p + 1] = y[i];
+            buff[p + 2] = size[i];
+            buff[p + 3] = angle[i];
+            buff[p + 4] = response[i];
+            buff[p + 5] = octave[i];
+            buff[p + 6] = class_id[i];
+        }
+        dst.create(count, 1, CvType.CV_32FC(CHANNELS));
+        dst.put(0, 0, buff);
+    }
+
+    public void add(float x, float y, float size, float angle, float response, int octave, int class_id) {
+        ensureCapacity(count + 1);
+        int i = count++;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.size[i] = size;
+        this.angle[i] = angle;
+        this.response[i] = response;
+        this.octave[i] = octave;
+        this.class_id[i] = class_id;
+    }
+
+    public void add(KeyPoint kp) {
+        add((float) kp.pt.x, (float) kp.pt.y, kp.size, kp.angle, kp.response, kp.octave, kp.class_id);
+    }
+
+    /**
+     * Copies the KeyPoint at index i into dst, or into a new KeyPoint if dst is null.
+     */
+    public KeyPoint get(int i, KeyPoint dst) {
+        if (i < 0 || i >= count)
+            throw new IndexOutOfBoundsException("index " + i + ", size " + count);
+        if (dst == null)
+            return new KeyPoint(x[i], y[i], size[i], angle[i], response[i], octave[i], class_id[i]);
+        if (dst.pt == null)
+            dst.pt = new Point();
+        dst.pt.x = x[i];
+        dst.pt.y = y[i];
+        dst.size = size[i];
+        dst.angle = angle[i];
+        dst.response = response[i];
+        dst.octave = octave[i];
+        dst.class_id = class_id[i];
+        return dst;
+    }
+
+    /**
+     * Sorts by response, strongest first.
+     */
+    public void sortByResponse() {
+        sort();
+    }
+
+    /**
+     * Keeps the n KeyPoints with the strongest response, in no particular order. Runs in
+     * linear time on average; call {@link #sortByResponse()} afterwards if order matters.
+     */
+    public void retainTopByResponse(int n) {
+        retainFirst(n);
+    }
+
+    /**
+     * Keeps the KeyPoints the filter accepts, in their current order.
+     */
+    public void filter(final Filter filter) {
+        retainAccepted(new Accept() {
+            @Override
+            public boolean accept(int i) {
+                return filter.accept(KeyPointBuffer.this, i);
+            }
+        });
+    }
+
+    @Override
+    int compare(int i, int j) {
+        return Float.compare(response[j], response[i]);
+    }
+
+    @Override
+    void swap(int i, int j) {
+        float f = x[i]; x[i] = x[j]; x[j] = f;
+        f = y[i]; y[i] = y[j]; y[j] = f;
+        f = size[i]; size[i] = size[j]; size[j] = f;
+        f = angle[i]; angle[i] = angle[j]; angle[j] = f;
+        f = response[i]; response[i] = response[j]; response[j] = f;
+        int n = octave[i]; octave[i] = octave[j]; octave[j] = n;
+        n = class_id[i]; class_id[i] = class_id[j]; class_id[j] = n;
+    }
+
+    @Override
+    void move(int from, int to) {
+        x[to] = x[from];
+        y[to] = y[from];
+        size[to] = size[from];
+        angle[to] = angle[from];
+        response[to] = response[from];
+        octave[to] = octave[from];
+        class_id[to] = class_id[from];
+    }
+
+    // Mat.get()/put() copy at most the elements of the Mat, so a larger array can be reused
+    private float[] packed(int n) {
+        if (packed.length < n * CHANNELS)
+            packed = new float[Math.max(n, packed.length / CHANNELS * 3 / 2) * CHANNELS];
+        return packed;
+    }
+
+    @Override
+    public String toString() {
+        return "KeyPointBuffer [size=" + count + ", capacity=" + x.length + "]";
+    }
+}
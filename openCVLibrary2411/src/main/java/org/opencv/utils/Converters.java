@@ -187,6 +187,65 @@ public class Converters {
         }
     }
 
+    // Primitive overloads: the points are packed as x0, y0, x1, y1, ... in an array the caller
+    // reuses between calls, and the Mat is filled or read with a single bulk put/get.
+
+    public static void vector_Point_to_Mat(int[] xy, int count, Mat dst) {
+        checkBuffer(xy == null ? 0 : xy.length, count, 2);
+        if (count > 0) {
+            dst.create(count, 1, CvType.CV_32SC2);
+            dst.put(0, 0, xy);
+        } else {
+            dst.release();
+        }
+    }
+
+    public static void vector_Point2f_to_Mat(float[] xy, int count, Mat dst) {
+        checkBuffer(xy == null ? 0 : xy.length, count, 2);
+        if (count > 0) {
+            dst.create(count, 1, CvType.CV_32FC2);
+            dst.put(0, 0, xy);
+        } else {
+            dst.release();
+        }
+    }
+
+    /**
+     * Reads a CV_32SC2 Mat into xy, which is reused if it is large enough.
+     *
+     * @return xy or a larger replacement; the point count is m.rows()
+     */
+    public static int[] Mat_to_vector_Point(Mat m, int[] xy) {
+        int count = m.rows();
+        if (CvType.CV_32SC2 != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_32SC2 != m.type() ||  m.cols()!=1\n" + m);
+
+        if (xy == null || !fits(xy.length, count, 2))
+            xy = new int[2 * count];
+        if (count > 0)
+            m.get(0, 0, xy);
+        return xy;
+    }
+
+    /**
+     * Reads a CV_32FC2 Mat into xy, which is reused if it is large enough.
+     *
+     * @return xy or a larger replacement; the point count is m.rows()
+     */
+    public static float[] Mat_to_vector_Point2f(Mat m, float[] xy) {
+        int count = m.rows();
+        if (CvType.CV_32FC2 != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_32FC2 != m.type() ||  m.cols()!=1\n" + m);
+
+        if (xy == null || !fits(xy.length, count, 2))
+            xy = new float[2 * count];
+        if (count > 0)
+            m.get(0, 0, xy);
+        return xy;
+    }
+
     public static void Mat_to_vector_Point3i(Mat m, List<Point3> pts) {
         Mat_to_vector_Point3(m, pts);
     }
@@ -475,6 +534,37 @@ public class Converters {
         }
     }
 
+    // Primitive overloads: each KeyPoint is packed as x, y, size, angle, response, octave,
+    // class_id in an array the caller reuses between calls.
+
+    public static void vector_KeyPoint_to_Mat(double[] kps, int count, Mat dst) {
+        checkBuffer(kps == null ? 0 : kps.length, count, 7);
+        if (count > 0) {
+            dst.create(count, 1, CvType.CV_64FC(7));
+            dst.put(0, 0, kps);
+        } else {
+            dst.release();
+        }
+    }
+
+    /**
+     * Reads a CV_64FC(7) Mat into kps, which is reused if it is large enough.
+     *
+     * @return kps or a larger replacement; the KeyPoint count is m.rows()
+     */
+    public static double[] Mat_to_vector_KeyPoint(Mat m, double[] kps) {
+        int count = m.rows();
+        if (CvType.CV_64FC(7) != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_64FC(7) != m.type() ||  m.cols()!=1\n" + m);
+
+        if (kps == null || !fits(kps.length, count, 7))
+            kps = new double[7 * count];
+        if (count > 0)
+            m.get(0, 0, kps);
+        return kps;
+    }
+
     // vector_vector_Point
     public static Mat vector_vector_Point_to_Mat(List<MatOfPoint> pts, List<Mat> mats) {
         Mat res;
@@ -662,6 +752,37 @@ public class Converters {
         }
     }
 
+    // Primitive overloads: each DMatch is packed as queryIdx, trainIdx, imgIdx, distance in an
+    // array the caller reuses between calls.
+
+    public static void vector_DMatch_to_Mat(double[] matches, int count, Mat dst) {
+        checkBuffer(matches == null ? 0 : matches.length, count, 4);
+        if (count > 0) {
+            dst.create(count, 1, CvType.CV_64FC4);
+            dst.put(0, 0, matches);
+        } else {
+            dst.release();
+        }
+    }
+
+    /**
+     * Reads a CV_64FC4 Mat into matches, which is reused if it is large enough.
+     *
+     * @return matches or a larger replacement; the DMatch count is m.rows()
+     */
+    public static double[] Mat_to_vector_DMatch(Mat m, double[] matches) {
+        int count = m.rows();
+        if (CvType.CV_64FC4 != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_64FC4 != m.type() ||  m.cols()!=1\n" + m);
+
+        if (matches == null || !fits(matches.length, count, 4))
+            matches = new double[4 * count];
+        if (count > 0)
+            m.get(0, 0, matches);
+        return matches;
+    }
+
     // vector_vector_DMatch
     public static Mat vector_vector_DMatch_to_Mat(List<MatOfDMatch> lvdm, List<Mat> mats) {
         Mat res;
@@ -721,4 +842,16 @@ public class Converters {
             llb.add(lb);
         }
     }
+
+    // Mat.get()/put() copy at most the elements the Mat holds, but reject arrays whose length
+    // is not a multiple of the channel count.
+    private static boolean fits(int length, int count, int channels) {
+        return length >= count * channels && length % channels == 0;
+    }
+
+    private static void checkBuffer(int length, int count, int channels) {
+        if (count < 0 || !fits(length, count, channels))
+            throw new java.lang.IllegalArgumentException("Buffer of " + length + " elements can't hold "
+                    + count + " items of " + channels + " channels");
+    }
 }
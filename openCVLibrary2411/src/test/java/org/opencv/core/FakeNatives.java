@@ -0,0 +1,70 @@
+package org.opencv.core;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stands in for the native library: Mats are constructed from fake addresses, deletions are
+ * recorded, and the size and data address of each Mat are whatever the test sets.
+ */
+public class FakeNatives implements MatCleaner.Natives {
+
+    final Set<Long> deleted = Collections.synchronizedSet(new HashSet<Long>());
+    final Set<Long> deletedTwice = Collections.synchronizedSet(new HashSet<Long>());
+    private final Map<Long, Long> bytes = new ConcurrentHashMap<Long, Long>();
+    private final Map<Long, Long> data = new ConcurrentHashMap<Long, Long>();
+    private MatCleaner.Natives previous;
+
+    public void install() {
+        previous = MatCleaner.natives;
+        MatCleaner.natives = this;
+    }
+
+    public void uninstall() {
+        MatCleaner.natives = previous;
+    }
+
+    /**
+     * Sets the size of a Mat that is constructed or reallocated later; its data gets an
+     * address of its own.
+     */
+    void allocate(long nativeObj, long size) {
+        bytes.put(nativeObj, size);
+        data.put(nativeObj, nativeObj << 8);
+    }
+
+    /**
+     * Makes a Mat point at the data of another, as <code>new Mat(m, Range.all())</code> does.
+     */
+    void share(long nativeObj, long with) {
+        bytes.put(nativeObj, bytes(with));
+        data.put(nativeObj, dataAddr(with));
+    }
+
+    @Override
+    public void delete(long nativeObj) {
+        if (!deleted.add(nativeObj))
+            deletedTwice.add(nativeObj);
+    }
+
+    @Override
+    public void release(long nativeObj) {
+        bytes.remove(nativeObj);
+        data.remove(nativeObj);
+    }
+
+    @Override
+    public long dataAddr(long nativeObj) {
+        Long addr = data.get(nativeObj);
+        return addr == null ? 0 : addr;
+    }
+
+    @Override
+    public long bytes(long nativeObj) {
+        Long size = bytes.get(nativeObj);
+        return size == null ? 0 : size;
+    }
+}
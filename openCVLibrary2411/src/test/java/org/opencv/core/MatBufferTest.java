@@ -0,0 +1,209 @@
+package org.opencv.core;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs without the native library: the Mat keeps its elements in a Java array and copies
+ * them the way the native get() and put() do, at most as many elements as the Mat has.
+ */
+public class MatBufferTest {
+
+    private static class ArrayMat extends Mat {
+        int rows;
+        int cols;
+        int type;
+        Object data;
+
+        ArrayMat(long addr) {
+            super(addr);
+        }
+
+        void create(int rows, int cols, int type, Object data) {
+            this.rows = rows;
+            this.cols = cols;
+            this.type = type;
+            this.data = data;
+        }
+
+        private int copy(Object from, Object to, int length) {
+            int n = Math.min(length, rows * cols * CvType.channels(type));
+            System.arraycopy(from, 0, to, 0, n);
+            return n;
+        }
+
+        @Override
+        public String toString() {
+            return "ArrayMat [ " + rows + "*" + cols + "*" + CvType.typeToString(type) + " ]";
+        }
+
+        @Override
+        public int dims() {
+            return 2;
+        }
+
+        @Override
+        public int rows() {
+            return rows;
+        }
+
+        @Override
+        public int cols() {
+            return cols;
+        }
+
+        @Override
+        public int type() {
+            return type;
+        }
+
+        @Override
+        public int get(int row, int col, byte[] dst) {
+            return copy(data, dst, dst.length);
+        }
+
+        @Override
+        public int get(int row, int col, float[] dst) {
+            return copy(data, dst, dst.length) * 4;
+        }
+
+        @Override
+        public int put(int row, int col, byte[] src) {
+            return copy(src, data, src.length);
+        }
+
+        @Override
+        public int put(int row, int col, float[] src) {
+            return copy(src, data, src.length) * 4;
+        }
+    }
+
+    private final FakeNatives natives = new FakeNatives();
+    private ArrayMat mat;
+
+    @Before
+    public void setUp() {
+        natives.install();
+        mat = new ArrayMat(0x20000L);
+    }
+
+    @After
+    public void tearDown() {
+        mat.close();
+        natives.uninstall();
+    }
+
+    private static byte[] sequence(int length, int first) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+            data[i] = (byte) (first + i);
+        return data;
+    }
+
+    @Test
+    public void smallerLoadReusesTheArray() {
+        MatBuffer buffer = new MatBuffer(mat);
+        mat.create(4, 5, CvType.CV_8UC1, sequence(20, 0));
+        byte[] array = buffer.load().bytes().array();
+        assertEquals(20, array.length);
+
+        mat.create(2, 3, CvType.CV_8UC1, sequence(6, 100));
+        ByteBuffer bytes = buffer.load().bytes();
+
+        assertSame(array, bytes.array());
+        assertEquals(0, bytes.position());
+        assertEquals(6, bytes.limit());
+        assertEquals(20, bytes.capacity());
+        assertEquals(3, buffer.rowStride());
+        assertEquals(4, buffer.index(1, 1));
+        assertArrayEquals(sequence(6, 100), Arrays.copyOf(array, 6));
+        // the tail is left over from the larger load
+        assertEquals(6, array[6]);
+    }
+
+    @Test
+    public void largerLoadGrowsTheArray() {
+        MatBuffer buffer = new MatBuffer(mat);
+        mat.create(2, 3, CvType.CV_8UC1, sequence(6, 0));
+        byte[] array = buffer.load().bytes().array();
+
+        mat.create(6, 6, CvType.CV_8UC1, sequence(36, 50));
+        ByteBuffer bytes = buffer.load().bytes();
+
+        assertNotSame(array, bytes.array());
+        assertEquals(36, bytes.array().length);
+        assertEquals(36, bytes.limit());
+        assertArrayEquals(sequence(36, 50), bytes.array());
+    }
+
+    @Test
+    public void arrayMustHoldWholeElements() {
+        MatBuffer buffer = new MatBuffer(mat);
+        mat.create(3, 3, CvType.CV_8UC3, sequence(27, 0));
+        byte[] array = buffer.load().bytes().array();
+
+        // 16 elements would fit, but 27 is not a multiple of 4 channels
+        mat.create(2, 2, CvType.CV_8UC4, sequence(16, 0));
+        byte[] four = buffer.load().bytes().array();
+        assertNotSame(array, four);
+        assertEquals(16, four.length);
+
+        // 16 is a multiple of 2
+        mat.create(2, 3, CvType.CV_8UC2, sequence(12, 0));
+        ByteBuffer two = buffer.load().bytes();
+        assertSame(four, two.array());
+        assertEquals(12, two.limit());
+        assertEquals(2, buffer.channels());
+    }
+
+    @Test
+    public void viewIsRewoundAfterASmallerTransfer() {
+        MatBuffer buffer = new MatBuffer(mat);
+        float[] large = new float[4 * 8 * 2];
+        Arrays.fill(large, 1f);
+        mat.create(4, 8, CvType.CV_32FC2, large);
+        FloatBuffer floats = buffer.load().floats();
+        assertEquals(64, floats.limit());
+        // read part of the view
+        floats.position(40);
+        floats.get();
+
+        float[] small = {2f, 3f, 4f, 5f, 6f, 7f};
+        mat.create(1, 3, CvType.CV_32FC2, small);
+        floats = buffer.load().floats();
+
+        assertEquals(0, floats.position());
+        assertEquals(6, floats.limit());
+        assertEquals(6, floats.remaining());
+        float[] read = new float[floats.remaining()];
+        floats.get(read);
+        assertArrayEquals(small, read, 0);
+
+        // store() writes only the elements of the Mat, not the rest of the reused array
+        floats.array()[0] = 9f;
+        buffer.store();
+        assertArrayEquals(new float[]{9f, 3f, 4f, 5f, 6f, 7f}, small, 0);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void viewMustMatchTheDepth() {
+        mat.create(2, 2, CvType.CV_8UC1, new byte[4]);
+        new MatBuffer(mat).load().floats();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void storeRejectsAChangedMat() {
+        MatBuffer buffer = new MatBuffer(mat);
+        mat.create(2, 2, CvType.CV_8UC1, new byte[4]);
+        buffer.load();
+        mat.create(2, 3, CvType.CV_8UC1, new byte[6]);
+        buffer.store();
+    }
+}
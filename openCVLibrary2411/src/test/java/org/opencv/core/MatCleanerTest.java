@@ -0,0 +1,117 @@
+package org.opencv.core;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs without the native library: Mats are constructed from fake addresses and the cleaner
+ * records deletions instead of freeing native objects.
+ */
+public class MatCleanerTest {
+
+    private final FakeNatives natives = new FakeNatives();
+    private final Set<Long> deleted = natives.deleted;
+    private final Set<Long> deletedTwice = natives.deletedTwice;
+
+    @Before
+    public void setUp() {
+        natives.install();
+    }
+
+    @After
+    public void tearDown() {
+        MatCleaner.setLeakListener(null);
+        MatCleaner.setLeakTracking(false);
+        natives.uninstall();
+    }
+
+    @Test
+    public void closeDeletesOnce() {
+        int pending = MatCleaner.pendingCount();
+        Mat mat = new Mat(0x1000L);
+        assertEquals(pending + 1, MatCleaner.pendingCount());
+        assertFalse(mat.isClosed());
+
+        mat.close();
+        mat.close();
+
+        assertTrue(mat.isClosed());
+        assertTrue(deleted.contains(0x1000L));
+        assertTrue(deletedTwice.isEmpty());
+        assertEquals(pending, MatCleaner.pendingCount());
+    }
+
+    @Test
+    public void concurrentCloseDeletesOnce() throws Exception {
+        final Mat mat = new Mat(0x2000L);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    mat.close();
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join();
+
+        assertTrue(deleted.contains(0x2000L));
+        assertTrue(deletedTwice.isEmpty());
+    }
+
+    @Test
+    public void unreachableMatIsDeletedAndReported() throws Exception {
+        final CountDownLatch leaked = new CountDownLatch(1);
+        final Throwable[] allocation = new Throwable[1];
+        final Set<Long> reported = Collections.synchronizedSet(new HashSet<Long>());
+        MatCleaner.setLeakTracking(true);
+        MatCleaner.setLeakListener(new MatCleaner.LeakListener() {
+            @Override
+            public void onLeak(long nativeObj, Throwable trace) {
+                reported.add(nativeObj);
+                if (nativeObj == 0x3000L) {
+                    allocation[0] = trace;
+                    leaked.countDown();
+                }
+            }
+        });
+
+        new Mat(0x4000L).close();
+        allocate(0x3000L);
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!leaked.await(10, TimeUnit.MILLISECONDS) && System.currentTimeMillis() < deadline) {
+            System.gc();
+        }
+
+        assertEquals(0, leaked.getCount());
+        assertTrue(deleted.contains(0x3000L));
+        assertNotNull(allocation[0]);
+        // a closed Mat is never reported, and nothing is deleted twice
+        assertFalse(reported.contains(0x4000L));
+        assertTrue(deletedTwice.isEmpty());
+    }
+
+    // keeps the Mat out of the test's stack frame so that it can be collected
+    private static void allocate(long nativeObj) {
+        new Mat(nativeObj);
+    }
+}
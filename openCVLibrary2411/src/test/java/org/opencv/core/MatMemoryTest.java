@@ -0,0 +1,187 @@
+package org.opencv.core;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs without the native library, see {@link FakeNatives}. The totals are global, so the
+ * tests compare against the values at their start and use stage tags of their own.
+ */
+public class MatMemoryTest {
+
+    private final FakeNatives natives = new FakeNatives();
+
+    @Before
+    public void setUp() {
+        natives.install();
+        // other tests may leave Mats behind whose sizes this fake does not know
+        MatMemory.setByteAccounting(true);
+        MatMemory.measure();
+        MatMemory.setByteAccounting(false);
+    }
+
+    @After
+    public void tearDown() {
+        MatMemory.setByteAccounting(false);
+        MatMemory.setStage(null);
+        MatMemory.stopDump();
+        natives.uninstall();
+    }
+
+    private static long count(String stage) {
+        MatMemory.StageUsage usage = MatMemory.snapshot().stages.get(stage);
+        return usage == null ? 0 : usage.count;
+    }
+
+    private static long bytes(String stage) {
+        MatMemory.StageUsage usage = MatMemory.snapshot().stages.get(stage);
+        return usage == null ? 0 : usage.bytes;
+    }
+
+    @Test
+    public void countsAreAttributedToTheStage() {
+        long live = MatMemory.liveCount();
+        assertNull(MatMemory.setStage("counts.a"));
+        Mat a1 = new Mat(0x10000L);
+        Mat a2 = new Mat(0x10010L);
+        assertEquals("counts.a", MatMemory.setStage("counts.b"));
+        Mat b = new Mat(0x10020L);
+        assertEquals("counts.b", MatMemory.setStage(null));
+        assertNull(MatMemory.getStage());
+
+        assertEquals(live + 3, MatMemory.liveCount());
+        assertEquals(2, count("counts.a"));
+        assertEquals(1, count("counts.b"));
+
+        a1.close();
+        assertEquals(1, count("counts.a"));
+        a2.close();
+        b.close();
+        // stages without live Mats are left out
+        assertFalse(MatMemory.snapshot().stages.containsKey("counts.a"));
+        assertFalse(MatMemory.snapshot().stages.containsKey("counts.b"));
+        assertEquals(live, MatMemory.liveCount());
+    }
+
+    @Test
+    public void stageIsPerThread() throws Exception {
+        MatMemory.setStage("thread.main");
+        final Mat[] other = new Mat[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                other[0] = new Mat(0x11000L);
+            }
+        });
+        thread.start();
+        thread.join();
+        Mat main = new Mat(0x11010L);
+
+        assertEquals(1, count("thread.main"));
+        other[0].close();
+        main.close();
+        assertEquals(0, count("thread.main"));
+    }
+
+    @Test
+    public void bytesFollowReleaseAndClose() {
+        MatMemory.setByteAccounting(true);
+        MatMemory.setStage("bytes");
+        long live = MatMemory.liveBytes();
+
+        // measured at construction
+        natives.allocate(0x12000L, 1000);
+        Mat mat = new Mat(0x12000L);
+        assertEquals(live + 1000, MatMemory.liveBytes());
+        assertEquals(1000, bytes("bytes"));
+
+        // release() drops the data and re-measures right away
+        mat.release();
+        assertEquals(live, MatMemory.liveBytes());
+        assertEquals(0, bytes("bytes"));
+
+        // reallocated behind the Mat's back, picked up by the next measurement
+        natives.allocate(0x12000L, 3000);
+        MatMemory.measure();
+        assertEquals(live + 3000, MatMemory.liveBytes());
+
+        // a second header on the same data is counted once
+        natives.share(0x12010L, 0x12000L);
+        Mat shared = new Mat(0x12010L);
+        assertEquals(3000, bytes("bytes"));
+        assertEquals(live + 3000, MatMemory.liveBytes());
+
+        shared.close();
+        mat.close();
+        assertEquals(live, MatMemory.liveBytes());
+        assertEquals(0, count("bytes"));
+    }
+
+    @Test
+    public void highWaterMarkSurvivesRelease() {
+        MatMemory.setByteAccounting(true);
+        MatMemory.resetHighWater();
+        long live = MatMemory.liveBytes();
+        assertEquals(live, MatMemory.highWaterBytes());
+
+        natives.allocate(0x13000L, 4000);
+        Mat small = new Mat(0x13000L);
+        natives.allocate(0x13010L, 6000);
+        Mat large = new Mat(0x13010L);
+        assertEquals(live + 10000, MatMemory.highWaterBytes());
+
+        large.release();
+        assertEquals(live + 4000, MatMemory.liveBytes());
+        assertEquals(live + 10000, MatMemory.highWaterBytes());
+        large.close();
+        small.close();
+        assertEquals(live, MatMemory.liveBytes());
+        assertEquals(live + 10000, MatMemory.snapshot().highWaterBytes);
+
+        MatMemory.resetHighWater();
+        assertEquals(live, MatMemory.highWaterBytes());
+    }
+
+    @Test
+    public void countsAreKeptWithoutByteAccounting() {
+        MatMemory.setStage("nobytes");
+        natives.allocate(0x14000L, 5000);
+        long live = MatMemory.liveBytes();
+
+        Mat mat = new Mat(0x14000L);
+        mat.release();
+
+        assertEquals(1, count("nobytes"));
+        assertEquals(0, bytes("nobytes"));
+        assertEquals(live, MatMemory.liveBytes());
+        mat.close();
+    }
+
+    @Test
+    public void dumpRunsUntilStopped() throws Exception {
+        final CountDownLatch three = new CountDownLatch(3);
+        final AtomicInteger snapshots = new AtomicInteger();
+        MatMemory.startDump(5, new MatMemory.SnapshotListener() {
+            @Override
+            public void onSnapshot(MatMemory.Snapshot snapshot) {
+                assertNotNull(snapshot.stages);
+                snapshots.incrementAndGet();
+                three.countDown();
+            }
+        });
+        assertTrue(three.await(10, TimeUnit.SECONDS));
+
+        MatMemory.stopDump();
+        // a snapshot that was already running may still arrive
+        int stopped = snapshots.get();
+        Thread.sleep(100);
+        assertTrue(snapshots.get() <= stopped + 1);
+    }
+}
@@ -0,0 +1,231 @@
+package org.opencv.features2d;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Sorting, selection and filtering of {@link FeatureBuffer}, checked through KeyPointBuffer
+ * (strongest response first) and DMatchBuffer (smallest distance first). Every element
+ * carries its original index in an attribute that is not compared, so the tests can check
+ * that all arrays move together.
+ */
+public class FeatureBufferTest {
+
+    /**
+     * KeyPoints whose x is the original index, with responses drawn from only a few values so
+     * that there are many ties.
+     */
+    private static KeyPointBuffer keyPoints(int n, int distinct, long seed) {
+        Random random = new Random(seed);
+        KeyPointBuffer buffer = new KeyPointBuffer();
+        for (int i = 0; i < n; i++)
+            buffer.add(i, -i, 1, 0, random.nextInt(distinct), i % 3, i);
+        return buffer;
+    }
+
+    private static float[] responses(KeyPointBuffer buffer) {
+        return Arrays.copyOf(buffer.response, buffer.size());
+    }
+
+    /**
+     * @return the responses, strongest first
+     */
+    private static float[] sortedDescending(float[] values) {
+        float[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (int i = 0, j = sorted.length - 1; i < j; i++, j--) {
+            float f = sorted[i]; sorted[i] = sorted[j]; sorted[j] = f;
+        }
+        return sorted;
+    }
+
+    /**
+     * Checks that every element still has the attributes it was added with and that no
+     * element appears twice.
+     */
+    private static void assertConsistent(KeyPointBuffer buffer, float[] original) {
+        boolean[] seen = new boolean[original.length];
+        for (int i = 0; i < buffer.size(); i++) {
+            int id = (int) buffer.x[i];
+            assertFalse("duplicate " + id, seen[id]);
+            seen[id] = true;
+            assertEquals(-id, buffer.y[i], 0);
+            assertEquals(id % 3, buffer.octave[i]);
+            assertEquals(id, buffer.class_id[i]);
+            assertEquals(Float.floatToIntBits(original[id]), Float.floatToIntBits(buffer.response[i]));
+        }
+    }
+
+    @Test
+    public void sortOrdersByResponseWithTies() {
+        // below and above the insertion sort threshold
+        for (int n : new int[]{0, 1, 2, 15, 16, 17, 100, 1000}) {
+            KeyPointBuffer buffer = keyPoints(n, 5, n);
+            float[] original = responses(buffer);
+
+            buffer.sortByResponse();
+
+            assertEquals(n, buffer.size());
+            assertConsistent(buffer, original);
+            assertArrayEquals(sortedDescending(original), responses(buffer), 0);
+        }
+    }
+
+    @Test
+    public void sortHandlesAllEqualAndPresortedInput() {
+        KeyPointBuffer equal = keyPoints(200, 1, 1);
+        equal.sortByResponse();
+        assertConsistent(equal, responses(keyPoints(200, 1, 1)));
+
+        KeyPointBuffer ascending = new KeyPointBuffer();
+        for (int i = 0; i < 200; i++)
+            ascending.add(i, -i, 1, 0, i, i % 3, i);
+        float[] original = responses(ascending);
+        ascending.sortByResponse();
+        assertConsistent(ascending, original);
+        assertArrayEquals(sortedDescending(original), responses(ascending), 0);
+    }
+
+    @Test
+    public void retainFirstKeepsTheStrongest() {
+        int size = 300;
+        for (int n : new int[]{0, 1, 7, 150, size - 1, size, size + 10}) {
+            KeyPointBuffer buffer = keyPoints(size, 10, 7);
+            float[] original = responses(buffer);
+
+            buffer.retainTopByResponse(n);
+
+            assertEquals(Math.min(n, size), buffer.size());
+            assertConsistent(buffer, original);
+            // with ties any of the equal elements may be kept, but the kept values are the top n
+            float[] kept = sortedDescending(responses(buffer));
+            assertArrayEquals(Arrays.copyOf(sortedDescending(original), buffer.size()), kept, 0);
+        }
+    }
+
+    @Test
+    public void retainFirstOnEmptyBuffer() {
+        KeyPointBuffer buffer = new KeyPointBuffer();
+        buffer.retainTopByResponse(0);
+        assertTrue(buffer.isEmpty());
+        buffer.retainTopByResponse(5);
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void retainFirstRejectsNegativeCount() {
+        keyPoints(10, 3, 1).retainTopByResponse(-1);
+    }
+
+    @Test
+    public void nanResponsesSortFirst() {
+        // Float.compare orders NaN above every other value, so NaN counts as the strongest
+        KeyPointBuffer buffer = keyPoints(64, 8, 3);
+        for (int i = 0; i < buffer.size(); i += 9)
+            buffer.response[i] = Float.NaN;
+        int nans = (buffer.size() + 8) / 9;
+        float[] original = responses(buffer);
+
+        buffer.sortByResponse();
+
+        assertConsistent(buffer, original);
+        for (int i = 0; i < buffer.size(); i++)
+            assertEquals(i < nans, Float.isNaN(buffer.response[i]));
+        assertArrayEquals(sortedDescending(original), responses(buffer), 0);
+
+        KeyPointBuffer top = keyPoints(64, 8, 3);
+        for (int i = 0; i < top.size(); i += 9)
+            top.response[i] = Float.NaN;
+        top.retainTopByResponse(nans);
+        assertEquals(nans, top.size());
+        for (int i = 0; i < top.size(); i++)
+            assertTrue(Float.isNaN(top.response[i]));
+    }
+
+    @Test
+    public void dmatchesSortByDistanceAscending() {
+        Random random = new Random(5);
+        DMatchBuffer matches = new DMatchBuffer();
+        for (int i = 0; i < 100; i++)
+            matches.add(i, i * 2, i % 4, random.nextInt(6));
+        matches.distance[10] = Float.NaN;
+
+        matches.sortByDistance();
+
+        for (int i = 0; i < matches.size(); i++) {
+            int id = matches.queryIdx[i];
+            assertEquals(id * 2, matches.trainIdx[i]);
+            assertEquals(id % 4, matches.imgIdx[i]);
+            if (i > 0)
+                assertTrue(Float.compare(matches.distance[i - 1], matches.distance[i]) <= 0);
+        }
+        // NaN counts as the largest distance
+        assertEquals(10, matches.queryIdx[matches.size() - 1]);
+
+        matches.retainBestByDistance(3);
+        assertEquals(3, matches.size());
+        for (int i = 0; i < 3; i++)
+            assertEquals(0, matches.distance[i], 0);
+    }
+
+    @Test
+    public void retainAcceptedKeepsOrder() {
+        KeyPointBuffer buffer = keyPoints(50, 4, 9);
+        float[] original = responses(buffer);
+
+        buffer.filter(new KeyPointBuffer.Filter() {
+            @Override
+            public boolean accept(KeyPointBuffer keyPoints, int i) {
+                return keyPoints.class_id[i] % 3 != 0;
+            }
+        });
+
+        assertConsistent(buffer, original);
+        int expected = 0;
+        for (int i = 0; i < buffer.size(); i++) {
+            while (expected % 3 == 0)
+                expected++;
+            assertEquals(expected++, buffer.class_id[i]);
+        }
+        assertEquals(50 - 17, buffer.size());
+    }
+
+    @Test
+    public void retainAcceptedAllOrNone() {
+        KeyPointBuffer all = keyPoints(20, 4, 2);
+        float[] original = responses(all);
+        all.filter(new KeyPointBuffer.Filter() {
+            @Override
+            public boolean accept(KeyPointBuffer keyPoints, int i) {
+                return true;
+            }
+        });
+        assertEquals(20, all.size());
+        for (int i = 0; i < all.size(); i++)
+            assertEquals(i, all.class_id[i]);
+        assertConsistent(all, original);
+
+        KeyPointBuffer none = keyPoints(20, 4, 2);
+        none.filter(new KeyPointBuffer.Filter() {
+            @Override
+            public boolean accept(KeyPointBuffer keyPoints, int i) {
+                return false;
+            }
+        });
+        assertTrue(none.isEmpty());
+
+        KeyPointBuffer empty = new KeyPointBuffer();
+        empty.filter(new KeyPointBuffer.Filter() {
+            @Override
+            public boolean accept(KeyPointBuffer keyPoints, int i) {
+                fail("no elements to accept");
+                return true;
+            }
+        });
+        assertTrue(empty.isEmpty());
+    }
+}
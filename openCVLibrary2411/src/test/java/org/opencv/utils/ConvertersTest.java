@@ -0,0 +1,235 @@
+package org.opencv.utils;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.FakeNatives;
+import org.opencv.core.Mat;
+
+/**
+ * The primitive overloads, run without the native library: the Mat keeps its elements in a
+ * Java array and, like the native put() and get(), copies at most as many elements as it has.
+ */
+public class ConvertersTest {
+
+    private static class ArrayMat extends Mat {
+        int rows;
+        int cols;
+        int type;
+        Object data;
+        int creates;
+        boolean released;
+
+        ArrayMat(long addr) {
+            super(addr);
+        }
+
+        ArrayMat with(int rows, int type, Object data) {
+            this.rows = rows;
+            this.cols = 1;
+            this.type = type;
+            this.data = data;
+            return this;
+        }
+
+        private int elements() {
+            return rows * cols * CvType.channels(type);
+        }
+
+        private int copy(Object from, Object to, int length) {
+            if (length % CvType.channels(type) != 0)
+                throw new UnsupportedOperationException("length is not a multiple of the channel count");
+            int n = Math.min(length, elements());
+            System.arraycopy(from, 0, to, 0, n);
+            return n;
+        }
+
+        @Override
+        public void create(int rows, int cols, int type) {
+            creates++;
+            this.rows = rows;
+            this.cols = cols;
+            this.type = type;
+            data = CvType.depth(type) == CvType.CV_32S ? new int[elements()]
+                    : CvType.depth(type) == CvType.CV_32F ? new float[elements()] : new double[elements()];
+        }
+
+        @Override
+        public void release() {
+            released = true;
+            rows = 0;
+            cols = 0;
+        }
+
+        @Override
+        public int rows() {
+            return rows;
+        }
+
+        @Override
+        public int cols() {
+            return cols;
+        }
+
+        @Override
+        public int type() {
+            return type;
+        }
+
+        @Override
+        public int put(int row, int col, int[] src) {
+            return copy(src, data, src.length) * 4;
+        }
+
+        @Override
+        public int put(int row, int col, float[] src) {
+            return copy(src, data, src.length) * 4;
+        }
+
+        @Override
+        public int put(int row, int col, double... src) {
+            return copy(src, data, src.length) * 8;
+        }
+
+        @Override
+        public int get(int row, int col, int[] dst) {
+            return copy(data, dst, dst.length) * 4;
+        }
+
+        @Override
+        public int get(int row, int col, float[] dst) {
+            return copy(data, dst, dst.length) * 4;
+        }
+
+        @Override
+        public int get(int row, int col, double[] dst) {
+            return copy(data, dst, dst.length) * 8;
+        }
+
+        @Override
+        public String toString() {
+            return "ArrayMat [ " + rows + "*" + cols + "*" + CvType.typeToString(type) + " ]";
+        }
+    }
+
+    private final FakeNatives natives = new FakeNatives();
+    private ArrayMat mat;
+
+    @Before
+    public void setUp() {
+        natives.install();
+        mat = new ArrayMat(0x30000L);
+    }
+
+    @After
+    public void tearDown() {
+        mat.close();
+        natives.uninstall();
+    }
+
+    @Test
+    public void pointsAreWrittenFromALargerBuffer() {
+        int[] xy = {1, 2, 3, 4, 5, 6, 7, 8};
+
+        Converters.vector_Point_to_Mat(xy, 3, mat);
+
+        assertEquals(1, mat.creates);
+        assertEquals(3, mat.rows());
+        assertEquals(CvType.CV_32SC2, mat.type());
+        assertArrayEquals(new int[]{1, 2, 3, 4, 5, 6}, (int[]) mat.data);
+    }
+
+    @Test
+    public void zeroCountReleasesTheMat() {
+        Converters.vector_Point2f_to_Mat((float[]) null, 0, mat);
+        assertTrue(mat.released);
+        assertEquals(0, mat.creates);
+
+        mat.released = false;
+        Converters.vector_DMatch_to_Mat(new double[4], 0, mat);
+        assertTrue(mat.released);
+    }
+
+    @Test
+    public void undersizedBufferIsRejected() {
+        // too short, not a multiple of the channel count, negative count, null with items
+        Object[][] cases = {
+                {new int[5], 3},
+                {new int[7], 3},
+                {new int[8], -1},
+                {null, 1},
+        };
+        for (Object[] c : cases) {
+            try {
+                Converters.vector_Point_to_Mat((int[]) c[0], (Integer) c[1], mat);
+                fail("accepted " + c[1] + " points");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("can't hold"));
+            }
+        }
+        try {
+            Converters.vector_KeyPoint_to_Mat(new double[7 * 2 - 1], 2, mat);
+            fail("accepted 2 KeyPoints");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("7 channels"));
+        }
+        try {
+            Converters.vector_DMatch_to_Mat(new double[4 * 3 + 2], 3, mat);
+            fail("accepted 3 DMatches");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("4 channels"));
+        }
+        // nothing was touched
+        assertEquals(0, mat.creates);
+        assertFalse(mat.released);
+    }
+
+    @Test
+    public void largeEnoughBufferIsReused() {
+        mat.with(3, CvType.CV_32FC2, new float[]{1, 2, 3, 4, 5, 6});
+        float[] xy = new float[10];
+
+        float[] read = Converters.Mat_to_vector_Point2f(mat, xy);
+
+        assertSame(xy, read);
+        assertArrayEquals(new float[]{1, 2, 3, 4, 5, 6, 0, 0, 0, 0}, read, 0);
+
+        // exactly large enough
+        double[] kps = new double[7 * 2];
+        mat.with(2, CvType.CV_64FC(7), new double[7 * 2]);
+        assertSame(kps, Converters.Mat_to_vector_KeyPoint(mat, kps));
+
+        // an empty Mat leaves even a null buffer alone
+        mat.with(0, CvType.CV_32SC2, new int[0]);
+        int[] none = Converters.Mat_to_vector_Point(mat, (int[]) null);
+        assertEquals(0, none.length);
+    }
+
+    @Test
+    public void undersizedBufferIsReplaced() {
+        mat.with(3, CvType.CV_32SC2, new int[]{1, 2, 3, 4, 5, 6});
+
+        int[] small = new int[4];
+        int[] read = Converters.Mat_to_vector_Point(mat, small);
+        assertNotSame(small, read);
+        assertArrayEquals(new int[]{1, 2, 3, 4, 5, 6}, read);
+
+        // long enough, but not a multiple of the channel count
+        int[] odd = new int[7];
+        assertNotSame(odd, Converters.Mat_to_vector_Point(mat, odd));
+        assertEquals(6, Converters.Mat_to_vector_Point(mat, (int[]) null).length);
+
+        mat.with(2, CvType.CV_64FC4, new double[]{1, 2, 3, 4, 5, 6, 7, 8});
+        double[] matches = Converters.Mat_to_vector_DMatch(mat, new double[6]);
+        assertArrayEquals(new double[]{1, 2, 3, 4, 5, 6, 7, 8}, matches, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongTypeIsRejected() {
+        mat.with(3, CvType.CV_32FC2, new float[6]);
+        Converters.Mat_to_vector_Point(mat, new int[6]);
+    }
+}